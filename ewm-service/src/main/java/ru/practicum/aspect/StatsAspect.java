@@ -8,7 +8,7 @@ import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
 import org.springframework.stereotype.Component;
 import ru.practicum.service.BaseService;
-import ru.practicum.service.StatsTrackingService;
+import ru.practicum.service.HitRecorder;
 
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -17,8 +17,8 @@ import jakarta.servlet.http.HttpServletRequest;
 @Component
 @RequiredArgsConstructor
 public class StatsAspect {
-    private final StatsTrackingService statsTrackingService;
     private final BaseService baseService;
+    private final HitRecorder hitRecorder;
 
     @Pointcut("@annotation(org.springframework.web.bind.annotation.GetMapping) && " +
             "within(ru.practicum.controller.PublicController)")
@@ -33,40 +33,9 @@ public class StatsAspect {
 
             log.debug("Аспект сработал для URI: {}, IP: {}", uri, clientIp);
 
-            statsTrackingService.trackHit(request);
-
-            if (isEventDetailsRequest(uri)) {
-                try {
-                    Long eventId = extractEventIdFromUri(uri);
-                    if (eventId != null) {
-                        log.debug("Обновление просмотров для события ID: {}", eventId);
-                        statsTrackingService.updateEventViewsAsync(eventId);
-                    }
-                } catch (Exception e) {
-                    log.debug("Could not extract event ID from URI: {}", uri);
-                }
-            }
-
+            hitRecorder.record(uri, clientIp);
         } catch (Exception e) {
             log.error("Ошибка в аспекте при сохранении статистики", e);
         }
     }
-
-    private boolean isEventDetailsRequest(String uri) {
-        return uri.startsWith("/events/") && !uri.equals("/events");
-    }
-
-    private Long extractEventIdFromUri(String uri) {
-        try {
-            String[] parts = uri.split("/");
-            for (int i = 0; i < parts.length; i++) {
-                if ("events".equals(parts[i]) && i + 1 < parts.length) {
-                    return Long.parseLong(parts[i + 1]);
-                }
-            }
-        } catch (NumberFormatException e) {
-            log.debug("Invalid event ID in URI: {}", uri);
-        }
-        return null;
-    }
 }
@@ -9,7 +9,7 @@ import java.time.LocalDateTime;
  * Сущность события.
  */
 @Entity
-@Table(name = "events")
+@Table(name = "events", indexes = @Index(name = "idx_events_views", columnList = "views"))
 @Getter
 @Setter
 @NoArgsConstructor
@@ -114,8 +114,10 @@ public class Event {
     @Column(nullable = false, length = 120)
     private String title;
 
-    // рассчитывается на основе статистики, не сохраняется в БД
-    @Transient
+    /**
+     * Количество уникальных просмотров. Периодически синхронизируется с сервисом статистики.
+     */
+    @Column(name = "views", nullable = false, columnDefinition = "BIGINT NOT NULL DEFAULT 0")
     @Builder.Default
     private Long views = 0L;
 }
@@ -4,7 +4,11 @@ package ru.practicum.repository;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.practicum.model.Event;
+import ru.practicum.model.EventState;
 
 import java.util.List;
 import java.util.Optional;
@@ -38,4 +42,22 @@ public interface EventRepository extends JpaRepository<Event, Long>, JpaSpecific
      */
     boolean existsByCategoryId(Long categoryId);
 
+    /**
+     * Находит ID событий в указанном состоянии, следующие за {@code afterId}, в порядке возрастания.
+     */
+    @Query("SELECT e.id FROM Event e WHERE e.state = :state AND e.id > :afterId ORDER BY e.id")
+    List<Long> findIdsByStateAfter(@Param("state") EventState state,
+                                   @Param("afterId") Long afterId,
+                                   Pageable pageable);
+
+    /**
+     * Обновляет количество просмотров для набора событий одним запросом.
+     */
+    @Modifying
+    @Query(value = "UPDATE events e SET views = v.views " +
+            "FROM unnest(CAST(:ids AS BIGINT[]), CAST(:views AS BIGINT[])) AS v(id, views) " +
+            "WHERE e.id = v.id AND e.views IS DISTINCT FROM v.views",
+            nativeQuery = true)
+    int updateViews(@Param("ids") Long[] ids, @Param("views") Long[] views);
+
 }
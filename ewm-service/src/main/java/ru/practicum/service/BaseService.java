@@ -4,6 +4,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import ru.practicum.model.*;
 import ru.practicum.repository.*;
@@ -12,6 +13,7 @@ import ru.practicum.exception.*;
 import jakarta.servlet.http.HttpServletRequest;
 
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 
 /**
@@ -21,6 +23,8 @@ import java.util.List;
 @Service
 @RequiredArgsConstructor
 public class BaseService {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     protected final UserRepository userRepository;
     protected final CategoryRepository categoryRepository;
     protected final EventRepository eventRepository;
@@ -68,33 +72,29 @@ public class BaseService {
     }
 
     /**
-     * Парсит строку в LocalDateTime
+     * Создает объект пагинации с сортировкой
      */
-    protected LocalDateTime parseDateTime(String dateTimeStr) {
-        return statsTrackingService.parseDateTime(dateTimeStr);
+    protected Pageable createPageRequest(int from, int size, Sort sort) {
+        return PageRequest.of(from / size, size, sort);
     }
 
     /**
-     * Форматирует LocalDateTime в строку
+     * Парсит строку в LocalDateTime
      */
-    protected String formatDateTime(LocalDateTime dateTime) {
-        return statsTrackingService.formatDateTime(dateTime);
+    protected LocalDateTime parseDateTime(String dateTimeStr) {
+        if (dateTimeStr == null || dateTimeStr.isEmpty()) {
+            return null;
+        }
+        return LocalDateTime.parse(dateTimeStr.replace(" ", "T"));
     }
 
-
     /**
-     * Отправляет статистику
+     * Форматирует LocalDateTime в строку
      */
-    public void sendStats(String clientIp, String uri) {
-        statsTrackingService.trackHit(uri, clientIp);
+    protected String formatDateTime(LocalDateTime dateTime) {
+        return dateTime.format(FORMATTER);
     }
 
-    /**
-     * Отправляет статистику на основе HttpServletRequest
-     */
-    public void sendStats(HttpServletRequest request) {
-        statsTrackingService.trackHit(request);
-    }
 
     /**
      * Получает IP клиента
@@ -138,11 +138,4 @@ public class BaseService {
         return userRepository.existsById(userId);
     }
 
-    /**
-     * Получает актуальное количество просмотров для события
-     */
-    public int getEventViews(Long eventId) {
-        return statsTrackingService.getEventViews(eventId);
-    }
-
 }
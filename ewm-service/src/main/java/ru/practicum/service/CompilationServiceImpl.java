@@ -3,6 +3,7 @@ package ru.practicum.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.dto.*;
 import ru.practicum.exception.NotFoundException;
@@ -15,6 +16,9 @@ import ru.practicum.exception.ConflictException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -27,47 +31,55 @@ import java.util.stream.Collectors;
 public class CompilationServiceImpl implements CompilationService {
     private final CompilationRepository compilationRepository;
     private final BaseService baseService;
+    private final EventViewsEnricher eventViewsEnricher;
 
     /**
      * Получение всех подборок
      */
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<CompilationDto> getCompilations(Boolean pinned, int from, int size) {
         log.debug("Getting compilations: pinned={}, from={}, size={}", pinned, from, size);
 
-        List<Compilation> compilations;
-        if (pinned != null) {
-            compilations = compilationRepository.findByPinned(pinned, baseService.createPageRequest(from, size));
-        } else {
-            compilations = compilationRepository.findAll(baseService.createPageRequest(from, size)).getContent();
-        }
-
-        return compilations.stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+        return withViews(true, () -> {
+            List<Compilation> compilations;
+            if (pinned != null) {
+                compilations = compilationRepository.findByPinned(pinned, baseService.createPageRequest(from, size));
+            } else {
+                compilations = compilationRepository.findAll(baseService.createPageRequest(from, size)).getContent();
+            }
+            return compilations;
+        });
     }
 
     /**
      * Получение подборки по ID
      */
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public CompilationDto getCompilation(Long compilationId) {
         log.debug("Getting compilation id={}", compilationId);
 
-        Compilation compilation = compilationRepository.findById(compilationId)
-                .orElseThrow(() -> new NotFoundException("Compilation with id=" + compilationId + " was not found"));
-
-        return convertToDto(compilation);
+        return withViews(true, () -> {
+            Compilation compilation = compilationRepository.findById(compilationId)
+                    .orElseThrow(() -> new NotFoundException(
+                            "Compilation with id=" + compilationId + " was not found"));
+            return List.of(compilation);
+        }).get(0);
     }
 
     /**
      * Создание подборки
      */
     @Override
-    @Transactional
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public CompilationDto createCompilation(NewCompilationDto newCompilationDto) {
         log.debug("Creating compilation: {}", newCompilationDto);
 
+        return withViews(false, () -> List.of(saveCompilation(newCompilationDto))).get(0);
+    }
+
+    private Compilation saveCompilation(NewCompilationDto newCompilationDto) {
         if (compilationRepository.existsByTitle(newCompilationDto.getTitle())) {
             throw new ConflictException("Compilation with title=" + newCompilationDto.getTitle() + " already exists");
         }
@@ -84,8 +96,7 @@ public class CompilationServiceImpl implements CompilationService {
 
         Compilation savedCompilation = compilationRepository.save(compilation);
         log.debug("Compilation created with id={}", savedCompilation.getId());
-
-        return convertToDto(savedCompilation);
+        return savedCompilation;
     }
 
     /**
@@ -108,10 +119,14 @@ public class CompilationServiceImpl implements CompilationService {
      * Обновление подборки
      */
     @Override
-    @Transactional
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public CompilationDto updateCompilation(Long compilationId, UpdateCompilationRequest updateRequest) {
         log.debug("Updating compilation id={}: {}", compilationId, updateRequest);
 
+        return withViews(false, () -> List.of(applyUpdate(compilationId, updateRequest))).get(0);
+    }
+
+    private Compilation applyUpdate(Long compilationId, UpdateCompilationRequest updateRequest) {
         Compilation compilation = compilationRepository.findById(compilationId)
                 .orElseThrow(() -> new NotFoundException("Compilation with id=" + compilationId + " was not found"));
 
@@ -134,8 +149,28 @@ public class CompilationServiceImpl implements CompilationService {
             compilation.setPinned(updateRequest.getPinned());
         }
 
-        Compilation updatedCompilation = compilationRepository.save(compilation);
-        return convertToDto(updatedCompilation);
+        return compilationRepository.save(compilation);
+    }
+
+    /**
+     * Загружает или изменяет подборки в транзакции и конвертирует их в DTO, получая просмотры
+     * всех входящих в них событий одним запросом; ответ статистики ожидается после завершения транзакции
+     */
+    private List<CompilationDto> withViews(boolean readOnly, Supplier<List<Compilation>> work) {
+        return eventViewsEnricher.inTransactionWithViews(readOnly, () -> {
+            List<Compilation> compilations = work.get();
+            List<Event> events = compilations.stream()
+                    .flatMap(compilation -> compilation.getEvents().stream())
+                    .collect(Collectors.toList());
+            CompletableFuture<Map<Long, Long>> views = eventViewsEnricher.fetchViewsAsync(events);
+
+            List<CompilationDto> dtos = compilations.stream()
+                    .map(this::convertToDto)
+                    .collect(Collectors.toList());
+            return new EventViewsEnricher.Pending<>(dtos, views);
+        }, dtos -> dtos.stream()
+                .flatMap(dto -> dto.getEvents().stream())
+                .collect(Collectors.toList()), EventShortDto::getId, EventShortDto::setViews);
     }
 
     private CompilationDto convertToDto(Compilation compilation) {
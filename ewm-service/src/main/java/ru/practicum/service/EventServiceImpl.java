@@ -3,8 +3,10 @@ package ru.practicum.service;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.dto.*;
 import ru.practicum.model.*;
@@ -14,6 +16,7 @@ import ru.practicum.model.Location;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -26,22 +29,22 @@ import java.util.stream.Collectors;
 public class EventServiceImpl implements EventService {
     private final EventRepository eventRepository;
     private final BaseService baseService;
-    private final StatsTrackingService statsTrackingService;
+    private final EventViewsCache eventViewsCache;
+    private final EventViewsEnricher eventViewsEnricher;
 
 
     /**
      * Получение событий, добавленных текущим пользователем
      */
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<EventShortDto> getEventsByUser(Long userId, int from, int size) {
         log.debug("Getting events for user id={}, from={}, size={}", userId, from, size);
 
-        baseService.getUserById(userId);
-
-        return eventRepository.findByInitiatorId(userId, baseService.createPageRequest(from, size))
-                .stream()
-                .map(this::convertToShortDto)
-                .collect(Collectors.toList());
+        return eventViewsEnricher.loadWithViews(() -> {
+            baseService.getUserById(userId);
+            return eventRepository.findByInitiatorId(userId, baseService.createPageRequest(from, size));
+        }, this::convertToShortDto, EventShortDto::getId, EventShortDto::setViews);
     }
 
     /**
@@ -135,6 +138,7 @@ public class EventServiceImpl implements EventService {
      * Получение событий с фильтрацией для администратора
      */
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<EventFullDto> getEventsForAdmin(List<Long> users, List<String> states,
                                                 List<Long> categories, String rangeStart,
                                                 String rangeEnd, int from, int size) {
@@ -181,13 +185,13 @@ public class EventServiceImpl implements EventService {
             spec = spec.and((root, query, cb) -> cb.lessThanOrEqualTo(root.get("eventDate"), end));
         }
 
-        List<Event> events = eventRepository.findAll(spec, baseService.createPageRequest(from, size)).getContent();
-
-        log.debug("Found {} events after filtering", events.size());
-
-        return events.stream()
-                .map(this::convertToFullDto)
-                .collect(Collectors.toList());
+        Specification<Event> filter = spec;
+        return eventViewsEnricher.loadWithViews(() -> {
+            List<Event> events = eventRepository.findAll(filter, baseService.createPageRequest(from, size))
+                    .getContent();
+            log.debug("Found {} events after filtering", events.size());
+            return events;
+        }, this::convertToFullDto, EventFullDto::getId, EventFullDto::setViews);
     }
 
     /**
@@ -236,7 +240,7 @@ public class EventServiceImpl implements EventService {
      * Публичный поиск событий
      */
     @Override
-    @Transactional(readOnly = true)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<EventShortDto> getEventsPublic(String text, List<Long> categories, Boolean paid,
                                                String rangeStart, String rangeEnd, Boolean onlyAvailable,
                                                String sort, int from, int size, HttpServletRequest request) {
@@ -290,22 +294,28 @@ public class EventServiceImpl implements EventService {
             spec = spec.and((root, query, cb) -> cb.lessThanOrEqualTo(root.get("eventDate"), finalEndDateTime));
         }
 
-        List<Event> events = eventRepository.findAll(spec, baseService.createPageRequest(from, size)).getContent();
-
         if (Boolean.TRUE.equals(onlyAvailable)) {
-            events = events.stream()
-                    .filter(event -> event.getParticipantLimit() == 0 ||
-                            event.getConfirmedRequests() < event.getParticipantLimit())
-                    .collect(Collectors.toList());
+            spec = spec.and((root, query, cb) -> cb.or(
+                    cb.equal(root.get("participantLimit"), 0),
+                    cb.lessThan(root.get("confirmedRequests"), root.get("participantLimit"))));
         }
 
-        List<Event> sortedEvents = sortEvents(events, sort);
-
-        log.debug("Found {} events after public filtering", sortedEvents.size());
+        Specification<Event> filter = spec;
+        Sort order = resolveSort(sort);
+        Supplier<List<Event>> loader = () -> {
+            List<Event> events = eventRepository.findAll(filter,
+                    baseService.createPageRequest(from, size, order)).getContent();
+            log.debug("Found {} events after public filtering", events.size());
+            return events;
+        };
 
-        return sortedEvents.stream()
-                .map(this::convertToShortDto)
-                .collect(Collectors.toList());
+        // Страница отсортирована по сохраненным просмотрам, поэтому и в ответе остаются они:
+        // подстановка актуальных значений нарушила бы порядок
+        if (isViewsSort(sort)) {
+            return eventViewsEnricher.load(loader, this::convertToShortDto);
+        }
+        return eventViewsEnricher.loadWithViews(loader, this::convertToShortDto,
+                EventShortDto::getId, EventShortDto::setViews);
     }
 
     /**
@@ -322,9 +332,9 @@ public class EventServiceImpl implements EventService {
             throw new NotFoundException("Event with id=" + eventId + " was not found");
         }
 
-        statsTrackingService.updateEventViews(eventId);
-
-        return convertToFullDto(event);
+        EventFullDto dto = convertToFullDto(event);
+        dto.setViews(eventViewsCache.getViews(eventId, event.getViews() != null ? event.getViews() : 0L));
+        return dto;
     }
 
     /**
@@ -471,25 +481,25 @@ public class EventServiceImpl implements EventService {
     }
 
     /**
-     * Сортировка событий
+     * Сортировка событий на стороне БД
      */
-    private List<Event> sortEvents(List<Event> events, String sort) {
+    private Sort resolveSort(String sort) {
         if (sort == null) {
-            return events;
+            return Sort.unsorted();
         }
 
         switch (sort.toUpperCase()) {
             case "EVENT_DATE":
-                return events.stream()
-                        .sorted(Comparator.comparing(Event::getEventDate))
-                        .collect(Collectors.toList());
+                return Sort.by(Sort.Order.asc("eventDate"), Sort.Order.asc("id"));
             case "VIEWS":
-                return events.stream()
-                        .sorted(Comparator.comparing(Event::getViews).reversed())
-                        .collect(Collectors.toList());
+                return Sort.by(Sort.Order.desc("views"), Sort.Order.asc("id"));
             default:
-                return events;
+                return Sort.unsorted();
         }
     }
+
+    private boolean isViewsSort(String sort) {
+        return "VIEWS".equalsIgnoreCase(sort);
+    }
 }
 
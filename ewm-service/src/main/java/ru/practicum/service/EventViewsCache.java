@@ -0,0 +1,237 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import ru.practicum.StatsClient;
+import ru.practicum.ViewStats;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Локальный кэш количества просмотров событий.
+ * Хранит значения в хеш-таблице с открытой адресацией по примитивному ключу long,
+ * поэтому не создает объектов на каждое событие. Устаревающие записи обновляются
+ * заранее в фоне, причем для одного события одновременно выполняется не больше одного обновления.
+ */
+@Slf4j
+@Component
+public class EventViewsCache {
+    private static final long EMPTY = 0L;
+
+    private final StatsClient statsClient;
+    private final TaskExecutor taskExecutor;
+
+    /**
+     * Максимальное количество событий в кэше.
+     */
+    private final int maxSize;
+
+    /**
+     * Возраст записи, после которого запускается фоновое обновление, нс.
+     */
+    private final long refreshAfterNanos;
+
+    /**
+     * Возраст записи, после которого она больше не отдается, нс.
+     */
+    private final long ttlNanos;
+
+    /**
+     * За сколько лет учитываются просмотры.
+     */
+    private final int lookbackYears;
+
+    /**
+     * Приложение, по посещениям которого считаются просмотры.
+     */
+    private final String appName;
+
+    private long[] keys;
+    private long[] views;
+    private long[] loadedAt;
+    private boolean[] refreshing;
+    private int size;
+
+    public EventViewsCache(StatsClient statsClient,
+                           TaskExecutor taskExecutor,
+                           @Value("${ewm.views.cache.max-size:100000}") int maxSize,
+                           @Value("${ewm.views.cache.refresh-after-ms:5000}") long refreshAfterMs,
+                           @Value("${ewm.views.cache.ttl-ms:60000}") long ttlMs,
+                           @Value("${ewm.views.lookback-years:1}") int lookbackYears,
+                           @Value("${ewm.stats.app-name}") String appName) {
+        this.statsClient = statsClient;
+        this.taskExecutor = taskExecutor;
+        this.maxSize = maxSize;
+        this.refreshAfterNanos = TimeUnit.MILLISECONDS.toNanos(refreshAfterMs);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.lookbackYears = lookbackYears;
+        this.appName = appName;
+        allocate(tableCapacity(maxSize));
+    }
+
+    /**
+     * Возвращает количество просмотров события из кэша, не обращаясь к сервису статистики.
+     * Если значения нет или оно устарело, возвращает {@code fallback} и запускает фоновое обновление.
+     */
+    public long getViews(long eventId, long fallback) {
+        if (eventId <= EMPTY) {
+            return fallback;
+        }
+
+        long now = System.nanoTime();
+        long result = fallback;
+        boolean refresh;
+        synchronized (this) {
+            int index = indexOf(eventId);
+            if (index < 0) {
+                index = insert(eventId, fallback, now - ttlNanos);
+            } else if (now - loadedAt[index] < ttlNanos) {
+                result = views[index];
+            }
+            refresh = index >= 0 && !refreshing[index] && now - loadedAt[index] >= refreshAfterNanos;
+            if (refresh) {
+                refreshing[index] = true;
+            }
+        }
+
+        if (refresh) {
+            scheduleRefresh(eventId);
+        }
+        return result;
+    }
+
+    /**
+     * Кладет в кэш свежее значение просмотров события.
+     */
+    public void put(long eventId, long eventViews) {
+        if (eventId <= EMPTY) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            int index = indexOf(eventId);
+            if (index < 0) {
+                insert(eventId, eventViews, now);
+            } else {
+                views[index] = eventViews;
+                loadedAt[index] = now;
+                refreshing[index] = false;
+            }
+        }
+    }
+
+    private void scheduleRefresh(long eventId) {
+        try {
+            taskExecutor.execute(() -> refresh(eventId));
+        } catch (Exception e) {
+            log.debug("Не удалось запланировать обновление просмотров события id={}: {}", eventId, e.getMessage());
+            clearRefreshing(eventId);
+        }
+    }
+
+    private void refresh(long eventId) {
+        String uri = "/events/" + eventId;
+        LocalDateTime end = LocalDateTime.now();
+        Optional<List<ViewStats>> stats = statsClient.findStats(end.minusYears(lookbackYears), end, appName,
+                List.of(uri), true, false, false);
+        if (stats.isEmpty()) {
+            clearRefreshing(eventId);
+            return;
+        }
+
+        long hits = stats.get().stream()
+                .filter(viewStats -> uri.equals(viewStats.getUri()))
+                .mapToLong(ViewStats::getHits)
+                .findFirst()
+                .orElse(0L);
+        put(eventId, hits);
+        log.debug("Обновлены просмотры события id={}: {}", eventId, hits);
+    }
+
+    private synchronized void clearRefreshing(long eventId) {
+        int index = indexOf(eventId);
+        if (index >= 0) {
+            refreshing[index] = false;
+        }
+    }
+
+    private int indexOf(long eventId) {
+        int mask = keys.length - 1;
+        int index = hash(eventId) & mask;
+        while (keys[index] != EMPTY) {
+            if (keys[index] == eventId) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insert(long eventId, long eventViews, long timestamp) {
+        if (size >= maxSize) {
+            evict(System.nanoTime());
+        }
+        int mask = keys.length - 1;
+        int index = hash(eventId) & mask;
+        while (keys[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = eventId;
+        views[index] = eventViews;
+        loadedAt[index] = timestamp;
+        refreshing[index] = false;
+        size++;
+        return index;
+    }
+
+    /**
+     * Освобождает место: удаляет просроченные записи, а если их нет, очищает все записи без активного обновления.
+     * Таблица перестраивается целиком, поэтому удаление не требует надгробий.
+     */
+    private void evict(long now) {
+        long[] oldKeys = keys;
+        long[] oldViews = views;
+        long[] oldLoadedAt = loadedAt;
+        boolean[] oldRefreshing = refreshing;
+
+        boolean anyExpired = false;
+        for (int i = 0; i < oldKeys.length && !anyExpired; i++) {
+            anyExpired = oldKeys[i] != EMPTY && !oldRefreshing[i] && now - oldLoadedAt[i] >= ttlNanos;
+        }
+
+        allocate(oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) {
+                continue;
+            }
+            boolean keep = oldRefreshing[i] || (anyExpired && now - oldLoadedAt[i] < ttlNanos);
+            if (keep) {
+                int index = insert(oldKeys[i], oldViews[i], oldLoadedAt[i]);
+                refreshing[index] = oldRefreshing[i];
+            }
+        }
+        log.debug("Кэш просмотров очищен, осталось {} записей", size);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        views = new long[capacity];
+        loadedAt = new long[capacity];
+        refreshing = new boolean[capacity];
+        size = 0;
+    }
+
+    private static int tableCapacity(int maxSize) {
+        return Integer.highestOneBit(Math.max(4, maxSize * 2 - 1)) << 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
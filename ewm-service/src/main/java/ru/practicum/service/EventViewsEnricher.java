@@ -0,0 +1,197 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.StatsClient;
+import ru.practicum.ViewStats;
+import ru.practicum.model.Event;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Заполняет просмотры для списков событий одним запросом к сервису статистики.
+ * Запрос статистики по всем URI страницы выполняется в фоне, пока вызывающий поток
+ * конвертирует события в DTO; затем полученные значения подставляются в готовые DTO.
+ * События загружаются и конвертируются в транзакции, а ответ статистики ожидается уже после ее завершения,
+ * поэтому ожидание не удерживает соединение с базой.
+ */
+@Slf4j
+@Component
+public class EventViewsEnricher {
+    private final StatsClient statsClient;
+    private final TaskExecutor taskExecutor;
+    private final EventViewsCache eventViewsCache;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    /**
+     * Сколько ждать ответа статистики после завершения конвертации, мс.
+     */
+    private final long timeoutMs;
+
+    /**
+     * За сколько лет учитываются просмотры.
+     */
+    private final int lookbackYears;
+
+    /**
+     * Приложение, по посещениям которого считаются просмотры.
+     */
+    private final String appName;
+
+    public EventViewsEnricher(StatsClient statsClient,
+                              TaskExecutor taskExecutor,
+                              EventViewsCache eventViewsCache,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${ewm.views.enrich-timeout-ms:2500}") long timeoutMs,
+                              @Value("${ewm.views.lookback-years:1}") int lookbackYears,
+                              @Value("${ewm.stats.app-name}") String appName) {
+        this.statsClient = statsClient;
+        this.taskExecutor = taskExecutor;
+        this.eventViewsCache = eventViewsCache;
+        this.transactionTemplate = transactionTemplate;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.timeoutMs = timeoutMs;
+        this.lookbackYears = lookbackYears;
+        this.appName = appName;
+    }
+
+    /**
+     * Загружает события и конвертирует их в DTO в транзакции только для чтения,
+     * а после ее завершения заполняет в DTO актуальные просмотры.
+     */
+    public <T> List<T> loadWithViews(Supplier<List<Event>> loader,
+                                     Function<Event, T> converter,
+                                     Function<T, Long> idGetter,
+                                     BiConsumer<T, Long> viewsSetter) {
+        return inTransactionWithViews(true, () -> {
+            List<Event> events = loader.get();
+            CompletableFuture<Map<Long, Long>> views = fetchViewsAsync(events);
+            return new Pending<>(convert(events, converter), views);
+        }, dtos -> dtos, idGetter, viewsSetter);
+    }
+
+    /**
+     * Загружает события и конвертирует их в DTO в транзакции только для чтения, оставляя сохраненные просмотры.
+     */
+    public <T> List<T> load(Supplier<List<Event>> loader, Function<Event, T> converter) {
+        return readOnlyTransactionTemplate.execute(status -> convert(loader.get(), converter));
+    }
+
+    /**
+     * Выполняет {@code work} в транзакции (только для чтения, если {@code readOnly}), а после ее завершения
+     * дожидается просмотров, запрошенных внутри {@code work} через {@link #fetchViewsAsync},
+     * и подставляет их в DTO событий {@code eventDtos} результата.
+     */
+    public <R, T> R inTransactionWithViews(boolean readOnly,
+                                           Supplier<Pending<R>> work,
+                                           Function<R, Collection<T>> eventDtos,
+                                           Function<T, Long> idGetter,
+                                           BiConsumer<T, Long> viewsSetter) {
+        TransactionTemplate template = readOnly ? readOnlyTransactionTemplate : transactionTemplate;
+        Pending<R> pending = template.execute(status -> work.get());
+        applyViews(pending.views(), eventDtos.apply(pending.result()), idGetter, viewsSetter);
+        return pending.result();
+    }
+
+    /**
+     * Запускает в фоне один запрос статистики для всех переданных событий.
+     * При сбое результат пустой, и в DTO остаются сохраненные значения просмотров.
+     */
+    public CompletableFuture<Map<Long, Long>> fetchViewsAsync(Collection<Event> events) {
+        Set<Long> ids = events.stream()
+                .map(Event::getId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (ids.isEmpty()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> fetchViews(ids), taskExecutor);
+        } catch (Exception e) {
+            log.debug("Не удалось запустить запрос просмотров: {}", e.getMessage());
+            return CompletableFuture.completedFuture(Map.of());
+        }
+    }
+
+    /**
+     * Дожидается результата запроса статистики и подставляет просмотры в DTO.
+     */
+    public <T> void applyViews(CompletableFuture<Map<Long, Long>> views,
+                               Collection<T> dtos,
+                               Function<T, Long> idGetter,
+                               BiConsumer<T, Long> viewsSetter) {
+        Map<Long, Long> viewsById;
+        try {
+            viewsById = views.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.warn("Просмотры для списка событий не получены: {}", e.getMessage());
+            return;
+        }
+
+        for (T dto : dtos) {
+            Long eventViews = viewsById.get(idGetter.apply(dto));
+            if (eventViews != null) {
+                viewsSetter.accept(dto, eventViews);
+            }
+        }
+    }
+
+    private static <T> List<T> convert(List<Event> events, Function<Event, T> converter) {
+        return events.stream()
+                .map(converter)
+                .collect(Collectors.toList());
+    }
+
+    private Map<Long, Long> fetchViews(Set<Long> ids) {
+        Map<String, Long> idsByUri = new HashMap<>();
+        for (Long id : ids) {
+            idsByUri.put("/events/" + id, id);
+        }
+
+        LocalDateTime end = LocalDateTime.now();
+        Optional<List<ViewStats>> stats = statsClient.findBulkStats(end.minusYears(lookbackYears), end,
+                appName, List.copyOf(idsByUri.keySet()), true);
+        if (stats.isEmpty()) {
+            return Map.of();
+        }
+
+        Map<Long, Long> viewsById = new HashMap<>();
+        for (Long id : ids) {
+            viewsById.put(id, 0L);
+        }
+        for (ViewStats viewStats : stats.get()) {
+            Long id = idsByUri.get(viewStats.getUri());
+            if (id != null) {
+                viewsById.put(id, viewStats.getHits());
+            }
+        }
+        viewsById.forEach(eventViewsCache::put);
+        return viewsById;
+    }
+
+    /**
+     * Результат, полученный в транзакции, и запрос просмотров, ответ на который ожидается после нее.
+     */
+    public record Pending<R>(R result, CompletableFuture<Map<Long, Long>> views) {
+    }
+}
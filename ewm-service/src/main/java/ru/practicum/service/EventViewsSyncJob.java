@@ -0,0 +1,121 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.StatsClient;
+import ru.practicum.ViewStats;
+import ru.practicum.model.EventState;
+import ru.practicum.repository.EventRepository;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Фоновая синхронизация сохраненного количества просмотров событий с сервисом статистики.
+ * Опубликованные события обходятся порциями: для каждой порции выполняется один запрос
+ * статистики по всем URI и одно пакетное обновление таблицы events.
+ */
+@Slf4j
+@Component
+public class EventViewsSyncJob {
+    private final EventRepository eventRepository;
+    private final StatsClient statsClient;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Количество событий в одном запросе к сервису статистики.
+     */
+    private final int batchSize;
+
+    /**
+     * За сколько лет учитываются просмотры.
+     */
+    private final int lookbackYears;
+
+    /**
+     * Приложение, посещения которого считаются просмотрами событий.
+     */
+    private final String appName;
+
+    public EventViewsSyncJob(EventRepository eventRepository,
+                             StatsClient statsClient,
+                             TransactionTemplate transactionTemplate,
+                             @Value("${ewm.views.sync-batch-size:200}") int batchSize,
+                             @Value("${ewm.views.lookback-years:1}") int lookbackYears,
+                             @Value("${ewm.stats.app-name}") String appName) {
+        this.eventRepository = eventRepository;
+        this.statsClient = statsClient;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.lookbackYears = lookbackYears;
+        this.appName = appName;
+    }
+
+    /**
+     * Обновляет просмотры всех опубликованных событий.
+     */
+    @Scheduled(fixedDelayString = "${ewm.views.sync-interval-ms:60000}",
+            initialDelayString = "${ewm.views.sync-interval-ms:60000}")
+    public void syncViews() {
+        if (!statsClient.isServiceAvailable()) {
+            log.debug("Сервис статистики недоступен, синхронизация просмотров пропущена");
+            return;
+        }
+
+        LocalDateTime end = LocalDateTime.now();
+        LocalDateTime start = end.minusYears(lookbackYears);
+        long afterId = 0L;
+        int updated = 0;
+        int total = 0;
+
+        List<Long> ids;
+        do {
+            ids = eventRepository.findIdsByStateAfter(EventState.PUBLISHED, afterId, PageRequest.of(0, batchSize));
+            if (ids.isEmpty()) {
+                break;
+            }
+            Optional<Integer> batchUpdated = syncBatch(ids, start, end);
+            if (batchUpdated.isEmpty()) {
+                log.warn("Синхронизация просмотров прервана: сервис статистики не ответил");
+                return;
+            }
+            updated += batchUpdated.get();
+            total += ids.size();
+            afterId = ids.get(ids.size() - 1);
+        } while (ids.size() == batchSize);
+
+        log.debug("Синхронизация просмотров завершена: событий {}, обновлено {}", total, updated);
+    }
+
+    private Optional<Integer> syncBatch(List<Long> ids, LocalDateTime start, LocalDateTime end) {
+        List<String> uris = ids.stream()
+                .map(id -> "/events/" + id)
+                .toList();
+
+        Optional<List<ViewStats>> stats = statsClient.findBulkStats(start, end, appName, uris, true);
+        if (stats.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Map<String, Long> hitsByUri = new HashMap<>();
+        for (ViewStats viewStats : stats.get()) {
+            hitsByUri.put(viewStats.getUri(), viewStats.getHits());
+        }
+
+        Long[] eventIds = ids.toArray(new Long[0]);
+        Long[] views = new Long[eventIds.length];
+        for (int i = 0; i < eventIds.length; i++) {
+            views[i] = hitsByUri.getOrDefault(uris.get(i), 0L);
+        }
+
+        Integer updated = transactionTemplate.execute(status -> eventRepository.updateViews(eventIds, views));
+        return Optional.of(updated != null ? updated : 0);
+    }
+}
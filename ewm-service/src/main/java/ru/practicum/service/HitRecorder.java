@@ -0,0 +1,135 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.EndpointHitRequest;
+import ru.practicum.HitStreamSender;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Фиксирует посещения вне потока обработки запроса.
+ * Поток запроса только записывает (uri, ip, время) в кольцевой буфер, а фоновый поток
+ * собирает посещения в пакеты и отправляет их в сервис статистики: обычными запросами или,
+ * если включен потоковый режим, через одно долгое соединение ({@link HitStreamSender}).
+ */
+@Slf4j
+@Component
+public class HitRecorder {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final HitStreamSender hitStreamSender;
+    private final HitRingBuffer buffer;
+
+    /**
+     * Максимальное количество посещений в одном пакете.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Пауза фонового потока при пустом буфере, мс.
+     */
+    private final long idleWaitMs;
+
+    /**
+     * Приложение, от имени которого посещения отправляются в сервис статистики.
+     */
+    private final String appName;
+
+    private volatile boolean running;
+    private Thread consumer;
+
+    public HitRecorder(HitStreamSender hitStreamSender,
+                       MeterRegistry meterRegistry,
+                       @Value("${stats.hits.buffer-capacity:8192}") int bufferCapacity,
+                       @Value("${stats.hits.max-batch-size:500}") int maxBatchSize,
+                       @Value("${stats.hits.idle-wait-ms:10}") long idleWaitMs,
+                       @Value("${ewm.stats.app-name}") String appName) {
+        this.hitStreamSender = hitStreamSender;
+        this.buffer = new HitRingBuffer(bufferCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.idleWaitMs = idleWaitMs;
+        this.appName = appName;
+
+        Gauge.builder("stats.hits.buffered", buffer, HitRingBuffer::size)
+                .description("Посещения, ожидающие отправки в сервис статистики")
+                .register(meterRegistry);
+        FunctionCounter.builder("stats.hits.dropped", buffer, HitRingBuffer::dropped)
+                .description("Посещения, отброшенные из-за переполнения буфера")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        consumer = new Thread(this::runConsumer, "stats-hit-recorder");
+        consumer.setDaemon(true);
+        consumer.start();
+        log.info("Запущена фоновая отправка посещений: capacity={}, maxBatchSize={}",
+                buffer.capacity(), maxBatchSize);
+    }
+
+    /**
+     * Останавливает фоновый поток, отправив оставшиеся посещения.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Фиксирует посещение. Никогда не блокирует вызывающий поток.
+     */
+    public void record(String uri, String clientIp) {
+        if (!buffer.offer(uri, clientIp, System.currentTimeMillis())) {
+            log.debug("Буфер посещений переполнен, посещение {} отброшено", uri);
+        }
+    }
+
+    private void runConsumer() {
+        List<EndpointHitRequest> batch = new ArrayList<>(maxBatchSize);
+        ZoneId zone = ZoneId.systemDefault();
+        HitRingBuffer.HitConsumer collector = (uri, ip, timestampMillis) -> batch.add(EndpointHitRequest.builder()
+                .app(appName)
+                .uri(uri)
+                .ip(ip)
+                .timestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMillis), zone).format(FORMATTER))
+                .build());
+
+        while (running || buffer.size() > 0) {
+            if (buffer.drain(collector, maxBatchSize) == 0) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(idleWaitMs));
+                continue;
+            }
+            try {
+                hitStreamSender.send(batch);
+            } catch (Exception e) {
+                log.error("Ошибка при отправке пакета из {} посещений: {}", batch.size(), e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+}
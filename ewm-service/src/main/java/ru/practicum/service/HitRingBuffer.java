@@ -0,0 +1,129 @@
+package ru.practicum.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Предвыделенный кольцевой буфер посещений для нескольких писателей и одного читателя.
+ * Писатели захватывают ячейку через CAS и никогда не блокируются: при заполненном буфере
+ * посещение отбрасывается и учитывается в счетчике потерь.
+ */
+public class HitRingBuffer {
+    /**
+     * Обработчик посещения, извлеченного из буфера.
+     */
+    @FunctionalInterface
+    public interface HitConsumer {
+        void accept(String uri, String ip, long timestampMillis);
+    }
+
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * Номер последовательности каждой ячейки: показывает, свободна ли ячейка для записи или готова для чтения.
+     */
+    private final AtomicLongArray sequences;
+    private final String[] uris;
+    private final String[] ips;
+    private final long[] timestamps;
+
+    /**
+     * Следующая позиция для записи.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Следующая позиция для чтения. Изменяется только потоком-читателем.
+     */
+    private volatile long head;
+
+    private final LongAdder dropped = new LongAdder();
+
+    public HitRingBuffer(int requestedCapacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        this.uris = new String[capacity];
+        this.ips = new String[capacity];
+        this.timestamps = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Помещает посещение в буфер.
+     *
+     * @return false, если буфер заполнен и посещение отброшено
+     */
+    public boolean offer(String uri, String ip, long timestampMillis) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    uris[index] = uri;
+                    ips[index] = ip;
+                    timestamps[index] = timestampMillis;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Извлекает до {@code maxHits} посещений. Вызывается только из одного потока.
+     *
+     * @return количество извлеченных посещений
+     */
+    public int drain(HitConsumer consumer, int maxHits) {
+        // единственный читатель работает с локальной копией и публикует позицию записью, а не инкрементом
+        long position = head;
+        int drained = 0;
+        while (drained < maxHits) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            consumer.accept(uris[index], ips[index], timestamps[index]);
+            uris[index] = null;
+            ips[index] = null;
+            sequences.set(index, position + capacity);
+            position++;
+            head = position;
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Емкость буфера (степень двойки).
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Количество посещений, отброшенных из-за переполнения.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Приблизительное количество посещений в буфере.
+     */
+    public long size() {
+        return Math.max(0, tail.get() - head);
+    }
+}
@@ -35,6 +35,7 @@ CREATE TABLE IF NOT EXISTS events (
     request_moderation BOOLEAN DEFAULT TRUE,
     state event_state DEFAULT 'PENDING',
     title VARCHAR(120) NOT NULL,
+    views BIGINT NOT NULL DEFAULT 0,
 
     -- Внешние ключи
     FOREIGN KEY (category_id) REFERENCES categories(id) ON DELETE RESTRICT,
@@ -47,6 +48,11 @@ CREATE INDEX IF NOT EXISTS idx_events_initiator ON events(initiator_id);
 CREATE INDEX IF NOT EXISTS idx_events_state ON events(state);
 CREATE INDEX IF NOT EXISTS idx_events_event_date ON events(event_date);
 CREATE INDEX IF NOT EXISTS idx_events_published ON events(published_on);
+-- Столбец просмотров мог быть создан без NOT NULL: пустые значения заменяются нулем,
+-- иначе при сортировке по убыванию просмотров они оказались бы первыми
+UPDATE events SET views = 0 WHERE views IS NULL;
+ALTER TABLE events ALTER COLUMN views SET NOT NULL;
+CREATE INDEX IF NOT EXISTS idx_events_views ON events(views);
 
 -- Таблица заявок на участие в событиях
 CREATE TABLE IF NOT EXISTS requests (
@@ -0,0 +1,104 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HitRingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertThat(new HitRingBuffer(4).capacity()).isEqualTo(4);
+        assertThat(new HitRingBuffer(5).capacity()).isEqualTo(8);
+        assertThat(new HitRingBuffer(1000).capacity()).isEqualTo(1024);
+        assertThat(new HitRingBuffer(1).capacity()).isEqualTo(4);
+    }
+
+    @Test
+    void overflowDropsNewHits() {
+        HitRingBuffer buffer = new HitRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer("/events/" + i, "10.0.0.1", i)).isTrue();
+        }
+
+        assertThat(buffer.offer("/events/4", "10.0.0.1", 4)).isFalse();
+        assertThat(buffer.dropped()).isEqualTo(1);
+        assertThat(buffer.size()).isEqualTo(4);
+
+        List<String> drained = new ArrayList<>();
+        buffer.drain((uri, ip, timestamp) -> drained.add(uri), 10);
+        assertThat(drained).containsExactly("/events/0", "/events/1", "/events/2", "/events/3");
+    }
+
+    @Test
+    void positionsWrapAroundAfterDrain() {
+        HitRingBuffer buffer = new HitRingBuffer(4);
+        List<Long> drained = new ArrayList<>();
+        for (long i = 0; i < 20; i++) {
+            assertThat(buffer.offer("/events/1", "10.0.0.1", i)).isTrue();
+            if (i % 3 == 2) {
+                buffer.drain((uri, ip, timestamp) -> drained.add(timestamp), 10);
+            }
+        }
+        buffer.drain((uri, ip, timestamp) -> drained.add(timestamp), 10);
+
+        assertThat(drained).hasSize(20).isSorted();
+        assertThat(buffer.size()).isZero();
+        assertThat(buffer.dropped()).isZero();
+    }
+
+    @Test
+    void drainRespectsLimit() {
+        HitRingBuffer buffer = new HitRingBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer("/events/1", "10.0.0.1", i);
+        }
+
+        assertThat(buffer.drain((uri, ip, timestamp) -> { }, 3)).isEqualTo(3);
+        assertThat(buffer.size()).isEqualTo(2);
+        assertThat(buffer.drain((uri, ip, timestamp) -> { }, 3)).isEqualTo(2);
+    }
+
+    @Test
+    void concurrentWritersLoseNoAcceptedHits() throws InterruptedException {
+        HitRingBuffer buffer = new HitRingBuffer(1024);
+        int writers = 4;
+        int hitsPerWriter = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch done = new CountDownLatch(writers);
+        long[] accepted = new long[writers];
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            executor.execute(() -> {
+                for (int i = 0; i < hitsPerWriter; i++) {
+                    if (buffer.offer("/events/" + writer, "10.0.0.1", i)) {
+                        accepted[writer]++;
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        long[] drained = new long[1];
+        while (done.getCount() > 0 || buffer.size() > 0) {
+            drained[0] += buffer.drain((uri, ip, timestamp) -> { }, 256);
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        long offered = (long) writers * hitsPerWriter;
+        long acceptedTotal = 0;
+        for (long count : accepted) {
+            acceptedTotal += count;
+        }
+        assertThat(drained[0]).isEqualTo(acceptedTotal);
+        assertThat(acceptedTotal + buffer.dropped()).isEqualTo(offered);
+    }
+}
@@ -0,0 +1,50 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StatsTrackingServiceTest {
+    private final StatsTrackingService statsTrackingService = new StatsTrackingService();
+
+    @Test
+    void takesFirstForwardedAddress() {
+        MockHttpServletRequest request = request();
+        request.addHeader("X-Forwarded-For", " 203.0.113.7 , 10.0.0.1");
+
+        assertThat(statsTrackingService.getClientIp(request)).isEqualTo("203.0.113.7");
+    }
+
+    @Test
+    void acceptsForwardedIpv6Address() {
+        MockHttpServletRequest request = request();
+        request.addHeader("X-Forwarded-For", "2001:db8::1");
+
+        assertThat(statsTrackingService.getClientIp(request)).isEqualTo("2001:db8::1");
+    }
+
+    @Test
+    void ignoresInvalidForwardedAddress() {
+        MockHttpServletRequest request = request();
+        request.addHeader("X-Forwarded-For", "unknown");
+        request.addHeader("X-Real-IP", "999.1.1.1");
+
+        assertThat(statsTrackingService.getClientIp(request)).isEqualTo("192.0.2.10");
+    }
+
+    @Test
+    void fallsBackToRealIp() {
+        MockHttpServletRequest request = request();
+        request.addHeader("X-Forwarded-For", "example.com");
+        request.addHeader("X-Real-IP", "198.51.100.4");
+
+        assertThat(statsTrackingService.getClientIp(request)).isEqualTo("198.51.100.4");
+    }
+
+    private static MockHttpServletRequest request() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("192.0.2.10");
+        return request;
+    }
+}
@@ -0,0 +1,104 @@
+package ru.practicum;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Выборочная отправка посещений по доле, которую перегруженный сервис статистики объявляет в заголовке
+ * {@link EndpointHitRequest#SAMPLE_RATE_HEADER}. Доля округляется до 1/k: посещение отправляется
+ * с вероятностью 1/k и получает вес k, поэтому сумма весов отправленных посещений — несмещенная оценка
+ * их количества. Объявленная доля действует {@code ttl} после последнего ответа с ней, затем посещения
+ * снова отправляются все: клиент, которому сервис давно не отвечал, не остается на выборке.
+ * Нулевой {@code ttl} выключает выборку.
+ */
+@Slf4j
+public class HitSampler {
+    /**
+     * Сколько действует объявленная доля, нс.
+     */
+    private final long ttlNanos;
+
+    private volatile int weight = 1;
+    private volatile long expiresAtNanos;
+
+    public HitSampler(Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Запоминает долю из заголовка ответа сервиса. Отсутствующий или некорректный заголовок не меняет долю.
+     */
+    public void update(String sampleRate) {
+        if (ttlNanos <= 0 || sampleRate == null) {
+            return;
+        }
+        double rate;
+        try {
+            rate = Double.parseDouble(sampleRate);
+        } catch (NumberFormatException e) {
+            log.debug("Некорректная доля посещений в ответе сервиса статистики: {}", sampleRate);
+            return;
+        }
+        if (!(rate > 0.0)) {
+            return;
+        }
+        int next = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(1.0 / rate)));
+        if (next != currentWeight()) {
+            if (next > 1) {
+                log.info("Сервис статистики объявил выборочную отправку: одно посещение из {}", next);
+            } else {
+                log.info("Сервис статистики снова принимает все посещения");
+            }
+        }
+        expiresAtNanos = System.nanoTime() + ttlNanos;
+        weight = next;
+    }
+
+    /**
+     * Текущий вес: отправляется одно посещение из стольких.
+     */
+    public int currentWeight() {
+        int current = weight;
+        return current > 1 && System.nanoTime() - expiresAtNanos < 0 ? current : 1;
+    }
+
+    /**
+     * Оставляет посещения для отправки и назначает им вес. Посещение, которому вес уже назначен
+     * (отправляемое повторно), остается без повторной выборки.
+     */
+    public List<EndpointHitRequest> sample(List<EndpointHitRequest> hitRequests) {
+        int current = currentWeight();
+        if (current == 1) {
+            return hitRequests;
+        }
+        List<EndpointHitRequest> sampled = new ArrayList<>(hitRequests.size() / current + 1);
+        for (EndpointHitRequest hitRequest : hitRequests) {
+            if (keep(hitRequest, current)) {
+                sampled.add(hitRequest);
+            }
+        }
+        return sampled;
+    }
+
+    /**
+     * Отправлять ли посещение; оставленному посещению назначается вес.
+     */
+    public boolean keep(EndpointHitRequest hitRequest) {
+        return keep(hitRequest, currentWeight());
+    }
+
+    private static boolean keep(EndpointHitRequest hitRequest, int current) {
+        if (hitRequest.getWeight() != null || current == 1) {
+            return true;
+        }
+        if (ThreadLocalRandom.current().nextInt(current) != 0) {
+            return false;
+        }
+        hitRequest.setWeight(current);
+        return true;
+    }
+}
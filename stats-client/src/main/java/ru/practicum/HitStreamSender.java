@@ -0,0 +1,213 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Отправитель посещений через долгое потоковое соединение с сервисом статистики.
+ * Пакеты посещений дописываются строками NDJSON в одно открытое соединение: в тело запроса POST /hits/stream
+ * с фрагментированной передачей или, если задан {@code socketPath}, в Unix-сокет сервиса на том же хосте.
+ * HTTP-соединение переоткрывается не реже чем раз в {@code maxAge}, чтобы сервер не закрыл его по тайм-ауту
+ * чтения. Если поток недоступен, пакет отправляется обычным запросом {@link StatsClient#saveHits(List)}.
+ * Посещения, уже записанные в поток, который затем оборвался, теряются, как и пакет неудачного запроса.
+ * Если выключен, каждый пакет отправляется через {@link StatsClient#saveHits(List)}.
+ * Посещения отправляются выборочно по доле, которую сервис объявил в последнем ответе на обычный запрос.
+ */
+@Slf4j
+public class HitStreamSender implements AutoCloseable {
+    private static final byte NEWLINE = '\n';
+
+    private final WebClient webClient;
+    private final StatsClient statsClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Включен ли потоковый режим.
+     */
+    private final boolean enabled;
+
+    /**
+     * Путь к Unix-сокету сервиса статистики; пустой — поток идет по HTTP.
+     */
+    private final String socketPath;
+
+    /**
+     * Максимальное время жизни HTTP-потока.
+     */
+    private final Duration maxAge;
+
+    /**
+     * Сколько пакетов может ждать записи в HTTP-поток.
+     */
+    private final int queueCapacity;
+
+    private final Object lock = new Object();
+
+    private Sinks.Many<DataBuffer> stream;
+    private long streamOpenedAt;
+    private SocketChannel channel;
+
+    public HitStreamSender(WebClient webClient, StatsClient statsClient, boolean enabled,
+                           String socketPath, Duration maxAge, int queueCapacity) {
+        this.webClient = webClient;
+        this.statsClient = statsClient;
+        this.enabled = enabled;
+        this.socketPath = socketPath;
+        this.maxAge = maxAge;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Отправляет пакет посещений в поток.
+     */
+    public void send(List<EndpointHitRequest> hitRequests) {
+        if (!enabled) {
+            statsClient.saveHits(hitRequests);
+            return;
+        }
+        if (hitRequests == null || hitRequests.isEmpty()) {
+            return;
+        }
+        List<EndpointHitRequest> sampled = statsClient.sample(hitRequests);
+        if (sampled.isEmpty()) {
+            return;
+        }
+        sampled.forEach(statsClient::assignId);
+        byte[] lines;
+        try {
+            lines = encode(sampled);
+        } catch (JsonProcessingException e) {
+            log.error("Не удалось записать пакет посещений в NDJSON: {}", e.getMessage());
+            return;
+        }
+
+        boolean written;
+        synchronized (lock) {
+            written = socketPath != null && !socketPath.isBlank() ? writeToSocket(lines) : writeToHttp(lines);
+        }
+        if (!written) {
+            log.debug("Поток посещений недоступен, пакет из {} посещений отправляется запросом", sampled.size());
+            statsClient.saveHits(sampled);
+        }
+    }
+
+    /**
+     * Завершает поток: сервер дочитывает записанные посещения и сохраняет их.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closeHttp();
+            closeSocket();
+        }
+    }
+
+    private byte[] encode(List<EndpointHitRequest> hitRequests) throws JsonProcessingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(hitRequests.size() * 128);
+        for (EndpointHitRequest hitRequest : hitRequests) {
+            out.writeBytes(objectMapper.writeValueAsBytes(hitRequest));
+            out.write(NEWLINE);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Записывает пакет в HTTP-поток, при необходимости открывая новый. Возвращает {@code false},
+     * если пакет не удалось поставить в поток.
+     */
+    private boolean writeToHttp(byte[] lines) {
+        if (stream != null && System.nanoTime() - streamOpenedAt > maxAge.toNanos()) {
+            closeHttp();
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (stream == null) {
+                stream = openHttp();
+                streamOpenedAt = System.nanoTime();
+            }
+            Sinks.EmitResult result = stream.tryEmitNext(DefaultDataBufferFactory.sharedInstance.wrap(lines));
+            if (result.isSuccess()) {
+                return true;
+            }
+            // поток завершился (сервер закрыл соединение) или переполнен: пробуем новый
+            log.debug("Поток посещений не принял пакет: {}", result);
+            closeHttp();
+        }
+        return false;
+    }
+
+    private Sinks.Many<DataBuffer> openHttp() {
+        Sinks.Many<DataBuffer> sink = Sinks.many().unicast()
+                .onBackpressureBuffer(Queues.<DataBuffer>get(queueCapacity).get());
+        webClient.post()
+                .uri("/hits/stream")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(BodyInserters.fromDataBuffers(sink.asFlux()))
+                .retrieve()
+                .bodyToMono(String.class)
+                .subscribe(summary -> log.debug("Поток посещений закрыт, итог приема: {}", summary),
+                        error -> log.error("Поток посещений прерван: {}", error.getMessage()));
+        log.debug("Открыт поток посещений POST /hits/stream");
+        return sink;
+    }
+
+    private void closeHttp() {
+        if (stream != null) {
+            stream.tryEmitComplete();
+            stream = null;
+        }
+    }
+
+    /**
+     * Записывает пакет в Unix-сокет, при необходимости подключаясь заново. Возвращает {@code false},
+     * если запись не удалась.
+     */
+    private boolean writeToSocket(byte[] lines) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                if (channel == null) {
+                    channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+                    channel.connect(UnixDomainSocketAddress.of(Path.of(socketPath)));
+                    log.debug("Открыт поток посещений через Unix-сокет {}", socketPath);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(lines);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                return true;
+            } catch (IOException e) {
+                log.debug("Ошибка записи в Unix-сокет {}: {}", socketPath, e.getMessage());
+                closeSocket();
+            }
+        }
+        return false;
+    }
+
+    private void closeSocket() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Ошибка закрытия Unix-сокета: {}", e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
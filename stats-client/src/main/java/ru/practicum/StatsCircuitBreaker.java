@@ -0,0 +1,98 @@
+package ru.practicum;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Автоматический выключатель для вызовов сервиса статистики.
+ * Размыкается после серии последовательных ошибок и по истечении паузы пропускает
+ * одну пробную попытку: ее успех замыкает цепь, ошибка снова размыкает.
+ */
+@Slf4j
+public class StatsCircuitBreaker {
+    /**
+     * Состояние выключателя.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Количество последовательных ошибок, после которого цепь размыкается.
+     */
+    private final int failureThreshold;
+
+    /**
+     * Пауза перед пробной попыткой, нс.
+     */
+    private final long openDurationNanos;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAtNanos;
+
+    public StatsCircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Запрашивает разрешение на вызов. В полуоткрытом состоянии разрешение получает только один вызов.
+     */
+    public boolean tryAcquirePermission() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && openDurationElapsed()) {
+            return state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        }
+        return false;
+    }
+
+    /**
+     * Разрешен ли вызов сейчас. Состояние не меняет.
+     */
+    public boolean isCallPermitted() {
+        State current = state.get();
+        return current == State.CLOSED || (current == State.OPEN && openDurationElapsed());
+    }
+
+    /**
+     * Фиксирует успешный вызов.
+     */
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        State previous = state.getAndSet(State.CLOSED);
+        if (previous != State.CLOSED) {
+            log.info("Сервис статистики снова доступен, цепь замкнута");
+        }
+    }
+
+    /**
+     * Фиксирует неудачный вызов.
+     */
+    public void onFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+            openedAtNanos = System.nanoTime();
+            log.warn("Пробный вызов сервиса статистики не удался, цепь снова разомкнута");
+        } else if (failures >= failureThreshold && state.compareAndSet(State.CLOSED, State.OPEN)) {
+            openedAtNanos = System.nanoTime();
+            log.warn("Сервис статистики недоступен после {} ошибок подряд, цепь разомкнута", failures);
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    private boolean openDurationElapsed() {
+        return System.nanoTime() - openedAtNanos >= openDurationNanos;
+    }
+}
@@ -3,18 +3,32 @@ package ru.practicum;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.Exceptions;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
  * HTTP-клиент для взаимодействия с сервисом статистики.
+ * Каждый вызов ограничен по времени, проходит через ограничитель параллельных вызовов
+ * и автоматический выключатель, поэтому медленный сервис статистики не занимает потоки вызывающего.
+ * Каждому посещению при первой отправке назначается идентификатор, и сервис отбрасывает повторы,
+ * поэтому сохранение посещений безопасно повторяется после тайм-аута и ошибки соединения.
+ * Если перегруженный сервис объявляет в ответе долю посещений, посещения отправляются выборочно с весами.
  */
 @Slf4j
 @Component
@@ -24,97 +38,322 @@ public class StatsClient {
      * WebClient для выполнения HTTP запросов.
      */
     private final WebClient webClient;
+    /**
+     * Автоматический выключатель сохранения посещений.
+     */
+    private final StatsCircuitBreaker hitCircuitBreaker;
+    /**
+     * Автоматический выключатель запросов статистики: отказы в дорогих запросах не прекращают
+     * сохранение посещений.
+     */
+    private final StatsCircuitBreaker queryCircuitBreaker;
+    /**
+     * Ограничитель количества одновременных вызовов.
+     */
+    private final Semaphore bulkhead;
+    /**
+     * Максимальная длительность одного вызова.
+     */
+    private final Duration callTimeout;
+    /**
+     * Количество повторов сохранения посещений после тайм-аута или ошибки соединения.
+     */
+    private final int saveRetries;
+    /**
+     * Генератор идентификаторов посещений.
+     */
+    private final HitIdGenerator hitIdGenerator;
+    /**
+     * Выборочная отправка посещений по доле, объявленной сервисом.
+     */
+    private final HitSampler hitSampler;
     /**
      * Форматтер для преобразования даты-времени в строку.
      */
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    /**
+     * Пауза перед первым повтором вызова.
+     */
+    private static final Duration RETRY_BACKOFF = Duration.ofMillis(100);
 
     /**
      * Сохраняет информацию о посещении эндпоинта в сервисе статистики.
      */
     public void saveHit(EndpointHitRequest hitRequest) {
+        if (!hitSampler.keep(hitRequest)) {
+            log.debug("Посещение не отправлено при выборочной отправке: {}", hitRequest);
+            return;
+        }
+        assignId(hitRequest);
         log.debug("Отправка POST запроса на сохранение статистики: {}", hitRequest);
 
-        try {
-            webClient.post()
-                    .uri("/hit")
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(hitRequest)
-                    .retrieve()
-                    .onStatus(
-                            status -> status.is4xxClientError() || status.is5xxServerError(),
-                            clientResponse -> {
-                                log.error("Ошибка при сохранении статистики. HTTP статус: {}",
-                                        clientResponse.statusCode());
-                                return Mono.error(new RuntimeException(
-                                        "Ошибка сервиса статистики: " + clientResponse.statusCode()));
-                            }
-                    )
-                    .toBodilessEntity()
-                    .doOnSuccess(response ->
-                            log.debug("Статистика успешно сохранена. HTTP статус: {}",
-                                    response.getStatusCode()))
-                    .doOnError(error ->
-                            log.error("Ошибка при сохранении статистики: {}", error.getMessage()))
-                    .block();
-
-        } catch (Exception e) {
-            log.error("Исключение при сохранении статистики: {}", e.getMessage());
+        execute("сохранение статистики", hitCircuitBreaker, saveRetries, () -> webClient.post()
+                .uri("/hit")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(hitRequest)
+                .retrieve()
+                .onStatus(
+                        status -> status.is4xxClientError() || status.is5xxServerError(),
+                        clientResponse -> {
+                            hitSampler.update(sampleRate(clientResponse.headers().asHttpHeaders()));
+                            log.error("Ошибка при сохранении статистики. HTTP статус: {}",
+                                    clientResponse.statusCode());
+                            return Mono.error(new StatsResponseException(clientResponse.statusCode()));
+                        }
+                )
+                .toBodilessEntity()
+                .doOnSuccess(response -> {
+                    hitSampler.update(sampleRate(response.getHeaders()));
+                    log.debug("Статистика успешно сохранена. HTTP статус: {}", response.getStatusCode());
+                }), null);
+    }
+
+    /**
+     * Сохраняет пакет посещений одним запросом к сервису статистики.
+     */
+    public void saveHits(List<EndpointHitRequest> hitRequests) {
+        if (hitRequests == null || hitRequests.isEmpty()) {
+            return;
         }
+        List<EndpointHitRequest> sampled = sample(hitRequests);
+        if (sampled.isEmpty()) {
+            log.debug("Пакет из {} посещений не отправлен при выборочной отправке", hitRequests.size());
+            return;
+        }
+        sampled.forEach(this::assignId);
+        log.debug("Отправка POST запроса на пакетное сохранение статистики: {} записей", sampled.size());
+
+        execute("пакетное сохранение статистики", hitCircuitBreaker, saveRetries, () -> webClient.post()
+                .uri("/hits")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(sampled)
+                .retrieve()
+                .onStatus(
+                        status -> status.is4xxClientError() || status.is5xxServerError(),
+                        clientResponse -> {
+                            hitSampler.update(sampleRate(clientResponse.headers().asHttpHeaders()));
+                            log.error("Ошибка при пакетном сохранении статистики. HTTP статус: {}",
+                                    clientResponse.statusCode());
+                            return Mono.error(new StatsResponseException(clientResponse.statusCode()));
+                        }
+                )
+                .toBodilessEntity()
+                .doOnSuccess(response -> {
+                    hitSampler.update(sampleRate(response.getHeaders()));
+                    log.debug("Пакет из {} записей сохранен. HTTP статус: {}",
+                            sampled.size(), response.getStatusCode());
+                }), null);
     }
 
     /**
      * Получает статистику по посещениям за указанный период.
+     * При недоступности сервиса возвращает пустой список.
      */
     public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end,
                                     List<String> uris, Boolean unique) {
+        return getStats(start, end, uris, unique, false);
+    }
 
-        String url = buildStatsUrl(start, end, uris, unique);
+    /**
+     * Получает статистику по посещениям за указанный период.
+     * При {@code approximate=true} уникальные посещения оцениваются сервером по скетчам HyperLogLog,
+     * а относительная погрешность возвращается в {@link ViewStats#getRelativeError()}.
+     */
+    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end,
+                                    List<String> uris, Boolean unique, boolean approximate) {
+        return findStats(start, end, uris, unique, approximate).orElse(List.of());
+    }
+
+    /**
+     * Получает статистику по посещениям за указанный период.
+     * В отличие от {@link #getStats}, отличает сбой вызова (пустой Optional) от отсутствия посещений.
+     */
+    public Optional<List<ViewStats>> findStats(LocalDateTime start, LocalDateTime end,
+                                               List<String> uris, Boolean unique) {
+        return findStats(start, end, uris, unique, false);
+    }
+
+    /**
+     * Получает статистику по посещениям за указанный период, при необходимости приближенную.
+     * Сбой вызова возвращается как пустой Optional.
+     */
+    public Optional<List<ViewStats>> findStats(LocalDateTime start, LocalDateTime end,
+                                               List<String> uris, Boolean unique, boolean approximate) {
+        return findStats(start, end, uris, unique, approximate, false);
+    }
+
+    /**
+     * Получает статистику по посещениям за указанный период. URI со звездочкой ({@code /events/*})
+     * сервер раскрывает во все подходящие URI, а при {@code rollup=true} возвращает одну запись на шаблон.
+     * Сбой вызова возвращается как пустой Optional.
+     */
+    public Optional<List<ViewStats>> findStats(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                               Boolean unique, boolean approximate, boolean rollup) {
+        return findStats(start, end, null, uris, unique, approximate, rollup);
+    }
+
+    /**
+     * Получает статистику по посещениям приложения {@code app} за указанный период; при {@code app == null}
+     * сервер возвращает записи по всем приложениям. Сбой вызова возвращается как пустой Optional.
+     */
+    public Optional<List<ViewStats>> findStats(LocalDateTime start, LocalDateTime end, String app, List<String> uris,
+                                               Boolean unique, boolean approximate, boolean rollup) {
+
+        String url = buildStatsUrl(start, end, app, uris, unique, approximate);
         log.debug("Выполнение GET запроса статистики: {}", url);
 
-        try {
-            List<ViewStats> stats = webClient.get()
-                    .uri(uriBuilder -> uriBuilder
-                            .path("/stats")
-                            .queryParam("start", encodeDateTime(start))
-                            .queryParam("end", encodeDateTime(end))
-                            .queryParam("unique", unique != null ? unique : false)
-                            .queryParam("uris", uris != null && !uris.isEmpty() ? uris.toArray(new String[0]) : new String[0])
-                            .build())
-                    .accept(MediaType.APPLICATION_JSON)
-                    .retrieve()
-                    .onStatus(
-                            status -> status.is4xxClientError() || status.is5xxServerError(),
-                            clientResponse -> {
-                                log.error("Ошибка при получении статистики. HTTP статус: {}",
-                                        clientResponse.statusCode());
-                                return Mono.error(new RuntimeException(
-                                        "Ошибка сервиса статистики: " + clientResponse.statusCode()));
-                            }
-                    )
-                    .bodyToMono(new ParameterizedTypeReference<List<ViewStats>>() {})
-                    .doOnSuccess(response ->
-                            log.debug("Успешно получено {} записей статистики", response.size()))
-                    .doOnError(error ->
-                            log.error("Ошибка при получении статистики: {}", error.getMessage()))
-                    .onErrorReturn(List.of())
-                    .block();
-
-            log.info("Получено {} записей статистики", stats != null ? stats.size() : 0);
-            return stats != null ? stats : List.of();
-
-        } catch (Exception e) {
-            log.error("Исключение при получении статистики: {}", e.getMessage());
-            return List.of();
+        List<ViewStats> stats = execute("получение статистики", queryCircuitBreaker, () -> webClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/stats")
+                        .queryParam("start", encodeDateTime(start))
+                        .queryParam("end", encodeDateTime(end))
+                        .queryParamIfPresent("app", Optional.ofNullable(app))
+                        .queryParam("unique", unique != null ? unique : false)
+                        .queryParam("uris", uris != null && !uris.isEmpty() ? uris.toArray(new String[0]) : new String[0])
+                        .queryParamIfPresent("approximate", approximate ? Optional.of(true) : Optional.empty())
+                        .queryParamIfPresent("rollup", rollup ? Optional.of(true) : Optional.empty())
+                        .build())
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .onStatus(
+                        status -> status.is4xxClientError() || status.is5xxServerError(),
+                        clientResponse -> {
+                            log.error("Ошибка при получении статистики. HTTP статус: {}",
+                                    clientResponse.statusCode());
+                            return Mono.error(new StatsResponseException(clientResponse.statusCode()));
+                        }
+                )
+                .bodyToMono(new ParameterizedTypeReference<List<ViewStats>>() {})
+                .doOnSuccess(response ->
+                        log.debug("Успешно получено {} записей статистики", response.size())), null);
+
+        log.info("Получено {} записей статистики", stats != null ? stats.size() : 0);
+        return Optional.ofNullable(stats);
+    }
+
+    /**
+     * Получает статистику сразу по большому списку URI одним запросом POST /stats/bulk.
+     * URI передаются в теле запроса, поэтому страницу каталога или подборку из тысяч событий
+     * можно обогатить одним вызовом. Сбой вызова возвращается как пустой Optional.
+     */
+    public Optional<List<ViewStats>> findBulkStats(LocalDateTime start, LocalDateTime end,
+                                                   List<String> uris, boolean unique) {
+        return findBulkStats(start, end, null, uris, unique);
+    }
+
+    /**
+     * Получает статистику приложения {@code app} по большому списку URI одним запросом POST /stats/bulk;
+     * при {@code app == null} — по всем приложениям. Сбой вызова возвращается как пустой Optional.
+     */
+    public Optional<List<ViewStats>> findBulkStats(LocalDateTime start, LocalDateTime end, String app,
+                                                   List<String> uris, boolean unique) {
+        if (uris == null || uris.isEmpty()) {
+            return Optional.of(List.of());
         }
+        StatsBulkRequest request = StatsBulkRequest.builder()
+                .start(encodeDateTime(start))
+                .end(encodeDateTime(end))
+                .app(app)
+                .uris(uris)
+                .unique(unique)
+                .build();
+        log.debug("Выполнение POST запроса статистики по {} URI", uris.size());
+
+        List<ViewStats> stats = execute("получение статистики по списку URI", queryCircuitBreaker,
+                () -> webClient.post()
+                .uri("/stats/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .retrieve()
+                .onStatus(
+                        status -> status.is4xxClientError() || status.is5xxServerError(),
+                        clientResponse -> {
+                            log.error("Ошибка при получении статистики по списку URI. HTTP статус: {}",
+                                    clientResponse.statusCode());
+                            return Mono.error(new StatsResponseException(clientResponse.statusCode()));
+                        }
+                )
+                .bodyToFlux(ViewStats.class)
+                .collectList()
+                .doOnSuccess(response ->
+                        log.debug("Успешно получено {} записей статистики", response.size())), null);
+
+        return Optional.ofNullable(stats);
+    }
+
+    /**
+     * Получает до {@code k} самых посещаемых URI за последние {@code windowMinutes} минут.
+     * Окно должно быть одним из настроенных на сервере. При недоступности сервиса возвращает пустой список.
+     */
+    public List<ViewStats> getTopStats(int windowMinutes, int k) {
+        log.debug("Выполнение GET запроса самых посещаемых URI: окно {} мин., k={}", windowMinutes, k);
+
+        return execute("получение самых посещаемых URI", queryCircuitBreaker, () -> webClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/stats/top")
+                        .queryParam("window", windowMinutes)
+                        .queryParam("k", k)
+                        .build())
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .onStatus(
+                        status -> status.is4xxClientError() || status.is5xxServerError(),
+                        clientResponse -> {
+                            log.error("Ошибка при получении самых посещаемых URI. HTTP статус: {}",
+                                    clientResponse.statusCode());
+                            return Mono.error(new StatsResponseException(clientResponse.statusCode()));
+                        }
+                )
+                .bodyToMono(new ParameterizedTypeReference<List<ViewStats>>() {})
+                .doOnSuccess(response ->
+                        log.debug("Успешно получено {} самых посещаемых URI", response.size())), List.of());
+    }
+
+    /**
+     * Получает временные ряды посещений по URI за период с корзинами длины {@code interval}
+     * (целое количество секунд). Один вызов заменяет серию запросов статистики по сдвигающимся окнам.
+     * Ряды строятся по приложению и URI; при {@code app == null} возвращаются ряды всех приложений.
+     * Сбой вызова возвращается как пустой Optional.
+     */
+    public Optional<TimeSeriesStats> findTimeSeries(LocalDateTime start, LocalDateTime end, String app,
+                                                    List<String> uris, Duration interval, boolean unique) {
+        log.debug("Выполнение GET запроса временных рядов: {} URI, интервал {}",
+                uris != null ? uris.size() : 0, interval);
+
+        TimeSeriesStats series = execute("получение временных рядов", queryCircuitBreaker, () -> webClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/stats/timeseries")
+                        .queryParam("start", encodeDateTime(start))
+                        .queryParam("end", encodeDateTime(end))
+                        .queryParamIfPresent("app", Optional.ofNullable(app))
+                        .queryParam("interval", interval.getSeconds() + "s")
+                        .queryParam("unique", unique)
+                        .queryParam("uris", uris != null ? uris.toArray(new String[0]) : new String[0])
+                        .build())
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .onStatus(
+                        status -> status.is4xxClientError() || status.is5xxServerError(),
+                        clientResponse -> {
+                            log.error("Ошибка при получении временных рядов. HTTP статус: {}",
+                                    clientResponse.statusCode());
+                            return Mono.error(new StatsResponseException(clientResponse.statusCode()));
+                        }
+                )
+                .bodyToMono(TimeSeriesStats.class)
+                .doOnSuccess(response ->
+                        log.debug("Успешно получены временные ряды: {} корзин", response.getBuckets())), null);
+
+        return Optional.ofNullable(series);
     }
 
 
     /**
      * Строит URL для запроса статистики с параметрами.
      */
-    private String buildStatsUrl(LocalDateTime start, LocalDateTime end,
-                                 List<String> uris, Boolean unique) {
+    private String buildStatsUrl(LocalDateTime start, LocalDateTime end, String app,
+                                 List<String> uris, Boolean unique, boolean approximate) {
 
         UriComponentsBuilder uriBuilder = UriComponentsBuilder
                 .fromPath("/stats")
@@ -122,11 +361,17 @@ public class StatsClient {
                 .queryParam("end", encodeDateTime(end))
                 .queryParam("unique", unique != null ? unique : false);
 
+        if (app != null) {
+            uriBuilder.queryParam("app", app);
+        }
         if (uris != null && !uris.isEmpty()) {
             for (String uri : uris) {
                 uriBuilder.queryParam("uris", uri);
             }
         }
+        if (approximate) {
+            uriBuilder.queryParam("approximate", true);
+        }
 
         return uriBuilder.toUriString();
     }
@@ -140,20 +385,92 @@ public class StatsClient {
 
     /**
      * Проверяет доступность сервиса статистики.
+     * Ответ берется из состояния автоматического выключателя сохранения посещений, которое обновляется
+     * по итогам обычных вызовов, поэтому отдельный запрос к /actuator/health не выполняется.
      */
     public boolean isServiceAvailable() {
+        return hitCircuitBreaker.isCallPermitted();
+    }
+
+    /**
+     * Назначает посещению идентификатор, если его еще нет. Посещение, отправленное повторно,
+     * сохраняет прежний идентификатор.
+     */
+    void assignId(EndpointHitRequest hitRequest) {
+        if (hitRequest.getId() == null) {
+            hitRequest.setId(hitIdGenerator.next());
+        }
+    }
+
+    /**
+     * Оставляет посещения для отправки по доле, объявленной сервисом, и назначает им веса.
+     */
+    List<EndpointHitRequest> sample(List<EndpointHitRequest> hitRequests) {
+        return hitSampler.sample(hitRequests);
+    }
+
+    private static String sampleRate(HttpHeaders headers) {
+        return headers.getFirst(EndpointHitRequest.SAMPLE_RATE_HEADER);
+    }
+
+    private <T> T execute(String operation, StatsCircuitBreaker circuitBreaker, Supplier<Mono<T>> call, T fallback) {
+        return execute(operation, circuitBreaker, 0, call, fallback);
+    }
+
+    /**
+     * Выполняет вызов сервиса статистики с ограничением по времени, числу параллельных вызовов
+     * и с учетом состояния автоматического выключателя. При отказе возвращает значение по умолчанию.
+     * После тайм-аута или ошибки соединения вызов повторяется до {@code retries} раз с растущей паузой;
+     * ошибки, которые вернул сам сервис, не повторяются. Выключатель считает ошибками только
+     * недоступность сервиса ({@link #isServiceFailure}).
+     */
+    private <T> T execute(String operation, StatsCircuitBreaker circuitBreaker, int retries,
+                          Supplier<Mono<T>> call, T fallback) {
+        if (!bulkhead.tryAcquire()) {
+            log.warn("Превышен лимит одновременных вызовов сервиса статистики, операция пропущена: {}", operation);
+            return fallback;
+        }
         try {
-            return webClient.get()
-                    .uri("/actuator/health")
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .map(response -> response.contains("\"status\":\"UP\""))
-                    .onErrorReturn(false)
-                    .blockOptional()
-                    .orElse(false);
-        } catch (Exception e) {
-            log.warn("Сервис статистики недоступен: {}", e.getMessage());
-            return false;
+            if (!circuitBreaker.tryAcquirePermission()) {
+                log.debug("Цепь разомкнута, операция пропущена: {}", operation);
+                return fallback;
+            }
+            try {
+                T result = call.get()
+                        .timeout(callTimeout)
+                        .retryWhen(Retry.backoff(retries, RETRY_BACKOFF)
+                                .filter(e -> e instanceof TimeoutException || e instanceof WebClientRequestException)
+                                .doBeforeRetry(signal -> log.debug("Повтор {} операции {} после ошибки: {}",
+                                        signal.totalRetries() + 1, operation, signal.failure().getMessage())))
+                        .block();
+                circuitBreaker.onSuccess();
+                return result != null ? result : fallback;
+            } catch (Exception e) {
+                if (isServiceFailure(e)) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+                log.error("Ошибка сервиса статистики ({}): {}", operation, e.getMessage());
+                return fallback;
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Говорит ли ошибка вызова о недоступности сервиса: тайм-аут, ошибка соединения или ответ 5xx.
+     * Ответ 4xx, в том числе отказ в допуске запроса (429), — завершенный обмен с работающим сервисом.
+     */
+    static boolean isServiceFailure(Throwable error) {
+        Throwable cause = Exceptions.unwrap(error);
+        if (Exceptions.isRetryExhausted(cause) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof StatsResponseException response) {
+            return response.getStatusCode().is5xxServerError();
         }
+        return true;
     }
 }
@@ -0,0 +1,19 @@
+package ru.practicum;
+
+import org.springframework.http.HttpStatusCode;
+
+/**
+ * Сервис статистики ответил статусом ошибки.
+ */
+public class StatsResponseException extends RuntimeException {
+    private final transient HttpStatusCode statusCode;
+
+    public StatsResponseException(HttpStatusCode statusCode) {
+        super("Ошибка сервиса статистики: " + statusCode);
+        this.statusCode = statusCode;
+    }
+
+    public HttpStatusCode getStatusCode() {
+        return statusCode;
+    }
+}
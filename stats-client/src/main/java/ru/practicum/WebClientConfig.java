@@ -6,6 +6,9 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
 /**
  * Конфигурационный класс для настройки WebClient.
  */
@@ -19,6 +22,74 @@ public class WebClientConfig {
     @Value("${stats.service.url:http://localhost:9090}")
     private String statsServiceUrl;
 
+    /**
+     * Максимальная длительность одного вызова сервиса статистики, мс.
+     */
+    @Value("${stats.client.timeout-ms:2000}")
+    private long timeoutMs;
+
+    /**
+     * Количество повторов сохранения посещений после тайм-аута или ошибки соединения.
+     */
+    @Value("${stats.client.save-retries:2}")
+    private int saveRetries;
+
+    /**
+     * Номер генератора идентификаторов посещений, уникальный для каждого экземпляра клиента.
+     * Обязателен: при совпадающих номерах сервис статистики отбрасывает настоящие посещения как повторы.
+     */
+    @Value("${stats.client.node-id}")
+    private int nodeId;
+
+    /**
+     * Сколько действует доля посещений, объявленная перегруженным сервисом, мс; 0 — не выбирать посещения.
+     */
+    @Value("${stats.client.sampling-ttl-ms:10000}")
+    private long samplingTtlMs;
+
+    /**
+     * Количество ошибок подряд, после которого вызовы прекращаются. Сохранение посещений и запросы статистики
+     * отключаются раздельно; ошибками считаются тайм-ауты, ошибки соединения и ответы 5xx.
+     */
+    @Value("${stats.client.circuit.failure-threshold:5}")
+    private int circuitFailureThreshold;
+
+    /**
+     * Пауза перед пробным вызовом после размыкания цепи, мс.
+     */
+    @Value("${stats.client.circuit.open-duration-ms:10000}")
+    private long circuitOpenDurationMs;
+
+    /**
+     * Максимальное количество одновременных вызовов сервиса статистики.
+     */
+    @Value("${stats.client.bulkhead.max-concurrent-calls:20}")
+    private int maxConcurrentCalls;
+
+    /**
+     * Включает отправку посещений через долгое потоковое соединение.
+     */
+    @Value("${stats.client.stream.enabled:false}")
+    private boolean streamEnabled;
+
+    /**
+     * Путь к Unix-сокету сервиса статистики на том же хосте; пустой — поток идет по HTTP.
+     */
+    @Value("${stats.client.stream.socket-path:}")
+    private String streamSocketPath;
+
+    /**
+     * Максимальное время жизни HTTP-потока посещений, мс.
+     */
+    @Value("${stats.client.stream.max-age-ms:30000}")
+    private long streamMaxAgeMs;
+
+    /**
+     * Количество пакетов, которые могут ждать записи в HTTP-поток.
+     */
+    @Value("${stats.client.stream.queue-capacity:256}")
+    private int streamQueueCapacity;
+
     /**
      * Создает и настраивает WebClient для HTTP запросов.
      */
@@ -36,7 +107,26 @@ public class WebClientConfig {
      */
     @Bean
     public StatsClient statsClient(WebClient webClient) {
-        log.debug("Инициализация StatsClient с URL: {}", statsServiceUrl);
-        return new StatsClient(webClient);
+        log.debug("Инициализация StatsClient с URL: {}, timeoutMs={}, failureThreshold={}, maxConcurrentCalls={}",
+                statsServiceUrl, timeoutMs, circuitFailureThreshold, maxConcurrentCalls);
+        return new StatsClient(webClient,
+                new StatsCircuitBreaker(circuitFailureThreshold, Duration.ofMillis(circuitOpenDurationMs)),
+                new StatsCircuitBreaker(circuitFailureThreshold, Duration.ofMillis(circuitOpenDurationMs)),
+                new Semaphore(maxConcurrentCalls),
+                Duration.ofMillis(timeoutMs),
+                saveRetries,
+                new HitIdGenerator(nodeId),
+                new HitSampler(Duration.ofMillis(samplingTtlMs)));
+    }
+
+    /**
+     * Создает отправитель посещений через потоковое соединение.
+     */
+    @Bean(destroyMethod = "close")
+    public HitStreamSender hitStreamSender(WebClient webClient, StatsClient statsClient) {
+        log.debug("Инициализация HitStreamSender: enabled={}, socketPath={}, maxAgeMs={}",
+                streamEnabled, streamSocketPath, streamMaxAgeMs);
+        return new HitStreamSender(webClient, statsClient, streamEnabled, streamSocketPath,
+                Duration.ofMillis(streamMaxAgeMs), streamQueueCapacity);
     }
-}
\ No newline at end of file
+}
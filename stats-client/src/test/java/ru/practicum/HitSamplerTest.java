@@ -0,0 +1,101 @@
+package ru.practicum;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HitSamplerTest {
+
+    @Test
+    void keepsAllHitsWithoutDeclaredRate() {
+        HitSampler sampler = new HitSampler(Duration.ofMinutes(1));
+        List<EndpointHitRequest> hits = hits(100);
+
+        assertThat(sampler.currentWeight()).isEqualTo(1);
+        assertThat(sampler.sample(hits)).isSameAs(hits);
+    }
+
+    @Test
+    void declaredRateSetsWeight() {
+        HitSampler sampler = new HitSampler(Duration.ofMinutes(1));
+
+        sampler.update("0.25");
+        assertThat(sampler.currentWeight()).isEqualTo(4);
+
+        sampler.update("1");
+        assertThat(sampler.currentWeight()).isEqualTo(1);
+    }
+
+    @Test
+    void invalidRateIsIgnored() {
+        HitSampler sampler = new HitSampler(Duration.ofMinutes(1));
+        sampler.update("0.5");
+
+        sampler.update("abc");
+        sampler.update("0");
+        sampler.update("-1");
+        sampler.update(null);
+
+        assertThat(sampler.currentWeight()).isEqualTo(2);
+    }
+
+    @Test
+    void rateExpiresAfterTtl() throws InterruptedException {
+        HitSampler sampler = new HitSampler(Duration.ofMillis(20));
+        sampler.update("0.1");
+        assertThat(sampler.currentWeight()).isEqualTo(10);
+
+        Thread.sleep(50);
+
+        assertThat(sampler.currentWeight()).isEqualTo(1);
+    }
+
+    @Test
+    void disabledSamplerIgnoresRate() {
+        HitSampler sampler = new HitSampler(Duration.ZERO);
+
+        sampler.update("0.1");
+
+        assertThat(sampler.currentWeight()).isEqualTo(1);
+    }
+
+    @Test
+    void sampledHitsCarryWeight() {
+        HitSampler sampler = new HitSampler(Duration.ofMinutes(1));
+        sampler.update("0.1");
+
+        List<EndpointHitRequest> sampled = sampler.sample(hits(10_000));
+
+        assertThat(sampled).allSatisfy(hit -> assertThat(hit.getWeight()).isEqualTo(10));
+        // вес восстанавливает исходное количество с точностью до случайного отклонения выборки
+        assertThat(sampled.size()).isBetween(800, 1200);
+    }
+
+    @Test
+    void weightedHitIsNotSampledAgain() {
+        HitSampler sampler = new HitSampler(Duration.ofMinutes(1));
+        sampler.update("0.01");
+        List<EndpointHitRequest> hits = hits(100);
+        hits.forEach(hit -> hit.setWeight(3));
+
+        assertThat(sampler.sample(hits)).hasSize(100)
+                .allSatisfy(hit -> assertThat(hit.getWeight()).isEqualTo(3));
+    }
+
+    private static List<EndpointHitRequest> hits(int count) {
+        List<EndpointHitRequest> hits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hits.add(EndpointHitRequest.builder()
+                    .app("ewm-main-service")
+                    .uri("/events/" + i)
+                    .ip("10.0.0.1")
+                    .timestamp("2025-03-01 10:00:00")
+                    .build());
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,92 @@
+package ru.practicum;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StatsClientTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+    private final StatsCircuitBreaker hitCircuitBreaker = new StatsCircuitBreaker(3, Duration.ofMinutes(1));
+    private final StatsCircuitBreaker queryCircuitBreaker = new StatsCircuitBreaker(3, Duration.ofMinutes(1));
+    private final AtomicInteger hitCalls = new AtomicInteger();
+
+    @Test
+    void rejectedQueriesDoNotOpenCircuit() {
+        StatsClient client = client(HttpStatus.TOO_MANY_REQUESTS);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(client.findStats(START, START.plusDays(1), null, List.of(), true, false, false)).isEmpty();
+        }
+
+        assertThat(queryCircuitBreaker.getState()).isEqualTo(StatsCircuitBreaker.State.CLOSED);
+        assertThat(hitCircuitBreaker.getState()).isEqualTo(StatsCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void failingQueriesDoNotStopHitRecording() {
+        StatsClient client = client(HttpStatus.INTERNAL_SERVER_ERROR);
+
+        for (int i = 0; i < 5; i++) {
+            client.findStats(START, START.plusDays(1), null, List.of(), true, false, false);
+        }
+        client.saveHit(hit());
+
+        assertThat(queryCircuitBreaker.getState()).isEqualTo(StatsCircuitBreaker.State.OPEN);
+        assertThat(hitCircuitBreaker.getState()).isEqualTo(StatsCircuitBreaker.State.CLOSED);
+        assertThat(hitCalls).hasValue(1);
+    }
+
+    @Test
+    void onlyUnavailabilityCountsAsFailure() {
+        assertThat(StatsClient.isServiceFailure(new StatsResponseException(HttpStatus.BAD_REQUEST))).isFalse();
+        assertThat(StatsClient.isServiceFailure(new StatsResponseException(HttpStatus.TOO_MANY_REQUESTS))).isFalse();
+        assertThat(StatsClient.isServiceFailure(new StatsResponseException(HttpStatus.SERVICE_UNAVAILABLE))).isTrue();
+        assertThat(StatsClient.isServiceFailure(new RuntimeException(new TimeoutException()))).isTrue();
+        assertThat(StatsClient.isServiceFailure(new WebClientRequestException(new ConnectException(),
+                HttpMethod.POST, URI.create("http://localhost/hit"), new HttpHeaders()))).isTrue();
+    }
+
+    /**
+     * Клиент, которому сервис отвечает на /hit успешно, а на остальные запросы — статусом {@code queryStatus}.
+     */
+    private StatsClient client(HttpStatus queryStatus) {
+        WebClient webClient = WebClient.builder()
+                .baseUrl("http://localhost")
+                .exchangeFunction(request -> {
+                    if (request.url().getPath().equals("/hit")) {
+                        hitCalls.incrementAndGet();
+                        return Mono.just(ClientResponse.create(HttpStatus.CREATED).build());
+                    }
+                    return Mono.just(ClientResponse.create(queryStatus).build());
+                })
+                .build();
+        return new StatsClient(webClient, hitCircuitBreaker, queryCircuitBreaker, new Semaphore(10),
+                Duration.ofSeconds(1), 0, new HitIdGenerator(1), new HitSampler(Duration.ZERO));
+    }
+
+    private static EndpointHitRequest hit() {
+        return EndpointHitRequest.builder()
+                .app("ewm-main-service")
+                .uri("/events/1")
+                .ip("10.0.0.1")
+                .timestamp("2025-03-01 10:00:00")
+                .build();
+    }
+}
@@ -17,7 +17,14 @@ import jakarta.validation.constraints.NotBlank;
 @AllArgsConstructor
 public class EndpointHitRequest {
     /**
-     * Уникальный идентификатор записи.
+     * Заголовок ответа на сохранение посещений, в котором перегруженный сервис статистики объявляет
+     * долю посещений, которую клиенту следует отправлять (например, 0.25 — каждое четвертое).
+     */
+    public static final String SAMPLE_RATE_HEADER = "X-Stats-Sample-Rate";
+
+    /**
+     * Уникальный идентификатор посещения, назначаемый клиентом ({@link HitIdGenerator}).
+     * По нему сервис статистики отбрасывает повторно отправленные посещения.
      */
     private Long id;
 
@@ -45,4 +52,10 @@ public class EndpointHitRequest {
     @NotBlank
     private String timestamp;
 
+    /**
+     * Вес посещения, отправленного выборочно: сколько посещений оно представляет.
+     * Не задан — посещение отправлено без выборки и представляет только себя.
+     */
+    private Integer weight;
+
 }
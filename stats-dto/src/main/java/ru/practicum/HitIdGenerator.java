@@ -0,0 +1,72 @@
+package ru.practicum;
+
+import java.time.Instant;
+
+/**
+ * Генератор идентификаторов посещений, упорядоченных по времени.
+ * Идентификатор — положительное 63-битное число: 41 бит миллисекунд от {@link #EPOCH},
+ * 12 бит порядкового номера внутри миллисекунды и 10 бит номера генератора. Время создания посещения
+ * восстанавливается из идентификатора ({@link #timestampMillis}), поэтому сервис статистики может проверять
+ * повторы только среди идентификаторов того же периода.
+ * Номер генератора задается в настройках и должен быть уникален среди всех клиентов одного сервиса статистики:
+ * генераторы с одинаковым номером выдают совпадающие идентификаторы, и сервис отбрасывает настоящие посещения
+ * как повторы.
+ */
+public final class HitIdGenerator {
+    /**
+     * Начало отсчета времени в идентификаторах: 2024-01-01T00:00:00Z.
+     */
+    public static final long EPOCH = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+
+    private static final int NODE_BITS = 10;
+
+    /**
+     * Наибольший номер генератора.
+     */
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    private long lastMillis = -1;
+    private long sequence;
+
+    /**
+     * Генератор с номером {@code node} от 0 до {@link #MAX_NODE}.
+     */
+    public HitIdGenerator(int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Номер генератора идентификаторов должен быть от 0 до "
+                    + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+    }
+
+    /**
+     * Следующий идентификатор. Идентификаторы одного генератора строго возрастают, даже если часы
+     * переводятся назад: тогда они продолжают отсчет от последней выданной миллисекунды.
+     */
+    public synchronized long next() {
+        long millis = Math.max(System.currentTimeMillis() - EPOCH, lastMillis);
+        if (millis == lastMillis) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                // номера миллисекунды исчерпаны: идентификатор занимает следующую
+                millis++;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastMillis = millis;
+        return (millis << TIMESTAMP_SHIFT) | (sequence << NODE_BITS) | node;
+    }
+
+    /**
+     * Время создания посещения с идентификатором {@code id}, миллисекунды от начала эпохи Unix.
+     */
+    public static long timestampMillis(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.practicum;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+
+/**
+ * DTO для запроса статистики сразу по большому списку URI.
+ * URI передаются в теле запроса, поэтому их количество не ограничено длиной строки запроса.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatsBulkRequest {
+    /**
+     * Начало периода в формате yyyy-MM-dd HH:mm:ss.
+     */
+    @NotBlank
+    private String start;
+
+    /**
+     * Конец периода в формате yyyy-MM-dd HH:mm:ss.
+     */
+    @NotBlank
+    private String end;
+
+    /**
+     * Приложение, по которому нужна статистика; если не задано — по всем приложениям.
+     */
+    private String app;
+
+    /**
+     * URI, по которым нужна статистика.
+     */
+    @NotEmpty(message = "URIs cannot be empty")
+    private List<@NotBlank String> uris;
+
+    /**
+     * Учитывать только уникальные посещения (по IP).
+     */
+    private boolean unique;
+
+    /**
+     * Оценивать уникальные посещения приближенно по скетчам.
+     */
+    private boolean approximate;
+
+}
@@ -0,0 +1,38 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * DTO для возврата временных рядов посещений по нескольким URI с общими корзинами.
+ * Корзина i начинается в {@code start + i * intervalSeconds}; корзины выровнены по кратным интервала,
+ * поэтому первая и последняя из них могут выходить за запрошенный период, но посещения считаются только внутри него.
+ */
+@Getter
+@AllArgsConstructor(onConstructor_ = @JsonCreator)
+@ToString
+public class TimeSeriesStats {
+    /**
+     * Начало первой корзины в формате yyyy-MM-dd HH:mm:ss.
+     */
+    private final String start;
+
+    /**
+     * Длина корзины в секундах.
+     */
+    private final Long intervalSeconds;
+
+    /**
+     * Количество корзин в каждом ряду.
+     */
+    private final Integer buckets;
+
+    /**
+     * Ряды по URI.
+     */
+    private final List<ViewTimeSeries> series;
+}
@@ -1,5 +1,7 @@
 package ru.practicum;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.ToString;
@@ -8,8 +10,9 @@ import lombok.ToString;
  * DTO для возврата статистики по посещениям.
  */
 @Getter
-@AllArgsConstructor
+@AllArgsConstructor(onConstructor_ = @JsonCreator)
 @ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ViewStats {
     /**
      * Название сервиса.
@@ -25,4 +28,25 @@ public class ViewStats {
      * Количество просмотров для данной комбинации app и uri.
      */
     private final Long hits;
+
+    /**
+     * Относительная стандартная погрешность приближенного количества (например, 0.016 — 1,6%).
+     * Для точной статистики не заполняется.
+     */
+    private final Double relativeError;
+
+    /**
+     * Учтены ли в записи посещения, отправленные выборочно при перегрузке сервиса статистики:
+     * общее количество тогда несмещенная оценка по весам посещений, а уникальные посетители могут быть недосчитаны.
+     * Если выборочных посещений нет, не заполняется.
+     */
+    private final Boolean sampled;
+
+    public ViewStats(String app, String uri, Long hits) {
+        this(app, uri, hits, null, null);
+    }
+
+    public ViewStats(String app, String uri, Long hits, Double relativeError) {
+        this(app, uri, hits, relativeError, null);
+    }
 }
@@ -0,0 +1,29 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * DTO временного ряда посещений одного URI.
+ */
+@Getter
+@AllArgsConstructor(onConstructor_ = @JsonCreator)
+@ToString
+public class ViewTimeSeries {
+    /**
+     * Название сервиса.
+     */
+    private final String app;
+
+    /**
+     * URI сервиса, для которого собран ряд.
+     */
+    private final String uri;
+
+    /**
+     * Количество просмотров (или уникальных просмотров) в каждой корзине ряда по порядку.
+     */
+    private final long[] hits;
+}
@@ -0,0 +1,58 @@
+package ru.practicum;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HitIdGeneratorTest {
+
+    @Test
+    void nextIsStrictlyIncreasingAndUnique() {
+        HitIdGenerator generator = new HitIdGenerator(7);
+        Set<Long> ids = new HashSet<>();
+        long previous = -1;
+        // больше 4096 идентификаторов за миллисекунду: проверяется переполнение последовательности
+        for (int i = 0; i < 20_000; i++) {
+            long id = generator.next();
+            assertThat(id).isGreaterThan(previous);
+            previous = id;
+            ids.add(id);
+        }
+        assertThat(ids).hasSize(20_000);
+    }
+
+    @Test
+    void timestampMillisRestoresCreationTime() {
+        long before = System.currentTimeMillis();
+        long id = new HitIdGenerator(1).next();
+        long after = System.currentTimeMillis();
+
+        assertThat(HitIdGenerator.timestampMillis(id)).isBetween(before, after);
+    }
+
+    @Test
+    void differentNodesGenerateDifferentIds() {
+        HitIdGenerator first = new HitIdGenerator(1);
+        HitIdGenerator second = new HitIdGenerator(2);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 1_000; i++) {
+            ids.add(first.next());
+            ids.add(second.next());
+        }
+        assertThat(ids).hasSize(2_000);
+    }
+
+    @Test
+    void nodeMustFitIntoItsBits() {
+        assertThat(new HitIdGenerator(HitIdGenerator.MAX_NODE).next() & HitIdGenerator.MAX_NODE)
+                .isEqualTo(HitIdGenerator.MAX_NODE);
+        assertThatThrownBy(() -> new HitIdGenerator(HitIdGenerator.MAX_NODE + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new HitIdGenerator(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,41 @@
+package ru.practicum.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Размер пула соединений с базой из настроек запросов статистики.
+ * Одновременно соединения держат запросы обеих полос допуска ({@code stats.admission}), потоки отрезков
+ * параллельных запросов ({@code stats.query.parallelism}) и фоновые задачи: запись посещений, агрегация,
+ * обслуживание разделов и архива ({@code stats.datasource.reserved-connections}). Если пул меньше их суммы,
+ * запросы статистики могут занять все соединения и остановить прием посещений, поэтому пул увеличивается.
+ */
+@Slf4j
+@Configuration
+public class DataSourcePoolConfig {
+
+    @Bean
+    public static BeanPostProcessor dataSourcePoolSizer(
+            @Value("${stats.admission.cheap-concurrency:8}") int cheapConcurrency,
+            @Value("${stats.admission.expensive-concurrency:2}") int expensiveConcurrency,
+            @Value("${stats.query.parallelism:4}") int parallelism,
+            @Value("${stats.datasource.reserved-connections:4}") int reservedConnections) {
+        int required = Math.max(1, cheapConcurrency) + Math.max(1, expensiveConcurrency)
+                + Math.max(0, parallelism) + Math.max(1, reservedConnections);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource dataSource && dataSource.getMaximumPoolSize() < required) {
+                    log.info("Пул соединений {} увеличен с {} до {}: полосы запросов, отрезки и фоновые задачи",
+                            beanName, dataSource.getMaximumPoolSize(), required);
+                    dataSource.setMaximumPoolSize(required);
+                }
+                return bean;
+            }
+        };
+    }
+}
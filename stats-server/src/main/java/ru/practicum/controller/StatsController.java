@@ -1,22 +1,46 @@
 package ru.practicum.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import ru.practicum.EndpointHitRequest;
+import ru.practicum.StatsBulkRequest;
+import ru.practicum.TimeSeriesStats;
 import ru.practicum.exception.BadRequestException;
 import ru.practicum.model.EndpointHit;
+import ru.practicum.model.TimeBuckets;
 import ru.practicum.ViewStats;
-import ru.practicum.repository.StatsRepository;
+import ru.practicum.service.HitDeduplicator;
+import ru.practicum.service.HitRequests;
+import ru.practicum.service.HitSamplingAdvisor;
+import ru.practicum.service.HitStreamIngestor;
+import ru.practicum.service.StatsQueryAdmission;
 import ru.practicum.service.StatsService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * REST контроллер для обработки HTTP запросов статистики.
@@ -25,47 +49,138 @@ import java.util.List;
 @RestController
 @RequiredArgsConstructor
 public class StatsController {
-    private final StatsRepository statsRepository;
+    /**
+     * Ключ перехватчика, освобождающего место запроса /stats/bulk по завершении асинхронной обработки.
+     */
+    private static final String BULK_PERMIT_INTERCEPTOR = StatsController.class.getName() + ".bulkPermit";
 
     /**
      * Сервис для бизнес-логики статистики.
      */
     private final StatsService statsService;
 
+    /**
+     * Отбрасывание повторно отправленных посещений.
+     */
+    private final HitDeduplicator hitDeduplicator;
+
+    /**
+     * Прием посещений потоком и пакетами.
+     */
+    private final HitStreamIngestor hitStreamIngestor;
+
+    /**
+     * Доля посещений, которую клиентам следует отправлять при перегрузке.
+     */
+    private final HitSamplingAdvisor hitSamplingAdvisor;
+
+    /**
+     * Допуск запросов статистики по их стоимости.
+     */
+    private final StatsQueryAdmission statsQueryAdmission;
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Количество URI, обрабатываемых за один подсчет в запросе /stats/bulk.
+     */
+    @Value("${stats.bulk.batch-size:1000}")
+    private int bulkBatchSize;
+
+    /**
+     * Максимальное количество URI в одном запросе /stats/bulk.
+     */
+    @Value("${stats.bulk.max-uris:20000}")
+    private int bulkMaxUris;
+
+    /**
+     * Максимальное количество корзин во временном ряду.
+     */
+    @Value("${stats.timeseries.max-buckets:10000}")
+    private int timeSeriesMaxBuckets;
+
     /**
      * Обрабатывает запрос на сохранение информации о посещении эндпоинта.
+     * Повторно отправленное посещение (с уже полученным идентификатором) не сохраняется,
+     * но ответ такой же, как при первой отправке: посещение с идентификатором, назначенным клиентом.
+     * В заголовке ответа, в том числе ответа об ошибке, объявляется доля посещений для выборочной отправки.
      */
     @PostMapping("/hit")
     @ResponseStatus(HttpStatus.CREATED)
-    public EndpointHit hit(@Valid @RequestBody EndpointHitRequest hitRequest) {
+    public EndpointHit hit(@Valid @RequestBody EndpointHitRequest hitRequest, HttpServletResponse response) {
         log.debug("Получен POST /hit запрос: {}", hitRequest);
 
-        // Парсим timestamp из String в LocalDateTime
-        LocalDateTime timestamp = parseDateTime(hitRequest.getTimestamp());
+        try {
+            EndpointHit hit = HitRequests.toEntity(hitRequest, hitSamplingAdvisor.maxWeight());
+            if (!hitDeduplicator.firstSeen(hitRequest.getId())) {
+                log.debug("Посещение {} уже было получено", hitRequest.getId());
+                return hit;
+            }
+            EndpointHit savedHit;
+            try {
+                savedHit = statsService.saveHit(hit);
+            } catch (RuntimeException e) {
+                if (hitRequest.getId() != null) {
+                    hitDeduplicator.forgetUnsaved(List.of(hitRequest.getId()), e);
+                }
+                throw e;
+            }
+            log.debug("Сохранена информация о посещении: {}", savedHit);
+            return savedHit;
+        } finally {
+            advertiseSampleRate(response);
+        }
+    }
 
-        // Создаем Entity
-        EndpointHit hit = EndpointHit.builder()
-                .app(hitRequest.getApp())
-                .uri(hitRequest.getUri())
-                .ip(hitRequest.getIp())
-                .timestamp(timestamp)
-                .build();
+    /**
+     * Обрабатывает пакетный запрос на сохранение нескольких посещений одним вызовом.
+     * Повторно отправленные посещения пакета отбрасываются, а некорректные (например, с IP-адресом
+     * не в формате IPv4 или IPv6) пропускаются по одному: остальные посещения пакета сохраняются.
+     * В ответ возвращается итог приема.
+     * В заголовке ответа, в том числе ответа об ошибке, объявляется доля посещений для выборочной отправки.
+     */
+    @PostMapping("/hits")
+    @ResponseStatus(HttpStatus.CREATED)
+    public HitStreamIngestor.Summary hits(@RequestBody @NotEmpty List<@Valid EndpointHitRequest> hitRequests,
+                                          HttpServletResponse response) {
+        log.debug("Получен POST /hits запрос: {} записей", hitRequests.size());
+        try {
+            return hitStreamIngestor.ingest(hitRequests);
+        } finally {
+            advertiseSampleRate(response);
+        }
+    }
 
-        EndpointHit savedHit = statsService.saveHit(hit);
-        log.debug("Сохранена информация о посещении: {}", savedHit);
-        return savedHit;
+    /**
+     * Принимает поток посещений в формате NDJSON (по записи в строке) в теле одного долгого запроса
+     * с фрагментированной передачей. Записи разбираются и сохраняются по мере поступления;
+     * в ответ после окончания потока возвращается итог приема.
+     */
+    @PostMapping(value = "/hits/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public HitStreamIngestor.Summary hitsStream(InputStream body) throws IOException {
+        log.debug("Получен POST /hits/stream запрос");
+        return hitStreamIngestor.ingest(body);
     }
 
     /**
      * Обрабатывает запрос на получение статистики по посещениям.
+     * При {@code approximate=true} уникальные посещения оцениваются с погрешностью, указанной в ответе.
+     * URI со звездочкой ({@code uris=/events/*}) — шаблон: в ответ попадают все подходящие URI,
+     * а при {@code rollup=true} — одна запись под шаблоном с их суммарными посещениями.
+     * Параметр {@code app} ограничивает статистику одним приложением; без него записи возвращаются по всем.
+     * Дорогой запрос ждет своей очереди; при заполненной очереди возвращается 429, по истечении ожидания — 503.
      */
     @GetMapping("/stats")
     public List<ViewStats> getStats(
             // Парсим вручную из-за тестов
             @RequestParam String start,
             @RequestParam String end,
+            @RequestParam(required = false) String app,
             @RequestParam(required = false) List<String> uris,
-            @RequestParam(defaultValue = "false") Boolean unique) {
+            @RequestParam(defaultValue = "false") Boolean unique,
+            @RequestParam(defaultValue = "false") Boolean approximate,
+            @RequestParam(defaultValue = "false") Boolean rollup) {
 
         LocalDateTime startTime = parseDateTime(start);
         LocalDateTime endTime = parseDateTime(end);
@@ -75,15 +190,11 @@ public class StatsController {
         log.debug("URIs: {}", uris);
         log.debug("Unique: {}", unique);
 
-        log.debug("Получен GET /stats запрос: start={}, end={}, uris={}, unique={}",
-                startTime, endTime, uris, unique);
+        log.debug("Получен GET /stats запрос: start={}, end={}, app={}, uris={}, unique={}, approximate={}, " +
+                "rollup={}", startTime, endTime, app, uris, unique, approximate, rollup);
 
         validateTimeRange(startTime, endTime);
 
-        // Проверим сколько всего записей в БД
-        long totalHits = statsRepository.count();
-        log.debug("TOTAL HITS IN DB: {}", totalHits);
-
         if (uris != null) {
             uris = uris.stream()
                     .map(uri -> URLDecoder.decode(uri, StandardCharsets.UTF_8))
@@ -91,13 +202,142 @@ public class StatsController {
             log.debug("Декодированные URIs: {}", uris);
         }
 
-        List<ViewStats> stats = statsService.getStats(startTime, endTime, uris, unique);
+        List<ViewStats> stats;
+        try (StatsQueryAdmission.Permit permit = statsQueryAdmission.admit(
+                statsService.estimateCost(startTime, endTime, uris, unique))) {
+            stats = statsService.getStats(startTime, endTime, app, uris, unique, approximate, rollup);
+        }
 
         log.debug("Возвращено {} записей статистики", stats.size());
 
         return stats;
     }
 
+    /**
+     * Обрабатывает запрос статистики по большому списку URI, переданному в теле запроса.
+     * URI считаются порциями по {@code stats.bulk.batch-size}, и записи каждой порции сразу дописываются
+     * в JSON-массив ответа: ответ не собирается в памяти целиком, а клиент получает записи до окончания подсчета.
+     * Каждая порция считается в своем снимке базы. Запрос допускается по стоимости всего списка URI
+     * до начала ответа, и место в полосе занято, пока ответ не записан целиком.
+     * Тело ответа выполняется асинхронно и может не начаться вовсе (тайм-аут, отключение клиента, отказ пула),
+     * поэтому место освобождается и по завершении асинхронной обработки запроса, как бы она ни закончилась.
+     */
+    @PostMapping(value = "/stats/bulk", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody getBulkStats(@Valid @RequestBody StatsBulkRequest request,
+                                              HttpServletRequest httpRequest) {
+        LocalDateTime startTime = parseDateTime(request.getStart());
+        LocalDateTime endTime = parseDateTime(request.getEnd());
+        validateTimeRange(startTime, endTime);
+
+        List<String> uris = List.copyOf(new LinkedHashSet<>(request.getUris()));
+        if (uris.size() > bulkMaxUris) {
+            throw new BadRequestException("Слишком много URI в запросе: " + uris.size() +
+                    ", допускается не более " + bulkMaxUris);
+        }
+        log.debug("Получен POST /stats/bulk запрос: start={}, end={}, app={}, URI: {}, unique={}, approximate={}",
+                startTime, endTime, request.getApp(), uris.size(), request.isUnique(), request.isApproximate());
+
+        StatsQueryAdmission.Permit permit = statsQueryAdmission.admit(
+                statsService.estimateCost(startTime, endTime, uris, request.isUnique()));
+        WebAsyncUtils.getAsyncManager(httpRequest).registerCallableInterceptor(BULK_PERMIT_INTERCEPTOR,
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                        permit.close();
+                    }
+                });
+        return output -> {
+            int written = 0;
+            try (permit; JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+                generator.writeStartArray();
+                for (int from = 0; from < uris.size(); from += bulkBatchSize) {
+                    List<String> batch = uris.subList(from, Math.min(from + bulkBatchSize, uris.size()));
+                    for (ViewStats stats : statsService.getStats(startTime, endTime, request.getApp(), batch,
+                            request.isUnique(), request.isApproximate(), false)) {
+                        objectMapper.writeValue(generator, stats);
+                        written++;
+                    }
+                    generator.flush();
+                }
+                generator.writeEndArray();
+            }
+            log.debug("Возвращено {} записей статистики по {} URI", written, uris.size());
+        };
+    }
+
+    /**
+     * Обрабатывает запрос самых посещаемых URI за последние {@code window} минут.
+     * Количества посещений приближенные (не меньше точных), ответ не зависит от количества посещений в окне.
+     */
+    @GetMapping("/stats/top")
+    public List<ViewStats> getTopStats(@RequestParam(defaultValue = "60") int window,
+                                       @RequestParam(defaultValue = "10") int k) {
+        log.debug("Получен GET /stats/top запрос: window={}, k={}", window, k);
+        if (window <= 0 || k <= 0) {
+            throw new BadRequestException("Параметры window и k должны быть положительными");
+        }
+        return statsService.getTopStats(window, k);
+    }
+
+    /**
+     * Обрабатывает запрос временных рядов посещений по URI с корзинами длины {@code interval}
+     * (например, {@code 15m}, {@code 1h}, {@code 1d} или {@code PT15M}).
+     * Корзины выровнены по кратным интервала, ряды всех URI имеют одинаковую длину.
+     * Ряды строятся по приложению и URI; параметр {@code app} оставляет только посещения этого приложения.
+     * Запрос допускается по стоимости так же, как запрос /stats.
+     */
+    @GetMapping("/stats/timeseries")
+    public TimeSeriesStats getTimeSeries(@RequestParam String start,
+                                         @RequestParam String end,
+                                         @RequestParam(required = false) String app,
+                                         @RequestParam(required = false) List<String> uris,
+                                         @RequestParam String interval,
+                                         @RequestParam(defaultValue = "false") Boolean unique) {
+        LocalDateTime startTime = parseDateTime(start);
+        LocalDateTime endTime = parseDateTime(end);
+        log.debug("Получен GET /stats/timeseries запрос: start={}, end={}, app={}, uris={}, interval={}, unique={}",
+                startTime, endTime, app, uris, interval, unique);
+        validateTimeRange(startTime, endTime);
+
+        TimeBuckets buckets = TimeBuckets.of(startTime, endTime.plusNanos(1_000), parseInterval(interval));
+        if (buckets.count() > timeSeriesMaxBuckets) {
+            throw new BadRequestException("Слишком много корзин: " + buckets.count() +
+                    ", допускается не более " + timeSeriesMaxBuckets);
+        }
+        if (uris != null) {
+            uris = uris.stream()
+                    .map(uri -> URLDecoder.decode(uri, StandardCharsets.UTF_8))
+                    .toList();
+        }
+        try (StatsQueryAdmission.Permit permit = statsQueryAdmission.admit(
+                statsService.estimateCost(startTime, endTime, uris, unique))) {
+            return statsService.getTimeSeries(startTime, endTime, app, uris, buckets, unique);
+        }
+    }
+
+    /**
+     * Объявляет клиенту долю посещений для отправки по заполненности очереди записи после обработки запроса.
+     */
+    private void advertiseSampleRate(HttpServletResponse response) {
+        response.setHeader(EndpointHitRequest.SAMPLE_RATE_HEADER, hitSamplingAdvisor.sampleRate());
+    }
+
+    /**
+     * Длина корзины в секундах: целое положительное количество секунд.
+     */
+    private long parseInterval(String interval) {
+        Duration duration;
+        try {
+            duration = DurationStyle.detectAndParse(interval);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Некорректный интервал: " + interval);
+        }
+        if (duration.getSeconds() <= 0 || duration.getNano() != 0) {
+            throw new BadRequestException("Интервал должен быть целым положительным количеством секунд: " + interval);
+        }
+        return duration.getSeconds();
+    }
+
     private LocalDateTime parseDateTime(String dateTimeStr) {
         return LocalDateTime.parse(dateTimeStr.replace(" ", "T"));
     }
@@ -0,0 +1,27 @@
+package ru.practicum.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Посещения поставлены в очередь записи, но не записаны за отведенное время. Пакет остается в очереди
+ * и еще может быть записан; итог записи доступен через {@link #flushed()}.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class HitWritePendingException extends ServiceOverloadedException {
+    private final transient CompletableFuture<Void> flushed;
+
+    public HitWritePendingException(String message, CompletableFuture<Void> flushed) {
+        super(message);
+        this.flushed = flushed;
+    }
+
+    /**
+     * Завершается после записи пакета или с ошибкой, если записать его не удалось.
+     */
+    public CompletableFuture<Void> flushed() {
+        return flushed;
+    }
+}
@@ -0,0 +1,8 @@
+package ru.practicum.model;
+
+/**
+ * Ключ статистики: идентификаторы приложения и URI из словарей. Все источники (исходные и архивные посещения,
+ * агрегаты, карты посетителей и скетчи) группируют результат по этой паре за один проход по всем приложениям.
+ */
+public record AppUri(int appId, int uriId) {
+}
@@ -0,0 +1,9 @@
+package ru.practicum.model;
+
+import java.time.LocalDate;
+
+/**
+ * День, посещения которого перенесены из endpoint_hits в файл архива.
+ */
+public record ArchivedDay(LocalDate day, String file, long hits) {
+}
@@ -0,0 +1,10 @@
+package ru.practicum.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Посещение в архиве: значения словарей хранятся идентификаторами,
+ * IP — строкой и идентификатором из словаря посетителей (0, если адреса в словаре нет).
+ */
+public record ArchivedHit(long id, LocalDateTime timestamp, int uriId, int appId, String ip, int ipId) {
+}
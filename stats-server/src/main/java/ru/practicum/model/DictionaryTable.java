@@ -0,0 +1,32 @@
+package ru.practicum.model;
+
+/**
+ * Таблица-словарь строковых значений посещений.
+ */
+public enum DictionaryTable {
+    APP("apps", "app"),
+    URI("uris", "uri");
+
+    /**
+     * Таблица словаря.
+     */
+    private final String table;
+
+    /**
+     * Столбец со строковым значением.
+     */
+    private final String column;
+
+    DictionaryTable(String table, String column) {
+        this.table = table;
+        this.column = column;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+}
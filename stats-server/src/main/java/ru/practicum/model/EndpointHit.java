@@ -3,14 +3,18 @@ package ru.practicum.model;
 import lombok.*;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Immutable;
 
 import java.time.LocalDateTime;
 
 /**
  * JPA сущность для хранения информации о посещениях эндпоинтов.
+ * Посещения хранятся в компактном виде с идентификаторами из словарей и записываются через COPY,
+ * поэтому сущность только читается из представления с раскрытыми значениями.
  */
 @Entity
-@Table(name = "endpoint_hits")
+@Immutable
+@Table(name = "endpoint_hits_view")
 @Getter
 @Setter
 @NoArgsConstructor
@@ -22,7 +26,6 @@ public class EndpointHit {
      * Уникальный идентификатор записи.
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
     /**
@@ -48,4 +51,18 @@ public class EndpointHit {
      */
     @Column(name = "timestamp", nullable = false)
     private LocalDateTime timestamp;
+
+    /**
+     * Вес выборочно отправленного посещения (сколько посещений оно представляет) или {@code null}.
+     * Посещение хранится один раз, а превышение веса над единицей учитывается отдельно.
+     */
+    @Transient
+    private Integer weight;
+
+    /**
+     * Сколько посещений представляет запись: вес выборочного посещения или 1.
+     */
+    public int weightOrOne() {
+        return weight != null ? weight : 1;
+    }
 }
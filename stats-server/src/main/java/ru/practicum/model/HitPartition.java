@@ -0,0 +1,10 @@
+package ru.practicum.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Раздел таблицы посещений и его границы [from, to).
+ * Пустая нижняя граница означает MINVALUE; у раздела по умолчанию границ нет.
+ */
+public record HitPartition(String name, LocalDateTime from, LocalDateTime to, boolean isDefault) {
+}
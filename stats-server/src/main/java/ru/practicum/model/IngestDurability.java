@@ -0,0 +1,16 @@
+package ru.practicum.model;
+
+/**
+ * Момент, в который сервис подтверждает прием посещения.
+ */
+public enum IngestDurability {
+    /**
+     * Подтверждение сразу после постановки в очередь записи.
+     */
+    ENQUEUE,
+
+    /**
+     * Подтверждение после того, как пакет с посещением записан в базу.
+     */
+    FLUSH
+}
@@ -0,0 +1,38 @@
+package ru.practicum.model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Длительность одного раздела таблицы посещений.
+ */
+public enum PartitionInterval {
+    DAY(ChronoUnit.DAYS),
+    WEEK(ChronoUnit.WEEKS);
+
+    private final ChronoUnit unit;
+
+    PartitionInterval(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Начало интервала, содержащего момент времени. Недели начинаются с понедельника.
+     */
+    public LocalDateTime floor(LocalDateTime time) {
+        LocalDate day = time.toLocalDate();
+        if (this == WEEK) {
+            day = day.with(DayOfWeek.MONDAY);
+        }
+        return day.atStartOfDay();
+    }
+
+    /**
+     * Начало интервала, следующего за интервалом, содержащим момент времени.
+     */
+    public LocalDateTime next(LocalDateTime time) {
+        return floor(time).plus(1, unit);
+    }
+}
@@ -0,0 +1,16 @@
+package ru.practicum.model;
+
+/**
+ * Что делать с разделом посещений, срок хранения которого истек.
+ */
+public enum PartitionRetentionAction {
+    /**
+     * Отключить раздел от таблицы посещений, оставив его отдельной таблицей.
+     */
+    DETACH,
+
+    /**
+     * Удалить раздел вместе с данными.
+     */
+    DROP
+}
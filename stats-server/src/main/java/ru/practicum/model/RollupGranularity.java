@@ -0,0 +1,61 @@
+package ru.practicum.model;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Гранулярность таблиц предагрегированных посещений.
+ */
+public enum RollupGranularity {
+    MINUTE("hit_rollups_minute", "minute", ChronoUnit.MINUTES),
+    HOUR("hit_rollups_hour", "hour", ChronoUnit.HOURS),
+    DAY("hit_rollups_day", "day", ChronoUnit.DAYS);
+
+    /**
+     * Таблица с агрегатами этой гранулярности.
+     */
+    private final String table;
+
+    /**
+     * Единица усечения для date_trunc.
+     */
+    private final String truncUnit;
+
+    private final ChronoUnit unit;
+
+    RollupGranularity(String table, String truncUnit, ChronoUnit unit) {
+        this.table = table;
+        this.truncUnit = truncUnit;
+        this.unit = unit;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getTruncUnit() {
+        return truncUnit;
+    }
+
+    /**
+     * Длина корзины в секундах.
+     */
+    public long getSeconds() {
+        return unit.getDuration().getSeconds();
+    }
+
+    /**
+     * Начало корзины, содержащей момент времени.
+     */
+    public LocalDateTime floor(LocalDateTime time) {
+        return time.truncatedTo(unit);
+    }
+
+    /**
+     * Начало первой корзины, которая начинается не раньше момента времени.
+     */
+    public LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime floor = floor(time);
+        return floor.equals(time) ? floor : floor.plus(1, unit);
+    }
+}
@@ -0,0 +1,7 @@
+package ru.practicum.model;
+
+/**
+ * Число посещений в таблице или разделе и наибольший идентификатор среди них (0, если посещений нет).
+ */
+public record TableHits(long hits, long maxId) {
+}
@@ -0,0 +1,60 @@
+package ru.practicum.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Корзины временного ряда: {@code count} полуинтервалов по {@code stepSeconds} секунд начиная с {@code origin}.
+ * Начало выровнено по кратным длины корзины от начала эпохи (суточные корзины начинаются в полночь,
+ * часовые — в начале часа), поэтому первая и последняя корзины могут выходить за период запроса.
+ */
+public record TimeBuckets(LocalDateTime origin, long stepSeconds, int count) {
+
+    /**
+     * Корзины, покрывающие [start, endExclusive).
+     */
+    public static TimeBuckets of(LocalDateTime start, LocalDateTime endExclusive, long stepSeconds) {
+        long originSecond = Math.floorDiv(epochSecond(start), stepSeconds) * stepSeconds;
+        LocalDateTime origin = LocalDateTime.ofEpochSecond(originSecond, 0, ZoneOffset.UTC);
+        long last = Math.floorDiv(epochSecond(endExclusive.minusNanos(1_000)) - originSecond, stepSeconds);
+        return new TimeBuckets(origin, stepSeconds, (int) Math.min(Integer.MAX_VALUE, Math.max(0, last + 1)));
+    }
+
+    /**
+     * Номер корзины, содержащей момент времени.
+     */
+    public int index(LocalDateTime time) {
+        return index(epochSecond(time));
+    }
+
+    /**
+     * Номер корзины, содержащей секунду от начала эпохи.
+     */
+    public int index(long epochSecond) {
+        return (int) Math.floorDiv(epochSecond - originSecond(), stepSeconds);
+    }
+
+    /**
+     * SQL-выражение номера корзины для столбца типа timestamp. Подставляются только числа,
+     * поэтому выражение можно встраивать в текст запроса.
+     */
+    public String sqlIndex(String column) {
+        return "floor((extract(epoch FROM " + column + ") - " + originSecond() + ") / " + stepSeconds + ")::int";
+    }
+
+    public long originSecond() {
+        return epochSecond(origin);
+    }
+
+    /**
+     * Кратна ли длина корзины ряда длине корзины агрегата: тогда каждая корзина агрегата целиком
+     * попадает в одну корзину ряда.
+     */
+    public boolean isMultipleOf(RollupGranularity granularity) {
+        return stepSeconds % granularity.getSeconds() == 0;
+    }
+
+    private static long epochSecond(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+}
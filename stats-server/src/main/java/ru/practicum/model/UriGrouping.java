@@ -0,0 +1,123 @@
+package ru.practicum.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Группировка результатов статистики по шаблонам URI.
+ * В шаблоне {@code *} обозначает любую последовательность символов: {@code /events/*} — все события,
+ * {@code /compilations*} — все под {@code /compilations}. Каждый URI из фильтра запроса попадает в результат
+ * под своим именем, если запрошен точно, и под каждым шаблоном, которому соответствует.
+ *
+ * @param keysByUri ключи результата для каждого URI, к которому сводится фильтр
+ */
+public record UriGrouping(Map<String, List<String>> keysByUri) {
+    private static final char WILDCARD = '*';
+
+    /**
+     * Есть ли в фильтре URI шаблоны.
+     */
+    public static boolean hasPatterns(List<String> uris) {
+        return uris != null && uris.stream().anyMatch(UriGrouping::isPattern);
+    }
+
+    public static boolean isPattern(String uri) {
+        return uri.indexOf(WILDCARD) >= 0;
+    }
+
+    /**
+     * Шаблоны из фильтра URI.
+     */
+    public static List<String> patterns(List<String> uris) {
+        return uris.stream().filter(UriGrouping::isPattern).distinct().toList();
+    }
+
+    /**
+     * Шаблон для SQL LIKE: служебные символы LIKE экранируются, {@code *} заменяется на {@code %}.
+     */
+    public static String toLike(String pattern) {
+        return pattern.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_")
+                .replace(WILDCARD, '%');
+    }
+
+    /**
+     * Регулярное выражение, соответствующее шаблону.
+     */
+    public static Pattern toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        int from = 0;
+        for (int star = pattern.indexOf(WILDCARD); star >= 0; star = pattern.indexOf(WILDCARD, from)) {
+            regex.append(Pattern.quote(pattern.substring(from, star))).append(".*");
+            from = star + 1;
+        }
+        return Pattern.compile(regex.append(Pattern.quote(pattern.substring(from))).toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Группировка для фильтра {@code uris} по URI, найденным для каждого шаблона.
+     */
+    public static UriGrouping of(List<String> uris, Map<String, List<String>> matchedByPattern) {
+        Map<String, List<String>> keysByUri = new LinkedHashMap<>();
+        for (String uri : uris) {
+            if (isPattern(uri)) {
+                for (String matched : matchedByPattern.getOrDefault(uri, List.of())) {
+                    addKey(keysByUri, matched, uri);
+                }
+            } else {
+                addKey(keysByUri, uri, uri);
+            }
+        }
+        return new UriGrouping(keysByUri);
+    }
+
+    /**
+     * URI, к которым сводится фильтр: точные и найденные по шаблонам.
+     */
+    public List<String> uris() {
+        return List.copyOf(keysByUri.keySet());
+    }
+
+    /**
+     * Суммирует количества URI по ключам результата.
+     */
+    public Map<String, Long> sum(Map<String, Long> counts) {
+        return group(counts, Long::sum);
+    }
+
+    /**
+     * Объединяет значения URI по ключам результата. {@code union} не должен изменять аргументы:
+     * одно значение может войти в несколько ключей.
+     */
+    public <T> Map<String, T> group(Map<String, T> values, BinaryOperator<T> union) {
+        Map<String, T> grouped = new HashMap<>();
+        values.forEach((uri, value) -> {
+            for (String key : keysByUri.getOrDefault(uri, List.of(uri))) {
+                grouped.merge(key, value, union);
+            }
+        });
+        return grouped;
+    }
+
+    /**
+     * Объединяет значения URI по ключам результата отдельно для каждого приложения.
+     */
+    public <T> Map<String, Map<String, T>> groupByApp(Map<String, Map<String, T>> values, BinaryOperator<T> union) {
+        Map<String, Map<String, T>> grouped = new HashMap<>();
+        values.forEach((app, byUri) -> grouped.put(app, group(byUri, union)));
+        return grouped;
+    }
+
+    private static void addKey(Map<String, List<String>> keysByUri, String uri, String key) {
+        List<String> keys = keysByUri.computeIfAbsent(uri, value -> new ArrayList<>(1));
+        if (!keys.contains(key)) {
+            keys.add(key);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package ru.practicum.repository;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Активный сегмент — отображенный в память журнал, в который дописываются посещения.
+ * Записи фиксированной длины: [uriId + 1][ipId][appId][время в мс]. Время в журнале хранится целиком,
+ * чтобы посещения с любым временем шли в один журнал; смещениями от базы оно кодируется при запечатывании.
+ * Файл создается сразу на всю емкость и заполнен нулями, поэтому конец журнала — первая запись
+ * с нулевым URI. Пишет один поток под блокировкой хранилища; читатели просматривают
+ * только записи до опубликованного счетчика.
+ */
+final class ActiveHitSegment {
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 20;
+
+    private static final int MAGIC = 0x53484c47;
+    private static final int VERSION = 1;
+
+    private final long id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private volatile int count;
+
+    private ActiveHitSegment(long id, Path path, MappedByteBuffer buffer, int count) {
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = (buffer.capacity() - HEADER_BYTES) / RECORD_BYTES;
+        this.count = count;
+    }
+
+    /**
+     * Создает пустой журнал на {@code capacity} записей.
+     */
+    static ActiveHitSegment create(long id, Path path, int capacity) throws IOException {
+        MappedByteBuffer buffer = map(path, HEADER_BYTES + (long) capacity * RECORD_BYTES);
+        buffer.putInt(0, MAGIC).putInt(4, VERSION);
+        return new ActiveHitSegment(id, path, buffer, 0);
+    }
+
+    /**
+     * Открывает журнал после перезапуска и воспроизводит записи после контрольной точки:
+     * берутся подряд идущие записи, ссылающиеся на уже сохраненные значения словарей.
+     */
+    static ActiveHitSegment recover(long id, Path path, int checkpointCount,
+                                    int uriLimit, int ipLimit, int appLimit) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Файл " + path + " не является журналом посещений");
+        }
+        int capacity = (buffer.capacity() - HEADER_BYTES) / RECORD_BYTES;
+        int count = Math.min(checkpointCount, capacity);
+        while (count < capacity) {
+            int position = HEADER_BYTES + count * RECORD_BYTES;
+            int uriId = buffer.getInt(position) - 1;
+            if (uriId < 0 || uriId >= uriLimit
+                    || buffer.getInt(position + 4) >= ipLimit || buffer.getInt(position + 8) >= appLimit) {
+                break;
+            }
+            count++;
+        }
+        return new ActiveHitSegment(id, path, buffer, count);
+    }
+
+    boolean isFull() {
+        return count == capacity;
+    }
+
+    void append(int uriId, int ipId, int appId, long millis) {
+        int position = HEADER_BYTES + count * RECORD_BYTES;
+        buffer.putInt(position + 4, ipId)
+                .putInt(position + 8, appId)
+                .putLong(position + 12, millis)
+                .putInt(position, uriId + 1);
+        count++;
+    }
+
+    /**
+     * Добавляет в {@code counts} посещения первых {@code limit} записей, подходящих под условия.
+     */
+    void countHits(SegmentScan scan, int limit, long[] counts) {
+        long from = scan.fromMillis();
+        long to = scan.toMillis();
+        for (int position = HEADER_BYTES, end = HEADER_BYTES + limit * RECORD_BYTES; position < end;
+             position += RECORD_BYTES) {
+            long millis = buffer.getLong(position + 12);
+            int uriId = buffer.getInt(position) - 1;
+            if (millis >= from && millis < to && scan.accepts(uriId) && scan.acceptsApp(buffer.getInt(position + 8))) {
+                counts[uriId]++;
+            }
+        }
+    }
+
+    /**
+     * Добавляет в карты {@code visitors} посетителей первых {@code limit} записей, подходящих под условия.
+     */
+    void collectVisitors(SegmentScan scan, int limit, RoaringBitmap[] visitors) {
+        long from = scan.fromMillis();
+        long to = scan.toMillis();
+        for (int position = HEADER_BYTES, end = HEADER_BYTES + limit * RECORD_BYTES; position < end;
+             position += RECORD_BYTES) {
+            long millis = buffer.getLong(position + 12);
+            int uriId = buffer.getInt(position) - 1;
+            if (millis >= from && millis < to && scan.accepts(uriId) && scan.acceptsApp(buffer.getInt(position + 8))) {
+                if (visitors[uriId] == null) {
+                    visitors[uriId] = new RoaringBitmap();
+                }
+                visitors[uriId].add(buffer.getInt(position + 4));
+            }
+        }
+    }
+
+    /**
+     * Добавляет в {@code counts[uriId][корзина]} посещения первых {@code limit} записей, подходящих под условия.
+     */
+    void countHitsByBucket(SegmentScan scan, int limit, long originMillis, long stepMillis, int buckets,
+                           long[][] counts) {
+        long from = scan.fromMillis();
+        long to = scan.toMillis();
+        for (int position = HEADER_BYTES, end = HEADER_BYTES + limit * RECORD_BYTES; position < end;
+             position += RECORD_BYTES) {
+            long millis = buffer.getLong(position + 12);
+            int uriId = buffer.getInt(position) - 1;
+            if (millis >= from && millis < to && scan.accepts(uriId) && scan.acceptsApp(buffer.getInt(position + 8))) {
+                if (counts[uriId] == null) {
+                    counts[uriId] = new long[buckets];
+                }
+                counts[uriId][(int) Math.floorDiv(millis - originMillis, stepMillis)]++;
+            }
+        }
+    }
+
+    /**
+     * Добавляет в карты {@code visitors[uriId][корзина]} посетителей первых {@code limit} записей,
+     * подходящих под условия.
+     */
+    void collectVisitorsByBucket(SegmentScan scan, int limit, long originMillis, long stepMillis, int buckets,
+                                 RoaringBitmap[][] visitors) {
+        long from = scan.fromMillis();
+        long to = scan.toMillis();
+        for (int position = HEADER_BYTES, end = HEADER_BYTES + limit * RECORD_BYTES; position < end;
+             position += RECORD_BYTES) {
+            long millis = buffer.getLong(position + 12);
+            int uriId = buffer.getInt(position) - 1;
+            if (millis >= from && millis < to && scan.accepts(uriId) && scan.acceptsApp(buffer.getInt(position + 8))) {
+                int bucket = (int) Math.floorDiv(millis - originMillis, stepMillis);
+                if (visitors[uriId] == null) {
+                    visitors[uriId] = new RoaringBitmap[buckets];
+                }
+                if (visitors[uriId][bucket] == null) {
+                    visitors[uriId][bucket] = new RoaringBitmap();
+                }
+                visitors[uriId][bucket].add(buffer.getInt(position + 4));
+            }
+        }
+    }
+
+    /**
+     * Запечатывает журнал: записи раскладываются по окнам времени {@link SealedHitSegment#WINDOW_MILLIS},
+     * внутри окна сортируются по URI (подсчетом) и по времени и записываются в неизменяемые сегменты
+     * с каталогом URI — по одному на каждое окно, в которое попали посещения.
+     */
+    List<SealedHitSegment> seal(LongFunction<Path> sealedPath, LongSupplier ids) throws IOException {
+        int n = count;
+        Set<Long> windows = new TreeSet<>();
+        for (int i = 0; i < n; i++) {
+            windows.add(SealedHitSegment.windowStart(millisAt(i)));
+        }
+        List<SealedHitSegment> sealed = new ArrayList<>(windows.size());
+        for (long window : windows) {
+            long id = ids.getAsLong();
+            sealed.add(sealWindow(window, n).write(id, sealedPath.apply(id)));
+        }
+        return sealed;
+    }
+
+    private SealedHitSegment.Builder sealWindow(long window, int n) {
+        int uriBound = 0;
+        int records = 0;
+        for (int i = 0; i < n; i++) {
+            if (SealedHitSegment.windowStart(millisAt(i)) == window) {
+                uriBound = Math.max(uriBound, uriAt(i) + 1);
+                records++;
+            }
+        }
+        int[] starts = new int[uriBound + 1];
+        for (int i = 0; i < n; i++) {
+            if (SealedHitSegment.windowStart(millisAt(i)) == window) {
+                starts[uriAt(i) + 1]++;
+            }
+        }
+        for (int u = 0; u < uriBound; u++) {
+            starts[u + 1] += starts[u];
+        }
+        int[] fill = starts.clone();
+        // старшие 32 бита — смещение времени от начала окна, младшие — номер записи в журнале
+        long[] keys = new long[records];
+        for (int i = 0; i < n; i++) {
+            long millis = millisAt(i);
+            if (SealedHitSegment.windowStart(millis) == window) {
+                keys[fill[uriAt(i)]++] = ((millis - window) << 32) | i;
+            }
+        }
+
+        SealedHitSegment.Builder builder = new SealedHitSegment.Builder(window, records);
+        for (int u = 0; u < uriBound; u++) {
+            if (starts[u] == starts[u + 1]) {
+                continue;
+            }
+            Arrays.sort(keys, starts[u], starts[u + 1]);
+            builder.startUri(u);
+            for (int k = starts[u]; k < starts[u + 1]; k++) {
+                int position = HEADER_BYTES + (int) keys[k] * RECORD_BYTES;
+                builder.add((int) (keys[k] >>> 32), buffer.getInt(position + 4), buffer.getInt(position + 8));
+            }
+        }
+        return builder;
+    }
+
+    long id() {
+        return id;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int count() {
+        return count;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    private int uriAt(int index) {
+        return buffer.getInt(HEADER_BYTES + index * RECORD_BYTES) - 1;
+    }
+
+    private long millisAt(int index) {
+        return buffer.getLong(HEADER_BYTES + index * RECORD_BYTES + 12);
+    }
+
+    static MappedByteBuffer map(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.ArchivedDay;
+import ru.practicum.model.ArchivedHit;
+import ru.practicum.model.TableHits;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Репозиторий переноса посещений в архив: каталог архивных дней и выборка/удаление посещений дня.
+ */
+@Repository
+@RequiredArgsConstructor
+public class HitArchiveRepository {
+    /**
+     * Число строк, которое курсор получает от базы за одно обращение.
+     */
+    private static final int FETCH_SIZE = 10_000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Берет транзакционную рекомендательную блокировку, чтобы архивирование не выполняли два экземпляра одновременно.
+     */
+    public void lock() {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(hashtext('endpoint_hits_archive'))", rs -> {
+        });
+    }
+
+    /**
+     * Время самого раннего посещения в endpoint_hits или {@code null}, если таблица пуста.
+     */
+    public LocalDateTime findOldestHitTime() {
+        Timestamp oldest = jdbcTemplate.queryForObject("SELECT MIN(timestamp) FROM endpoint_hits",
+                Map.of(), Timestamp.class);
+        return oldest != null ? oldest.toLocalDateTime() : null;
+    }
+
+    /**
+     * Наибольший идентификатор посещения в [from, to) или 0, если посещений нет.
+     */
+    public long findMaxHitId(LocalDateTime from, LocalDateTime to) {
+        Long maxId = jdbcTemplate.queryForObject(
+                "SELECT MAX(id) FROM endpoint_hits WHERE timestamp >= :from AND timestamp < :to",
+                period(from, to), Long.class);
+        return maxId != null ? maxId : 0L;
+    }
+
+    /**
+     * Передает обработчику посещения таблицы {@code table} в [from, to) с идентификаторами IP из словаря
+     * посетителей в порядке URI, времени и идентификатора. Строки читаются курсором порциями,
+     * поэтому число посещений за период не ограничено памятью.
+     */
+    public void streamHits(String table, LocalDateTime from, LocalDateTime to, Consumer<ArchivedHit> handler) {
+        String sql = "SELECT h.id, h.timestamp, h.uri_id, h.app_id, host(h.ip) AS ip, COALESCE(d.id, 0) AS ip_id " +
+                "FROM " + HitPartitionRepository.quote(table) + " h LEFT JOIN ip_dictionary d ON d.ip = h.ip " +
+                "WHERE h.timestamp >= ? AND h.timestamp < ? ORDER BY h.uri_id, h.timestamp, h.id";
+        jdbcTemplate.getJdbcTemplate().query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setTimestamp(1, Timestamp.valueOf(from));
+            statement.setTimestamp(2, Timestamp.valueOf(to));
+            return statement;
+        }, (RowCallbackHandler) rs -> handler.accept(new ArchivedHit(rs.getLong("id"),
+                rs.getTimestamp("timestamp").toLocalDateTime(), rs.getInt("uri_id"), rs.getInt("app_id"),
+                rs.getString("ip"), rs.getInt("ip_id"))));
+    }
+
+    /**
+     * Число посещений и наибольший идентификатор посещения в таблице {@code table}.
+     */
+    public TableHits countHits(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) AS hits, COALESCE(MAX(id), 0) AS max_id FROM " +
+                        HitPartitionRepository.quote(table), Map.of(),
+                (rs, rowNum) -> new TableHits(rs.getLong("hits"), rs.getLong("max_id")));
+    }
+
+    /**
+     * Удаляет посещения в [from, to) с идентификаторами не выше {@code maxId}.
+     */
+    public int deleteHits(LocalDateTime from, LocalDateTime to, long maxId) {
+        return jdbcTemplate.update("DELETE FROM endpoint_hits " +
+                        "WHERE timestamp >= :from AND timestamp < :to AND id <= :maxId",
+                period(from, to).addValue("maxId", maxId));
+    }
+
+    public Optional<ArchivedDay> findDay(LocalDate day) {
+        return jdbcTemplate.query("SELECT day, file, hits FROM hit_archive_days WHERE day = :day",
+                Map.of("day", Date.valueOf(day)), this::toArchivedDay).stream().findFirst();
+    }
+
+    /**
+     * Архивные дни в [fromDay, toDay] по возрастанию.
+     */
+    public List<ArchivedDay> findDays(LocalDate fromDay, LocalDate toDay) {
+        return jdbcTemplate.query("SELECT day, file, hits FROM hit_archive_days " +
+                        "WHERE day >= :fromDay AND day <= :toDay ORDER BY day",
+                new MapSqlParameterSource()
+                        .addValue("fromDay", Date.valueOf(fromDay))
+                        .addValue("toDay", Date.valueOf(toDay)),
+                this::toArchivedDay);
+    }
+
+    /**
+     * Имена всех файлов, на которые ссылается каталог архива.
+     */
+    public Set<String> findFiles() {
+        return new HashSet<>(jdbcTemplate.queryForList("SELECT file FROM hit_archive_days", Map.of(), String.class));
+    }
+
+    /**
+     * Записывает или заменяет файл архивного дня.
+     */
+    public void saveDay(ArchivedDay day) {
+        jdbcTemplate.update("INSERT INTO hit_archive_days (day, file, hits) VALUES (:day, :file, :hits) " +
+                        "ON CONFLICT (day) DO UPDATE SET file = EXCLUDED.file, hits = EXCLUDED.hits",
+                new MapSqlParameterSource()
+                        .addValue("day", Date.valueOf(day.day()))
+                        .addValue("file", day.file())
+                        .addValue("hits", day.hits()));
+    }
+
+    private ArchivedDay toArchivedDay(ResultSet rs, int rowNum) throws SQLException {
+        return new ArchivedDay(rs.getDate("day").toLocalDate(), rs.getString("file"), rs.getLong("hits"));
+    }
+
+    private static MapSqlParameterSource period(LocalDateTime from, LocalDateTime to) {
+        return new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+    }
+}
@@ -0,0 +1,715 @@
+package ru.practicum.repository;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.ArchivedHit;
+import ru.practicum.model.TimeBuckets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Файлы холодного архива посещений, по одному сжатому колоночному файлу на день.
+ * Посещения упорядочены по URI, времени и идентификатору и разбиты на группы строк ограниченного размера.
+ * После [magic][версия] идут группы: в каждой столбцы сжаты отдельно и предварены длиной — URI (серии
+ * одинаковых идентификаторов), время (разности в мкс внутри серии), IP (словарь адресов группы и номера
+ * в нем), идентификаторы посещений (разности) и приложения. Числа в столбцах записаны переменной длиной.
+ * За группами следует оглавление [день][число посещений][мин. и макс. время в мкс от начала дня]
+ * [фильтр Блума по идентификаторам URI][описания групп: смещение, длина, число строк, границы времени
+ * и URI], а в конце файла — [смещение оглавления][magic].
+ * Файл пишется и читается по одной группе, поэтому память не зависит от числа посещений за день.
+ * Файлы не изменяются: новое содержимое дня пишется в новый файл. Оглавления прочитанных файлов
+ * кэшируются, чтобы отсеивать файлы и группы по времени и URI, не распаковывая столбцы.
+ */
+@Slf4j
+@Repository
+public class HitArchiveStore {
+    /**
+     * Порядок посещений в файле архива.
+     */
+    public static final Comparator<ArchivedHit> ORDER = Comparator.comparingInt(ArchivedHit::uriId)
+            .thenComparing(ArchivedHit::timestamp)
+            .thenComparingLong(ArchivedHit::id);
+
+    private static final int MAGIC = 0x48415243;
+    private static final int VERSION = 2;
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int BLOOM_HASHES = 3;
+    private static final int BLOOM_BITS_PER_URI = 10;
+    private static final Pattern ARCHIVE_FILE = Pattern.compile("hits-\\d{4}-\\d{2}-\\d{2}-\\d+\\.col");
+
+    /**
+     * Каталог с файлами архива.
+     */
+    private final Path directory;
+
+    /**
+     * Наибольшее число посещений в группе строк.
+     */
+    private final int rowGroupSize;
+
+    private final Map<String, Header> headers = new ConcurrentHashMap<>();
+
+    public HitArchiveStore(@Value("${stats.archive.dir:./data/archive}") Path directory,
+                           @Value("${stats.archive.row-group-size:65536}") int rowGroupSize) {
+        this.directory = directory;
+        this.rowGroupSize = rowGroupSize;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Начинает запись нового файла дня. Посещения передаются в порядке {@link #ORDER};
+     * файл появляется в каталоге только после {@link ArchiveWriter#finish()}.
+     */
+    public ArchiveWriter create(LocalDate day) throws IOException {
+        return new ArchiveWriter(day);
+    }
+
+    /**
+     * Открывает файл для последовательного чтения всех посещений в порядке {@link #ORDER}.
+     */
+    public ArchiveReader read(String file) throws IOException {
+        return new ArchiveReader(file);
+    }
+
+    /**
+     * Добавляет в {@code counts} посещения из файла в [from, toExclusive) по приложениям и URI.
+     * Фильтры приложений и URI — идентификаторы словарей, {@code null} означает отсутствие фильтра.
+     */
+    public void countHits(String file, LocalDateTime from, LocalDateTime toExclusive, Collection<Integer> appIds,
+                          Collection<Integer> uriIds, Map<AppUri, Long> counts) throws IOException {
+        scan(file, from, toExclusive, appIds, uriIds, true, false,
+                (appId, uriId, second, ip, ipId) -> counts.merge(new AppUri(appId, uriId), 1L, Long::sum));
+    }
+
+    /**
+     * Добавляет в {@code counts} посещения файла в [from, toExclusive) по приложениям, URI и корзинам.
+     */
+    public void countHitsByBucket(String file, LocalDateTime from, LocalDateTime toExclusive,
+                                  Collection<Integer> appIds, Collection<Integer> uriIds, TimeBuckets buckets,
+                                  Map<AppUri, long[]> counts) throws IOException {
+        scan(file, from, toExclusive, appIds, uriIds, true, false, (appId, uriId, second, ip, ipId) ->
+                counts.computeIfAbsent(new AppUri(appId, uriId),
+                        key -> new long[buckets.count()])[buckets.index(second)]++);
+    }
+
+    /**
+     * Перебирает посещения указанных приложений и URI из файла в [from, toExclusive) как четверки
+     * (идентификатор приложения, идентификатор URI, IP, идентификатор IP).
+     */
+    public void findVisitors(String file, LocalDateTime from, LocalDateTime toExclusive, Collection<Integer> appIds,
+                             Collection<Integer> uriIds, VisitorBitmapRepository.RawVisitorHandler handler)
+            throws IOException {
+        scan(file, from, toExclusive, appIds, uriIds, true, true,
+                (appId, uriId, second, ip, ipId) -> handler.accept(appId, uriId, ip, ipId));
+    }
+
+    /**
+     * Перебирает посещения файла в [from, toExclusive) как пятерки (идентификатор приложения,
+     * идентификатор URI, корзина, IP, идентификатор IP).
+     */
+    public void findVisitorsByBucket(String file, LocalDateTime from, LocalDateTime toExclusive,
+                                     Collection<Integer> appIds, Collection<Integer> uriIds, TimeBuckets buckets,
+                                     VisitorBitmapRepository.BucketVisitorHandler handler) throws IOException {
+        scan(file, from, toExclusive, appIds, uriIds, true, true, (appId, uriId, second, ip, ipId) ->
+                handler.accept(appId, uriId, buckets.index(second), ip, ipId));
+    }
+
+    /**
+     * Удаляет файлы архива, на которые нет ссылок и которые старше {@code minAge}:
+     * замененные новыми версиями дня и оставшиеся от прерванного архивирования.
+     * Выдержка нужна, чтобы запросы, начатые до замены, успели дочитать старую версию.
+     */
+    public int deleteUnreferenced(Set<String> referenced, Duration minAge) throws IOException {
+        Instant threshold = Instant.now().minus(minAge);
+        int deleted = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                String name = path.getFileName().toString();
+                boolean archive = ARCHIVE_FILE.matcher(name).matches();
+                if ((archive || name.endsWith(".col.tmp")) && !referenced.contains(name)
+                        && Files.getLastModifiedTime(path).toInstant().isBefore(threshold)) {
+                    Files.delete(path);
+                    headers.remove(name);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Просматривает посещения файла в [from, toExclusive), подходящие под фильтры приложений и URI.
+     * Группы, не пересекающиеся с периодом или с фильтром URI, не читаются. Столбец приложений распаковывается,
+     * только если задан фильтр приложений или нужны сами приложения ({@code withApps}); иначе обработчик
+     * получает приложение 0.
+     */
+    private void scan(String file, LocalDateTime from, LocalDateTime toExclusive, Collection<Integer> appIds,
+                      Collection<Integer> uriIds, boolean withApps, boolean withIps, ScanHandler handler)
+            throws IOException {
+        Header header = header(file);
+        LocalDateTime dayStart = header.day().atStartOfDay();
+        long daySecond = dayStart.toEpochSecond(ZoneOffset.UTC);
+        long fromMicros = ChronoUnit.MICROS.between(dayStart, from);
+        long toMicros = ChronoUnit.MICROS.between(dayStart, toExclusive);
+        if (header.maxMicros() < fromMicros || header.minMicros() >= toMicros) {
+            return;
+        }
+        Set<Integer> accepted = uriIds != null ? new HashSet<>(uriIds) : null;
+        if (accepted != null && accepted.stream().noneMatch(header::mightContain)) {
+            return;
+        }
+
+        Set<Integer> acceptedApps = appIds != null ? new HashSet<>(appIds) : null;
+        try (FileChannel channel = FileChannel.open(directory.resolve(file), StandardOpenOption.READ)) {
+            for (Group group : header.groups()) {
+                if (group.maxMicros() < fromMicros || group.minMicros() >= toMicros
+                        || accepted != null && accepted.stream().noneMatch(group::mightContain)) {
+                    continue;
+                }
+                Columns columns = readColumns(channel, group);
+                int[] apps = withApps || acceptedApps != null ? columns.apps() : null;
+                int record = 0;
+                for (int run = 0; run < columns.runUris.length; run++) {
+                    int uriId = columns.runUris[run];
+                    int end = record + columns.runLengths[run];
+                    if (accepted == null || accepted.contains(uriId)) {
+                        for (; record < end; record++) {
+                            long micros = columns.micros[record];
+                            int appId = apps != null ? apps[record] : 0;
+                            if (micros >= fromMicros && micros < toMicros
+                                    && (acceptedApps == null || acceptedApps.contains(appId))) {
+                                int ip = withIps ? columns.ipIndexes[record] : 0;
+                                handler.accept(appId, uriId, daySecond + micros / 1_000_000,
+                                        withIps ? columns.ips[ip] : null, withIps ? columns.ipIds[ip] : 0);
+                            }
+                        }
+                    }
+                    record = end;
+                }
+            }
+        }
+    }
+
+    /**
+     * Обработчик посещения при просмотре файла: идентификаторы приложения и URI, секунда от начала эпохи,
+     * IP и его идентификатор.
+     */
+    @FunctionalInterface
+    private interface ScanHandler {
+        void accept(int appId, int uriId, long second, String ip, int ipId);
+    }
+
+    private Header header(String file) throws IOException {
+        try {
+            return headers.computeIfAbsent(file, name -> {
+                try (FileChannel channel = FileChannel.open(directory.resolve(name), StandardOpenOption.READ)) {
+                    return readHeader(name, channel);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Читает оглавление файла по смещению из его конца.
+     */
+    private static Header readHeader(String file, FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer start = readFully(channel, 0, 2 * Integer.BYTES);
+        if (start.getInt() != MAGIC || start.getInt() != VERSION || size < 2L * Integer.BYTES + TRAILER_BYTES) {
+            throw new IOException("Файл " + file + " не является файлом архива посещений");
+        }
+        ByteBuffer trailer = readFully(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+        long footerOffset = trailer.getLong();
+        if (trailer.getInt() != MAGIC) {
+            throw new IOException("Файл архива посещений " + file + " записан не полностью");
+        }
+        ByteBuffer footer = readFully(channel, footerOffset, Math.toIntExact(size - TRAILER_BYTES - footerOffset));
+        LocalDate day = LocalDate.ofEpochDay(footer.getLong());
+        long count = footer.getLong();
+        long minMicros = footer.getLong();
+        long maxMicros = footer.getLong();
+        long[] bloom = new long[footer.getInt()];
+        for (int i = 0; i < bloom.length; i++) {
+            bloom[i] = footer.getLong();
+        }
+        int groupCount = footer.getInt();
+        List<Group> groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(new Group(footer.getLong(), footer.getInt(), footer.getInt(), footer.getLong(),
+                    footer.getLong(), footer.getInt(), footer.getInt()));
+        }
+        return new Header(day, count, minMicros, maxMicros, bloom, groups);
+    }
+
+    /**
+     * Читает группу строк и распаковывает ее столбцы URI, времени и IP.
+     */
+    private static Columns readColumns(FileChannel channel, Group group) throws IOException {
+        ByteBuffer data = readFully(channel, group.offset(), group.length());
+        byte[][] columns = new byte[5][];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new byte[data.getInt()];
+            data.get(columns[i]);
+        }
+        return new Columns(group.rows(), columns);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static int bloomBit(int uriId, int hash, int bits) {
+        int h = uriId * 0x9E3779B9 + hash * 0x85EBCA6B;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        return Math.floorMod(h, bits);
+    }
+
+    /**
+     * Оглавление файла архива.
+     */
+    private record Header(LocalDate day, long count, long minMicros, long maxMicros, long[] bloom,
+                          List<Group> groups) {
+
+        boolean mightContain(int uriId) {
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = bloomBit(uriId, i, bloom.length * 64);
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Описание группы строк: положение в файле, число посещений и границы времени и URI.
+     */
+    private record Group(long offset, int length, int rows, long minMicros, long maxMicros,
+                         int firstUri, int lastUri) {
+
+        boolean mightContain(int uriId) {
+            return uriId >= firstUri && uriId <= lastUri;
+        }
+    }
+
+    /**
+     * Запись файла дня по группам строк: в памяти держится только текущая группа.
+     */
+    public final class ArchiveWriter implements Closeable {
+        private final LocalDate day;
+        private final LocalDateTime dayStart;
+        private final String file;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final List<ArchivedHit> rows = new ArrayList<>();
+        private final List<Group> groups = new ArrayList<>();
+        private final List<Integer> uris = new ArrayList<>();
+        private ArchivedHit last;
+        private long count;
+        private long minMicros = Long.MAX_VALUE;
+        private long maxMicros = Long.MIN_VALUE;
+        private boolean finished;
+
+        private ArchiveWriter(LocalDate day) throws IOException {
+            this.day = day;
+            this.dayStart = day.atStartOfDay();
+            this.file = "hits-" + day + "-" + System.currentTimeMillis() + ".col";
+            this.temporary = directory.resolve(file + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            writeFully(ByteBuffer.allocate(2 * Integer.BYTES).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        /**
+         * Добавляет посещение; посещения должны идти строго по возрастанию в порядке {@link #ORDER}.
+         */
+        public void add(ArchivedHit hit) throws IOException {
+            if (last != null && ORDER.compare(last, hit) >= 0) {
+                throw new IllegalArgumentException("Посещения архива должны идти по возрастанию URI, времени " +
+                        "и идентификатора: " + hit.id() + " после " + last.id());
+            }
+            if (last == null || last.uriId() != hit.uriId()) {
+                uris.add(hit.uriId());
+            }
+            last = hit;
+            rows.add(hit);
+            count++;
+            if (rows.size() >= rowGroupSize) {
+                writeGroup();
+            }
+        }
+
+        /**
+         * Дописывает оглавление, сбрасывает файл на диск, атомарно переносит его в каталог и возвращает имя.
+         */
+        public String finish() throws IOException {
+            if (!rows.isEmpty()) {
+                writeGroup();
+            }
+            long[] bloom = new long[Math.max(1, (uris.size() * BLOOM_BITS_PER_URI + 63) / 64)];
+            for (int uriId : uris) {
+                for (int i = 0; i < BLOOM_HASHES; i++) {
+                    int bit = bloomBit(uriId, i, bloom.length * 64);
+                    bloom[bit >>> 6] |= 1L << bit;
+                }
+            }
+            long footerOffset = channel.position();
+            ByteBuffer footer = ByteBuffer.allocate(40 + bloom.length * Long.BYTES + groups.size() * 40
+                            + TRAILER_BYTES)
+                    .putLong(day.toEpochDay())
+                    .putLong(count)
+                    .putLong(count > 0 ? minMicros : 0)
+                    .putLong(count > 0 ? maxMicros : -1)
+                    .putInt(bloom.length);
+            for (long word : bloom) {
+                footer.putLong(word);
+            }
+            footer.putInt(groups.size());
+            for (Group group : groups) {
+                footer.putLong(group.offset()).putInt(group.length()).putInt(group.rows())
+                        .putLong(group.minMicros()).putLong(group.maxMicros())
+                        .putInt(group.firstUri()).putInt(group.lastUri());
+            }
+            footer.putLong(footerOffset).putInt(MAGIC);
+            writeFully(footer.flip());
+            long size = channel.position();
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, directory.resolve(file), StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            log.debug("Записан файл архива {}: {} посещений, {} групп, {} URI, {} байт",
+                    file, count, groups.size(), uris.size(), size);
+            return file;
+        }
+
+        /**
+         * Число добавленных посещений.
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Закрывает файл; незавершенный файл удаляется.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private void writeGroup() throws IOException {
+            List<int[]> runs = new ArrayList<>();
+            long groupMinMicros = Long.MAX_VALUE;
+            long groupMaxMicros = Long.MIN_VALUE;
+            ColumnWriter times = new ColumnWriter();
+            long previousMicros = 0;
+            for (ArchivedHit hit : rows) {
+                long micros = ChronoUnit.MICROS.between(dayStart, hit.timestamp());
+                groupMinMicros = Math.min(groupMinMicros, micros);
+                groupMaxMicros = Math.max(groupMaxMicros, micros);
+                boolean runStart = runs.isEmpty() || runs.get(runs.size() - 1)[0] != hit.uriId();
+                if (runStart) {
+                    runs.add(new int[]{hit.uriId(), 0});
+                }
+                runs.get(runs.size() - 1)[1]++;
+                times.write(runStart ? micros : micros - previousMicros);
+                previousMicros = micros;
+            }
+            minMicros = Math.min(minMicros, groupMinMicros);
+            maxMicros = Math.max(maxMicros, groupMaxMicros);
+
+            ColumnWriter uriColumn = new ColumnWriter();
+            uriColumn.write(runs.size());
+            for (int[] run : runs) {
+                uriColumn.write(run[0]);
+                uriColumn.write(run[1]);
+            }
+
+            Map<String, Integer> ipIndexes = new LinkedHashMap<>();
+            Map<String, Integer> ipIds = new LinkedHashMap<>();
+            for (ArchivedHit hit : rows) {
+                ipIndexes.putIfAbsent(hit.ip(), ipIndexes.size());
+                ipIds.putIfAbsent(hit.ip(), hit.ipId());
+            }
+            ColumnWriter ips = new ColumnWriter();
+            ips.write(ipIndexes.size());
+            for (Map.Entry<String, Integer> entry : ipIds.entrySet()) {
+                ips.writeUtf(entry.getKey());
+                ips.write(entry.getValue());
+            }
+            for (ArchivedHit hit : rows) {
+                ips.write(ipIndexes.get(hit.ip()));
+            }
+
+            ColumnWriter ids = new ColumnWriter();
+            ColumnWriter apps = new ColumnWriter();
+            long previousId = 0;
+            for (ArchivedHit hit : rows) {
+                long delta = hit.id() - previousId;
+                ids.write((delta << 1) ^ (delta >> 63));
+                previousId = hit.id();
+                apps.write(hit.appId());
+            }
+
+            List<byte[]> columns = List.of(uriColumn.finish(), times.finish(), ips.finish(), ids.finish(),
+                    apps.finish());
+            int length = columns.stream().mapToInt(column -> Integer.BYTES + column.length).sum();
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (byte[] column : columns) {
+                buffer.putInt(column.length).put(column);
+            }
+            groups.add(new Group(channel.position(), length, rows.size(), groupMinMicros, groupMaxMicros,
+                    rows.get(0).uriId(), rows.get(rows.size() - 1).uriId()));
+            writeFully(buffer.flip());
+            rows.clear();
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Последовательное чтение посещений файла: в памяти держится только текущая группа строк.
+     */
+    public final class ArchiveReader implements Iterator<ArchivedHit>, Closeable {
+        private final FileChannel channel;
+        private final LocalDateTime dayStart;
+        private final Iterator<Group> groups;
+        private Iterator<ArchivedHit> current = Collections.emptyIterator();
+
+        private ArchiveReader(String file) throws IOException {
+            Header header = header(file);
+            this.dayStart = header.day().atStartOfDay();
+            this.groups = header.groups().iterator();
+            this.channel = FileChannel.open(directory.resolve(file), StandardOpenOption.READ);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && groups.hasNext()) {
+                try {
+                    current = readGroup(groups.next()).iterator();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public ArchivedHit next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private List<ArchivedHit> readGroup(Group group) throws IOException {
+            Columns columns = readColumns(channel, group);
+            List<ArchivedHit> hits = new ArrayList<>(group.rows());
+            try (ColumnReader ids = columns.reader(3); ColumnReader apps = columns.reader(4)) {
+                long previousId = 0;
+                int record = 0;
+                for (int run = 0; run < columns.runUris.length; run++) {
+                    for (int i = 0; i < columns.runLengths[run]; i++, record++) {
+                        long zigzag = ids.next();
+                        previousId += (zigzag >>> 1) ^ -(zigzag & 1);
+                        int ip = columns.ipIndexes[record];
+                        hits.add(new ArchivedHit(previousId, dayStart.plus(columns.micros[record], ChronoUnit.MICROS),
+                                columns.runUris[run], (int) apps.next(), columns.ips[ip], columns.ipIds[ip]));
+                    }
+                }
+            }
+            return hits;
+        }
+    }
+
+    /**
+     * Распакованные столбцы URI, времени и IP одной группы строк; остальные столбцы читаются по запросу.
+     */
+    private static final class Columns {
+        private final byte[][] compressed;
+        private final int[] runUris;
+        private final int[] runLengths;
+        private final long[] micros;
+        private final String[] ips;
+        private final int[] ipIds;
+        private final int[] ipIndexes;
+
+        private Columns(int count, byte[][] compressed) throws IOException {
+            this.compressed = compressed;
+            try (ColumnReader uris = reader(0); ColumnReader times = reader(1); ColumnReader ipColumn = reader(2)) {
+                int runs = (int) uris.next();
+                runUris = new int[runs];
+                runLengths = new int[runs];
+                for (int run = 0; run < runs; run++) {
+                    runUris[run] = (int) uris.next();
+                    runLengths[run] = (int) uris.next();
+                }
+
+                micros = new long[count];
+                int record = 0;
+                for (int run = 0; run < runs; run++) {
+                    long previous = 0;
+                    for (int i = 0; i < runLengths[run]; i++, record++) {
+                        previous = i == 0 ? times.next() : previous + times.next();
+                        micros[record] = previous;
+                    }
+                }
+
+                int dictionary = (int) ipColumn.next();
+                ips = new String[dictionary];
+                ipIds = new int[dictionary];
+                for (int i = 0; i < dictionary; i++) {
+                    ips[i] = ipColumn.readUtf();
+                    ipIds[i] = (int) ipColumn.next();
+                }
+                ipIndexes = new int[count];
+                for (int i = 0; i < count; i++) {
+                    ipIndexes[i] = (int) ipColumn.next();
+                }
+            }
+        }
+
+        ColumnReader reader(int column) {
+            return new ColumnReader(new InflaterInputStream(new ByteArrayInputStream(compressed[column])));
+        }
+
+        /**
+         * Распаковывает столбец приложений: идентификатор приложения каждой записи.
+         */
+        int[] apps() throws IOException {
+            int[] apps = new int[micros.length];
+            try (ColumnReader column = reader(4)) {
+                for (int i = 0; i < apps.length; i++) {
+                    apps[i] = (int) column.next();
+                }
+            }
+            return apps;
+        }
+
+    }
+
+    /**
+     * Запись сжатого столбца из неотрицательных чисел переменной длины.
+     */
+    private static final class ColumnWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+
+        void write(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        void writeUtf(String value) throws IOException {
+            out.writeUTF(value);
+        }
+
+        byte[] finish() throws IOException {
+            out.close();
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Чтение сжатого столбца, записанного {@link ColumnWriter}.
+     */
+    private static final class ColumnReader implements AutoCloseable {
+        private final DataInputStream in;
+
+        private ColumnReader(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        long next() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        String readUtf() throws IOException {
+            return in.readUTF();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.DictionaryTable;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Репозиторий словарей приложений и URI.
+ * Списки значений передаются одним массивом, поэтому размер запроса не зависит от их количества.
+ */
+@Repository
+@RequiredArgsConstructor
+public class HitDictionaryRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Добавляет в словарь отсутствующие значения. Выполняется отдельной командой в режиме autocommit,
+     * поэтому новые идентификаторы сразу видны всем соединениям.
+     */
+    public void insertMissing(DictionaryTable dictionary, Collection<String> values) {
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement("INSERT INTO " + dictionary.getTable() +
+                    " (" + dictionary.getColumn() + ") SELECT unnest(?) ORDER BY 1 " +
+                    "ON CONFLICT (" + dictionary.getColumn() + ") DO NOTHING");
+            ps.setArray(1, connection.createArrayOf("varchar", values.toArray()));
+            return ps;
+        });
+    }
+
+    /**
+     * Идентификаторы известных словарю значений.
+     */
+    public Map<String, Integer> findIds(DictionaryTable dictionary, Collection<String> values) {
+        Map<String, Integer> ids = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT id, " + dictionary.getColumn() +
+                    " AS value FROM " + dictionary.getTable() + " WHERE " + dictionary.getColumn() + " = ANY(?)");
+            ps.setArray(1, connection.createArrayOf("varchar", values.toArray()));
+            return ps;
+        }, (ResultSet rs) -> {
+            ids.put(rs.getString("value"), rs.getInt("id"));
+        });
+        return ids;
+    }
+
+    /**
+     * Значения словаря, подходящие под шаблон SQL LIKE, и их идентификаторы. Шаблон с постоянным началом
+     * ({@code /events/%}) ищется по индексу с {@code varchar_pattern_ops} как диапазон строк.
+     */
+    public Map<String, Integer> findIdsLike(DictionaryTable dictionary, String pattern) {
+        Map<String, Integer> ids = new HashMap<>();
+        jdbcTemplate.query("SELECT id, " + dictionary.getColumn() + " AS value FROM " + dictionary.getTable() +
+                " WHERE " + dictionary.getColumn() + " LIKE ?", (ResultSet rs) -> {
+            ids.put(rs.getString("value"), rs.getInt("id"));
+        }, pattern);
+        return ids;
+    }
+
+    /**
+     * Значения словаря по идентификаторам.
+     */
+    public Map<Integer, String> findValues(DictionaryTable dictionary, Collection<Integer> ids) {
+        Map<Integer, String> values = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT id, " + dictionary.getColumn() +
+                    " AS value FROM " + dictionary.getTable() + " WHERE id = ANY(?)");
+            ps.setArray(1, connection.createArrayOf("integer", ids.toArray()));
+            return ps;
+        }, (ResultSet rs) -> {
+            values.put(rs.getInt("id"), rs.getString("value"));
+        });
+        return values;
+    }
+}
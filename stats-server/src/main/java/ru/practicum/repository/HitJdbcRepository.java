@@ -0,0 +1,161 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.TimeBuckets;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JDBC-репозиторий для операций с посещениями, которые неудобно выражать через JPA.
+ */
+@Repository
+@RequiredArgsConstructor
+public class HitJdbcRepository {
+    private static final String COPY_HITS_SQL =
+            "COPY endpoint_hits (app_id, uri_id, ip, timestamp) FROM STDIN WITH (FORMAT csv)";
+
+    /**
+     * Рекомендательная блокировка записи посещений: писатели держат ее разделяемой на время COPY,
+     * а {@link RollupRepository#findCommittedHitHorizon()} берет ее исключительно, чтобы дождаться их фиксации.
+     */
+    static final String WRITERS_LOCK = "hashtext('endpoint_hits_writers')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    /**
+     * Записывает посещения одной командой COPY, заменяя приложение и URI идентификаторами из словарей.
+     * Соединение работает в режиме autocommit, поэтому пакет фиксируется целиком сразу после загрузки.
+     * Идентификаторы пакета берутся из последовательности и фиксируются под разделяемой блокировкой
+     * {@link #WRITERS_LOCK}, которая снимается только после фиксации COPY.
+     */
+    public long copyAll(List<EndpointHit> hits, Map<String, Integer> appIds, Map<String, Integer> uriIds) {
+        String csv = toCsv(hits, appIds, uriIds);
+        Long copied = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT pg_advisory_lock_shared(" + WRITERS_LOCK + ")");
+            }
+            try {
+                return connection.unwrap(PGConnection.class)
+                        .getCopyAPI()
+                        .copyIn(COPY_HITS_SQL, new StringReader(csv));
+            } catch (IOException e) {
+                throw new SQLException("Ошибка чтения пакета посещений для COPY", e);
+            } finally {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SELECT pg_advisory_unlock_shared(" + WRITERS_LOCK + ")");
+                }
+            }
+        });
+        return copied != null ? copied : 0L;
+    }
+
+    /**
+     * Считает посещения по приложениям и URI в [start, endExclusive).
+     * Если задан участок [coveredFrom, coveredTo), уже учтенный в агрегатах, то внутри него
+     * считаются только посещения, поступившие после водяного знака агрегации.
+     * Фильтры приложений и URI — идентификаторы словарей, {@code null} означает отсутствие фильтра.
+     */
+    public Map<AppUri, Long> countHits(LocalDateTime start, LocalDateTime endExclusive,
+                                       LocalDateTime coveredFrom, LocalDateTime coveredTo, long watermark,
+                                       Collection<Integer> appIds, Collection<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(endExclusive));
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, COUNT(*) AS hits FROM endpoint_hits ")
+                .append("WHERE timestamp >= :start AND timestamp < :end");
+        if (coveredFrom != null) {
+            sql.append(" AND (id > :watermark OR timestamp < :coveredFrom OR timestamp >= :coveredTo)");
+            params.addValue("watermark", watermark)
+                    .addValue("coveredFrom", Timestamp.valueOf(coveredFrom))
+                    .addValue("coveredTo", Timestamp.valueOf(coveredTo));
+        }
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        sql.append(" GROUP BY app_id, uri_id");
+
+        Map<AppUri, Long> hits = new HashMap<>();
+        namedJdbcTemplate.query(sql.toString(), params, rs -> {
+            hits.put(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")), rs.getLong("hits"));
+        });
+        return hits;
+    }
+
+    /**
+     * Считает посещения в [start, endExclusive) по приложениям, URI и корзинам {@code buckets} за один проход.
+     * Участок [coveredFrom, coveredTo), водяной знак и фильтры учитываются так же, как в {@link #countHits}.
+     * Результат — массивы количеств по корзинам, сгруппированные по идентификаторам приложения и URI.
+     */
+    public Map<AppUri, long[]> countHitsByBucket(LocalDateTime start, LocalDateTime endExclusive,
+                                                 LocalDateTime coveredFrom, LocalDateTime coveredTo, long watermark,
+                                                 Collection<Integer> appIds, Collection<Integer> uriIds,
+                                                 TimeBuckets buckets) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(endExclusive));
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, ")
+                .append(buckets.sqlIndex("timestamp"))
+                .append(" AS bucket, COUNT(*) AS hits FROM endpoint_hits ")
+                .append("WHERE timestamp >= :start AND timestamp < :end");
+        if (coveredFrom != null) {
+            sql.append(" AND (id > :watermark OR timestamp < :coveredFrom OR timestamp >= :coveredTo)");
+            params.addValue("watermark", watermark)
+                    .addValue("coveredFrom", Timestamp.valueOf(coveredFrom))
+                    .addValue("coveredTo", Timestamp.valueOf(coveredTo));
+        }
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        sql.append(" GROUP BY 1, 2, 3");
+
+        Map<AppUri, long[]> hits = new HashMap<>();
+        namedJdbcTemplate.query(sql.toString(), params, rs -> {
+            hits.computeIfAbsent(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")),
+                    key -> new long[buckets.count()])[rs.getInt("bucket")] += rs.getLong("hits");
+        });
+        return hits;
+    }
+
+    private String toCsv(List<EndpointHit> hits, Map<String, Integer> appIds, Map<String, Integer> uriIds) {
+        StringBuilder csv = new StringBuilder(hits.size() * 48);
+        for (EndpointHit hit : hits) {
+            csv.append(appIds.get(hit.getApp())).append(',');
+            csv.append(uriIds.get(hit.getUri())).append(',');
+            appendQuoted(csv, hit.getIp()).append(',');
+            csv.append(hit.getTimestamp()).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private StringBuilder appendQuoted(StringBuilder csv, String value) {
+        return csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
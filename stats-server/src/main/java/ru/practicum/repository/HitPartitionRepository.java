@@ -0,0 +1,88 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.HitPartition;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Репозиторий разделов партиционированной таблицы endpoint_hits.
+ */
+@Repository
+@RequiredArgsConstructor
+public class HitPartitionRepository {
+    private static final String DEFAULT_PARTITION = "endpoint_hits_default";
+    private static final Pattern RANGE_BOUND = Pattern.compile("FROM \\((.+?)\\) TO \\((.+?)\\)");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Берет транзакционную рекомендательную блокировку, чтобы разделы не обслуживали два экземпляра одновременно.
+     */
+    public void lock() {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(hashtext('endpoint_hits_partitions'))", rs -> {
+        });
+    }
+
+    /**
+     * Разделы таблицы посещений с границами, прочитанными из каталога.
+     */
+    public List<HitPartition> findPartitions() {
+        return jdbcTemplate.query("SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound " +
+                        "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                        "WHERE i.inhparent = 'endpoint_hits'::regclass",
+                (rs, rowNum) -> toPartition(rs.getString("relname"), rs.getString("bound")));
+    }
+
+    /**
+     * Создает раздел [from, to), перенося в него уже попавшие в раздел по умолчанию посещения этого периода.
+     * Выполняется в транзакции: раздел по умолчанию блокируется от записи до ее завершения, иначе посещение,
+     * записанное между копированием и удалением, было бы удалено без переноса.
+     */
+    public void createPartition(String name, LocalDateTime from, LocalDateTime to) {
+        Timestamp fromTs = Timestamp.valueOf(from);
+        Timestamp toTs = Timestamp.valueOf(to);
+        jdbcTemplate.execute("LOCK TABLE " + DEFAULT_PARTITION + " IN SHARE ROW EXCLUSIVE MODE");
+        jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE endpoint_hits INCLUDING DEFAULTS)");
+        jdbcTemplate.update("INSERT INTO " + name + " (id, timestamp, uri_id, app_id, ip) " +
+                "SELECT id, timestamp, uri_id, app_id, ip FROM " + DEFAULT_PARTITION +
+                " WHERE timestamp >= ? AND timestamp < ?", fromTs, toTs);
+        jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE timestamp >= ? AND timestamp < ?",
+                fromTs, toTs);
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits ATTACH PARTITION " + name +
+                " FOR VALUES FROM ('" + fromTs + "') TO ('" + toTs + "')");
+    }
+
+    public void detachPartition(String name) {
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits DETACH PARTITION " + quote(name));
+    }
+
+    public void dropPartition(String name) {
+        jdbcTemplate.execute("DROP TABLE " + quote(name));
+    }
+
+    private static HitPartition toPartition(String name, String bound) {
+        Matcher matcher = RANGE_BOUND.matcher(bound);
+        if (!matcher.find()) {
+            return new HitPartition(name, null, null, true);
+        }
+        return new HitPartition(name, toTime(matcher.group(1)), toTime(matcher.group(2)), false);
+    }
+
+    private static LocalDateTime toTime(String value) {
+        if ("MINVALUE".equals(value) || "MAXVALUE".equals(value)) {
+            return null;
+        }
+        return Timestamp.valueOf(value.replace("'", "")).toLocalDateTime();
+    }
+
+    static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,199 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.model.TimeBuckets;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Репозиторий таблиц предагрегированных посещений и их водяного знака.
+ */
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+    /**
+     * Водяной знак агрегатов количества посещений.
+     */
+    public static final String ROLLUPS_WATERMARK = "rollups";
+
+    /**
+     * Водяной знак дневных карт уникальных посетителей.
+     */
+    public static final String VISITORS_WATERMARK = "visitors";
+
+    /**
+     * Водяной знак часовых скетчей HyperLogLog.
+     */
+    public static final String SKETCHES_WATERMARK = "sketches";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Идентификатор последнего посещения, учтенного в агрегатах.
+     */
+    public long getWatermark() {
+        return getWatermark(ROLLUPS_WATERMARK);
+    }
+
+    /**
+     * Идентификатор последнего посещения, учтенного в структуре с указанным водяным знаком.
+     */
+    public long getWatermark(String name) {
+        Long watermark = jdbcTemplate.queryForObject(
+                "SELECT last_hit_id FROM rollup_watermarks WHERE name = :name",
+                Map.of("name", name), Long.class);
+        return watermark != null ? watermark : 0L;
+    }
+
+    /**
+     * Читает водяной знак с блокировкой строки, чтобы агрегацию не выполняли два экземпляра одновременно.
+     */
+    public long lockWatermark(String name) {
+        Long watermark = jdbcTemplate.queryForObject(
+                "SELECT last_hit_id FROM rollup_watermarks WHERE name = :name FOR UPDATE",
+                Map.of("name", name), Long.class);
+        return watermark != null ? watermark : 0L;
+    }
+
+    public void updateWatermark(String name, long lastHitId) {
+        jdbcTemplate.update("UPDATE rollup_watermarks SET last_hit_id = :id WHERE name = :name",
+                Map.of("id", lastHitId, "name", name));
+    }
+
+    /**
+     * Граница зафиксированных посещений: наибольший идентификатор, ниже которого ни одно посещение
+     * уже не будет зафиксировано. Идентификаторы из последовательности выдаются по порядку, а фиксируются
+     * в любом, поэтому сначала дожидаемся всех начатых записей, взяв исключительно блокировку писателей
+     * {@link HitJdbcRepository#WRITERS_LOCK}; записи, начатые после ее снятия, получат идентификаторы больше границы.
+     * Блокировка сессионная и снимается сразу, чтобы не задерживать запись на время агрегации.
+     * Вызывается в транзакции с изоляцией READ COMMITTED: запрос после блокировки видит все дождавшиеся записи.
+     */
+    public long findCommittedHitHorizon() {
+        Long horizon = jdbcTemplate.getJdbcOperations().execute((ConnectionCallback<Long>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT pg_advisory_lock(" + HitJdbcRepository.WRITERS_LOCK + ")");
+                try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM endpoint_hits")) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                } finally {
+                    statement.execute("SELECT pg_advisory_unlock(" + HitJdbcRepository.WRITERS_LOCK + ")");
+                }
+            }
+        });
+        return horizon != null ? horizon : 0L;
+    }
+
+    /**
+     * Верхняя граница очередной порции: идентификатор не более чем {@code limit}-го посещения после {@code afterId},
+     * не выше границы зафиксированных посещений {@code horizon}.
+     */
+    public long findUpperHitId(long afterId, int limit, long horizon) {
+        Long upper = jdbcTemplate.queryForObject(
+                "SELECT MAX(id) FROM (SELECT id FROM endpoint_hits WHERE id > :afterId AND id <= :horizon " +
+                        "ORDER BY id LIMIT :limit) t",
+                Map.of("afterId", afterId, "horizon", horizon, "limit", limit), Long.class);
+        return upper != null ? upper : afterId;
+    }
+
+    /**
+     * Часы, в которые попадают посещения с идентификаторами из (afterId, upToId].
+     */
+    public List<LocalDateTime> findTouchedHours(long afterId, long upToId) {
+        return jdbcTemplate.query("SELECT DISTINCT date_trunc('hour', timestamp) AS hour FROM endpoint_hits " +
+                        "WHERE id > :afterId AND id <= :upToId",
+                Map.of("afterId", afterId, "upToId", upToId),
+                (rs, rowNum) -> rs.getTimestamp("hour").toLocalDateTime());
+    }
+
+    /**
+     * Добавляет посещения с идентификаторами из (afterId, upToId] в агрегаты указанной гранулярности
+     * по приложению, URI и корзине. Агрегаты, как и посещения, хранят идентификаторы словарей,
+     * поэтому посещения группируются без соединения со словарями.
+     */
+    public int aggregate(RollupGranularity granularity, long afterId, long upToId) {
+        String table = granularity.getTable();
+        String sql = "INSERT INTO " + table + " (app_id, uri_id, bucket_start, hits) " +
+                "SELECT app_id, uri_id, date_trunc('" + granularity.getTruncUnit() + "', timestamp), COUNT(*) " +
+                "FROM endpoint_hits " +
+                "WHERE id > :afterId AND id <= :upToId " +
+                "GROUP BY 1, 2, 3 " +
+                "ON CONFLICT (app_id, uri_id, bucket_start) DO UPDATE SET hits = " + table + ".hits + EXCLUDED.hits";
+        return jdbcTemplate.update(sql, Map.of("afterId", afterId, "upToId", upToId));
+    }
+
+    /**
+     * Суммирует посещения по приложениям и URI в корзинах, начинающихся в [from, to).
+     * Фильтры приложений и URI — идентификаторы словарей, {@code null} означает отсутствие фильтра.
+     * Ключ таблицы начинается с приложения, поэтому с фильтром читаются только строки этого приложения.
+     */
+    public Map<AppUri, Long> sumHits(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                     Collection<Integer> appIds, Collection<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, SUM(hits) AS hits FROM ")
+                .append(granularity.getTable())
+                .append(" WHERE bucket_start >= :from AND bucket_start < :to");
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        sql.append(" GROUP BY app_id, uri_id");
+
+        Map<AppUri, Long> hits = new HashMap<>();
+        jdbcTemplate.query(sql.toString(), params, rs -> {
+            hits.put(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")), rs.getLong("hits"));
+        });
+        return hits;
+    }
+
+    /**
+     * Суммирует посещения по приложениям, URI и корзинам {@code buckets} в корзинах агрегата,
+     * начинающихся в [from, to). Фильтры — как в {@link #sumHits}.
+     * Длина корзины ряда должна быть кратна гранулярности агрегата.
+     */
+    public Map<AppUri, long[]> sumHitsByBucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                               Collection<Integer> appIds, Collection<Integer> uriIds,
+                                               TimeBuckets buckets) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, ")
+                .append(buckets.sqlIndex("bucket_start"))
+                .append(" AS bucket, SUM(hits) AS hits FROM ")
+                .append(granularity.getTable())
+                .append(" WHERE bucket_start >= :from AND bucket_start < :to");
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        sql.append(" GROUP BY 1, 2, 3");
+
+        Map<AppUri, long[]> hits = new HashMap<>();
+        jdbcTemplate.query(sql.toString(), params, rs -> {
+            hits.computeIfAbsent(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")),
+                    key -> new long[buckets.count()])[rs.getInt("bucket")] += rs.getLong("hits");
+        });
+        return hits;
+    }
+}
@@ -0,0 +1,134 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.TimeBuckets;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Репозиторий превышений веса выборочно отправленных посещений над единицей.
+ * Превышения хранятся суммами по приложению, URI и секунде, поэтому дополняют количество посещений за период
+ * с точностью до секунды на его границах.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SampledHitRepository {
+    private static final String ADD_EXTRA_SQL =
+            "INSERT INTO hit_sample_weights (app_id, uri_id, bucket_start, extra) " +
+            "VALUES (:appId, :uriId, :bucketStart, :extra) " +
+            "ON CONFLICT (app_id, uri_id, bucket_start) " +
+            "DO UPDATE SET extra = hit_sample_weights.extra + EXCLUDED.extra";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Добавляет превышения веса посещений пакета; посещения без веса пропускаются.
+     * Возвращает количество посещений с весом.
+     */
+    public int addExtra(List<EndpointHit> hits, Map<String, Integer> appIds, Map<String, Integer> uriIds) {
+        Map<Cell, Long> extra = new HashMap<>();
+        int sampled = 0;
+        for (EndpointHit hit : hits) {
+            if (hit.weightOrOne() > 1) {
+                extra.merge(new Cell(appIds.get(hit.getApp()), uriIds.get(hit.getUri()),
+                                hit.getTimestamp().truncatedTo(ChronoUnit.SECONDS)),
+                        hit.weightOrOne() - 1L, Long::sum);
+                sampled++;
+            }
+        }
+        if (extra.isEmpty()) {
+            return 0;
+        }
+        MapSqlParameterSource[] batch = extra.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("appId", entry.getKey().appId())
+                        .addValue("uriId", entry.getKey().uriId())
+                        .addValue("bucketStart", Timestamp.valueOf(entry.getKey().bucketStart()))
+                        .addValue("extra", entry.getValue()))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(ADD_EXTRA_SQL, batch);
+        return sampled;
+    }
+
+    /**
+     * Суммы превышений в [start, endExclusive) по приложениям и URI; URI без выборочных посещений не попадают.
+     * Фильтры приложений и URI — идентификаторы словарей, {@code null} означает отсутствие фильтра.
+     */
+    public Map<AppUri, Long> sumExtra(LocalDateTime start, LocalDateTime endExclusive,
+                                      Collection<Integer> appIds, Collection<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, SUM(extra) AS extra FROM hit_sample_weights ")
+                .append(where(start, endExclusive, uriIds, params));
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        sql.append(" GROUP BY app_id, uri_id");
+
+        Map<AppUri, Long> extra = new HashMap<>();
+        jdbcTemplate.query(sql.toString(), params, rs -> {
+            extra.put(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")), rs.getLong("extra"));
+        });
+        return extra;
+    }
+
+    /**
+     * Суммы превышений в [start, endExclusive) по приложениям, URI и корзинам {@code buckets}.
+     * Фильтры приложений и URI — идентификаторы словарей, {@code null} означает отсутствие фильтра.
+     */
+    public Map<AppUri, long[]> sumExtraByBucket(LocalDateTime start, LocalDateTime endExclusive,
+                                                Collection<Integer> appIds, Collection<Integer> uriIds,
+                                                TimeBuckets buckets) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, ")
+                .append(buckets.sqlIndex("bucket_start"))
+                .append(" AS bucket, SUM(extra) AS extra FROM hit_sample_weights ")
+                .append(where(start, endExclusive, uriIds, params));
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        sql.append(" GROUP BY 1, 2, 3");
+
+        Map<AppUri, long[]> extra = new HashMap<>();
+        jdbcTemplate.query(sql.toString(), params, rs -> {
+            extra.computeIfAbsent(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")),
+                    key -> new long[buckets.count()])[rs.getInt("bucket")] += rs.getLong("extra");
+        });
+        return extra;
+    }
+
+    /**
+     * Удаляет превышения посещений до {@code before}, когда сами посещения удалены по сроку хранения.
+     */
+    public int deleteBefore(LocalDateTime before) {
+        return jdbcTemplate.update("DELETE FROM hit_sample_weights WHERE bucket_start < :before",
+                new MapSqlParameterSource("before", Timestamp.valueOf(before)));
+    }
+
+    private static String where(LocalDateTime start, LocalDateTime endExclusive, Collection<Integer> uriIds,
+                                MapSqlParameterSource params) {
+        params.addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(endExclusive));
+        StringBuilder where = new StringBuilder("WHERE bucket_start >= :start AND bucket_start < :end");
+        if (uriIds != null) {
+            where.append(" AND uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return where.toString();
+    }
+
+    private record Cell(int appId, int uriId, LocalDateTime bucketStart) {
+    }
+}
@@ -0,0 +1,452 @@
+package ru.practicum.repository;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Запечатанный сегмент — неизменяемый файл посещений одного окна времени, упорядоченных по URI и времени.
+ * После заголовка идет каталог URI [uriId][первая запись][количество], отсортированный по uriId,
+ * затем записи [смещение времени в мс от начала окна][ipId][appId]. Внутри URI записи упорядочены
+ * по времени, поэтому посещения за период находятся двоичным поиском, а их количество — разностью границ.
+ */
+final class SealedHitSegment {
+    /**
+     * Длина окна времени сегмента (около 24,8 суток): смещение внутри окна укладывается в int.
+     */
+    static final long WINDOW_MILLIS = 1L << 31;
+
+    private static final int MAGIC = 0x53485347;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 48;
+    private static final int ENTRY_BYTES = 12;
+    private static final int RECORD_BYTES = 12;
+
+    private final long id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final long baseMillis;
+    private final long minMillis;
+    private final long maxMillis;
+    private final int uriCount;
+    private final int recordCount;
+    private final int recordsOffset;
+
+    private SealedHitSegment(long id, Path path, MappedByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Файл " + path + " не является сегментом посещений");
+        }
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        this.baseMillis = buffer.getLong(8);
+        this.minMillis = buffer.getLong(16);
+        this.maxMillis = buffer.getLong(24);
+        this.uriCount = buffer.getInt(32);
+        this.recordCount = buffer.getInt(36);
+        this.recordsOffset = HEADER_BYTES + uriCount * ENTRY_BYTES;
+    }
+
+    static SealedHitSegment open(long id, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new SealedHitSegment(id, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Начало окна времени, в которое попадает момент {@code millis}.
+     */
+    static long windowStart(long millis) {
+        return Math.floorDiv(millis, WINDOW_MILLIS) * WINDOW_MILLIS;
+    }
+
+    /**
+     * Сливает сегменты одного окна времени в один.
+     * Записи каждого URI уже упорядочены во входных сегментах, поэтому сливаются без сортировки.
+     */
+    static SealedHitSegment merge(long id, Path path, List<SealedHitSegment> inputs) throws IOException {
+        long base = inputs.get(0).baseMillis;
+        int total = 0;
+        int entries = 0;
+        for (SealedHitSegment input : inputs) {
+            total += input.recordCount;
+            entries += input.uriCount;
+        }
+        int[] uriIds = new int[entries];
+        int filled = 0;
+        for (SealedHitSegment input : inputs) {
+            for (int e = 0; e < input.uriCount; e++) {
+                uriIds[filled++] = input.entryUri(e);
+            }
+        }
+        Arrays.sort(uriIds);
+
+        Builder builder = new Builder(base, total);
+        int[] cursors = new int[inputs.size()];
+        int[] ends = new int[inputs.size()];
+        for (int u = 0; u < uriIds.length; u++) {
+            if (u > 0 && uriIds[u] == uriIds[u - 1]) {
+                continue;
+            }
+            for (int s = 0; s < inputs.size(); s++) {
+                int entry = inputs.get(s).findEntry(uriIds[u]);
+                cursors[s] = entry < 0 ? 0 : inputs.get(s).entryFirst(entry);
+                ends[s] = entry < 0 ? 0 : cursors[s] + inputs.get(s).entryCount(entry);
+            }
+            builder.startUri(uriIds[u]);
+            while (true) {
+                int next = -1;
+                long nextMillis = Long.MAX_VALUE;
+                for (int s = 0; s < inputs.size(); s++) {
+                    if (cursors[s] < ends[s]) {
+                        long millis = inputs.get(s).millisAt(cursors[s]);
+                        if (millis < nextMillis) {
+                            next = s;
+                            nextMillis = millis;
+                        }
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                SealedHitSegment input = inputs.get(next);
+                builder.add((int) (nextMillis - base), input.ipAt(cursors[next]), input.appAt(cursors[next]));
+                cursors[next]++;
+            }
+        }
+        return builder.write(id, path);
+    }
+
+    /**
+     * Добавляет в {@code counts} количество посещений, подходящих под условия.
+     */
+    void countHits(SegmentScan scan, long[] counts) {
+        if (maxMillis < scan.fromMillis() || minMillis >= scan.toMillis()) {
+            return;
+        }
+        long from = scan.fromMillis() - baseMillis;
+        long to = scan.toMillis() - baseMillis;
+        if (scan.uriIds() != null) {
+            for (int uriId : scan.uriIds()) {
+                int entry = findEntry(uriId);
+                if (entry >= 0) {
+                    counts[uriId] += countEntry(entry, from, to, scan);
+                }
+            }
+        } else {
+            for (int entry = 0; entry < uriCount; entry++) {
+                counts[entryUri(entry)] += countEntry(entry, from, to, scan);
+            }
+        }
+    }
+
+    /**
+     * Добавляет в карты {@code visitors} посетителей, подходящих под условия.
+     */
+    void collectVisitors(SegmentScan scan, RoaringBitmap[] visitors) {
+        if (maxMillis < scan.fromMillis() || minMillis >= scan.toMillis()) {
+            return;
+        }
+        long from = scan.fromMillis() - baseMillis;
+        long to = scan.toMillis() - baseMillis;
+        if (scan.uriIds() != null) {
+            for (int uriId : scan.uriIds()) {
+                int entry = findEntry(uriId);
+                if (entry >= 0) {
+                    collectEntry(entry, from, to, scan, visitors);
+                }
+            }
+        } else {
+            for (int entry = 0; entry < uriCount; entry++) {
+                collectEntry(entry, from, to, scan, visitors);
+            }
+        }
+    }
+
+    /**
+     * Добавляет в {@code counts[uriId][корзина]} количество посещений, подходящих под условия.
+     * Корзины длиной {@code stepMillis} отсчитываются от {@code originMillis}; строки создаются по мере надобности.
+     * Внутри URI записи упорядочены по времени, поэтому без фильтра приложения количество в корзине —
+     * разность границ двоичного поиска, а с фильтром записи периода перебираются.
+     */
+    void countHitsByBucket(SegmentScan scan, long originMillis, long stepMillis, int buckets, long[][] counts) {
+        if (maxMillis < scan.fromMillis() || minMillis >= scan.toMillis()) {
+            return;
+        }
+        long from = scan.fromMillis() - baseMillis;
+        long to = scan.toMillis() - baseMillis;
+        long origin = originMillis - baseMillis;
+        for (int entry : matchingEntries(scan)) {
+            int end = entryFirst(entry) + entryCount(entry);
+            int lo = lowerBound(entryFirst(entry), end, from);
+            int hi = lowerBound(lo, end, to);
+            int uriId = entryUri(entry);
+            if (scan.appId() != SegmentScan.ANY_APP) {
+                for (int record = lo; record < hi; record++) {
+                    if (scan.acceptsApp(appAt(record))) {
+                        if (counts[uriId] == null) {
+                            counts[uriId] = new long[buckets];
+                        }
+                        counts[uriId][(int) Math.floorDiv(deltaAt(record) - origin, stepMillis)]++;
+                    }
+                }
+                continue;
+            }
+            while (lo < hi) {
+                int bucket = (int) Math.floorDiv(deltaAt(lo) - origin, stepMillis);
+                int next = lowerBound(lo, hi, origin + (bucket + 1) * stepMillis);
+                if (counts[uriId] == null) {
+                    counts[uriId] = new long[buckets];
+                }
+                counts[uriId][bucket] += next - lo;
+                lo = next;
+            }
+        }
+    }
+
+    /**
+     * Добавляет в карты {@code visitors[uriId][корзина]} посетителей, подходящих под условия.
+     */
+    void collectVisitorsByBucket(SegmentScan scan, long originMillis, long stepMillis, int buckets,
+                                 RoaringBitmap[][] visitors) {
+        if (maxMillis < scan.fromMillis() || minMillis >= scan.toMillis()) {
+            return;
+        }
+        long from = scan.fromMillis() - baseMillis;
+        long to = scan.toMillis() - baseMillis;
+        long origin = originMillis - baseMillis;
+        for (int entry : matchingEntries(scan)) {
+            int end = entryFirst(entry) + entryCount(entry);
+            int lo = lowerBound(entryFirst(entry), end, from);
+            int hi = lowerBound(lo, end, to);
+            int uriId = entryUri(entry);
+            for (int record = lo; record < hi; record++) {
+                if (!scan.acceptsApp(appAt(record))) {
+                    continue;
+                }
+                int bucket = (int) Math.floorDiv(deltaAt(record) - origin, stepMillis);
+                if (visitors[uriId] == null) {
+                    visitors[uriId] = new RoaringBitmap[buckets];
+                }
+                if (visitors[uriId][bucket] == null) {
+                    visitors[uriId][bucket] = new RoaringBitmap();
+                }
+                visitors[uriId][bucket].add(ipAt(record));
+            }
+        }
+    }
+
+    long id() {
+        return id;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Начало окна времени сегмента.
+     */
+    long window() {
+        return baseMillis;
+    }
+
+    long minMillis() {
+        return minMillis;
+    }
+
+    long maxMillis() {
+        return maxMillis;
+    }
+
+    int recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Элементы каталога URI, подходящие под фильтр просмотра.
+     */
+    private int[] matchingEntries(SegmentScan scan) {
+        if (scan.uriIds() == null) {
+            int[] entries = new int[uriCount];
+            Arrays.setAll(entries, entry -> entry);
+            return entries;
+        }
+        return Arrays.stream(scan.uriIds())
+                .map(this::findEntry)
+                .filter(entry -> entry >= 0)
+                .toArray();
+    }
+
+    /**
+     * Количество записей элемента каталога в [from, to); при фильтре приложения записи периода перебираются,
+     * так как внутри URI они упорядочены только по времени.
+     */
+    private int countEntry(int entry, long from, long to, SegmentScan scan) {
+        int first = entryFirst(entry);
+        int end = first + entryCount(entry);
+        int lo = lowerBound(first, end, from);
+        int hi = lowerBound(lo, end, to);
+        if (scan.appId() == SegmentScan.ANY_APP) {
+            return hi - lo;
+        }
+        int count = 0;
+        for (int record = lo; record < hi; record++) {
+            if (appAt(record) == scan.appId()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void collectEntry(int entry, long from, long to, SegmentScan scan, RoaringBitmap[] visitors) {
+        int first = entryFirst(entry);
+        int end = first + entryCount(entry);
+        int lo = lowerBound(first, end, from);
+        int hi = lowerBound(lo, end, to);
+        int uriId = entryUri(entry);
+        for (int record = lo; record < hi; record++) {
+            if (scan.acceptsApp(appAt(record))) {
+                if (visitors[uriId] == null) {
+                    visitors[uriId] = new RoaringBitmap();
+                }
+                visitors[uriId].add(ipAt(record));
+            }
+        }
+    }
+
+    /**
+     * Первая запись в [from, to), у которой смещение времени не меньше {@code delta}.
+     */
+    private int lowerBound(int from, int to, long delta) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (deltaAt(mid) < delta) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int findEntry(int uriId) {
+        int lo = 0;
+        int hi = uriCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = entryUri(mid);
+            if (value < uriId) {
+                lo = mid + 1;
+            } else if (value > uriId) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int entryUri(int entry) {
+        return buffer.getInt(HEADER_BYTES + entry * ENTRY_BYTES);
+    }
+
+    private int entryFirst(int entry) {
+        return buffer.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 4);
+    }
+
+    private int entryCount(int entry) {
+        return buffer.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 8);
+    }
+
+    private int deltaAt(int record) {
+        return buffer.getInt(recordsOffset + record * RECORD_BYTES);
+    }
+
+    private int ipAt(int record) {
+        return buffer.getInt(recordsOffset + record * RECORD_BYTES + 4);
+    }
+
+    private int appAt(int record) {
+        return buffer.getInt(recordsOffset + record * RECORD_BYTES + 8);
+    }
+
+    private long millisAt(int record) {
+        return baseMillis + deltaAt(record);
+    }
+
+    /**
+     * Построитель сегмента: URI добавляются по возрастанию идентификатора,
+     * записи одного URI — по возрастанию времени.
+     */
+    static final class Builder {
+        private final long baseMillis;
+        private final int[] deltas;
+        private final int[] ips;
+        private final int[] apps;
+        private int[] entryUris = new int[64];
+        private int[] entryFirsts = new int[64];
+        private int entries;
+        private int records;
+        private long minMillis = Long.MAX_VALUE;
+        private long maxMillis = Long.MIN_VALUE;
+
+        Builder(long baseMillis, int capacity) {
+            this.baseMillis = baseMillis;
+            this.deltas = new int[capacity];
+            this.ips = new int[capacity];
+            this.apps = new int[capacity];
+        }
+
+        void startUri(int uriId) {
+            if (entries == entryUris.length) {
+                entryUris = Arrays.copyOf(entryUris, entries * 2);
+                entryFirsts = Arrays.copyOf(entryFirsts, entries * 2);
+            }
+            entryUris[entries] = uriId;
+            entryFirsts[entries] = records;
+            entries++;
+        }
+
+        void add(int delta, int ipId, int appId) {
+            deltas[records] = delta;
+            ips[records] = ipId;
+            apps[records] = appId;
+            records++;
+            minMillis = Math.min(minMillis, baseMillis + delta);
+            maxMillis = Math.max(maxMillis, baseMillis + delta);
+        }
+
+        /**
+         * Записывает сегмент в новый файл и сбрасывает его на диск.
+         */
+        SealedHitSegment write(long id, Path path) throws IOException {
+            int recordsOffset = HEADER_BYTES + entries * ENTRY_BYTES;
+            MappedByteBuffer buffer = ActiveHitSegment.map(path, recordsOffset + (long) records * RECORD_BYTES);
+            buffer.putInt(0, MAGIC).putInt(4, VERSION)
+                    .putLong(8, baseMillis).putLong(16, minMillis).putLong(24, maxMillis)
+                    .putInt(32, entries).putInt(36, records);
+            for (int e = 0; e < entries; e++) {
+                int next = e + 1 < entries ? entryFirsts[e + 1] : records;
+                buffer.putInt(HEADER_BYTES + e * ENTRY_BYTES, entryUris[e])
+                        .putInt(HEADER_BYTES + e * ENTRY_BYTES + 4, entryFirsts[e])
+                        .putInt(HEADER_BYTES + e * ENTRY_BYTES + 8, next - entryFirsts[e]);
+            }
+            for (int r = 0; r < records; r++) {
+                buffer.putInt(recordsOffset + r * RECORD_BYTES, deltas[r])
+                        .putInt(recordsOffset + r * RECORD_BYTES + 4, ips[r])
+                        .putInt(recordsOffset + r * RECORD_BYTES + 8, apps[r]);
+            }
+            buffer.force();
+            return new SealedHitSegment(id, path, buffer);
+        }
+    }
+}
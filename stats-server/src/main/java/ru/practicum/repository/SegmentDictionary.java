@@ -0,0 +1,134 @@
+package ru.practicum.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Словарь строк сегментного хранилища: значению присваивается плотный идентификатор по порядку добавления.
+ * Хранится в файле-журнале из записей [длина int][UTF-8]; недописанная запись в конце файла
+ * при открытии отбрасывается. Добавляет значения только владелец хранилища под своей блокировкой,
+ * читать можно из любых потоков.
+ */
+final class SegmentDictionary {
+    private final FileChannel channel;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[1024];
+    private volatile int size;
+
+    private SegmentDictionary(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Открывает словарь, загружая все целиком записанные значения.
+     */
+    static SegmentDictionary open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SegmentDictionary dictionary = new SegmentDictionary(channel);
+        ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+        while (data.hasRemaining() && channel.read(data, data.position()) > 0) {
+            // читаем файл целиком
+        }
+        data.flip();
+        while (data.remaining() >= Integer.BYTES) {
+            int length = data.getInt(data.position());
+            if (length < 0 || data.remaining() < Integer.BYTES + length) {
+                break;
+            }
+            data.getInt();
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            dictionary.remember(new String(bytes, StandardCharsets.UTF_8));
+        }
+        channel.truncate(data.position());
+        channel.position(data.position());
+        return dictionary;
+    }
+
+    /**
+     * Идентификатор значения или -1, если значения нет в словаре.
+     */
+    int idOf(String value) {
+        return ids.getOrDefault(value, -1);
+    }
+
+    /**
+     * Идентификатор значения; отсутствующее значение дописывается в журнал словаря.
+     */
+    int idOrCreate(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes).flip();
+        try {
+            while (entry.hasRemaining()) {
+                channel.write(entry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return remember(value);
+    }
+
+    String value(int id) {
+        return values[id];
+    }
+
+    /**
+     * Значения, подходящие под условие, перебором всего словаря.
+     */
+    List<String> matching(Predicate<String> condition) {
+        // размер читается первым: массив, прочитанный после него, уже содержит все значения до этого размера
+        int count = size;
+        String[] current = values;
+        List<String> matched = new ArrayList<>();
+        for (int id = 0; id < count; id++) {
+            if (condition.test(current[id])) {
+                matched.add(current[id]);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Количество значений; все идентификаторы меньше этого числа.
+     */
+    int size() {
+        return size;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private int remember(String value) {
+        int id = size;
+        String[] current = values;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, id * 2);
+        }
+        current[id] = value;
+        values = current;
+        ids.put(value, id);
+        size = id + 1;
+        return id;
+    }
+}
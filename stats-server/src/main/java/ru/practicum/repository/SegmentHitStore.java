@@ -0,0 +1,495 @@
+package ru.practicum.repository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.TimeBuckets;
+import ru.practicum.model.UriGrouping;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Встроенное хранилище посещений в сегментных файлах, не требующее PostgreSQL.
+ * Посещения дописываются в отображенный в память активный сегмент; заполненный сегмент
+ * запечатывается в неизменяемые файлы по окнам времени, упорядоченные по URI и времени,
+ * а мелкие запечатанные сегменты одного окна сливаются в фоне. URI, IP и приложения хранятся
+ * идентификаторами из словарей-журналов.
+ * Контрольная точка фиксирует список сегментов и число записей активного сегмента; при перезапуске
+ * сегменты открываются по ней, а записи активного сегмента после нее воспроизводятся из журнала.
+ * Время хранится с точностью до миллисекунды.
+ */
+@Slf4j
+@Repository
+@Profile("segments")
+public class SegmentHitStore {
+    private static final int CHECKPOINT_MAGIC = 0x53484350;
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.(log|seg)");
+
+    /**
+     * Каталог с файлами хранилища.
+     */
+    private final Path directory;
+
+    /**
+     * Емкость активного сегмента и предельный размер сегмента после слияния, в посещениях.
+     */
+    private final int recordsPerSegment;
+
+    private SegmentDictionary uriDictionary;
+    private SegmentDictionary ipDictionary;
+    private SegmentDictionary appDictionary;
+
+    /**
+     * Текущий набор сегментов; заменяется целиком, поэтому запрос видит согласованный снимок.
+     */
+    private volatile SegmentView view = new SegmentView(List.of(), null);
+
+    private long nextSegmentId;
+
+    public SegmentHitStore(@Value("${stats.segments.dir:./data/segments}") Path directory,
+                           @Value("${stats.segments.records-per-segment:1000000}") int recordsPerSegment) {
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+    }
+
+    /**
+     * Восстанавливает хранилище: загружает словари, открывает сегменты из контрольной точки,
+     * воспроизводит хвост активного сегмента и удаляет файлы, не попавшие в контрольную точку.
+     */
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+        uriDictionary = SegmentDictionary.open(directory.resolve("uris.dict"));
+        ipDictionary = SegmentDictionary.open(directory.resolve("ips.dict"));
+        appDictionary = SegmentDictionary.open(directory.resolve("apps.dict"));
+
+        Path checkpointPath = directory.resolve("checkpoint");
+        long activeId = -1;
+        int activeCount = 0;
+        List<SealedHitSegment> sealed = new ArrayList<>();
+        if (Files.exists(checkpointPath)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(checkpointPath))) {
+                if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+                    throw new IOException("Некорректная контрольная точка " + checkpointPath);
+                }
+                nextSegmentId = in.readLong();
+                activeId = in.readLong();
+                activeCount = in.readInt();
+                int sealedCount = in.readInt();
+                for (int i = 0; i < sealedCount; i++) {
+                    long id = in.readLong();
+                    sealed.add(SealedHitSegment.open(id, sealedPath(id)));
+                }
+            }
+        }
+
+        ActiveHitSegment active = null;
+        if (activeId >= 0) {
+            active = ActiveHitSegment.recover(activeId, logPath(activeId), activeCount,
+                    uriDictionary.size(), ipDictionary.size(), appDictionary.size());
+            log.info("Воспроизведено {} посещений активного сегмента {} после контрольной точки",
+                    active.count() - activeCount, activeId);
+        }
+        removeOrphans(sealed, active);
+        view = new SegmentView(List.copyOf(sealed), active);
+        writeCheckpoint();
+        log.info("Открыто сегментное хранилище {}: {} запечатанных сегментов, {} URI, {} IP",
+                directory, sealed.size(), uriDictionary.size(), ipDictionary.size());
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        writeCheckpoint();
+        uriDictionary.close();
+        ipDictionary.close();
+        appDictionary.close();
+    }
+
+    /**
+     * Дописывает посещения в активный сегмент, запечатывая его при заполнении.
+     */
+    public synchronized void append(List<EndpointHit> hits) {
+        try {
+            for (EndpointHit hit : hits) {
+                long millis = toMillis(hit.getTimestamp());
+                ActiveHitSegment active = view.active();
+                if (active == null || active.isFull()) {
+                    active = rollActive();
+                }
+                active.append(uriDictionary.idOrCreate(hit.getUri()),
+                        ipDictionary.idOrCreate(normalizeIp(hit.getIp())),
+                        appDictionary.idOrCreate(hit.getApp()),
+                        millis);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Приложения, по которым считается статистика: указанное, если оно встречалось, иначе все известные.
+     */
+    public List<String> apps(String app) {
+        if (app != null) {
+            return appDictionary.idOf(app) >= 0 ? List.of(app) : List.of();
+        }
+        return appDictionary.matching(value -> true);
+    }
+
+    /**
+     * Считает посещения приложения {@code app} по URI в [start, end].
+     */
+    public Map<String, Long> countHits(LocalDateTime start, LocalDateTime end, String app, List<String> uris) {
+        SegmentView current = view;
+        int activeCount = current.activeCount();
+        long[] counts = new long[uriDictionary.size()];
+        SegmentScan scan = scan(start, end, app, uris);
+        if (scan == null) {
+            return Map.of();
+        }
+        for (SealedHitSegment segment : current.sealed()) {
+            segment.countHits(scan, counts);
+        }
+        if (current.active() != null) {
+            current.active().countHits(scan, activeCount, counts);
+        }
+
+        Map<String, Long> hits = new HashMap<>();
+        for (int uriId = 0; uriId < counts.length; uriId++) {
+            if (counts[uriId] > 0) {
+                hits.put(uriDictionary.value(uriId), counts[uriId]);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * URI, подходящие под каждый из шаблонов {@link UriGrouping}, перебором словаря URI.
+     */
+    public Map<String, List<String>> matchUris(List<String> patterns) {
+        Map<String, List<String>> matched = new HashMap<>();
+        for (String pattern : patterns) {
+            Pattern regex = UriGrouping.toRegex(pattern);
+            matched.put(pattern, uriDictionary.matching(uri -> regex.matcher(uri).matches()));
+        }
+        return matched;
+    }
+
+    /**
+     * Считает уникальных посетителей приложения {@code app} по URI в [start, end] объединением
+     * идентификаторов IP. Если задана группировка, посетители URI одной группы объединяются и считаются один раз.
+     */
+    public Map<String, Long> countUnique(LocalDateTime start, LocalDateTime end, String app, List<String> uris,
+                                         UriGrouping grouping) {
+        SegmentView current = view;
+        int activeCount = current.activeCount();
+        RoaringBitmap[] visitors = new RoaringBitmap[uriDictionary.size()];
+        SegmentScan scan = scan(start, end, app, uris);
+        if (scan == null) {
+            return Map.of();
+        }
+        for (SealedHitSegment segment : current.sealed()) {
+            segment.collectVisitors(scan, visitors);
+        }
+        if (current.active() != null) {
+            current.active().collectVisitors(scan, activeCount, visitors);
+        }
+
+        Map<String, RoaringBitmap> byUri = new HashMap<>();
+        for (int uriId = 0; uriId < visitors.length; uriId++) {
+            if (visitors[uriId] != null) {
+                byUri.put(uriDictionary.value(uriId), visitors[uriId]);
+            }
+        }
+        Map<String, RoaringBitmap> grouped = grouping == null ? byUri
+                : grouping.group(byUri, (a, b) -> RoaringBitmap.or(a, b));
+
+        Map<String, Long> unique = new HashMap<>();
+        grouped.forEach((uri, bitmap) -> unique.put(uri, bitmap.getLongCardinality()));
+        return unique;
+    }
+
+    /**
+     * Сбрасывает на диск словари и активный сегмент и записывает контрольную точку.
+     */
+    public synchronized void checkpoint() {
+        try {
+            writeCheckpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Сливает первую найденную группу запечатанных сегментов одного окна времени, которые вместе
+     * не превышают размера сегмента. Возвращает {@code false}, если сливать нечего.
+     */
+    public boolean compact() throws IOException {
+        List<SealedHitSegment> group = findCompactionGroup(view.sealed());
+        if (group.size() < 2) {
+            return false;
+        }
+        long id;
+        synchronized (this) {
+            id = nextSegmentId++;
+        }
+        SealedHitSegment merged = SealedHitSegment.merge(id, sealedPath(id), group);
+        synchronized (this) {
+            List<SealedHitSegment> sealed = new ArrayList<>(view.sealed());
+            sealed.removeAll(group);
+            sealed.add(merged);
+            view = new SegmentView(List.copyOf(sealed), view.active());
+            writeCheckpoint();
+        }
+        // запросы, начатые до замены, дочитывают удаленные файлы через свои отображения
+        for (SealedHitSegment segment : group) {
+            Files.deleteIfExists(segment.path());
+        }
+        log.debug("Слито {} сегментов в сегмент {} ({} посещений)", group.size(), id, merged.recordCount());
+        return true;
+    }
+
+    private List<SealedHitSegment> findCompactionGroup(List<SealedHitSegment> sealed) {
+        Map<Long, List<SealedHitSegment>> byWindow = new TreeMap<>();
+        for (SealedHitSegment segment : sealed) {
+            if (segment.recordCount() < recordsPerSegment) {
+                byWindow.computeIfAbsent(segment.window(), window -> new ArrayList<>()).add(segment);
+            }
+        }
+        for (List<SealedHitSegment> candidates : byWindow.values()) {
+            candidates.sort(Comparator.comparingInt(SealedHitSegment::recordCount));
+            List<SealedHitSegment> group = new ArrayList<>();
+            long records = 0;
+            for (SealedHitSegment segment : candidates) {
+                if (records + segment.recordCount() > recordsPerSegment) {
+                    break;
+                }
+                group.add(segment);
+                records += segment.recordCount();
+            }
+            if (group.size() >= 2) {
+                return group;
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * Запечатывает заполненный активный сегмент и начинает новый.
+     */
+    private ActiveHitSegment rollActive() throws IOException {
+        SegmentView current = view;
+        List<SealedHitSegment> sealed = current.sealed();
+        ActiveHitSegment previous = current.active();
+        if (previous != null && previous.count() > 0) {
+            previous.force();
+            List<SealedHitSegment> extended = new ArrayList<>(sealed);
+            extended.addAll(previous.seal(this::sealedPath, () -> nextSegmentId++));
+            sealed = List.copyOf(extended);
+        }
+        long id = nextSegmentId++;
+        ActiveHitSegment active = ActiveHitSegment.create(id, logPath(id), recordsPerSegment);
+        view = new SegmentView(sealed, active);
+        writeCheckpoint();
+        if (previous != null) {
+            Files.deleteIfExists(previous.path());
+        }
+        log.debug("Начат активный сегмент {}, запечатанных сегментов: {}", id, sealed.size());
+        return active;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        SegmentView current = view;
+        uriDictionary.force();
+        ipDictionary.force();
+        appDictionary.force();
+        if (current.active() != null) {
+            current.active().force();
+        }
+        Path temporary = directory.resolve("checkpoint.tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeLong(nextSegmentId);
+            out.writeLong(current.active() != null ? current.active().id() : -1);
+            out.writeInt(current.activeCount());
+            out.writeInt(current.sealed().size());
+            for (SealedHitSegment segment : current.sealed()) {
+                out.writeLong(segment.id());
+            }
+        }
+        Files.move(temporary, directory.resolve("checkpoint"),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Удаляет сегменты, которые не попали в контрольную точку: результаты прерванного слияния
+     * или запечатывания, после которого контрольная точка не успела обновиться.
+     */
+    private void removeOrphans(List<SealedHitSegment> sealed, ActiveHitSegment active) throws IOException {
+        Set<Path> referenced = new HashSet<>();
+        sealed.forEach(segment -> referenced.add(segment.path()));
+        if (active != null) {
+            referenced.add(active.path());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches() && !referenced.contains(file)) {
+                    log.warn("Удален сегмент {}, не попавший в контрольную точку", file);
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Количество посещений приложения {@code app} ({@code null} — всех приложений) в [start, end] по URI
+     * и корзинам {@code buckets} за один просмотр сегментов.
+     */
+    public Map<String, long[]> countHitsByBucket(LocalDateTime start, LocalDateTime end, String app,
+                                                 List<String> uris, TimeBuckets buckets) {
+        SegmentView current = view;
+        int activeCount = current.activeCount();
+        long[][] counts = new long[uriDictionary.size()][];
+        SegmentScan scan = scan(start, end, app, uris);
+        if (scan == null) {
+            return Map.of();
+        }
+        long origin = buckets.originSecond() * 1000;
+        long step = buckets.stepSeconds() * 1000;
+        for (SealedHitSegment segment : current.sealed()) {
+            segment.countHitsByBucket(scan, origin, step, buckets.count(), counts);
+        }
+        if (current.active() != null) {
+            current.active().countHitsByBucket(scan, activeCount, origin, step, buckets.count(), counts);
+        }
+
+        Map<String, long[]> hits = new HashMap<>();
+        for (int uriId = 0; uriId < counts.length; uriId++) {
+            if (counts[uriId] != null) {
+                hits.put(uriDictionary.value(uriId), counts[uriId]);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Количество уникальных посетителей приложения {@code app} ({@code null} — всех приложений) в [start, end]
+     * по URI и корзинам {@code buckets}.
+     */
+    public Map<String, long[]> countUniqueByBucket(LocalDateTime start, LocalDateTime end, String app,
+                                                   List<String> uris, TimeBuckets buckets) {
+        SegmentView current = view;
+        int activeCount = current.activeCount();
+        RoaringBitmap[][] visitors = new RoaringBitmap[uriDictionary.size()][];
+        SegmentScan scan = scan(start, end, app, uris);
+        if (scan == null) {
+            return Map.of();
+        }
+        long origin = buckets.originSecond() * 1000;
+        long step = buckets.stepSeconds() * 1000;
+        for (SealedHitSegment segment : current.sealed()) {
+            segment.collectVisitorsByBucket(scan, origin, step, buckets.count(), visitors);
+        }
+        if (current.active() != null) {
+            current.active().collectVisitorsByBucket(scan, activeCount, origin, step, buckets.count(), visitors);
+        }
+
+        Map<String, long[]> unique = new HashMap<>();
+        for (int uriId = 0; uriId < visitors.length; uriId++) {
+            if (visitors[uriId] != null) {
+                long[] counts = new long[buckets.count()];
+                for (int bucket = 0; bucket < counts.length; bucket++) {
+                    counts[bucket] = visitors[uriId][bucket] != null ? visitors[uriId][bucket].getLongCardinality() : 0;
+                }
+                unique.put(uriDictionary.value(uriId), counts);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Условия просмотра; {@code null}, если приложение или ни один из запрошенных URI не встречались.
+     * Приложение {@code null} означает все приложения.
+     */
+    private SegmentScan scan(LocalDateTime start, LocalDateTime end, String app, List<String> uris) {
+        long from = toMillis(start);
+        long to = toMillis(end) + 1;
+        int appId = app != null ? appDictionary.idOf(app) : SegmentScan.ANY_APP;
+        if (appId < 0 && app != null) {
+            return null;
+        }
+        if (uris == null || uris.isEmpty()) {
+            return new SegmentScan(from, to, null, null, appId);
+        }
+        int[] uriIds = uris.stream()
+                .mapToInt(uriDictionary::idOf)
+                .filter(id -> id >= 0)
+                .sorted()
+                .distinct()
+                .toArray();
+        if (uriIds.length == 0) {
+            return null;
+        }
+        boolean[] mask = new boolean[uriIds[uriIds.length - 1] + 1];
+        Arrays.stream(uriIds).forEach(id -> mask[id] = true);
+        return new SegmentScan(from, to, uriIds, mask, appId);
+    }
+
+    private Path logPath(long id) {
+        return directory.resolve("segment-" + id + ".log");
+    }
+
+    private Path sealedPath(long id) {
+        return directory.resolve("segment-" + id + ".seg");
+    }
+
+    private static long toMillis(LocalDateTime timestamp) {
+        return timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * Приводит запись IPv6 к единому виду, чтобы один адрес не считался разными посетителями.
+     */
+    private static String normalizeIp(String ip) throws IOException {
+        return ip.indexOf(':') >= 0 ? InetAddress.getByName(ip).getHostAddress() : ip;
+    }
+
+    /**
+     * Запечатанные сегменты и активный сегмент на момент последнего изменения набора.
+     */
+    private record SegmentView(List<SealedHitSegment> sealed, ActiveHitSegment active) {
+
+        int activeCount() {
+            return active != null ? active.count() : 0;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.practicum.repository;
+
+/**
+ * Условия просмотра сегментов: полуинтервал времени в миллисекундах, фильтр URI и приложение.
+ * Фильтр URI задан дважды: отсортированными идентификаторами для поиска в каталоге запечатанного сегмента
+ * и маской по идентификатору для просмотра журнала; без фильтра оба поля равны {@code null}.
+ * Приложение {@link #ANY_APP} означает посещения всех приложений.
+ */
+record SegmentScan(long fromMillis, long toMillis, int[] uriIds, boolean[] uriMask, int appId) {
+    static final int ANY_APP = -1;
+
+    boolean accepts(int uriId) {
+        return uriMask == null || uriId < uriMask.length && uriMask[uriId];
+    }
+
+    boolean acceptsApp(int appId) {
+        return this.appId == ANY_APP || this.appId == appId;
+    }
+}
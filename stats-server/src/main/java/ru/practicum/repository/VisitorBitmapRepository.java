@@ -0,0 +1,235 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.TimeBuckets;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Репозиторий словаря IP-адресов и битовых карт посетителей по (приложение, uri, день).
+ * Приложение и URI задаются идентификаторами словарей; фильтр {@code null} означает все значения.
+ */
+@Repository
+@RequiredArgsConstructor
+public class VisitorBitmapRepository {
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    /**
+     * Обработчик строки (идентификатор приложения, идентификатор URI, день, идентификатор IP).
+     */
+    @FunctionalInterface
+    public interface VisitorHandler {
+        void accept(int appId, int uriId, LocalDate day, int ipId);
+    }
+
+    /**
+     * Обработчик строки (идентификатор приложения, идентификатор URI, день, сериализованная битовая карта).
+     */
+    @FunctionalInterface
+    public interface BitmapHandler {
+        void accept(int appId, int uriId, LocalDate day, byte[] visitors);
+    }
+
+    /**
+     * Обработчик строки (идентификатор приложения, идентификатор URI, IP, идентификатор IP или 0).
+     */
+    @FunctionalInterface
+    public interface RawVisitorHandler {
+        void accept(int appId, int uriId, String ip, int ipId);
+    }
+
+    /**
+     * Обработчик строки (идентификатор приложения, идентификатор URI, номер корзины, IP, идентификатор IP или 0).
+     */
+    @FunctionalInterface
+    public interface BucketVisitorHandler {
+        void accept(int appId, int uriId, int bucket, String ip, int ipId);
+    }
+
+    /**
+     * Добавляет в словарь IP-адреса посещений из (afterId, upToId], которых в нем еще нет.
+     * Вставляются только новые адреса, поэтому последовательность не расходуется впустую и идентификаторы остаются плотными.
+     */
+    public int extendDictionary(long afterId, long upToId) {
+        return namedJdbcTemplate.update("INSERT INTO ip_dictionary (ip) " +
+                        "SELECT DISTINCT h.ip FROM endpoint_hits h " +
+                        "WHERE h.id > :afterId AND h.id <= :upToId " +
+                        "AND NOT EXISTS (SELECT 1 FROM ip_dictionary d WHERE d.ip = h.ip)",
+                Map.of("afterId", afterId, "upToId", upToId));
+    }
+
+    /**
+     * Перебирает уникальные четверки (приложение, uri, день, идентификатор IP) посещений из (afterId, upToId].
+     */
+    public void findVisitors(long afterId, long upToId, VisitorHandler handler) {
+        namedJdbcTemplate.query("SELECT DISTINCT h.app_id, h.uri_id, CAST(h.timestamp AS DATE) AS day, " +
+                        "d.id AS ip_id FROM endpoint_hits h JOIN ip_dictionary d ON d.ip = h.ip " +
+                        "WHERE h.id > :afterId AND h.id <= :upToId",
+                Map.of("afterId", afterId, "upToId", upToId),
+                (ResultSet rs) -> {
+                    handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getDate("day").toLocalDate(),
+                            rs.getInt("ip_id"));
+                });
+    }
+
+    /**
+     * Загружает битовые карты для указанных троек (приложение, uri, день).
+     */
+    public void findBitmaps(List<Integer> appIds, List<Integer> uriIds, List<LocalDate> days,
+                            BitmapHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT v.app_id, v.uri_id, v.day, v.visitors " +
+                    "FROM uri_day_visitors v JOIN unnest(?, ?, ?) AS k(app_id, uri_id, day) " +
+                    "ON v.app_id = k.app_id AND v.uri_id = k.uri_id AND v.day = k.day");
+            ps.setArray(1, intArray(connection, appIds));
+            ps.setArray(2, intArray(connection, uriIds));
+            ps.setArray(3, dateArray(connection, days));
+            return ps;
+        }, (ResultSet rs) -> {
+            handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getDate("day").toLocalDate(),
+                    rs.getBytes("visitors"));
+        });
+    }
+
+    /**
+     * Загружает битовые карты дней из [fromDay, toDay) для указанных приложений и URI.
+     */
+    public void findBitmaps(LocalDate fromDay, LocalDate toDay, Collection<Integer> appIds,
+                            Collection<Integer> uriIds, BitmapHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Date.valueOf(fromDay))
+                .addValue("to", Date.valueOf(toDay));
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, day, visitors FROM uri_day_visitors " +
+                "WHERE day >= :from AND day < :to");
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        namedJdbcTemplate.query(sql.toString(), params, (ResultSet rs) -> {
+            handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getDate("day").toLocalDate(),
+                    rs.getBytes("visitors"));
+        });
+    }
+
+    /**
+     * Сохраняет битовые карты, заменяя существующие.
+     */
+    public void saveBitmaps(List<Integer> appIds, List<Integer> uriIds, List<LocalDate> days,
+                            List<byte[]> bitmaps) {
+        jdbcTemplate.batchUpdate("INSERT INTO uri_day_visitors (app_id, uri_id, day, visitors) VALUES (?, ?, ?, ?) " +
+                        "ON CONFLICT (app_id, uri_id, day) DO UPDATE SET visitors = EXCLUDED.visitors",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setInt(1, appIds.get(i));
+                        ps.setInt(2, uriIds.get(i));
+                        ps.setDate(3, Date.valueOf(days.get(i)));
+                        ps.setBytes(4, bitmaps.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return uriIds.size();
+                    }
+                });
+    }
+
+    /**
+     * Перебирает уникальные тройки (приложение, URI, IP) исходных посещений в [start, endExclusive).
+     * Если задан участок [coveredFrom, coveredTo), уже учтенный в битовых картах,
+     * то внутри него берутся только посещения после водяного знака. Для адресов, которых еще нет в словаре,
+     * ipId равен 0.
+     */
+    public void findRawVisitors(LocalDateTime start, LocalDateTime endExclusive,
+                                LocalDateTime coveredFrom, LocalDateTime coveredTo, long watermark,
+                                Collection<Integer> appIds, Collection<Integer> uriIds, RawVisitorHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(endExclusive));
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT h.app_id, h.uri_id, host(h.ip) AS ip, " +
+                "COALESCE(d.id, 0) AS ip_id FROM endpoint_hits h LEFT JOIN ip_dictionary d ON d.ip = h.ip " +
+                "WHERE h.timestamp >= :start AND h.timestamp < :end");
+        if (coveredFrom != null) {
+            sql.append(" AND (h.id > :watermark OR h.timestamp < :coveredFrom OR h.timestamp >= :coveredTo)");
+            params.addValue("watermark", watermark)
+                    .addValue("coveredFrom", Timestamp.valueOf(coveredFrom))
+                    .addValue("coveredTo", Timestamp.valueOf(coveredTo));
+        }
+        if (appIds != null) {
+            sql.append(" AND h.app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND h.uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        namedJdbcTemplate.query(sql.toString(), params, (ResultSet rs) -> {
+            handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getString("ip"), rs.getInt("ip_id"));
+        });
+    }
+
+    /**
+     * Перебирает уникальные четверки (приложение, URI, корзина, IP) исходных посещений в [start, endExclusive).
+     * Участок [coveredFrom, coveredTo), водяной знак и фильтры учитываются так же, как в {@link #findRawVisitors}.
+     */
+    public void findRawVisitorsByBucket(LocalDateTime start, LocalDateTime endExclusive,
+                                        LocalDateTime coveredFrom, LocalDateTime coveredTo, long watermark,
+                                        Collection<Integer> appIds, Collection<Integer> uriIds, TimeBuckets buckets,
+                                        BucketVisitorHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(endExclusive));
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT h.app_id, h.uri_id, ")
+                .append(buckets.sqlIndex("h.timestamp"))
+                .append(" AS bucket, host(h.ip) AS ip, COALESCE(d.id, 0) AS ip_id ")
+                .append("FROM endpoint_hits h LEFT JOIN ip_dictionary d ON d.ip = h.ip ")
+                .append("WHERE h.timestamp >= :start AND h.timestamp < :end");
+        if (coveredFrom != null) {
+            sql.append(" AND (h.id > :watermark OR h.timestamp < :coveredFrom OR h.timestamp >= :coveredTo)");
+            params.addValue("watermark", watermark)
+                    .addValue("coveredFrom", Timestamp.valueOf(coveredFrom))
+                    .addValue("coveredTo", Timestamp.valueOf(coveredTo));
+        }
+        if (appIds != null) {
+            sql.append(" AND h.app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND h.uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        namedJdbcTemplate.query(sql.toString(), params, (ResultSet rs) -> {
+            handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getInt("bucket"), rs.getString("ip"),
+                    rs.getInt("ip_id"));
+        });
+    }
+
+    private Array intArray(Connection connection, List<Integer> values) throws SQLException {
+        return connection.createArrayOf("int4", values.toArray());
+    }
+
+    private Array dateArray(Connection connection, List<LocalDate> values) throws SQLException {
+        return connection.createArrayOf("date", values.stream().map(Date::valueOf).toArray());
+    }
+}
@@ -0,0 +1,172 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Репозиторий часовых скетчей HyperLogLog уникальных посетителей по приложению и URI.
+ * Приложение и URI задаются идентификаторами словарей; фильтр {@code null} означает все значения.
+ */
+@Repository
+@RequiredArgsConstructor
+public class VisitorSketchRepository {
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    /**
+     * Обработчик строки (идентификатор приложения, идентификатор URI, начало часа, IP).
+     */
+    @FunctionalInterface
+    public interface VisitorHandler {
+        void accept(int appId, int uriId, LocalDateTime hour, String ip);
+    }
+
+    /**
+     * Обработчик строки (идентификатор приложения, идентификатор URI, IP).
+     */
+    @FunctionalInterface
+    public interface RawVisitorHandler {
+        void accept(int appId, int uriId, String ip);
+    }
+
+    /**
+     * Обработчик строки (идентификатор приложения, идентификатор URI, начало часа, регистры скетча).
+     */
+    @FunctionalInterface
+    public interface SketchHandler {
+        void accept(int appId, int uriId, LocalDateTime hour, byte[] registers);
+    }
+
+    /**
+     * Перебирает уникальные четверки (приложение, uri, начало часа, IP) посещений из (afterId, upToId].
+     */
+    public void findVisitors(long afterId, long upToId, VisitorHandler handler) {
+        namedJdbcTemplate.query("SELECT DISTINCT app_id, uri_id, date_trunc('hour', timestamp) AS hour, " +
+                        "host(ip) AS ip FROM endpoint_hits " +
+                        "WHERE id > :afterId AND id <= :upToId",
+                Map.of("afterId", afterId, "upToId", upToId),
+                (ResultSet rs) -> {
+                    handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"),
+                            rs.getTimestamp("hour").toLocalDateTime(), rs.getString("ip"));
+                });
+    }
+
+    /**
+     * Загружает скетчи для указанных троек (приложение, uri, начало часа).
+     */
+    public void findSketches(List<Integer> appIds, List<Integer> uriIds, List<LocalDateTime> hours,
+                             SketchHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT s.app_id, s.uri_id, s.bucket_start, " +
+                    "s.registers FROM uri_hour_sketches s " +
+                    "JOIN unnest(?, ?, ?) AS k(app_id, uri_id, bucket_start) " +
+                    "ON s.app_id = k.app_id AND s.uri_id = k.uri_id AND s.bucket_start = k.bucket_start");
+            ps.setArray(1, intArray(connection, appIds));
+            ps.setArray(2, intArray(connection, uriIds));
+            ps.setArray(3, connection.createArrayOf("timestamp", hours.stream().map(Timestamp::valueOf).toArray()));
+            return ps;
+        }, (ResultSet rs) -> {
+            handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket_start").toLocalDateTime(), rs.getBytes("registers"));
+        });
+    }
+
+    /**
+     * Загружает скетчи указанных приложений и URI за часы из [from, to).
+     */
+    public void findSketches(LocalDateTime from, LocalDateTime to, Collection<Integer> appIds,
+                             Collection<Integer> uriIds, SketchHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, bucket_start, registers " +
+                "FROM uri_hour_sketches WHERE bucket_start >= :from AND bucket_start < :to");
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        namedJdbcTemplate.query(sql.toString(), params, (ResultSet rs) -> {
+            handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket_start").toLocalDateTime(), rs.getBytes("registers"));
+        });
+    }
+
+    /**
+     * Сохраняет скетчи, заменяя существующие.
+     */
+    public void saveSketches(List<Integer> appIds, List<Integer> uriIds, List<LocalDateTime> hours,
+                             List<byte[]> sketches) {
+        jdbcTemplate.batchUpdate("INSERT INTO uri_hour_sketches (app_id, uri_id, bucket_start, registers) " +
+                        "VALUES (?, ?, ?, ?) " +
+                        "ON CONFLICT (app_id, uri_id, bucket_start) DO UPDATE SET registers = EXCLUDED.registers",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setInt(1, appIds.get(i));
+                        ps.setInt(2, uriIds.get(i));
+                        ps.setTimestamp(3, Timestamp.valueOf(hours.get(i)));
+                        ps.setBytes(4, sketches.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return uriIds.size();
+                    }
+                });
+    }
+
+    /**
+     * Перебирает уникальные тройки (приложение, URI, IP) исходных посещений в [start, endExclusive).
+     * Если задан участок [coveredFrom, coveredTo), уже учтенный в скетчах,
+     * то внутри него берутся только посещения после водяного знака.
+     */
+    public void findRawVisitors(LocalDateTime start, LocalDateTime endExclusive,
+                                LocalDateTime coveredFrom, LocalDateTime coveredTo, long watermark,
+                                Collection<Integer> appIds, Collection<Integer> uriIds, RawVisitorHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(endExclusive));
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT app_id, uri_id, host(ip) AS ip FROM endpoint_hits " +
+                "WHERE timestamp >= :start AND timestamp < :end");
+        if (coveredFrom != null) {
+            sql.append(" AND (id > :watermark OR timestamp < :coveredFrom OR timestamp >= :coveredTo)");
+            params.addValue("watermark", watermark)
+                    .addValue("coveredFrom", Timestamp.valueOf(coveredFrom))
+                    .addValue("coveredTo", Timestamp.valueOf(coveredTo));
+        }
+        if (appIds != null) {
+            sql.append(" AND app_id = ANY(:appIds)");
+            params.addValue("appIds", appIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        if (uriIds != null) {
+            sql.append(" AND uri_id = ANY(:uriIds)");
+            params.addValue("uriIds", uriIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        namedJdbcTemplate.query(sql.toString(), params, (ResultSet rs) -> {
+            handler.accept(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getString("ip"));
+        });
+    }
+
+    private Array intArray(Connection connection, List<Integer> values) throws SQLException {
+        return connection.createArrayOf("int4", values.toArray());
+    }
+}
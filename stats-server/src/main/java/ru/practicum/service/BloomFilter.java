@@ -0,0 +1,63 @@
+package ru.practicum.service;
+
+/**
+ * Фильтр Блума для 64-битных ключей.
+ * Отвечает «ключа точно не было» или «ключ, вероятно, был»: ложноположительный ответ возникает
+ * с заданной вероятностью, если добавлено не больше ожидаемого количества ключей, а ложноотрицательных нет.
+ */
+public final class BloomFilter {
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * Фильтр на {@code expectedKeys} ключей с вероятностью ложноположительного ответа {@code falsePositiveRate}.
+     */
+    public BloomFilter(int expectedKeys, double falsePositiveRate) {
+        long optimalBits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 63, optimalBits));
+        this.bits = new long[(bitCount + 63) / 64];
+        this.hashCount = (int) Math.max(1, Math.round((double) bitCount / Math.max(1, expectedKeys) * Math.log(2)));
+    }
+
+    /**
+     * Добавляет ключ. Возвращает {@code false}, если все его биты уже были установлены, то есть ключ, вероятно,
+     * уже добавлялся.
+     */
+    public boolean put(long key) {
+        long hash = mix(key);
+        // двойное хеширование: номера битов различаются вторым слагаемым из старших бит хеша
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            long mask = 1L << bit;
+            if ((bits[bit >>> 6] & mask) == 0) {
+                bits[bit >>> 6] |= mask;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Размер фильтра в байтах.
+     */
+    public long sizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    /**
+     * Финальное перемешивание MurmurHash3: близкие идентификаторы дают независимые хеши.
+     */
+    private static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.practicum.service;
+
+import ru.practicum.model.RollupGranularity;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбиение интервала [start, endExclusive) на корзины предагрегатов.
+ * Середина интервала покрывается самыми крупными выровненными корзинами, к краям гранулярность
+ * уменьшается, а неровные края короче минуты остаются для подсчета по исходным посещениям.
+ *
+ * @param coveredFrom начало участка, покрытого корзинами, или null, если таких корзин нет
+ * @param coveredTo   конец участка, покрытого корзинами (не включительно), или null
+ * @param segments    участки с одной гранулярностью, вместе покрывающие [coveredFrom, coveredTo)
+ */
+public record BucketPlan(LocalDateTime coveredFrom, LocalDateTime coveredTo, List<Segment> segments) {
+    private static final RollupGranularity[] LEVELS = RollupGranularity.values();
+
+    /**
+     * Участок из последовательных корзин одной гранулярности.
+     */
+    public record Segment(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+    }
+
+    /**
+     * Строит разбиение интервала.
+     */
+    public static BucketPlan of(LocalDateTime start, LocalDateTime endExclusive) {
+        LocalDateTime from = LEVELS[0].ceil(start);
+        LocalDateTime to = LEVELS[0].floor(endExclusive);
+        if (!from.isBefore(to)) {
+            return new BucketPlan(null, null, List.of());
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        split(0, from, to, segments);
+        return new BucketPlan(from, to, List.copyOf(segments));
+    }
+
+    /**
+     * Есть ли в интервале хотя бы одна целая корзина.
+     */
+    public boolean hasBuckets() {
+        return coveredFrom != null;
+    }
+
+    private static void split(int level, LocalDateTime from, LocalDateTime to, List<Segment> segments) {
+        RollupGranularity granularity = LEVELS[level];
+        if (level == LEVELS.length - 1) {
+            segments.add(new Segment(granularity, from, to));
+            return;
+        }
+
+        RollupGranularity coarser = LEVELS[level + 1];
+        LocalDateTime innerFrom = coarser.ceil(from);
+        LocalDateTime innerTo = coarser.floor(to);
+        if (!innerFrom.isBefore(innerTo)) {
+            segments.add(new Segment(granularity, from, to));
+            return;
+        }
+
+        if (from.isBefore(innerFrom)) {
+            segments.add(new Segment(granularity, from, innerFrom));
+        }
+        split(level + 1, innerFrom, innerTo, segments);
+        if (innerTo.isBefore(to)) {
+            segments.add(new Segment(granularity, innerTo, to));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ru.practicum.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+
+/**
+ * Параллельное выполнение запроса статистики по отрезкам периода.
+ * Период делится на отрезки по {@code chunk-days} дней, выровненные по границам дней, и отрезки
+ * выполняются в ограниченном пуле потоков, каждый в своей транзакции на отдельном соединении.
+ * Все эти транзакции импортируют снимок вызывающей транзакции ({@code pg_export_snapshot}),
+ * поэтому видят те же данные, что и она, и частичные результаты можно объединять.
+ * Короткий период выполняется целиком в вызывающем потоке и его транзакции.
+ * Вызывающая транзакция держит свое соединение, пока ждет отрезки, поэтому потоки отрезков получают
+ * соединения сверх полос допуска: пул увеличивается на {@code parallelism} ({@code DataSourcePoolConfig}).
+ */
+@Slf4j
+@Component
+public class ChunkedQueryExecutor {
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ForkJoinPool pool;
+
+    /**
+     * Количество потоков, одновременно выполняющих отрезки всех запросов.
+     */
+    private final int parallelism;
+
+    /**
+     * Длина отрезка в днях.
+     */
+    private final int chunkDays;
+
+    public ChunkedQueryExecutor(JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${stats.query.parallelism:4}") int parallelism,
+                                @Value("${stats.query.chunk-days:7}") int chunkDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.transactionTemplate.setReadOnly(true);
+        this.parallelism = parallelism;
+        this.chunkDays = chunkDays;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Выполняет {@code query} для каждого отрезка [start, endExclusive) и объединяет результаты через {@code merge}.
+     * Вызывается внутри транзакции с изоляцией REPEATABLE READ; {@code query} не должен зависеть от потока.
+     */
+    public <T> T execute(LocalDateTime start, LocalDateTime endExclusive,
+                         BiFunction<LocalDateTime, LocalDateTime, T> query, BinaryOperator<T> merge) {
+        List<LocalDateTime> bounds = split(start, endExclusive);
+        if (bounds.size() <= 2 || parallelism <= 1) {
+            return query.apply(start, endExclusive);
+        }
+
+        String snapshot = jdbcTemplate.queryForObject("SELECT pg_export_snapshot()", String.class);
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(bounds.size() - 1);
+        for (int i = 0; i + 1 < bounds.size(); i++) {
+            LocalDateTime from = bounds.get(i);
+            LocalDateTime to = bounds.get(i + 1);
+            tasks.add(pool.submit(() -> transactionTemplate.execute(status -> {
+                jdbcTemplate.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+                return query.apply(from, to);
+            })));
+        }
+
+        T result = null;
+        for (ForkJoinTask<T> task : tasks) {
+            T part = task.join();
+            result = result == null ? part : merge.apply(result, part);
+        }
+        log.debug("Запрос за [{}, {}) выполнен по {} отрезкам", start, endExclusive, tasks.size());
+        return result;
+    }
+
+    /**
+     * Границы отрезков: начало периода, границы дней, кратные {@code chunkDays} от начала эпохи, и конец периода.
+     */
+    private List<LocalDateTime> split(LocalDateTime start, LocalDateTime endExclusive) {
+        List<LocalDateTime> bounds = new ArrayList<>();
+        bounds.add(start);
+        long firstChunk = Math.floorDiv(start.toLocalDate().toEpochDay(), chunkDays) + 1;
+        for (long chunk = firstChunk; ; chunk++) {
+            LocalDateTime bound = LocalDate.ofEpochDay(chunk * chunkDays).atStartOfDay();
+            if (!bound.isBefore(endExclusive)) {
+                break;
+            }
+            bounds.add(bound);
+        }
+        bounds.add(endExclusive);
+        return bounds;
+    }
+}
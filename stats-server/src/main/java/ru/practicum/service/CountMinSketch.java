@@ -0,0 +1,83 @@
+package ru.practicum.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Скетч Count-Min для приближенного подсчета частот значений.
+ * Занимает {@code depth * width} счетчиков независимо от количества значений; оценка частоты
+ * никогда не бывает меньше точной и превышает ее не более чем на {@code e / width} от суммы всех
+ * добавленных частот с вероятностью {@code 1 - exp(-depth)}.
+ * Скетчи одного размера вычитаются поэлементно, поэтому из скетча скользящего окна
+ * можно убрать скетч выбывшей минуты.
+ */
+public final class CountMinSketch {
+    private final long[] counters;
+
+    public CountMinSketch(int depth, int width) {
+        this.counters = new long[depth * width];
+    }
+
+    /**
+     * Номера счетчиков значения в каждой строке скетча. Вычисляются один раз на значение
+     * и подходят для всех скетчей той же ширины.
+     */
+    public static int[] indexes(String value, int depth, int width) {
+        long hash = hash(value);
+        // двойное хеширование: строки различаются вторым слагаемым, взятым из старших бит хеша
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int[] indexes = new int[depth];
+        for (int row = 0; row < depth; row++) {
+            indexes[row] = row * width + Math.floorMod(h1 + row * h2, width);
+        }
+        return indexes;
+    }
+
+    public void add(int[] indexes, long count) {
+        for (int index : indexes) {
+            counters[index] += count;
+        }
+    }
+
+    /**
+     * Оценка частоты значения: минимум его счетчиков.
+     */
+    public long estimate(int[] indexes) {
+        long estimate = Long.MAX_VALUE;
+        for (int index : indexes) {
+            estimate = Math.min(estimate, counters[index]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Вычитает скетч, все значения которого уже добавлены в этот.
+     */
+    public void subtract(CountMinSketch other) {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] -= other.counters[i];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(counters, 0L);
+    }
+
+    /**
+     * 64-битный хеш строки: FNV-1a по байтам UTF-8 с финальным перемешиванием из MurmurHash3.
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,141 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.ArchivedDay;
+import ru.practicum.model.TimeBuckets;
+import ru.practicum.repository.HitArchiveRepository;
+import ru.practicum.repository.HitArchiveStore;
+import ru.practicum.repository.VisitorBitmapRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Чтение холодного архива посещений для запросов статистики.
+ * В архив переносятся только посещения, уже учтенные в агрегатах, картах посетителей и скетчах,
+ * поэтому из архива, как и из endpoint_hits, читаются только части периода вне покрытого ими участка
+ * [coveredFrom, coveredTo). Каталог архивных дней читается в транзакции запроса, так что каждое
+ * посещение видно либо в таблице, либо в архиве, но не в обоих сразу.
+ */
+@Component
+@RequiredArgsConstructor
+public class HitArchive {
+    private final HitArchiveRepository hitArchiveRepository;
+    private final HitArchiveStore hitArchiveStore;
+
+    /**
+     * Есть ли в архиве дни, пересекающиеся с [start, endExclusive).
+     */
+    public boolean hasDays(LocalDateTime start, LocalDateTime endExclusive) {
+        return !findDays(start, endExclusive).isEmpty();
+    }
+
+    /**
+     * Считает архивные посещения по приложениям и URI в [start, endExclusive)
+     * вне участка [coveredFrom, coveredTo); без участка — во всем периоде.
+     * Фильтры приложений и URI — идентификаторы словарей, {@code null} означает отсутствие фильтра.
+     */
+    public Map<AppUri, Long> countHits(LocalDateTime start, LocalDateTime endExclusive,
+                                       LocalDateTime coveredFrom, LocalDateTime coveredTo,
+                                       Collection<Integer> appIds, Collection<Integer> uriIds) {
+        Map<AppUri, Long> counts = new HashMap<>();
+        try {
+            for (Period period : periods(start, endExclusive, coveredFrom, coveredTo)) {
+                for (ArchivedDay day : findDays(period.from(), period.to())) {
+                    hitArchiveStore.countHits(day.file(), period.from(), period.to(), appIds, uriIds, counts);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return counts;
+    }
+
+    /**
+     * Перебирает архивных посетителей указанных приложений и URI в [start, endExclusive)
+     * вне участка [coveredFrom, coveredTo). Тройки (приложение, URI, IP) могут повторяться.
+     */
+    public void findVisitors(LocalDateTime start, LocalDateTime endExclusive,
+                             LocalDateTime coveredFrom, LocalDateTime coveredTo, Collection<Integer> appIds,
+                             Collection<Integer> uriIds, VisitorBitmapRepository.RawVisitorHandler handler) {
+        try {
+            for (Period period : periods(start, endExclusive, coveredFrom, coveredTo)) {
+                for (ArchivedDay day : findDays(period.from(), period.to())) {
+                    hitArchiveStore.findVisitors(day.file(), period.from(), period.to(), appIds, uriIds, handler);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Добавляет в {@code counts} архивные посещения по приложениям, URI и корзинам {@code buckets}
+     * в [start, endExclusive) вне участка [coveredFrom, coveredTo).
+     */
+    public void countHitsByBucket(LocalDateTime start, LocalDateTime endExclusive,
+                                  LocalDateTime coveredFrom, LocalDateTime coveredTo, Collection<Integer> appIds,
+                                  Collection<Integer> uriIds, TimeBuckets buckets, Map<AppUri, long[]> counts) {
+        try {
+            for (Period period : periods(start, endExclusive, coveredFrom, coveredTo)) {
+                for (ArchivedDay day : findDays(period.from(), period.to())) {
+                    hitArchiveStore.countHitsByBucket(day.file(), period.from(), period.to(), appIds, uriIds,
+                            buckets, counts);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Перебирает архивных посетителей по корзинам {@code buckets} в [start, endExclusive)
+     * вне участка [coveredFrom, coveredTo). Четверки (приложение, URI, корзина, IP) могут повторяться.
+     */
+    public void findVisitorsByBucket(LocalDateTime start, LocalDateTime endExclusive,
+                                     LocalDateTime coveredFrom, LocalDateTime coveredTo, Collection<Integer> appIds,
+                                     Collection<Integer> uriIds, TimeBuckets buckets,
+                                     VisitorBitmapRepository.BucketVisitorHandler handler) {
+        try {
+            for (Period period : periods(start, endExclusive, coveredFrom, coveredTo)) {
+                for (ArchivedDay day : findDays(period.from(), period.to())) {
+                    hitArchiveStore.findVisitorsByBucket(day.file(), period.from(), period.to(), appIds, uriIds,
+                            buckets, handler);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<ArchivedDay> findDays(LocalDateTime from, LocalDateTime toExclusive) {
+        return hitArchiveRepository.findDays(from.toLocalDate(), toExclusive.minusNanos(1_000).toLocalDate());
+    }
+
+    private static List<Period> periods(LocalDateTime start, LocalDateTime endExclusive,
+                                        LocalDateTime coveredFrom, LocalDateTime coveredTo) {
+        List<Period> periods = new ArrayList<>(2);
+        if (coveredFrom == null) {
+            periods.add(new Period(start, endExclusive));
+            return periods;
+        }
+        if (start.isBefore(coveredFrom)) {
+            periods.add(new Period(start, coveredFrom));
+        }
+        if (coveredTo.isBefore(endExclusive)) {
+            periods.add(new Period(coveredTo, endExclusive));
+        }
+        return periods;
+    }
+
+    private record Period(LocalDateTime from, LocalDateTime to) {
+    }
+}
@@ -0,0 +1,302 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.ArchivedDay;
+import ru.practicum.model.ArchivedHit;
+import ru.practicum.model.HitPartition;
+import ru.practicum.model.TableHits;
+import ru.practicum.repository.HitArchiveRepository;
+import ru.practicum.repository.HitArchiveStore;
+import ru.practicum.repository.HitPartitionRepository;
+import ru.practicum.repository.RollupRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Перенос старых посещений из endpoint_hits в холодный архив — по одному сжатому файлу на день.
+ * День переносится, когда он старше срока и все его посещения учтены в агрегатах и структурах
+ * уникальных посетителей: запросы берут целые корзины из них, а в архив обращаются только за краями периода.
+ * Посещения читаются курсором и пишутся в файл группами строк, прежний файл дня сливается с ними
+ * так же потоком, поэтому память не зависит от числа посещений за день.
+ * Если день совпадает с разделом таблицы, раздел после записи файла отключается и удаляется целиком
+ * вместо массового DELETE; отключение дожидается завершения пишущих в раздел транзакций, и если за время
+ * записи в раздел попали новые посещения, транзакция откатывается и день переносится при следующем проходе.
+ * Иначе файл пишется, регистрируется в каталоге и посещения удаляются в одной транзакции с изоляцией
+ * REPEATABLE READ, поэтому удаляются ровно записанные в файл посещения. Запоздавшие посещения уже
+ * перенесенного дня при следующем проходе сливаются с прежним файлом в новый.
+ */
+@Slf4j
+@Component
+public class HitArchiveManager {
+    private static final String HITS_TABLE = "endpoint_hits";
+
+    private final HitArchiveRepository hitArchiveRepository;
+    private final HitArchiveStore hitArchiveStore;
+    private final HitPartitionRepository hitPartitionRepository;
+    private final RollupRepository rollupRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate partitionTransactionTemplate;
+
+    /**
+     * Включено ли архивирование.
+     */
+    private final boolean enabled;
+
+    /**
+     * Возраст в днях, после которого посещения переносятся в архив.
+     */
+    private final int ageDays;
+
+    /**
+     * Строятся ли агрегаты; если да, день переносится только после его полной агрегации.
+     */
+    private final boolean rollupsEnabled;
+
+    /**
+     * Периодичность проверки; столько же хранятся замененные файлы архива.
+     */
+    private final long checkIntervalMs;
+
+    public HitArchiveManager(HitArchiveRepository hitArchiveRepository,
+                             HitArchiveStore hitArchiveStore,
+                             HitPartitionRepository hitPartitionRepository,
+                             RollupRepository rollupRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${stats.archive.enabled:true}") boolean enabled,
+                             @Value("${stats.archive.age-days:90}") int ageDays,
+                             @Value("${stats.rollup.enabled:true}") boolean rollupsEnabled,
+                             @Value("${stats.archive.check-interval-ms:3600000}") long checkIntervalMs) {
+        this.hitArchiveRepository = hitArchiveRepository;
+        this.hitArchiveStore = hitArchiveStore;
+        this.hitPartitionRepository = hitPartitionRepository;
+        this.rollupRepository = rollupRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        // каждый запрос видит зафиксированное к его началу, в том числе после отключения раздела
+        this.partitionTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.partitionTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.enabled = enabled;
+        this.ageDays = ageDays;
+        this.rollupsEnabled = rollupsEnabled;
+        this.checkIntervalMs = checkIntervalMs;
+    }
+
+    /**
+     * Удаляет файлы архива без ссылок и переносит в архив все дни старше срока.
+     */
+    @Scheduled(fixedDelayString = "${stats.archive.check-interval-ms:3600000}")
+    public void archive() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int deleted = hitArchiveStore.deleteUnreferenced(hitArchiveRepository.findFiles(),
+                    Duration.ofMillis(checkIntervalMs));
+            if (deleted > 0) {
+                log.info("Удалено файлов архива без ссылок: {}", deleted);
+            }
+
+            Boolean archived;
+            do {
+                archived = partitionTransactionTemplate.execute(this::archiveOldestPartition);
+                if (!Boolean.TRUE.equals(archived)) {
+                    archived = transactionTemplate.execute(status -> archiveOldestDay());
+                }
+            } while (Boolean.TRUE.equals(archived));
+        } catch (Exception e) {
+            log.error("Ошибка при переносе посещений в архив: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Переносит в архив самый ранний день таблицы, если он старше срока, полностью агрегирован и совпадает
+     * с разделом таблицы, после чего отключает и удаляет раздел.
+     */
+    private boolean archiveOldestPartition(TransactionStatus status) {
+        hitArchiveRepository.lock();
+        hitPartitionRepository.lock();
+        LocalDate day = findDayToArchive();
+        if (day == null) {
+            return false;
+        }
+        LocalDateTime from = day.atStartOfDay();
+        LocalDateTime to = from.plusDays(1);
+        Optional<HitPartition> partition = findDayPartition(from, to);
+        if (partition.isEmpty() || !isAggregated(day, hitArchiveRepository.findMaxHitId(from, to))) {
+            return false;
+        }
+
+        String name = partition.get().name();
+        WrittenDay written = writeDay(day, name, from, to);
+        hitArchiveRepository.saveDay(new ArchivedDay(day, written.file(), written.total()));
+        // отключение ждет пишущие в раздел транзакции, после него раздел не меняется
+        hitPartitionRepository.detachPartition(name);
+        TableHits remaining = hitArchiveRepository.countHits(name);
+        if (remaining.hits() != written.fromTable() || !isAggregated(day, remaining.maxId())) {
+            log.debug("Посещения раздела {} изменились за время переноса в архив, перенос отложен", name);
+            status.setRollbackOnly();
+            return false;
+        }
+        hitPartitionRepository.dropPartition(name);
+        log.info("Раздел {} перенесен в архив {} и удален: {} из таблицы, всего в файле {}",
+                name, written.file(), written.fromTable(), written.total());
+        return true;
+    }
+
+    /**
+     * Переносит в архив самый ранний день таблицы, если он старше срока, полностью агрегирован
+     * и не совпадает с разделом, удаляя перенесенные посещения.
+     */
+    private boolean archiveOldestDay() {
+        hitArchiveRepository.lock();
+        LocalDate day = findDayToArchive();
+        if (day == null) {
+            return false;
+        }
+        LocalDateTime from = day.atStartOfDay();
+        LocalDateTime to = from.plusDays(1);
+        if (findDayPartition(from, to).isPresent()) {
+            // такой день переносится только вместе с разделом
+            return false;
+        }
+        long maxId = hitArchiveRepository.findMaxHitId(from, to);
+        if (!isAggregated(day, maxId)) {
+            return false;
+        }
+
+        WrittenDay written = writeDay(day, HITS_TABLE, from, to);
+        hitArchiveRepository.saveDay(new ArchivedDay(day, written.file(), written.total()));
+        hitArchiveRepository.deleteHits(from, to, maxId);
+        log.info("Посещения за {} перенесены в архив {}: {} из таблицы, всего в файле {}",
+                day, written.file(), written.fromTable(), written.total());
+        return true;
+    }
+
+    /**
+     * Самый ранний день таблицы, если он старше срока, иначе {@code null}.
+     */
+    private LocalDate findDayToArchive() {
+        LocalDateTime oldest = hitArchiveRepository.findOldestHitTime();
+        LocalDate cutoff = LocalDate.now().minusDays(ageDays);
+        return oldest != null && oldest.toLocalDate().isBefore(cutoff) ? oldest.toLocalDate() : null;
+    }
+
+    /**
+     * Раздел таблицы ровно на [from, to), если он есть.
+     */
+    private Optional<HitPartition> findDayPartition(LocalDateTime from, LocalDateTime to) {
+        return hitPartitionRepository.findPartitions().stream()
+                .filter(partition -> !partition.isDefault()
+                        && from.equals(partition.from()) && to.equals(partition.to()))
+                .findFirst();
+    }
+
+    private boolean isAggregated(LocalDate day, long maxId) {
+        if (rollupsEnabled && maxId > aggregatedUpTo()) {
+            log.debug("Посещения за {} еще не полностью агрегированы, перенос в архив отложен", day);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Пишет в новый файл посещения дня из таблицы {@code table}, сливая их с прежним файлом дня, если он есть.
+     * Оба источника упорядочены одинаково, поэтому слияние идет потоком.
+     */
+    private WrittenDay writeDay(LocalDate day, String table, LocalDateTime from, LocalDateTime to) {
+        Optional<ArchivedDay> existing = hitArchiveRepository.findDay(day);
+        try (HitArchiveStore.ArchiveWriter writer = hitArchiveStore.create(day);
+             HitArchiveStore.ArchiveReader previous = existing.isPresent()
+                     ? hitArchiveStore.read(existing.get().file()) : null) {
+            DayMerger merger = new DayMerger(writer, previous);
+            hitArchiveRepository.streamHits(table, from, to, merger);
+            merger.drain();
+            return new WrittenDay(writer.finish(), merger.fromTable, writer.count());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Идентификатор последнего посещения, учтенного во всех агрегатах и структурах посетителей.
+     */
+    private long aggregatedUpTo() {
+        return Math.min(rollupRepository.getWatermark(RollupRepository.ROLLUPS_WATERMARK),
+                Math.min(rollupRepository.getWatermark(RollupRepository.VISITORS_WATERMARK),
+                        rollupRepository.getWatermark(RollupRepository.SKETCHES_WATERMARK)));
+    }
+
+    /**
+     * Записанный файл дня: имя, число посещений из таблицы и всего в файле.
+     */
+    private record WrittenDay(String file, long fromTable, long total) {
+    }
+
+    /**
+     * Слияние посещений из таблицы с посещениями прежнего файла дня в порядке {@link HitArchiveStore#ORDER}.
+     * После сбоя между записью файла и фиксацией транзакции часть посещений может быть в обоих,
+     * такие берутся из таблицы.
+     */
+    private static final class DayMerger implements Consumer<ArchivedHit> {
+        private final HitArchiveStore.ArchiveWriter writer;
+        private final Iterator<ArchivedHit> previous;
+        private ArchivedHit pending;
+        private long fromTable;
+
+        private DayMerger(HitArchiveStore.ArchiveWriter writer, Iterator<ArchivedHit> previous) {
+            this.writer = writer;
+            this.previous = previous != null ? previous : Collections.emptyIterator();
+            this.pending = nextPrevious();
+        }
+
+        @Override
+        public void accept(ArchivedHit hit) {
+            while (pending != null && HitArchiveStore.ORDER.compare(pending, hit) < 0) {
+                add(pending);
+                pending = nextPrevious();
+            }
+            if (pending != null && HitArchiveStore.ORDER.compare(pending, hit) == 0) {
+                pending = nextPrevious();
+            }
+            add(hit);
+            fromTable++;
+        }
+
+        /**
+         * Дописывает оставшиеся посещения прежнего файла.
+         */
+        void drain() {
+            while (pending != null) {
+                add(pending);
+                pending = nextPrevious();
+            }
+        }
+
+        private void add(ArchivedHit hit) {
+            try {
+                writer.add(hit);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private ArchivedHit nextPrevious() {
+            return previous.hasNext() ? previous.next() : null;
+        }
+    }
+}
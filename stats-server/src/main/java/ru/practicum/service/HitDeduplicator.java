@@ -0,0 +1,202 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.HitIdGenerator;
+import ru.practicum.exception.HitWritePendingException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Отбрасывание повторно отправленных посещений по идентификатору, назначенному клиентом.
+ * Идентификатор содержит время создания посещения ({@link HitIdGenerator}), и по нему посещение относится
+ * к корзине времени. Для каждой из последних {@code stats.dedup.buckets} корзин хранится фильтр Блума,
+ * а для последних {@code stats.dedup.exact-buckets} — еще и точное множество идентификаторов: повторы вскоре
+ * после отправки (а повторы после тайм-аута приходят именно так) определяются точно, более поздние —
+ * по фильтру Блума, который с заданной малой вероятностью принимает новое посещение за повтор.
+ * Проверка не обращается к базе. Состояние хранится в памяти экземпляра, поэтому повторы, пришедшие
+ * после перезапуска или на другой экземпляр, не распознаются. Посещения без идентификатора,
+ * с идентификатором старше хранимых корзин или из будущего принимаются без проверки.
+ */
+@Slf4j
+@Component
+public class HitDeduplicator {
+    /**
+     * Проверяются ли повторы.
+     */
+    private final boolean enabled;
+
+    /**
+     * Длина корзины времени, мс.
+     */
+    private final long bucketMillis;
+
+    /**
+     * Сколько последних корзин проверяется по фильтрам Блума.
+     */
+    private final int buckets;
+
+    /**
+     * Сколько последних корзин проверяется точно.
+     */
+    private final int exactBuckets;
+
+    /**
+     * Ожидаемое количество посещений в корзине: по нему выбирается размер фильтра Блума.
+     */
+    private final int expectedPerBucket;
+
+    /**
+     * Вероятность принять новое посещение за повтор при ожидаемом количестве посещений в корзине.
+     */
+    private final double falsePositiveRate;
+
+    private final Map<Long, Bucket> byIndex = new HashMap<>();
+
+    /**
+     * Корзина, на которой последний раз удалялись устаревшие корзины.
+     */
+    private long evictedAt = Long.MIN_VALUE;
+
+    private final Counter accepted;
+    private final Counter duplicates;
+    private final Counter unchecked;
+
+    public HitDeduplicator(MeterRegistry meterRegistry,
+                           @Value("${stats.dedup.enabled:true}") boolean enabled,
+                           @Value("${stats.dedup.bucket-seconds:60}") int bucketSeconds,
+                           @Value("${stats.dedup.buckets:60}") int buckets,
+                           @Value("${stats.dedup.exact-buckets:5}") int exactBuckets,
+                           @Value("${stats.dedup.expected-per-bucket:100000}") int expectedPerBucket,
+                           @Value("${stats.dedup.false-positive-rate:0.0001}") double falsePositiveRate) {
+        this.enabled = enabled;
+        this.bucketMillis = Math.max(1, bucketSeconds) * 1000L;
+        this.buckets = Math.max(1, buckets);
+        this.exactBuckets = Math.min(this.buckets, Math.max(0, exactBuckets));
+        this.expectedPerBucket = Math.max(1, expectedPerBucket);
+        this.falsePositiveRate = falsePositiveRate;
+
+        this.accepted = Counter.builder("stats.hits.dedup").tag("result", "accepted")
+                .description("Посещения, проверенные и принятые как новые")
+                .register(meterRegistry);
+        this.duplicates = Counter.builder("stats.hits.dedup").tag("result", "duplicate")
+                .description("Посещения, отброшенные как повторы")
+                .register(meterRegistry);
+        this.unchecked = Counter.builder("stats.hits.dedup").tag("result", "unchecked")
+                .description("Посещения, принятые без проверки: без идентификатора или вне хранимых корзин")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Впервые ли пришло посещение с идентификатором {@code id}. Идентификатор запоминается,
+     * и следующий вызов с ним же возвращает {@code false}.
+     */
+    public boolean firstSeen(Long id) {
+        if (!enabled) {
+            return true;
+        }
+        if (id == null || id < 0) {
+            unchecked.increment();
+            return true;
+        }
+        long now = Math.floorDiv(System.currentTimeMillis(), bucketMillis);
+        long index = Math.floorDiv(HitIdGenerator.timestampMillis(id), bucketMillis);
+        // посещение из следующей корзины допускается: часы клиента могут немного спешить
+        if (index <= now - buckets || index > now + 1) {
+            unchecked.increment();
+            return true;
+        }
+
+        boolean first;
+        synchronized (this) {
+            evict(now);
+            first = byIndex.computeIfAbsent(index, key -> new Bucket(
+                    new BloomFilter(expectedPerBucket, falsePositiveRate), exactBuckets > 0 ? new HashSet<>() : null))
+                    .add(id);
+        }
+        if (first) {
+            accepted.increment();
+        } else {
+            duplicates.increment();
+            log.debug("Отброшено повторно отправленное посещение {}", id);
+        }
+        return first;
+    }
+
+    /**
+     * Забывает идентификатор посещения, которое не удалось сохранить, чтобы его повторная отправка была принята.
+     * Фильтр Блума не позволяет удалять значения, поэтому повтор принимается, пока корзина в точном окне.
+     */
+    public void forget(Long id) {
+        if (!enabled || id == null || id < 0) {
+            return;
+        }
+        long index = Math.floorDiv(HitIdGenerator.timestampMillis(id), bucketMillis);
+        synchronized (this) {
+            Bucket bucket = byIndex.get(index);
+            if (bucket != null && bucket.exact() != null) {
+                bucket.exact().remove(id);
+            }
+        }
+    }
+
+    /**
+     * Забывает идентификаторы посещений, сохранение которых завершилось ошибкой {@code error}.
+     * Если пакет остался в очереди записи ({@link HitWritePendingException}), идентификаторы забываются
+     * только после неудачной записи: до этого повтор отбрасывается, иначе записанный позже пакет
+     * учел бы посещения дважды.
+     */
+    public void forgetUnsaved(Collection<Long> ids, RuntimeException error) {
+        if (error instanceof HitWritePendingException pending) {
+            List<Long> pendingIds = new ArrayList<>(ids);
+            pending.flushed().whenComplete((result, failure) -> {
+                if (failure != null) {
+                    pendingIds.forEach(this::forget);
+                }
+            });
+            return;
+        }
+        ids.forEach(this::forget);
+    }
+
+    /**
+     * Удаляет корзины старше {@code buckets} и точные множества корзин старше {@code exactBuckets}.
+     * Выполняется один раз за корзину.
+     */
+    private void evict(long now) {
+        if (now <= evictedAt) {
+            return;
+        }
+        evictedAt = now;
+        Iterator<Map.Entry<Long, Bucket>> iterator = byIndex.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Bucket> entry = iterator.next();
+            if (entry.getKey() <= now - buckets) {
+                iterator.remove();
+            } else if (entry.getKey() <= now - exactBuckets && entry.getValue().exact() != null) {
+                entry.setValue(new Bucket(entry.getValue().bloom(), null));
+            }
+        }
+    }
+
+    /**
+     * Идентификаторы корзины: фильтр Блума и, пока корзина в точном окне, множество идентификаторов.
+     */
+    private record Bucket(BloomFilter bloom, Set<Long> exact) {
+
+        boolean add(long id) {
+            boolean added = bloom.put(id);
+            return exact != null ? exact.add(id) : added;
+        }
+    }
+}
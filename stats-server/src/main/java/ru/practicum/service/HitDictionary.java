@@ -0,0 +1,163 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.DictionaryTable;
+import ru.practicum.model.UriGrouping;
+import ru.practicum.repository.HitDictionaryRepository;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кэш словарей приложений и URI в памяти.
+ * Значения словарей не меняются и не удаляются, поэтому однажды прочитанная пара
+ * значение-идентификатор хранится без срока жизни, а к базе обращаются только за новыми значениями.
+ */
+@Component
+@RequiredArgsConstructor
+public class HitDictionary {
+    private final HitDictionaryRepository hitDictionaryRepository;
+
+    private final Map<DictionaryTable, Map<String, Integer>> idsByValue = new EnumMap<>(Map.of(
+            DictionaryTable.APP, new ConcurrentHashMap<>(),
+            DictionaryTable.URI, new ConcurrentHashMap<>()));
+
+    private final Map<DictionaryTable, Map<Integer, String>> valuesById = new EnumMap<>(Map.of(
+            DictionaryTable.APP, new ConcurrentHashMap<>(),
+            DictionaryTable.URI, new ConcurrentHashMap<>()));
+
+    /**
+     * Идентификаторы значений; отсутствующие в словаре значения добавляются.
+     */
+    public Map<String, Integer> resolveOrCreate(DictionaryTable dictionary, Collection<String> values) {
+        Map<String, Integer> ids = resolve(dictionary, values);
+        Set<String> missing = new LinkedHashSet<>(values);
+        missing.removeAll(ids.keySet());
+        if (!missing.isEmpty()) {
+            hitDictionaryRepository.insertMissing(dictionary, missing);
+            ids.putAll(load(dictionary, missing));
+        }
+        return ids;
+    }
+
+    /**
+     * Идентификаторы известных словарю значений. Неизвестные значения в результат не попадают.
+     */
+    public Map<String, Integer> resolve(DictionaryTable dictionary, Collection<String> values) {
+        Map<String, Integer> cached = idsByValue.get(dictionary);
+        Map<String, Integer> ids = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String value : values) {
+            Integer id = cached.get(value);
+            if (id != null) {
+                ids.put(value, id);
+            } else {
+                missing.add(value);
+            }
+        }
+        if (!missing.isEmpty()) {
+            ids.putAll(load(dictionary, missing));
+        }
+        return ids;
+    }
+
+    /**
+     * Значения по идентификаторам.
+     */
+    public Map<Integer, String> values(DictionaryTable dictionary, Collection<Integer> ids) {
+        Map<Integer, String> cached = valuesById.get(dictionary);
+        Map<Integer, String> values = new HashMap<>();
+        Set<Integer> missing = new LinkedHashSet<>();
+        for (Integer id : ids) {
+            String value = cached.get(id);
+            if (value != null) {
+                values.put(id, value);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            hitDictionaryRepository.findValues(dictionary, missing).forEach((id, value) -> {
+                remember(dictionary, value, id);
+                values.put(id, value);
+            });
+        }
+        return values;
+    }
+
+    /**
+     * Идентификаторы URI для фильтра запроса: {@code null}, если фильтра нет,
+     * и пустой список, если ни один из URI еще не встречался в посещениях.
+     */
+    public List<Integer> uriFilter(List<String> uris) {
+        if (uris == null || uris.isEmpty()) {
+            return null;
+        }
+        return List.copyOf(resolve(DictionaryTable.URI, uris).values());
+    }
+
+    /**
+     * Идентификаторы приложения для фильтра запроса: {@code null}, если фильтра нет,
+     * и пустой список, если приложение еще не встречалось в посещениях.
+     */
+    public List<Integer> appFilter(String app) {
+        if (app == null) {
+            return null;
+        }
+        return List.copyOf(resolve(DictionaryTable.APP, List.of(app)).values());
+    }
+
+    /**
+     * URI, подходящие под каждый из шаблонов {@link UriGrouping}. Найденные значения запоминаются в кэше,
+     * поэтому последующий фильтр по ним не обращается к базе.
+     */
+    public Map<String, List<String>> matchUris(List<String> patterns) {
+        Map<String, List<String>> matched = new HashMap<>();
+        for (String pattern : patterns) {
+            Map<String, Integer> ids = hitDictionaryRepository.findIdsLike(DictionaryTable.URI,
+                    UriGrouping.toLike(pattern));
+            ids.forEach((uri, id) -> remember(DictionaryTable.URI, uri, id));
+            matched.put(pattern, List.copyOf(ids.keySet()));
+        }
+        return matched;
+    }
+
+    /**
+     * Раскладывает значения по названиям приложений и URI: приложение — URI — значение.
+     */
+    public <T> Map<String, Map<String, T>> byAppAndUri(Map<AppUri, T> values) {
+        Set<Integer> appIds = new HashSet<>();
+        Set<Integer> uriIds = new HashSet<>();
+        values.keySet().forEach(key -> {
+            appIds.add(key.appId());
+            uriIds.add(key.uriId());
+        });
+        Map<Integer, String> apps = values(DictionaryTable.APP, appIds);
+        Map<Integer, String> uris = values(DictionaryTable.URI, uriIds);
+
+        Map<String, Map<String, T>> byApp = new HashMap<>();
+        values.forEach((key, value) -> byApp.computeIfAbsent(apps.get(key.appId()), app -> new HashMap<>())
+                .put(uris.get(key.uriId()), value));
+        return byApp;
+    }
+
+    private Map<String, Integer> load(DictionaryTable dictionary, Collection<String> values) {
+        Map<String, Integer> loaded = hitDictionaryRepository.findIds(dictionary, values);
+        loaded.forEach((value, id) -> remember(dictionary, value, id));
+        return loaded;
+    }
+
+    private void remember(DictionaryTable dictionary, String value, Integer id) {
+        idsByValue.get(dictionary).put(value, id);
+        valuesById.get(dictionary).put(id, value);
+    }
+}
@@ -0,0 +1,165 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.HitPartition;
+import ru.practicum.model.PartitionInterval;
+import ru.practicum.model.PartitionRetentionAction;
+import ru.practicum.repository.HitPartitionRepository;
+import ru.practicum.repository.SampledHitRepository;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Обслуживание разделов таблицы посещений.
+ * Заранее создает разделы на ближайшие интервалы, чтобы новые посещения не попадали в раздел по умолчанию,
+ * и по истечении срока хранения отключает или удаляет старые разделы целиком вместо массового DELETE.
+ * Каждый шаг выполняется в отдельной короткой транзакции под рекомендательной блокировкой.
+ */
+@Slf4j
+@Component
+public class HitPartitionManager {
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final HitPartitionRepository hitPartitionRepository;
+    private final SampledHitRepository sampledHitRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Включено ли обслуживание разделов.
+     */
+    private final boolean enabled;
+
+    /**
+     * Длительность одного раздела.
+     */
+    private final PartitionInterval interval;
+
+    /**
+     * На сколько интервалов вперед создаются разделы.
+     */
+    private final int premake;
+
+    /**
+     * Срок хранения посещений в днях; 0 — хранить бессрочно.
+     */
+    private final int retentionDays;
+
+    /**
+     * Что делать с разделами, срок хранения которых истек.
+     */
+    private final PartitionRetentionAction retentionAction;
+
+    public HitPartitionManager(HitPartitionRepository hitPartitionRepository,
+                               SampledHitRepository sampledHitRepository,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${stats.partition.enabled:true}") boolean enabled,
+                               @Value("${stats.partition.interval:DAY}") PartitionInterval interval,
+                               @Value("${stats.partition.premake:7}") int premake,
+                               @Value("${stats.partition.retention-days:0}") int retentionDays,
+                               @Value("${stats.partition.retention-action:DETACH}")
+                               PartitionRetentionAction retentionAction) {
+        this.hitPartitionRepository = hitPartitionRepository;
+        this.sampledHitRepository = sampledHitRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.interval = interval;
+        this.premake = premake;
+        this.retentionDays = retentionDays;
+        this.retentionAction = retentionAction;
+    }
+
+    /**
+     * Создает недостающие будущие разделы и применяет срок хранения.
+     */
+    @Scheduled(fixedDelayString = "${stats.partition.check-interval-ms:3600000}")
+    public void maintain() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Boolean created;
+            do {
+                created = transactionTemplate.execute(status -> createNextPartition());
+            } while (Boolean.TRUE.equals(created));
+
+            if (retentionDays > 0) {
+                Boolean removed;
+                do {
+                    removed = transactionTemplate.execute(status -> removeExpiredPartition());
+                } while (Boolean.TRUE.equals(removed));
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при обслуживании разделов посещений: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Создает раздел сразу за последним существующим, если тот не доходит до горизонта создания.
+     * Первый раздел может быть короче интервала, если предыдущий заканчивается не на его границе.
+     */
+    private boolean createNextPartition() {
+        hitPartitionRepository.lock();
+        List<HitPartition> partitions = hitPartitionRepository.findPartitions();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime horizon = interval.floor(now);
+        for (int i = 0; i <= premake; i++) {
+            horizon = interval.next(horizon);
+        }
+
+        // разделы идут подряд от последнего существующего, чтобы не оставлять промежутков в разделе по умолчанию
+        LocalDateTime from = null;
+        for (HitPartition partition : partitions) {
+            if (partition.isDefault()) {
+                continue;
+            }
+            if (partition.to() == null) {
+                return false;
+            }
+            if (from == null || partition.to().isAfter(from)) {
+                from = partition.to();
+            }
+        }
+        if (from == null) {
+            from = interval.floor(now);
+        }
+        if (!from.isBefore(horizon)) {
+            return false;
+        }
+
+        LocalDateTime to = interval.next(from);
+        String name = "endpoint_hits_p" + NAME_FORMAT.format(from);
+        hitPartitionRepository.createPartition(name, from, to);
+        log.info("Создан раздел посещений {}: [{}, {})", name, from, to);
+        return true;
+    }
+
+    /**
+     * Отключает или удаляет один раздел, все посещения которого старше срока хранения.
+     */
+    private boolean removeExpiredPartition() {
+        hitPartitionRepository.lock();
+        LocalDateTime cutoff = LocalDateTime.now().toLocalDate().minusDays(retentionDays).atStartOfDay();
+        for (HitPartition partition : hitPartitionRepository.findPartitions()) {
+            if (partition.isDefault() || partition.to() == null || partition.to().isAfter(cutoff)) {
+                continue;
+            }
+            if (retentionAction == PartitionRetentionAction.DROP) {
+                hitPartitionRepository.dropPartition(partition.name());
+            } else {
+                hitPartitionRepository.detachPartition(partition.name());
+            }
+            // посещения раздела больше не учитываются, поэтому не учитываются и превышения их весов
+            sampledHitRepository.deleteBefore(partition.to());
+            log.info("Раздел посещений {} с границей {} обработан по сроку хранения: {}",
+                    partition.name(), partition.to(), retentionAction);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.EndpointHitRequest;
+import ru.practicum.exception.BadRequestException;
+import ru.practicum.model.EndpointHit;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Pattern;
+
+/**
+ * Проверка и преобразование посещений, присланных клиентом, общие для HTTP-запросов и потокового приема.
+ */
+@Slf4j
+public final class HitRequests {
+    private static final Pattern IPV4 = Pattern.compile(
+            "((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)\\.){3}(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)");
+    private static final Pattern IPV6_CHARS = Pattern.compile("[0-9a-fA-F:.]+");
+
+    private HitRequests() {
+    }
+
+    /**
+     * Посещение для сохранения с идентификатором, назначенным клиентом. Некорректный IP-адрес, время или вес
+     * (меньше 1 или больше {@code maxWeight}) отклоняются с {@link BadRequestException}.
+     */
+    public static EndpointHit toEntity(EndpointHitRequest hitRequest, int maxWeight) {
+        return EndpointHit.builder()
+                .id(hitRequest.getId())
+                .app(hitRequest.getApp())
+                .uri(hitRequest.getUri())
+                .ip(validateIp(hitRequest.getIp()))
+                .timestamp(parseTimestamp(hitRequest.getTimestamp()))
+                .weight(validateWeight(hitRequest.getWeight(), maxWeight))
+                .build();
+    }
+
+    /**
+     * Вес больше объявляемого сервисом не мог быть получен из заголовка выборки: такой клиент
+     * мог бы умножить свои посещения без ограничений, поэтому посещение отклоняется.
+     */
+    private static Integer validateWeight(Integer weight, int maxWeight) {
+        if (weight != null && weight < 1) {
+            throw new BadRequestException("Вес посещения должен быть положительным: " + weight);
+        }
+        if (weight != null && weight > maxWeight) {
+            throw new BadRequestException("Вес посещения " + weight + " больше допустимого " + maxWeight);
+        }
+        return weight;
+    }
+
+    /**
+     * Проверяет, что IP-адрес записан как адрес IPv4 или IPv6: посещения хранят его в столбце типа inet.
+     */
+    private static String validateIp(String ip) {
+        if (IPV4.matcher(ip).matches()) {
+            return ip;
+        }
+        if (ip.indexOf(':') >= 0 && IPV6_CHARS.matcher(ip).matches()) {
+            try {
+                // строка с двоеточием разбирается как литерал IPv6 без обращения к DNS
+                InetAddress.getByName(ip);
+                return ip;
+            } catch (UnknownHostException e) {
+                log.debug("Некорректный IPv6-адрес {}: {}", ip, e.getMessage());
+            }
+        }
+        throw new BadRequestException("Некорректный IP-адрес: " + ip);
+    }
+
+    private static LocalDateTime parseTimestamp(String timestamp) {
+        try {
+            return LocalDateTime.parse(timestamp.replace(" ", "T"));
+        } catch (DateTimeParseException e) {
+            throw new BadRequestException("Некорректное время посещения: " + timestamp);
+        }
+    }
+}
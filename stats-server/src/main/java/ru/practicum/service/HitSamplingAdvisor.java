@@ -0,0 +1,83 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.EndpointHitRequest;
+
+/**
+ * Доля посещений, которую сервис объявляет клиентам в заголовке {@link EndpointHitRequest#SAMPLE_RATE_HEADER}
+ * ответа на сохранение посещений. Пока очередь записи заполнена меньше чем на {@code stats.sampling.threshold},
+ * доля равна 1; дальше клиентам предлагается отправлять каждое k-е посещение с весом k, где k растет
+ * обратно пропорционально свободной части очереди до {@code stats.sampling.max-weight}.
+ * Вес посещения учитывается в общем количестве, поэтому оно остается несмещенной оценкой, а при перегрузке
+ * падает точность, а не прием. В профиле {@code segments} очереди записи нет, и доля всегда равна 1.
+ */
+@Component
+public class HitSamplingAdvisor {
+    /**
+     * Буфер отложенной записи; {@code null} в профиле {@code segments}.
+     */
+    private final HitWriteBehindBuffer hitWriteBehindBuffer;
+
+    /**
+     * Объявляется ли выборочная отправка.
+     */
+    private final boolean enabled;
+
+    /**
+     * Заполненность очереди, с которой начинается выборка.
+     */
+    private final double threshold;
+
+    /**
+     * Наибольший вес посещения: при нем отправляется одно посещение из {@code maxWeight}.
+     */
+    private final int maxWeight;
+
+    public HitSamplingAdvisor(ObjectProvider<HitWriteBehindBuffer> hitWriteBehindBuffer,
+                              MeterRegistry meterRegistry,
+                              @Value("${stats.sampling.enabled:true}") boolean enabled,
+                              @Value("${stats.sampling.threshold:0.5}") double threshold,
+                              @Value("${stats.sampling.max-weight:100}") int maxWeight) {
+        this.hitWriteBehindBuffer = hitWriteBehindBuffer.getIfAvailable();
+        this.enabled = enabled;
+        this.threshold = Math.min(Math.max(threshold, 0.0), 0.99);
+        this.maxWeight = Math.max(1, maxWeight);
+
+        Gauge.builder("stats.sampling.weight", this, HitSamplingAdvisor::weight)
+                .description("Вес посещения, объявляемый клиентам: отправляется одно посещение из стольких")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Текущий вес посещения: клиенту предлагается отправлять одно посещение из {@code weight}.
+     */
+    public int weight() {
+        if (!enabled || hitWriteBehindBuffer == null) {
+            return 1;
+        }
+        double fill = hitWriteBehindBuffer.fill();
+        if (fill < threshold) {
+            return 1;
+        }
+        double free = Math.max(1.0 - fill, 1.0 / maxWeight);
+        return (int) Math.min(maxWeight, Math.ceil((1.0 - threshold) / free));
+    }
+
+    /**
+     * Наибольший вес, с которым принимается посещение.
+     */
+    public int maxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Значение заголовка: доля отправляемых посещений, {@code 1/weight}.
+     */
+    public String sampleRate() {
+        return Double.toString(1.0 / weight());
+    }
+}
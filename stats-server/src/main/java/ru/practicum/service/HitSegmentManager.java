@@ -0,0 +1,50 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.repository.SegmentHitStore;
+
+/**
+ * Фоновое обслуживание сегментного хранилища: периодические контрольные точки,
+ * ограничивающие объем воспроизведения журнала при перезапуске, и слияние мелких сегментов.
+ */
+@Slf4j
+@Component
+@Profile("segments")
+@RequiredArgsConstructor
+public class HitSegmentManager {
+    private final SegmentHitStore segmentHitStore;
+
+    /**
+     * Записывает контрольную точку.
+     */
+    @Scheduled(fixedDelayString = "${stats.segments.checkpoint-interval-ms:10000}")
+    public void checkpoint() {
+        try {
+            segmentHitStore.checkpoint();
+        } catch (Exception e) {
+            log.error("Ошибка при записи контрольной точки сегментного хранилища: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Сливает мелкие запечатанные сегменты, пока есть что сливать.
+     */
+    @Scheduled(fixedDelayString = "${stats.segments.compaction-interval-ms:60000}")
+    public void compact() {
+        try {
+            int merged = 0;
+            while (segmentHitStore.compact()) {
+                merged++;
+            }
+            if (merged > 0) {
+                log.info("Выполнено слияний сегментов: {}", merged);
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при слиянии сегментов: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.practicum.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Прием потока посещений через Unix-сокет для сервисов на том же хосте: без TCP и HTTP,
+ * каждое соединение — поток записей NDJSON, который разбирает {@link HitStreamIngestor}.
+ * Когда клиент закрывает свою сторону соединения, в ответ пишется строка JSON с итогом приема.
+ * Включается заданием {@code stats.stream.socket-path}.
+ */
+@Slf4j
+@Component
+public class HitSocketListener {
+    private final HitStreamIngestor hitStreamIngestor;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Путь к файлу сокета; пустой путь выключает прием через сокет.
+     */
+    private final String socketPath;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private ServerSocketChannel server;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    public HitSocketListener(HitStreamIngestor hitStreamIngestor,
+                             ObjectMapper objectMapper,
+                             @Value("${stats.stream.socket-path:}") String socketPath) {
+        this.hitStreamIngestor = hitStreamIngestor;
+        this.objectMapper = objectMapper;
+        this.socketPath = socketPath;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (socketPath == null || socketPath.isBlank()) {
+            return;
+        }
+        Path path = Path.of(socketPath);
+        // файл сокета от предыдущего запуска мешает привязке
+        Files.deleteIfExists(path);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(path));
+        running = true;
+        acceptor = new Thread(this::acceptConnections, "stats-hit-socket");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Прием посещений через Unix-сокет {}", path);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (server == null) {
+            return;
+        }
+        running = false;
+        server.close();
+        Files.deleteIfExists(Path.of(socketPath));
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                SocketChannel channel = server.accept();
+                Thread handler = new Thread(() -> handle(channel),
+                        "stats-hit-socket-" + connections.incrementAndGet());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                log.error("Ошибка приема соединения через Unix-сокет: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            InputStream input = Channels.newInputStream(channel);
+            HitStreamIngestor.Summary summary = hitStreamIngestor.ingest(input);
+            reply(channel, summary);
+        } catch (IOException | RuntimeException e) {
+            log.error("Поток посещений через Unix-сокет прерван: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Пишет итог приема; клиент, закрывший соединение целиком, итог не читает.
+     */
+    private void reply(SocketChannel channel, HitStreamIngestor.Summary summary) {
+        try {
+            ByteBuffer reply = ByteBuffer.wrap((objectMapper.writeValueAsString(summary) + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            while (reply.hasRemaining()) {
+                channel.write(reply);
+            }
+        } catch (IOException e) {
+            log.debug("Итог приема через Unix-сокет не отправлен: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package ru.practicum.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.EndpointHitRequest;
+import ru.practicum.exception.BadRequestException;
+import ru.practicum.model.EndpointHit;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковый прием посещений: поток записей JSON, разделенных переводом строки (NDJSON),
+ * разбирается по мере поступления потоковым парсером Jackson без построения дерева и без привязки к классам.
+ * Принятые посещения сохраняются пакетами по {@code stats.stream.batch-size}; неполный пакет сохраняется,
+ * как только прочитанные данные закончились и парсер ждет следующих, поэтому посещения из редкого потока
+ * не задерживаются. Некорректные записи пропускаются, повторно отправленные отбрасываются по идентификатору.
+ * Источник потока — тело HTTP-запроса с фрагментированной передачей или соединение через Unix-сокет.
+ * По тем же правилам сохраняются пакеты посещений из запроса POST /hits.
+ */
+@Slf4j
+@Component
+public class HitStreamIngestor {
+    private final StatsService statsService;
+    private final HitDeduplicator hitDeduplicator;
+    private final ObjectMapper objectMapper;
+    private final HitSamplingAdvisor hitSamplingAdvisor;
+
+    /**
+     * Максимальное количество посещений в одном сохраняемом пакете.
+     */
+    private final int batchSize;
+
+    public HitStreamIngestor(StatsService statsService,
+                             HitDeduplicator hitDeduplicator,
+                             ObjectMapper objectMapper,
+                             HitSamplingAdvisor hitSamplingAdvisor,
+                             @Value("${stats.stream.batch-size:1000}") int batchSize) {
+        this.statsService = statsService;
+        this.hitDeduplicator = hitDeduplicator;
+        this.objectMapper = objectMapper;
+        this.hitSamplingAdvisor = hitSamplingAdvisor;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Читает поток до конца и сохраняет посещения. Ошибка сохранения прерывает прием: идентификаторы
+     * несохраненного пакета забываются, и клиент может отправить их снова.
+     */
+    public Summary ingest(InputStream input) throws IOException {
+        Batch batch = new Batch(batchSize);
+        try (JsonParser parser = objectMapper.getFactory().createParser(new IdleAwareInputStream(input, batch))) {
+            // поток закрывает вызывающий: в соединение через сокет после приема пишется итог
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new BadRequestException("Ожидалась запись посещения, получено " + token);
+                }
+                accept(batch, readHit(parser));
+            }
+        } catch (IOException | BadRequestException e) {
+            // посещения, разобранные до обрыва соединения или ошибки в потоке, сохраняются
+            batch.flush();
+            throw e;
+        }
+        batch.flush();
+        Summary summary = new Summary(batch.accepted, batch.duplicates, batch.rejected);
+        log.debug("Поток посещений завершен: {}", summary);
+        return summary;
+    }
+
+    /**
+     * Сохраняет пакет посещений из запроса POST /hits по тем же правилам, что и поток: некорректные
+     * посещения пропускаются по одному и не мешают сохранению остальных посещений пакета.
+     */
+    public Summary ingest(List<EndpointHitRequest> hitRequests) {
+        Batch batch = new Batch(Math.min(batchSize, hitRequests.size()));
+        for (EndpointHitRequest hitRequest : hitRequests) {
+            accept(batch, hitRequest);
+        }
+        batch.flush();
+        Summary summary = new Summary(batch.accepted, batch.duplicates, batch.rejected);
+        log.debug("Пакет посещений сохранен: {}", summary);
+        return summary;
+    }
+
+    /**
+     * Добавляет посещение в пакет, если оно корректно и получено впервые; заполненный пакет сохраняется.
+     */
+    private void accept(Batch batch, EndpointHitRequest hitRequest) {
+        EndpointHit hit;
+        try {
+            hit = toEntity(hitRequest);
+        } catch (BadRequestException e) {
+            batch.rejected++;
+            log.debug("Пропущено некорректное посещение: {}", e.getMessage());
+            return;
+        }
+        if (!hitDeduplicator.firstSeen(hitRequest.getId())) {
+            batch.duplicates++;
+            return;
+        }
+        batch.add(hit, hitRequest.getId());
+        if (batch.hits.size() >= batchSize) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Читает поля записи до конца объекта; неизвестные поля пропускаются.
+     */
+    private static EndpointHitRequest readHit(JsonParser parser) throws IOException {
+        EndpointHitRequest hitRequest = new EndpointHitRequest();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value.isStructStart()) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "id" -> hitRequest.setId(value == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : null);
+                case "app" -> hitRequest.setApp(parser.getValueAsString());
+                case "uri" -> hitRequest.setUri(parser.getValueAsString());
+                case "ip" -> hitRequest.setIp(parser.getValueAsString());
+                case "timestamp" -> hitRequest.setTimestamp(parser.getValueAsString());
+                case "weight" -> hitRequest.setWeight(
+                        value == JsonToken.VALUE_NUMBER_INT ? parser.getIntValue() : null);
+                default -> {
+                    // неизвестное поле пропускается
+                }
+            }
+        }
+        return hitRequest;
+    }
+
+    /**
+     * Проверяет обязательные поля, как валидация тела запроса POST /hit, и преобразует запись.
+     * Для пакета POST /hits поля уже проверены валидацией тела запроса.
+     */
+    private EndpointHit toEntity(EndpointHitRequest hitRequest) {
+        if (isBlank(hitRequest.getApp()) || isBlank(hitRequest.getUri())
+                || isBlank(hitRequest.getIp()) || isBlank(hitRequest.getTimestamp())) {
+            throw new BadRequestException("Не заполнены app, uri, ip или timestamp");
+        }
+        return HitRequests.toEntity(hitRequest, hitSamplingAdvisor.maxWeight());
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    /**
+     * Итог приема потока: сохраненные, отброшенные как повторы и пропущенные некорректные посещения.
+     */
+    public record Summary(long accepted, long duplicates, long rejected) {
+    }
+
+    /**
+     * Накапливаемый пакет посещений и счетчики потока.
+     */
+    private final class Batch {
+        private final List<EndpointHit> hits;
+        private final List<Long> ids;
+        private long accepted;
+        private long duplicates;
+        private long rejected;
+
+        Batch(int capacity) {
+            this.hits = new ArrayList<>(capacity);
+            this.ids = new ArrayList<>(capacity);
+        }
+
+        void add(EndpointHit hit, Long id) {
+            hits.add(hit);
+            ids.add(id);
+        }
+
+        void flush() {
+            if (hits.isEmpty()) {
+                return;
+            }
+            try {
+                statsService.saveHits(List.copyOf(hits));
+            } catch (RuntimeException e) {
+                hitDeduplicator.forgetUnsaved(ids, e);
+                throw e;
+            }
+            accepted += hits.size();
+            hits.clear();
+            ids.clear();
+        }
+    }
+
+    /**
+     * Поток, который перед чтением, способным заблокироваться (прочитанные данные закончились),
+     * сохраняет накопленный пакет.
+     */
+    private static final class IdleAwareInputStream extends FilterInputStream {
+        private final Batch batch;
+
+        IdleAwareInputStream(InputStream input, Batch batch) {
+            super(input);
+            this.batch = batch;
+        }
+
+        @Override
+        public int read() throws IOException {
+            flushIfIdle();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            flushIfIdle();
+            return super.read(buffer, offset, length);
+        }
+
+        private void flushIfIdle() throws IOException {
+            if (!batch.hits.isEmpty() && in.available() == 0) {
+                batch.flush();
+            }
+        }
+    }
+}
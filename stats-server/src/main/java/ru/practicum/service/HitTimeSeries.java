@@ -0,0 +1,214 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.model.TimeBuckets;
+import ru.practicum.repository.HitJdbcRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.SampledHitRepository;
+import ru.practicum.repository.VisitorBitmapRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Временные ряды посещений по URI: количества по корзинам одинаковой длины за один проход по данным.
+ * Общее количество берется из агрегатов самой крупной гранулярности, на которую делится длина корзины,
+ * а неровные края и еще не агрегированный хвост досчитываются по исходным и архивным посещениям.
+ * Уникальные посетители при корзинах из целых дней берутся из дневных битовых карт, иначе считаются
+ * по исходным и архивным посещениям. Без агрегатов исходные посещения читаются параллельно по отрезкам периода.
+ * К общему количеству добавляются превышения веса выборочно отправленных посещений.
+ * Ряды считаются отдельно по каждому приложению; фильтр приложения, если задан, читает только его посещения.
+ * Вызывается в транзакции запроса с изоляцией REPEATABLE READ.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HitTimeSeries {
+    private static final RollupGranularity[] COARSEST_FIRST = {
+            RollupGranularity.DAY, RollupGranularity.HOUR, RollupGranularity.MINUTE};
+
+    private final HitJdbcRepository hitJdbcRepository;
+    private final RollupRepository rollupRepository;
+    private final VisitorBitmapRepository visitorBitmapRepository;
+    private final HitDictionary hitDictionary;
+    private final HitArchive hitArchive;
+    private final ChunkedQueryExecutor chunkedQueryExecutor;
+    private final SampledHitRepository sampledHitRepository;
+
+    /**
+     * Отвечать ли на запросы из агрегатов и карт посетителей.
+     */
+    @Value("${stats.rollup.enabled:true}")
+    private boolean rollupsEnabled;
+
+    /**
+     * Количество посещений в [start, endExclusive) по приложениям, URI и корзинам: приложение — URI — ряд.
+     * Приложение {@code null} означает все приложения.
+     */
+    public Map<String, Map<String, long[]>> countHits(LocalDateTime start, LocalDateTime endExclusive, String app,
+                                                      List<String> uris, TimeBuckets buckets) {
+        List<Integer> appIds = hitDictionary.appFilter(app);
+        List<Integer> uriIds = hitDictionary.uriFilter(uris);
+        if (appIds != null && appIds.isEmpty() || uriIds != null && uriIds.isEmpty()) {
+            return Map.of();
+        }
+        RollupGranularity granularity = rollupsEnabled ? coarsestDividing(buckets) : null;
+        LocalDateTime coveredFrom = granularity != null ? granularity.ceil(start) : null;
+        LocalDateTime coveredTo = granularity != null ? granularity.floor(endExclusive) : null;
+        if (coveredFrom == null || !coveredFrom.isBefore(coveredTo)) {
+            Map<AppUri, long[]> raw = chunkedQueryExecutor.execute(start, endExclusive, (from, to) ->
+                    countRawHits(from, to, null, null, 0L, appIds, uriIds, buckets), HitTimeSeries::addCounts);
+            addCounts(raw, sampledHitRepository.sumExtraByBucket(start, endExclusive, appIds, uriIds, buckets));
+            return hitDictionary.byAppAndUri(raw);
+        }
+
+        long watermark = rollupRepository.getWatermark();
+        Map<AppUri, long[]> raw = countRawHits(start, endExclusive, coveredFrom, coveredTo, watermark,
+                appIds, uriIds, buckets);
+        addCounts(raw, sampledHitRepository.sumExtraByBucket(start, endExclusive, appIds, uriIds, buckets));
+        addCounts(raw, rollupRepository.sumHitsByBucket(granularity, coveredFrom, coveredTo, appIds, uriIds,
+                buckets));
+        log.debug("Временной ряд из агрегатов {}: {} корзин", granularity, buckets.count());
+        return hitDictionary.byAppAndUri(raw);
+    }
+
+    /**
+     * Количество уникальных посетителей в [start, endExclusive) по приложениям, URI и корзинам.
+     * Посетитель, заходивший в несколько корзин, учитывается в каждой из них.
+     */
+    public Map<String, Map<String, long[]>> countUnique(LocalDateTime start, LocalDateTime endExclusive, String app,
+                                                        List<String> uris, TimeBuckets buckets) {
+        List<Integer> appIds = hitDictionary.appFilter(app);
+        List<Integer> uriIds = hitDictionary.uriFilter(uris);
+        if (appIds != null && appIds.isEmpty() || uriIds != null && uriIds.isEmpty()) {
+            return Map.of();
+        }
+        LocalDateTime coveredFrom = RollupGranularity.DAY.ceil(start);
+        LocalDateTime coveredTo = RollupGranularity.DAY.floor(endExclusive);
+        boolean hasDays = rollupsEnabled && buckets.isMultipleOf(RollupGranularity.DAY)
+                && coveredFrom.isBefore(coveredTo);
+
+        RawVisitors raw;
+        Map<Cell, RoaringBitmap> visitors = new HashMap<>();
+        if (hasDays) {
+            long watermark = rollupRepository.getWatermark(RollupRepository.VISITORS_WATERMARK);
+            raw = findRawVisitors(start, endExclusive, coveredFrom, coveredTo, watermark, appIds, uriIds, buckets);
+            visitorBitmapRepository.findBitmaps(coveredFrom.toLocalDate(), coveredTo.toLocalDate(), appIds, uriIds,
+                    (appId, uriId, day, bitmap) -> visitors
+                            .computeIfAbsent(new Cell(appId, uriId, buckets.index(day.atStartOfDay())),
+                                    key -> new RoaringBitmap())
+                            .or(deserialize(bitmap)));
+        } else {
+            raw = chunkedQueryExecutor.execute(start, endExclusive, (from, to) ->
+                    findRawVisitors(from, to, null, null, 0L, appIds, uriIds, buckets), RawVisitors::merge);
+        }
+
+        raw.known().forEach((cell, bitmap) -> visitors.merge(cell, bitmap, (days, rawBitmap) -> {
+            days.or(rawBitmap);
+            return days;
+        }));
+
+        Map<AppUri, long[]> unique = new HashMap<>();
+        visitors.forEach((cell, bitmap) -> series(unique, cell, buckets)[cell.bucket()] += bitmap.getLongCardinality());
+        raw.unknown().forEach((cell, ips) -> series(unique, cell, buckets)[cell.bucket()] += ips.size());
+        return hitDictionary.byAppAndUri(unique);
+    }
+
+    private Map<AppUri, long[]> countRawHits(LocalDateTime from, LocalDateTime to,
+                                             LocalDateTime coveredFrom, LocalDateTime coveredTo, long watermark,
+                                             List<Integer> appIds, List<Integer> uriIds, TimeBuckets buckets) {
+        Map<AppUri, long[]> counts = hitJdbcRepository.countHitsByBucket(from, to, coveredFrom, coveredTo,
+                watermark, appIds, uriIds, buckets);
+        hitArchive.countHitsByBucket(from, to, coveredFrom, coveredTo, appIds, uriIds, buckets, counts);
+        return counts;
+    }
+
+    private RawVisitors findRawVisitors(LocalDateTime from, LocalDateTime to,
+                                        LocalDateTime coveredFrom, LocalDateTime coveredTo, long watermark,
+                                        List<Integer> appIds, List<Integer> uriIds, TimeBuckets buckets) {
+        RawVisitors visitors = new RawVisitors(new HashMap<>(), new HashMap<>());
+        VisitorBitmapRepository.BucketVisitorHandler collect = (appId, uriId, bucket, ip, ipId) -> {
+            Cell cell = new Cell(appId, uriId, bucket);
+            if (ipId > 0) {
+                visitors.known().computeIfAbsent(cell, key -> new RoaringBitmap()).add(ipId);
+            } else {
+                visitors.unknown().computeIfAbsent(cell, key -> new HashSet<>()).add(ip);
+            }
+        };
+        visitorBitmapRepository.findRawVisitorsByBucket(from, to, coveredFrom, coveredTo, watermark, appIds, uriIds,
+                buckets, collect);
+        hitArchive.findVisitorsByBucket(from, to, coveredFrom, coveredTo, appIds, uriIds, buckets, collect);
+        return visitors;
+    }
+
+    private static long[] series(Map<AppUri, long[]> series, Cell cell, TimeBuckets buckets) {
+        return series.computeIfAbsent(new AppUri(cell.appId(), cell.uriId()), key -> new long[buckets.count()]);
+    }
+
+    /**
+     * Самая крупная гранулярность агрегатов, корзины которой целиком укладываются в корзины ряда.
+     */
+    private static RollupGranularity coarsestDividing(TimeBuckets buckets) {
+        for (RollupGranularity granularity : COARSEST_FIRST) {
+            if (buckets.isMultipleOf(granularity)) {
+                return granularity;
+            }
+        }
+        return null;
+    }
+
+    private static Map<AppUri, long[]> addCounts(Map<AppUri, long[]> left, Map<AppUri, long[]> right) {
+        right.forEach((key, counts) -> left.merge(key, counts, (a, b) -> {
+            for (int i = 0; i < a.length; i++) {
+                a[i] += b[i];
+            }
+            return a;
+        }));
+        return left;
+    }
+
+    private static RoaringBitmap deserialize(byte[] bytes) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+
+    private record Cell(int appId, int uriId, int bucket) {
+    }
+
+    /**
+     * Исходные посетители по ячейкам (приложение, URI, корзина): идентификаторы из словаря
+     * и адреса, которых в нем еще нет.
+     */
+    private record RawVisitors(Map<Cell, RoaringBitmap> known, Map<Cell, Set<String>> unknown) {
+
+        RawVisitors merge(RawVisitors other) {
+            other.known().forEach((cell, bitmap) -> known.merge(cell, bitmap, (a, b) -> {
+                a.or(b);
+                return a;
+            }));
+            other.unknown().forEach((cell, ips) -> unknown.merge(cell, ips, (a, b) -> {
+                a.addAll(b);
+                return a;
+            }));
+            return this;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import ru.practicum.exception.HitWritePendingException;
+import ru.practicum.exception.ServiceOverloadedException;
+import ru.practicum.model.DictionaryTable;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.IngestDurability;
+import ru.practicum.repository.HitJdbcRepository;
+import ru.practicum.repository.SampledHitRepository;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Буфер отложенной записи посещений.
+ * Принятые посещения попадают в ограниченную очередь, а единственный поток-писатель
+ * выгружает ее пакетами через COPY в таблицу endpoint_hits.
+ * Заполненность очереди определяет долю посещений, которую объявляет клиентам {@link HitSamplingAdvisor}.
+ */
+@Slf4j
+@Component
+@Profile("!segments")
+public class HitWriteBehindBuffer {
+    private final HitJdbcRepository hitJdbcRepository;
+    private final HitDictionary hitDictionary;
+    private final SampledHitRepository sampledHitRepository;
+
+    /**
+     * Момент подтверждения приема посещения.
+     */
+    private final IngestDurability durability;
+
+    /**
+     * Максимальное количество посещений, ожидающих записи.
+     */
+    private final int capacity;
+
+    /**
+     * Максимальное количество посещений в одной команде COPY.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Сколько ждать свободного места в очереди, мс.
+     */
+    private final long enqueueTimeoutMs;
+
+    /**
+     * Сколько ждать записи пакета в режиме FLUSH, мс.
+     */
+    private final long flushTimeoutMs;
+
+    /**
+     * Разрешения на постановку в очередь: одно разрешение на одно посещение.
+     */
+    private final Semaphore slots;
+
+    private final BlockingQueue<PendingBatch> queue = new LinkedBlockingQueue<>();
+
+    private final Timer flushTimer;
+    private final Counter flushedHits;
+    private final Counter failedHits;
+    private final Counter sampledHits;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public HitWriteBehindBuffer(HitJdbcRepository hitJdbcRepository,
+                                HitDictionary hitDictionary,
+                                SampledHitRepository sampledHitRepository,
+                                MeterRegistry meterRegistry,
+                                @Value("${stats.ingest.durability:FLUSH}") IngestDurability durability,
+                                @Value("${stats.ingest.queue-capacity:10000}") int capacity,
+                                @Value("${stats.ingest.max-batch-size:1000}") int maxBatchSize,
+                                @Value("${stats.ingest.enqueue-timeout-ms:50}") long enqueueTimeoutMs,
+                                @Value("${stats.ingest.flush-timeout-ms:5000}") long flushTimeoutMs) {
+        this.hitJdbcRepository = hitJdbcRepository;
+        this.hitDictionary = hitDictionary;
+        this.sampledHitRepository = sampledHitRepository;
+        this.durability = durability;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.enqueueTimeoutMs = enqueueTimeoutMs;
+        this.flushTimeoutMs = flushTimeoutMs;
+        this.slots = new Semaphore(capacity);
+
+        Gauge.builder("stats.ingest.queue.depth", slots, s -> capacity - s.availablePermits())
+                .description("Посещения, ожидающие записи в базу")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("stats.ingest.flush.latency")
+                .description("Время записи одного пакета посещений")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.flushedHits = Counter.builder("stats.ingest.flushed")
+                .description("Посещения, записанные в базу")
+                .register(meterRegistry);
+        this.failedHits = Counter.builder("stats.ingest.failed")
+                .description("Посещения, которые не удалось записать")
+                .register(meterRegistry);
+        this.sampledHits = Counter.builder("stats.ingest.sampled")
+                .description("Записанные посещения, отправленные выборочно с весом")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::runWriter, "stats-hit-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Запущен буфер отложенной записи: durability={}, capacity={}, maxBatchSize={}",
+                durability, capacity, maxBatchSize);
+    }
+
+    /**
+     * Останавливает писателя, предварительно выгрузив накопленные посещения.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            writer.join(flushTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Принимает посещения на запись.
+     * В режиме FLUSH возвращает управление только после записи пакета в базу. Если пакет не записан
+     * за отведенное время, он остается в очереди, а вызывающий получает {@link HitWritePendingException}.
+     */
+    public void accept(List<EndpointHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        if (hits.size() > capacity) {
+            throw new ServiceOverloadedException("Пакет из " + hits.size() + " посещений превышает емкость очереди");
+        }
+
+        try {
+            if (!slots.tryAcquire(hits.size(), enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new ServiceOverloadedException("Очередь записи посещений переполнена");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Прервано ожидание места в очереди записи");
+        }
+
+        PendingBatch batch = new PendingBatch(hits, new CompletableFuture<>());
+        queue.add(batch);
+
+        if (durability == IngestDurability.FLUSH) {
+            awaitFlush(batch);
+        }
+    }
+
+    /**
+     * Доля очереди, занятая посещениями, ожидающими записи: от 0 до 1.
+     */
+    public double fill() {
+        return (double) (capacity - slots.availablePermits()) / capacity;
+    }
+
+    private void awaitFlush(PendingBatch batch) {
+        try {
+            batch.flushed().get(flushTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HitWritePendingException("Прервано ожидание записи посещений", batch.flushed());
+        } catch (TimeoutException e) {
+            throw new HitWritePendingException("Посещения не записаны за " + flushTimeoutMs + " мс", batch.flushed());
+        } catch (ExecutionException e) {
+            throw new ServiceOverloadedException("Посещения не записаны: " + e.getCause().getMessage());
+        }
+    }
+
+    private void runWriter() {
+        List<PendingBatch> drained = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingBatch first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                drained.add(first);
+                int size = first.hits().size();
+                while (size < maxBatchSize) {
+                    PendingBatch next = queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    drained.add(next);
+                    size += next.hits().size();
+                }
+                flush(drained, size);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                drained.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingBatch> batches, int size) {
+        List<EndpointHit> hits = new ArrayList<>(size);
+        Set<String> apps = new HashSet<>();
+        Set<String> uris = new HashSet<>();
+        for (PendingBatch batch : batches) {
+            hits.addAll(batch.hits());
+            for (EndpointHit hit : batch.hits()) {
+                apps.add(hit.getApp());
+                uris.add(hit.getUri());
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            Map<String, Integer> appIds = hitDictionary.resolveOrCreate(DictionaryTable.APP, apps);
+            Map<String, Integer> uriIds = hitDictionary.resolveOrCreate(DictionaryTable.URI, uris);
+            hitJdbcRepository.copyAll(hits, appIds, uriIds);
+            addSampleWeights(hits, appIds, uriIds);
+            flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            flushedHits.increment(size);
+            batches.forEach(batch -> batch.flushed().complete(null));
+            log.debug("Записан пакет из {} посещений", size);
+        } catch (Exception e) {
+            failedHits.increment(size);
+            log.error("Не удалось записать пакет из {} посещений: {}", size, e.getMessage());
+            batches.forEach(batch -> batch.flushed().completeExceptionally(e));
+        } finally {
+            slots.release(size);
+        }
+    }
+
+    /**
+     * Записывает превышения веса выборочных посещений уже записанного пакета. Ошибка не отменяет запись пакета:
+     * повторная отправка продублировала бы посещения, поэтому количество лишь останется заниженным.
+     */
+    private void addSampleWeights(List<EndpointHit> hits, Map<String, Integer> appIds, Map<String, Integer> uriIds) {
+        try {
+            sampledHits.increment(sampledHitRepository.addExtra(hits, appIds, uriIds));
+        } catch (Exception e) {
+            log.error("Не удалось записать веса выборочных посещений пакета из {}: {}", hits.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Посещения одного запроса и признак их записи.
+     */
+    private record PendingBatch(List<EndpointHit> hits, CompletableFuture<Void> flushed) {
+    }
+}
@@ -0,0 +1,108 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.repository.RollupRepository;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Фоновое инкрементальное построение минутных, часовых и дневных агрегатов посещений
+ * и структур уникальных посетителей: дневных битовых карт и часовых скетчей.
+ * Прогресс хранится как водяной знак — идентификатор последнего учтенного посещения.
+ * Писателей может быть несколько (в том числе в разных экземплярах), и идентификаторы фиксируются
+ * не по порядку, поэтому водяной знак сдвигается не дальше границы зафиксированных посещений
+ * ({@link RollupRepository#findCommittedHitHorizon()}): ниже нее новых посещений уже не появится,
+ * и все, что выше водяного знака, еще не учтено. Запоздавшее посещение со старой меткой времени
+ * при следующем проходе добавляется в свою (старую) корзину, а до этого учитывается запросами
+ * статистики напрямую из endpoint_hits.
+ */
+@Slf4j
+@Component
+public class RollupAggregator {
+    private final RollupRepository rollupRepository;
+    private final VisitorBitmapIndex visitorBitmapIndex;
+    private final VisitorSketchIndex visitorSketchIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final StatsResultCache statsResultCache;
+
+    /**
+     * Включено ли построение агрегатов.
+     */
+    private final boolean enabled;
+
+    /**
+     * Максимальное количество посещений, обрабатываемых за одну транзакцию.
+     */
+    private final int maxHitsPerRun;
+
+    public RollupAggregator(RollupRepository rollupRepository,
+                            VisitorBitmapIndex visitorBitmapIndex,
+                            VisitorSketchIndex visitorSketchIndex,
+                            TransactionTemplate transactionTemplate,
+                            StatsResultCache statsResultCache,
+                            @Value("${stats.rollup.enabled:true}") boolean enabled,
+                            @Value("${stats.rollup.max-hits-per-run:100000}") int maxHitsPerRun) {
+        this.rollupRepository = rollupRepository;
+        this.visitorBitmapIndex = visitorBitmapIndex;
+        this.visitorSketchIndex = visitorSketchIndex;
+        this.transactionTemplate = transactionTemplate;
+        this.statsResultCache = statsResultCache;
+        this.enabled = enabled;
+        this.maxHitsPerRun = maxHitsPerRun;
+    }
+
+    /**
+     * Переносит в агрегаты все посещения, поступившие после водяного знака.
+     */
+    @Scheduled(fixedDelayString = "${stats.rollup.interval-ms:5000}")
+    public void aggregate() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Long processed;
+            do {
+                processed = transactionTemplate.execute(status -> aggregateBatch());
+            } while (processed != null && processed >= maxHitsPerRun);
+        } catch (Exception e) {
+            log.error("Ошибка при построении агрегатов посещений: {}", e.getMessage());
+        }
+    }
+
+    private long aggregateBatch() {
+        long horizon = rollupRepository.findCommittedHitHorizon();
+        long rollups = advance(RollupRepository.ROLLUPS_WATERMARK, horizon, (afterId, upToId) -> {
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                rollupRepository.aggregate(granularity, afterId, upToId);
+            }
+        });
+        // у структур уникальных посетителей свои водяные знаки: они строятся и по посещениям,
+        // агрегированным до их появления
+        long visitors = advance(RollupRepository.VISITORS_WATERMARK, horizon, visitorBitmapIndex::aggregate);
+        long sketches = advance(RollupRepository.SKETCHES_WATERMARK, horizon, visitorSketchIndex::aggregate);
+        return Math.max(rollups, Math.max(visitors, sketches));
+    }
+
+    /**
+     * Обрабатывает очередную порцию посещений после водяного знака, но не выше границы {@code horizon},
+     * и сдвигает его, сбрасывая в кэше результатов записи за затронутые порцией часы.
+     * Возвращает количество обработанных идентификаторов.
+     */
+    private long advance(String watermarkName, long horizon, BiConsumer<Long, Long> step) {
+        long watermark = rollupRepository.lockWatermark(watermarkName);
+        long upper = rollupRepository.findUpperHitId(watermark, maxHitsPerRun, horizon);
+        if (upper <= watermark) {
+            return 0L;
+        }
+        step.accept(watermark, upper);
+        statsResultCache.touch(watermarkName, rollupRepository.findTouchedHours(watermark, upper), upper);
+        rollupRepository.updateWatermark(watermarkName, upper);
+        log.debug("Водяной знак {} сдвинут: посещения с id {} по {}", watermarkName, watermark + 1, upper);
+        return upper - watermark;
+    }
+}
@@ -0,0 +1,102 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import ru.practicum.TimeSeriesStats;
+import ru.practicum.ViewStats;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.TimeBuckets;
+import ru.practicum.model.UriGrouping;
+import ru.practicum.repository.SegmentHitStore;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сервис статистики поверх встроенного сегментного хранилища (профиль {@code segments}).
+ * Посещения сразу дописываются в отображенный в память сегмент, поэтому PostgreSQL
+ * не участвует ни в приеме посещений, ни в запросах статистики.
+ * Уникальные посетители всегда считаются точно, поэтому {@code approximate} не меняет ответ.
+ * Очереди записи нет, поэтому выборочная отправка не объявляется, а веса посещений не хранятся.
+ */
+@Slf4j
+@Service
+@Profile("segments")
+@RequiredArgsConstructor
+public class SegmentStatsService implements StatsService {
+    private final SegmentHitStore segmentHitStore;
+    private final TopUriTracker topUriTracker;
+
+    @Override
+    public EndpointHit saveHit(EndpointHit hit) {
+        segmentHitStore.append(List.of(hit));
+        topUriTracker.record(List.of(hit));
+        return hit;
+    }
+
+    @Override
+    public void saveHits(List<EndpointHit> hits) {
+        segmentHitStore.append(hits);
+        topUriTracker.record(hits);
+        log.debug("Записано в сегменты {} посещений", hits.size());
+    }
+
+    /**
+     * Шаблоны URI раскрываются перебором словаря URI хранилища, который целиком находится в памяти.
+     * Статистика считается по каждому приложению отдельно, записи других приложений пропускаются при просмотре.
+     */
+    @Override
+    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, String app, List<String> uris,
+                                    Boolean unique, Boolean approximate, Boolean rollup) {
+        log.debug("Запрос статистики из сегментов: период с {} по {}, приложение: {}, URIs: {}, уникальные: {}, " +
+                "по шаблонам: {}", start, end, app, uris, unique, rollup);
+        UriGrouping grouping = null;
+        if (UriGrouping.hasPatterns(uris)) {
+            UriGrouping expanded = UriGrouping.of(uris, segmentHitStore.matchUris(UriGrouping.patterns(uris)));
+            if (expanded.keysByUri().isEmpty()) {
+                return List.of();
+            }
+            uris = expanded.uris();
+            grouping = Boolean.TRUE.equals(rollup) ? expanded : null;
+        }
+        List<ViewStats> stats = new ArrayList<>();
+        for (String scope : segmentHitStore.apps(app)) {
+            Map<String, Long> counts;
+            if (Boolean.TRUE.equals(unique)) {
+                counts = segmentHitStore.countUnique(start, end, scope, uris, grouping);
+            } else {
+                counts = segmentHitStore.countHits(start, end, scope, uris);
+                counts = grouping == null ? counts : grouping.sum(counts);
+            }
+            counts.forEach((uri, hits) -> stats.add(new ViewStats(scope, uri, hits)));
+        }
+        stats.sort(Comparator.comparing(ViewStats::getHits, Comparator.reverseOrder()));
+        return stats;
+    }
+
+    @Override
+    public List<ViewStats> getTopStats(int windowMinutes, int k) {
+        return topUriTracker.top(windowMinutes, k);
+    }
+
+    @Override
+    public TimeSeriesStats getTimeSeries(LocalDateTime start, LocalDateTime end, String app, List<String> uris,
+                                         TimeBuckets buckets, Boolean unique) {
+        Map<String, Map<String, long[]>> series = new HashMap<>();
+        for (String scope : segmentHitStore.apps(app)) {
+            Map<String, long[]> counts = Boolean.TRUE.equals(unique)
+                    ? segmentHitStore.countUniqueByBucket(start, end, scope, uris, buckets)
+                    : segmentHitStore.countHitsByBucket(start, end, scope, uris, buckets);
+            if (!counts.isEmpty()) {
+                series.put(scope, counts);
+            }
+        }
+        return StatsService.toTimeSeriesStats(series, app, uris, buckets);
+    }
+}
@@ -0,0 +1,173 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.exception.ServiceOverloadedException;
+import ru.practicum.exception.TooManyRequestsException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Допуск запросов статистики по оценке их стоимости ({@link StatsService#estimateCost}).
+ * Дешевые запросы (посещения отдельных событий для основного сервиса) и дорогие (аналитика за годы
+ * по многим URI) выполняются в разных полосах со своими лимитами одновременных запросов, поэтому дорогие
+ * запросы не занимают соединения с базой, нужные дешевым, и задержка дешевых не зависит от аналитической нагрузки.
+ * Дорогой запрос сверх лимита ждет своей очереди в порядке прихода не дольше {@code queue-timeout-ms}:
+ * если очередь уже заполнена, он сразу отклоняется с 429, а по истечении срока — с 503.
+ * Дешевый запрос ждет свободного места не дольше {@code cheap-timeout-ms}.
+ */
+@Slf4j
+@Component
+public class StatsQueryAdmission {
+    /**
+     * Ограничивается ли выполнение запросов.
+     */
+    private final boolean enabled;
+
+    /**
+     * Стоимость, начиная с которой запрос выполняется в полосе дорогих.
+     */
+    private final long expensiveCost;
+
+    /**
+     * Сколько ждать места в полосе дешевых запросов, мс.
+     */
+    private final long cheapTimeoutMs;
+
+    /**
+     * Сколько дорогих запросов может ждать в очереди.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Сколько дорогой запрос может ждать в очереди, мс.
+     */
+    private final long queueTimeoutMs;
+
+    private final Semaphore cheapLane;
+    private final Semaphore expensiveLane;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final Counter cheapAdmitted;
+    private final Counter cheapRejected;
+    private final Counter expensiveAdmitted;
+    private final Counter expensiveRejected;
+    private final Counter expensiveExpired;
+
+    public StatsQueryAdmission(MeterRegistry meterRegistry,
+                               @Value("${stats.admission.enabled:true}") boolean enabled,
+                               @Value("${stats.admission.expensive-cost:100000}") long expensiveCost,
+                               @Value("${stats.admission.cheap-concurrency:8}") int cheapConcurrency,
+                               @Value("${stats.admission.cheap-timeout-ms:200}") long cheapTimeoutMs,
+                               @Value("${stats.admission.expensive-concurrency:2}") int expensiveConcurrency,
+                               @Value("${stats.admission.queue-capacity:20}") int queueCapacity,
+                               @Value("${stats.admission.queue-timeout-ms:30000}") long queueTimeoutMs) {
+        this.enabled = enabled;
+        this.expensiveCost = expensiveCost;
+        this.cheapTimeoutMs = cheapTimeoutMs;
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.cheapLane = new Semaphore(Math.max(1, cheapConcurrency), true);
+        this.expensiveLane = new Semaphore(Math.max(1, expensiveConcurrency), true);
+
+        Gauge.builder("stats.admission.queued", queued, AtomicInteger::get)
+                .description("Дорогие запросы статистики, ожидающие выполнения")
+                .register(meterRegistry);
+        this.cheapAdmitted = counter(meterRegistry, "cheap", "admitted", "Допущенные запросы статистики");
+        this.cheapRejected = counter(meterRegistry, "cheap", "rejected",
+                "Запросы статистики, не дождавшиеся места в полосе");
+        this.expensiveAdmitted = counter(meterRegistry, "expensive", "admitted", "Допущенные запросы статистики");
+        this.expensiveRejected = counter(meterRegistry, "expensive", "rejected",
+                "Запросы статистики, отклоненные при заполненной очереди");
+        this.expensiveExpired = counter(meterRegistry, "expensive", "expired",
+                "Запросы статистики, не дождавшиеся выполнения в очереди");
+    }
+
+    /**
+     * Допускает запрос стоимостью {@code cost}, при необходимости дождавшись места в его полосе.
+     * Разрешение нужно закрыть после выполнения запроса.
+     *
+     * @throws TooManyRequestsException  если очередь дорогих запросов заполнена
+     * @throws ServiceOverloadedException если место в полосе не освободилось за отведенное время
+     */
+    public Permit admit(long cost) {
+        if (!enabled) {
+            return new Permit(null);
+        }
+        if (cost < expensiveCost) {
+            if (!tryAcquire(cheapLane, cheapTimeoutMs)) {
+                cheapRejected.increment();
+                throw new ServiceOverloadedException("Нет свободного места для выполнения запроса статистики");
+            }
+            cheapAdmitted.increment();
+            return new Permit(cheapLane);
+        }
+
+        if (!tryAcquire(expensiveLane, 0)) {
+            if (queued.incrementAndGet() > queueCapacity) {
+                queued.decrementAndGet();
+                expensiveRejected.increment();
+                log.debug("Дорогой запрос статистики стоимостью {} отклонен: очередь заполнена", cost);
+                throw new TooManyRequestsException("Очередь дорогих запросов статистики заполнена");
+            }
+            boolean acquired;
+            try {
+                acquired = tryAcquire(expensiveLane, queueTimeoutMs);
+            } finally {
+                queued.decrementAndGet();
+            }
+            if (!acquired) {
+                expensiveExpired.increment();
+                log.debug("Дорогой запрос статистики стоимостью {} не дождался выполнения", cost);
+                throw new ServiceOverloadedException("Истекло время ожидания выполнения запроса статистики");
+            }
+        }
+        expensiveAdmitted.increment();
+        log.debug("Допущен дорогой запрос статистики стоимостью {}", cost);
+        return new Permit(expensiveLane);
+    }
+
+    private static boolean tryAcquire(Semaphore lane, long timeoutMs) {
+        try {
+            // ожидание с тайм-аутом соблюдает очередность честного семафора
+            return lane.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String lane, String result, String description) {
+        return Counter.builder("stats.admission")
+                .tag("lane", lane)
+                .tag("result", result)
+                .description(description)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Место в полосе, занятое запросом. Повторное закрытие ничего не делает.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Semaphore lane;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void close() {
+            if (lane != null && released.compareAndSet(false, true)) {
+                lane.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Кэш частичных результатов запросов статистики по выровненным корзинам агрегатов.
+ * Ключ — структура (по имени ее водяного знака), вид результата, фильтры приложений и URI (идентификаторы словарей)
+ * и выровненный период;
+ * запись хранит результат за этот период и водяной знак, на котором он посчитан.
+ * Агрегатор сообщает, какие часы затронула каждая порция посещений ({@link #touch}), и записи,
+ * пересекающие эти часы, удаляются, поэтому при поступлении новых посещений пересчитываются только
+ * последние корзины, а закрытая история отдается из кэша.
+ * Запись отдается запросу и принимается от него, только если после меньшего из их водяных знаков
+ * ни одна порция не затрагивала ее период: так запрос со старым снимком не получает и не кладет
+ * результат, расходящийся с его снимком. Вытесняются давно не использованные записи.
+ * Значения записей не изменяются ни кэшем, ни вызывающими.
+ */
+@Component
+public class StatsResultCache {
+    /**
+     * Включен ли кэш.
+     */
+    private final boolean enabled;
+
+    /**
+     * Максимальное количество записей.
+     */
+    private final int maxEntries;
+
+    /**
+     * Сколько последних затронутых часов помнить для каждой структуры.
+     */
+    private final int maxTouches;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Затронутые часы по структурам в порядке роста водяного знака.
+     */
+    private final Map<String, Deque<Touch>> touches = new HashMap<>();
+
+    /**
+     * Наибольший водяной знак забытых затронутых часов: о более ранних порциях кэш уже ничего не знает.
+     */
+    private final Map<String, Long> forgottenUpTo = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter sizeEvictions;
+    private final Counter invalidations;
+
+    public StatsResultCache(MeterRegistry meterRegistry,
+                            @Value("${stats.cache.enabled:true}") boolean enabled,
+                            @Value("${stats.cache.max-entries:10000}") int maxEntries,
+                            @Value("${stats.cache.max-touches:10000}") int maxTouches) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxTouches = maxTouches;
+
+        this.hits = Counter.builder("stats.cache.gets").tag("result", "hit")
+                .description("Запросы частичных результатов, отданные из кэша")
+                .register(meterRegistry);
+        this.misses = Counter.builder("stats.cache.gets").tag("result", "miss")
+                .description("Запросы частичных результатов, посчитанные заново")
+                .register(meterRegistry);
+        this.sizeEvictions = Counter.builder("stats.cache.evictions").tag("cause", "size")
+                .description("Записи, вытесненные из-за размера кэша")
+                .register(meterRegistry);
+        this.invalidations = Counter.builder("stats.cache.evictions").tag("cause", "invalidation")
+                .description("Записи, удаленные из-за новых посещений в их периоде")
+                .register(meterRegistry);
+        Gauge.builder("stats.cache.size", this, StatsResultCache::size)
+                .description("Записи в кэше результатов")
+                .register(meterRegistry);
+        Gauge.builder("stats.cache.hit.ratio", this, StatsResultCache::hitRatio)
+                .description("Доля запросов частичных результатов, отданных из кэша")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Результат за [from, to) из кэша или посчитанный {@code loader}.
+     *
+     * @param watermarkName водяной знак структуры, из которой строится результат
+     * @param kind          вид результата внутри структуры
+     * @param appIds        фильтр приложений запроса; {@code null} — все приложения
+     * @param uriIds        фильтр URI запроса; {@code null} — все URI
+     * @param watermark     значение водяного знака в снимке запроса
+     */
+    public <T> T get(String watermarkName, String kind, Collection<Integer> appIds, LocalDateTime from,
+                     LocalDateTime to, Collection<Integer> uriIds, long watermark, Supplier<T> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Key key = new Key(watermarkName, kind, normalize(appIds), from, to, normalize(uriIds));
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && isValid(key, Math.min(entry.watermark(), watermark))) {
+                hits.increment();
+                @SuppressWarnings("unchecked")
+                T value = (T) entry.value();
+                return value;
+            }
+        }
+
+        misses.increment();
+        T value = loader.get();
+        synchronized (this) {
+            if (isValid(key, watermark)) {
+                entries.put(key, new Entry(value, watermark));
+                evictOverflow();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Отмечает, что порция посещений с водяным знаком до {@code upToId} изменила структуру в часах {@code hours}.
+     * Вызывается агрегатором до фиксации транзакции, поэтому ни один запрос, увидевший изменения,
+     * не застанет устаревшую запись.
+     */
+    public synchronized void touch(String watermarkName, Collection<LocalDateTime> hours, long upToId) {
+        if (!enabled || hours.isEmpty()) {
+            return;
+        }
+        Deque<Touch> log = touches.computeIfAbsent(watermarkName, name -> new ArrayDeque<>());
+        for (LocalDateTime hour : hours) {
+            log.addLast(new Touch(hour, hour.plusHours(1), upToId));
+        }
+        while (log.size() > maxTouches) {
+            forgottenUpTo.merge(watermarkName, log.removeFirst().upToId(), Math::max);
+        }
+
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Key key = iterator.next().getKey();
+            if (key.watermarkName().equals(watermarkName)
+                    && hours.stream().anyMatch(hour -> key.overlaps(hour, hour.plusHours(1)))) {
+                iterator.remove();
+                invalidations.increment();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total > 0 ? hits.count() / total : 0.0;
+    }
+
+    /**
+     * Не затрагивали ли период записи порции с водяным знаком выше {@code watermark}.
+     * Затронутые часы идут по росту водяного знака, поэтому просмотр идет с конца до первой более ранней порции.
+     */
+    private boolean isValid(Key key, long watermark) {
+        if (watermark < forgottenUpTo.getOrDefault(key.watermarkName(), 0L)) {
+            return false;
+        }
+        Deque<Touch> log = touches.get(key.watermarkName());
+        if (log == null) {
+            return true;
+        }
+        Iterator<Touch> newestFirst = log.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Touch touch = newestFirst.next();
+            if (touch.upToId() <= watermark) {
+                return true;
+            }
+            if (key.overlaps(touch.from(), touch.to())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Integer> normalize(Collection<Integer> ids) {
+        return ids == null ? null : ids.stream().distinct().sorted().toList();
+    }
+
+    private void evictOverflow() {
+        Iterator<Key> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            sizeEvictions.increment();
+        }
+    }
+
+    private record Key(String watermarkName, String kind, List<Integer> appIds, LocalDateTime from,
+                       LocalDateTime to, List<Integer> uriIds) {
+
+        boolean overlaps(LocalDateTime otherFrom, LocalDateTime otherTo) {
+            return from.isBefore(otherTo) && otherFrom.isBefore(to);
+        }
+    }
+
+    private record Entry(Object value, long watermark) {
+    }
+
+    private record Touch(LocalDateTime from, LocalDateTime to, long upToId) {
+    }
+}
@@ -1,55 +1,102 @@
 package ru.practicum.service;
 
-import org.springframework.transaction.annotation.Transactional;
-import ru.practicum.model.EndpointHit;
+import ru.practicum.TimeSeriesStats;
 import ru.practicum.ViewStats;
-import ru.practicum.repository.StatsRepository;
-import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Service;
+import ru.practicum.ViewTimeSeries;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.TimeBuckets;
+import ru.practicum.model.UriGrouping;
 
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Сервисный слой для бизнес-логики работы со статистикой.
+ * Сервис статистики посещений. Реализация (хранилище посещений) выбирается профилем Spring.
  */
-@Slf4j
-@Service
-@RequiredArgsConstructor
-public class StatsService {
+public interface StatsService {
+    /**
+     * Сколько URI считается в оценке стоимости запроса без фильтра URI или с шаблоном.
+     */
+    long UNFILTERED_URIS = 1000;
 
     /**
-     * Репозиторий для работы с базой данных.
+     * Во сколько раз подсчет уникальных посетителей дороже подсчета посещений.
      */
-    private final StatsRepository statsRepository;
+    long UNIQUE_FACTOR = 10;
 
     /**
      * Сохраняет информацию о посещении эндпоинта.
      */
-    @Transactional
-    public EndpointHit saveHit(EndpointHit hit) {
-        return statsRepository.save(hit);
-    }
+    EndpointHit saveHit(EndpointHit hit);
 
     /**
-     * Получает статистику по посещениям за указанный период.
+     * Сохраняет пакет посещений.
      */
-    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end,
-                                    List<String> uris, Boolean unique) {
-        log.debug("Запрос статистики: период с {} по {}, URIs: {}, уникальные: {}",
-                start, end, uris, unique);
+    void saveHits(List<EndpointHit> hits);
 
-        List<ViewStats> stats;
-        if (Boolean.TRUE.equals(unique)) {
-            stats = statsRepository.getUniqueStats(start, end, uris);
-            log.debug("Получена статистика по уникальным посещениям: {} записей", stats.size());
-        } else {
-            stats = statsRepository.getStats(start, end, uris);
-            log.debug("Получена общая статистика: {} записей", stats.size());
-        }
+    /**
+     * Получает статистику по посещениям за период [start, end] по указанным URI (или всем, если список пуст).
+     * Записи группируются по приложению и URI; если {@code app} задан, в ответ попадают только посещения
+     * этого приложения. URI может быть шаблоном со звездочкой ({@code /events/*}): он раскрывается во все
+     * подходящие URI, а при {@code rollup} их посещения суммируются (уникальные — объединяются) в одну запись
+     * под шаблоном.
+     */
+    List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, String app,
+                             List<String> uris, Boolean unique, Boolean approximate, Boolean rollup);
+
+    /**
+     * До {@code k} самых посещаемых URI за последние {@code windowMinutes} минут по убыванию приближенного
+     * количества посещений. URI разных приложений считаются раздельно.
+     */
+    List<ViewStats> getTopStats(int windowMinutes, int k);
 
-        log.debug("Найдено {} записей статистики за указанный период", stats.size());
-        return stats;
+    /**
+     * Получает временные ряды посещений (или уникальных посещений) за период [start, end] по корзинам {@code buckets}
+     * для указанных URI (или всех, если список пуст). Ряды строятся по приложению и URI; если {@code app} задан,
+     * в ответ попадают только посещения этого приложения.
+     */
+    TimeSeriesStats getTimeSeries(LocalDateTime start, LocalDateTime end, String app, List<String> uris,
+                                  TimeBuckets buckets, Boolean unique);
+
+    /**
+     * Оценивает относительную стоимость запроса статистики: дни периода (не меньше одного)
+     * × количество URI × {@link #UNIQUE_FACTOR} для уникальных посетителей. Запрос без фильтра URI
+     * или с шаблоном считается запросом по {@link #UNFILTERED_URIS} URI.
+     */
+    default long estimateCost(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique) {
+        long days = Math.max(1, ChronoUnit.DAYS.between(start, end) + 1);
+        long uriCount = uris == null || uris.isEmpty() || UriGrouping.hasPatterns(uris) ? UNFILTERED_URIS : uris.size();
+        return days * uriCount * (Boolean.TRUE.equals(unique) ? UNIQUE_FACTOR : 1);
+    }
+
+    /**
+     * Собирает ответ с временными рядами из рядов по приложениям ({@code series}: приложение — URI — ряд).
+     * Приложения идут по названию, а при фильтре {@code app} остается только оно, даже без посещений.
+     * Внутри приложения запрошенные URI идут в порядке запроса, в том числе без посещений,
+     * а без фильтра — все URI с посещениями по убыванию их суммы.
+     */
+    static TimeSeriesStats toTimeSeriesStats(Map<String, Map<String, long[]>> series, String app, List<String> uris,
+                                             TimeBuckets buckets) {
+        List<String> apps = app != null ? List.of(app) : series.keySet().stream().sorted().toList();
+        List<ViewTimeSeries> result = new ArrayList<>();
+        for (String appName : apps) {
+            Map<String, long[]> appSeries = series.getOrDefault(appName, Map.of());
+            List<String> order = uris != null && !uris.isEmpty()
+                    ? List.copyOf(new LinkedHashSet<>(uris))
+                    : appSeries.keySet().stream()
+                            .sorted(Comparator.comparingLong((String uri) -> -Arrays.stream(appSeries.get(uri)).sum()))
+                            .toList();
+            order.forEach(uri -> result.add(new ViewTimeSeries(appName, uri,
+                    appSeries.getOrDefault(uri, new long[buckets.count()]))));
+        }
+        return new TimeSeriesStats(buckets.origin().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")),
+                buckets.stepSeconds(), buckets.count(), result);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,351 @@
+package ru.practicum.service;
+
+import ru.practicum.model.AppUri;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.TimeSeriesStats;
+import ru.practicum.ViewStats;
+import ru.practicum.model.TimeBuckets;
+import ru.practicum.model.UriGrouping;
+import ru.practicum.repository.HitJdbcRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.SampledHitRepository;
+import ru.practicum.repository.VisitorBitmapRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Сервис статистики поверх PostgreSQL: посещения пишутся через буфер отложенной записи,
+ * запросы обслуживаются агрегатами, картами посетителей и скетчами.
+ * Используется, если не включен профиль {@code segments}.
+ */
+@Slf4j
+@Service
+@Profile("!segments")
+@RequiredArgsConstructor
+public class StatsServiceImpl implements StatsService {
+
+    /**
+     * Буфер отложенной записи посещений.
+     */
+    private final HitWriteBehindBuffer hitWriteBehindBuffer;
+
+    /**
+     * Репозиторий для подсчета по исходным посещениям.
+     */
+    private final HitJdbcRepository hitJdbcRepository;
+
+    /**
+     * Кэш словарей приложений и URI.
+     */
+    private final HitDictionary hitDictionary;
+
+    /**
+     * Репозиторий предагрегированных посещений.
+     */
+    private final RollupRepository rollupRepository;
+
+    /**
+     * Дневные карты уникальных посетителей.
+     */
+    private final VisitorBitmapIndex visitorBitmapIndex;
+
+    /**
+     * Часовые скетчи уникальных посетителей для приближенных запросов.
+     */
+    private final VisitorSketchIndex visitorSketchIndex;
+
+    /**
+     * Репозиторий исходных посетителей для точного подсчета без агрегатов.
+     */
+    private final VisitorBitmapRepository visitorBitmapRepository;
+
+    /**
+     * Холодный архив посещений старше срока хранения в таблице.
+     */
+    private final HitArchive hitArchive;
+
+    /**
+     * Параллельное выполнение запросов по отрезкам периода.
+     */
+    private final ChunkedQueryExecutor chunkedQueryExecutor;
+
+    /**
+     * Кэш результатов по выровненным корзинам агрегатов.
+     */
+    private final StatsResultCache statsResultCache;
+
+    /**
+     * Самые посещаемые URI в скользящих окнах.
+     */
+    private final TopUriTracker topUriTracker;
+
+    /**
+     * Временные ряды посещений по корзинам.
+     */
+    private final HitTimeSeries hitTimeSeries;
+
+    /**
+     * Превышения веса выборочно отправленных посещений.
+     */
+    private final SampledHitRepository sampledHitRepository;
+
+    /**
+     * Отвечать ли на запросы статистики из агрегатов.
+     */
+    @Value("${stats.rollup.enabled:true}")
+    private boolean rollupsEnabled;
+
+    /**
+     * Сохраняет информацию о посещении эндпоинта через буфер отложенной записи.
+     */
+    @Override
+    public EndpointHit saveHit(EndpointHit hit) {
+        hitWriteBehindBuffer.accept(List.of(hit));
+        topUriTracker.record(List.of(hit));
+        return hit;
+    }
+
+    /**
+     * Сохраняет пакет посещений через буфер отложенной записи.
+     */
+    @Override
+    public void saveHits(List<EndpointHit> hits) {
+        hitWriteBehindBuffer.accept(hits);
+        topUriTracker.record(hits);
+        log.debug("Принято на запись {} посещений", hits.size());
+    }
+
+    /**
+     * Получает статистику по посещениям за указанный период.
+     * Если {@code approximate} включен, уникальные посещения оцениваются по скетчам HyperLogLog,
+     * и в каждой записи указывается относительная погрешность; общее количество всегда точное.
+     * Чтение идет в одном снимке, чтобы агрегаты и водяной знак были согласованы между собой,
+     * а каталог архива — с таблицей посещений: посещения из архива добавляются к посещениям из таблицы.
+     * Шаблоны URI раскрываются по словарю URI (поиск по индексу префикса), после чего запрос идет
+     * по найденным URI так же, как по точному списку.
+     * К общему количеству добавляются превышения веса выборочно отправленных посещений, и записи,
+     * в которых есть такие посещения, отмечаются признаком {@code sampled}.
+     * Все источники читаются за один проход по всем приложениям фильтра и группируют результат
+     * по идентификаторам приложения и URI; названия подставляются из словарей в конце. Ключи агрегатов,
+     * карт посетителей и скетчей и индекс endpoint_hits начинаются с приложения, поэтому запрос
+     * одного приложения читает только его данные.
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, String app, List<String> uris,
+                                    Boolean unique, Boolean approximate, Boolean rollup) {
+        log.debug("Запрос статистики: период с {} по {}, приложение: {}, URIs: {}, уникальные: {}, " +
+                "приближенно: {}, по шаблонам: {}", start, end, app, uris, unique, approximate, rollup);
+
+        UriGrouping grouping = null;
+        if (UriGrouping.hasPatterns(uris)) {
+            UriGrouping expanded = UriGrouping.of(uris, hitDictionary.matchUris(UriGrouping.patterns(uris)));
+            if (expanded.keysByUri().isEmpty()) {
+                return List.of();
+            }
+            log.debug("Шаблоны URI раскрыты в {} URI", expanded.keysByUri().size());
+            uris = expanded.uris();
+            grouping = Boolean.TRUE.equals(rollup) ? expanded : null;
+        }
+
+        List<Integer> appIds = hitDictionary.appFilter(app);
+        List<Integer> uriIds = hitDictionary.uriFilter(uris);
+        if (appIds != null && appIds.isEmpty() || uriIds != null && uriIds.isEmpty()) {
+            return List.of();
+        }
+
+        // timestamp в PostgreSQL хранится с точностью до микросекунды
+        LocalDateTime endExclusive = end.plusNanos(1_000);
+        Map<AppUri, Long> sampled = sampledHitRepository.sumExtra(start, endExclusive, appIds, uriIds);
+        List<ViewStats> stats;
+        if (Boolean.TRUE.equals(unique) && Boolean.TRUE.equals(approximate) && rollupsEnabled) {
+            long watermark = rollupRepository.getWatermark(RollupRepository.SKETCHES_WATERMARK);
+            stats = toViewStats(visitorSketchIndex.estimateUnique(start, endExclusive, watermark,
+                    appIds, uriIds, grouping), HyperLogLog.RELATIVE_ERROR);
+            log.debug("Получена приближенная статистика по уникальным посещениям: {} записей", stats.size());
+        } else if (Boolean.TRUE.equals(unique) && rollupsEnabled) {
+            long watermark = rollupRepository.getWatermark(RollupRepository.VISITORS_WATERMARK);
+            stats = toViewStats(visitorBitmapIndex.countUnique(start, endExclusive, watermark,
+                    appIds, uriIds, grouping), null);
+            log.debug("Получена статистика по уникальным посещениям из карт посетителей: {} записей", stats.size());
+        } else if (Boolean.TRUE.equals(unique)) {
+            stats = toViewStats(getUniqueStatsFromHits(start, endExclusive, appIds, uriIds, grouping), null);
+            log.debug("Получена статистика по уникальным посещениям: {} записей", stats.size());
+        } else if (rollupsEnabled) {
+            stats = toViewStats(group(withSampledHits(getHitStatsFromRollups(start, endExclusive, appIds, uriIds),
+                    sampled), grouping), null);
+            log.debug("Получена общая статистика из агрегатов: {} записей", stats.size());
+        } else {
+            stats = toViewStats(group(withSampledHits(getHitStatsFromHits(start, endExclusive, appIds, uriIds),
+                    sampled), grouping), null);
+            log.debug("Получена общая статистика: {} записей", stats.size());
+        }
+        stats = markSampled(stats, group(sampled, grouping));
+
+        log.debug("Найдено {} записей статистики за указанный период", stats.size());
+        return stats;
+    }
+
+    /**
+     * Получает временные ряды посещений за один проход по агрегатам, картам посетителей,
+     * исходным и архивным посещениям в одном снимке базы.
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public TimeSeriesStats getTimeSeries(LocalDateTime start, LocalDateTime end, String app, List<String> uris,
+                                         TimeBuckets buckets, Boolean unique) {
+        LocalDateTime endExclusive = end.plusNanos(1_000);
+        Map<String, Map<String, long[]>> series = Boolean.TRUE.equals(unique)
+                ? hitTimeSeries.countUnique(start, endExclusive, app, uris, buckets)
+                : hitTimeSeries.countHits(start, endExclusive, app, uris, buckets);
+        log.debug("Получены временные ряды: {} приложений по {} корзин", series.size(), buckets.count());
+        return StatsService.toTimeSeriesStats(series, app, uris, buckets);
+    }
+
+    /**
+     * Самые посещаемые URI за последние минуты по скетчам Count-Min, обновляемым при приеме посещений.
+     */
+    @Override
+    public List<ViewStats> getTopStats(int windowMinutes, int k) {
+        return topUriTracker.top(windowMinutes, k);
+    }
+
+    /**
+     * Считает общую статистику по самым крупным выровненным корзинам агрегатов,
+     * досчитывая по исходным посещениям только неровные края и еще не агрегированный хвост.
+     * Суммы по участкам корзин берутся из кэша результатов.
+     */
+    private Map<AppUri, Long> getHitStatsFromRollups(LocalDateTime start, LocalDateTime endExclusive,
+                                                     List<Integer> appIds, List<Integer> uriIds) {
+        BucketPlan plan = BucketPlan.of(start, endExclusive);
+        long watermark = plan.hasBuckets() ? rollupRepository.getWatermark() : 0L;
+
+        Map<AppUri, Long> hits = hitJdbcRepository.countHits(start, endExclusive,
+                plan.coveredFrom(), plan.coveredTo(), watermark, appIds, uriIds);
+        hitArchive.countHits(start, endExclusive, plan.coveredFrom(), plan.coveredTo(), appIds, uriIds)
+                .forEach((key, count) -> hits.merge(key, count, Long::sum));
+        for (BucketPlan.Segment segment : plan.segments()) {
+            statsResultCache.get(RollupRepository.ROLLUPS_WATERMARK, segment.granularity().name(), appIds,
+                            segment.from(), segment.to(), uriIds, watermark,
+                            () -> Map.copyOf(rollupRepository.sumHits(segment.granularity(),
+                                    segment.from(), segment.to(), appIds, uriIds)))
+                    .forEach((key, count) -> hits.merge(key, count, Long::sum));
+        }
+        log.debug("Статистика собрана из {} участков агрегатов", plan.segments().size());
+        return hits;
+    }
+
+    /**
+     * Считает общую статистику по исходным и архивным посещениям, параллельно по отрезкам периода.
+     */
+    private Map<AppUri, Long> getHitStatsFromHits(LocalDateTime start, LocalDateTime endExclusive,
+                                                  List<Integer> appIds, List<Integer> uriIds) {
+        return chunkedQueryExecutor.execute(start, endExclusive, (from, to) -> {
+            Map<AppUri, Long> chunk = hitJdbcRepository.countHits(from, to, null, null, 0L, appIds, uriIds);
+            hitArchive.countHits(from, to, null, null, appIds, uriIds)
+                    .forEach((key, count) -> chunk.merge(key, count, Long::sum));
+            return chunk;
+        }, (left, right) -> {
+            right.forEach((key, count) -> left.merge(key, count, Long::sum));
+            return left;
+        });
+    }
+
+    /**
+     * Считает уникальных посетителей по исходным и архивным посещениям, параллельно по отрезкам периода.
+     * Отрезки возвращают множества адресов по приложениям и URI, которые затем объединяются,
+     * поэтому подсчет точный.
+     */
+    private Map<String, Map<String, Long>> getUniqueStatsFromHits(LocalDateTime start, LocalDateTime endExclusive,
+                                                                  List<Integer> appIds, List<Integer> uriIds,
+                                                                  UriGrouping grouping) {
+        Map<AppUri, Set<String>> visitors = chunkedQueryExecutor.execute(start, endExclusive, (from, to) -> {
+            Map<AppUri, Set<String>> chunk = new HashMap<>();
+            VisitorBitmapRepository.RawVisitorHandler collect = (appId, uriId, ip, ipId) ->
+                    chunk.computeIfAbsent(new AppUri(appId, uriId), key -> new HashSet<>()).add(ip);
+            visitorBitmapRepository.findRawVisitors(from, to, null, null, 0L, appIds, uriIds, collect);
+            hitArchive.findVisitors(from, to, null, null, appIds, uriIds, collect);
+            return chunk;
+        }, (left, right) -> {
+            right.forEach((key, ips) -> left.merge(key, ips, (a, b) -> {
+                a.addAll(b);
+                return a;
+            }));
+            return left;
+        });
+
+        Map<String, Map<String, Set<String>>> byApp = hitDictionary.byAppAndUri(visitors);
+        if (grouping != null) {
+            byApp = grouping.groupByApp(byApp, (a, b) -> {
+                Set<String> union = new HashSet<>(a);
+                union.addAll(b);
+                return union;
+            });
+        }
+
+        Map<String, Map<String, Long>> counts = new HashMap<>();
+        byApp.forEach((app, byUri) -> byUri.forEach((uri, ips) ->
+                counts.computeIfAbsent(app, key -> new HashMap<>()).put(uri, (long) ips.size())));
+        return counts;
+    }
+
+    /**
+     * Дополняет количества посещений превышениями веса выборочных посещений: каждое выборочное посещение
+     * уже учтено один раз, поэтому сумма равна сумме весов.
+     */
+    private static Map<AppUri, Long> withSampledHits(Map<AppUri, Long> hits, Map<AppUri, Long> sampled) {
+        if (sampled.isEmpty()) {
+            return hits;
+        }
+        Map<AppUri, Long> weighted = new HashMap<>(hits);
+        sampled.forEach((key, extra) -> weighted.merge(key, extra, Long::sum));
+        return weighted;
+    }
+
+    /**
+     * Отмечает записи, в которые вошли выборочно отправленные посещения.
+     */
+    private static List<ViewStats> markSampled(List<ViewStats> stats, Map<String, Map<String, Long>> sampled) {
+        if (sampled.isEmpty()) {
+            return stats;
+        }
+        return stats.stream()
+                .map(view -> sampled.getOrDefault(view.getApp(), Map.of()).containsKey(view.getUri())
+                        ? new ViewStats(view.getApp(), view.getUri(), view.getHits(), view.getRelativeError(), true)
+                        : view)
+                .toList();
+    }
+
+    /**
+     * Раскладывает количества по названиям приложений и URI и суммирует их по шаблонам,
+     * если результаты сводятся к шаблонам.
+     */
+    private Map<String, Map<String, Long>> group(Map<AppUri, Long> hits, UriGrouping grouping) {
+        Map<String, Map<String, Long>> byApp = hitDictionary.byAppAndUri(hits);
+        return grouping == null ? byApp : grouping.groupByApp(byApp, Long::sum);
+    }
+
+    /**
+     * Записи статистики по убыванию количества.
+     */
+    private static List<ViewStats> toViewStats(Map<String, Map<String, Long>> counts, Double relativeError) {
+        return counts.entrySet().stream()
+                .flatMap(byApp -> byApp.getValue().entrySet().stream()
+                        .map(entry -> new ViewStats(byApp.getKey(), entry.getKey(), entry.getValue(), relativeError)))
+                .sorted(Comparator.comparing(ViewStats::getHits, Comparator.reverseOrder()))
+                .toList();
+    }
+}
@@ -0,0 +1,258 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ViewStats;
+import ru.practicum.exception.BadRequestException;
+import ru.practicum.model.EndpointHit;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Самые посещаемые URI в скользящих окнах последних минут; URI разных приложений учитываются раздельно.
+ * Для каждой минуты последнего (самого длинного) окна хранится скетч Count-Min ее посещений,
+ * а для каждого окна — сумма скетчей его минут и ограниченный набор кандидатов с наибольшими
+ * оценками, упорядоченный от меньшей оценки к большей (наименьший кандидат вытесняется первым).
+ * Посещения учитываются при приеме; при смене минуты скетч выбывшей минуты вычитается из окна,
+ * и оценки кандидатов пересчитываются. Ответ берется из кандидатов и не зависит от количества посещений.
+ * Оценки не меньше точных значений. Состояние хранится в памяти экземпляра и после перезапуска
+ * накапливается заново.
+ */
+@Slf4j
+@Component
+public class TopUriTracker {
+    private static final Comparator<Candidate> BY_ESTIMATE = Comparator.comparingLong(Candidate::estimate)
+            .thenComparing(candidate -> candidate.key().app())
+            .thenComparing(candidate -> candidate.key().uri());
+
+    /**
+     * Учитываются ли посещения.
+     */
+    private final boolean enabled;
+
+    private final int depth;
+    private final int width;
+
+    /**
+     * Максимальное количество кандидатов окна и наибольшее допустимое k.
+     */
+    private final int capacity;
+
+    /**
+     * Скетчи минут по кругу: минута m хранится в ячейке m mod (длина самого длинного окна).
+     */
+    private final CountMinSketch[] minutes;
+
+    /**
+     * Окна по возрастанию длины.
+     */
+    private final Window[] windows;
+
+    /**
+     * Текущая минута (от начала эпохи) или {@link Long#MIN_VALUE}, пока посещений не было.
+     */
+    private long currentMinute = Long.MIN_VALUE;
+
+    public TopUriTracker(@Value("${stats.top.enabled:true}") boolean enabled,
+                         @Value("${stats.top.windows:5,15,60}") int[] windowMinutes,
+                         @Value("${stats.top.depth:4}") int depth,
+                         @Value("${stats.top.width:2048}") int width,
+                         @Value("${stats.top.capacity:1000}") int capacity) {
+        this.enabled = enabled;
+        this.depth = depth;
+        this.width = width;
+        this.capacity = capacity;
+        this.windows = Arrays.stream(windowMinutes)
+                .filter(length -> length > 0)
+                .distinct()
+                .sorted()
+                .mapToObj(length -> new Window(length, new CountMinSketch(depth, width)))
+                .toArray(Window[]::new);
+        if (windows.length == 0) {
+            throw new IllegalArgumentException("Не задано ни одного окна stats.top.windows");
+        }
+        this.minutes = new CountMinSketch[windows[windows.length - 1].length()];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = new CountMinSketch(depth, width);
+        }
+    }
+
+    /**
+     * Учитывает принятые посещения с их весами. Посещения старше самого длинного окна пропускаются,
+     * а посещения с меткой времени из будущего относятся к текущей минуте.
+     */
+    public void record(Iterable<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<KeyMinute, Long> counts = new HashMap<>();
+        for (EndpointHit hit : hits) {
+            counts.merge(new KeyMinute(new UriKey(hit.getApp(), hit.getUri()), epochMinute(hit.getTimestamp())),
+                    (long) hit.weightOrOne(), Long::sum);
+        }
+
+        synchronized (this) {
+            advance(epochMinute(LocalDateTime.now()));
+            counts.forEach((key, count) -> {
+                long minute = Math.min(key.minute(), currentMinute);
+                long age = currentMinute - minute;
+                if (age >= minutes.length) {
+                    return;
+                }
+                int[] indexes = key.key().indexes(depth, width);
+                minutes[slot(minute)].add(indexes, count);
+                for (Window window : windows) {
+                    if (age < window.length()) {
+                        window.sketch().add(indexes, count);
+                        window.offer(key.key(), window.sketch().estimate(indexes), capacity);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * До {@code k} самых посещаемых URI за последние {@code windowMinutes} минут по убыванию оценки
+     * вместе с их приложениями.
+     */
+    public synchronized List<ViewStats> top(int windowMinutes, int k) {
+        if (k > capacity) {
+            throw new BadRequestException("Параметр k не может быть больше " + capacity);
+        }
+        Window window = Arrays.stream(windows)
+                .filter(candidate -> candidate.length() == windowMinutes)
+                .findFirst()
+                .orElseThrow(() -> new BadRequestException("Окно " + windowMinutes + " мин. не поддерживается, " +
+                        "доступные окна: " + Arrays.stream(windows).map(w -> String.valueOf(w.length())).toList()));
+        if (enabled) {
+            advance(epochMinute(LocalDateTime.now()));
+        }
+
+        List<ViewStats> top = new ArrayList<>();
+        Iterator<Candidate> largestFirst = window.ordered().descendingIterator();
+        while (top.size() < k && largestFirst.hasNext()) {
+            Candidate candidate = largestFirst.next();
+            top.add(new ViewStats(candidate.key().app(), candidate.key().uri(), candidate.estimate()));
+        }
+        return top;
+    }
+
+    /**
+     * Сдвигает окна до минуты {@code now}: вычитает из каждого окна выбывшие минуты
+     * и пересчитывает оценки кандидатов.
+     */
+    private void advance(long now) {
+        if (now <= currentMinute) {
+            return;
+        }
+        if (currentMinute == Long.MIN_VALUE || now - currentMinute >= minutes.length) {
+            for (CountMinSketch minute : minutes) {
+                minute.clear();
+            }
+            for (Window window : windows) {
+                window.clear();
+            }
+            currentMinute = now;
+            return;
+        }
+        while (currentMinute < now) {
+            currentMinute++;
+            for (Window window : windows) {
+                window.sketch().subtract(minutes[slot(currentMinute - window.length())]);
+            }
+            // ячейка новой минуты освобождается последней: она же ячейка минуты, выбывшей из самого длинного окна
+            minutes[slot(currentMinute)].clear();
+        }
+        for (Window window : windows) {
+            window.refresh(depth, width);
+        }
+        log.trace("Окна самых посещаемых URI сдвинуты до минуты {}", currentMinute);
+    }
+
+    private int slot(long minute) {
+        return (int) Math.floorMod(minute, (long) minutes.length);
+    }
+
+    private static long epochMinute(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    /**
+     * URI приложения. В скетче хешируются оба значения через нулевой символ, которого нет в названиях и URI.
+     */
+    private record UriKey(String app, String uri) {
+
+        int[] indexes(int depth, int width) {
+            return CountMinSketch.indexes(app + '\u0000' + uri, depth, width);
+        }
+    }
+
+    private record KeyMinute(UriKey key, long minute) {
+    }
+
+    private record Candidate(UriKey key, long estimate) {
+    }
+
+    /**
+     * Окно последних {@code length} минут: сумма скетчей минут и кандидаты с оценками.
+     */
+    private record Window(int length, CountMinSketch sketch, Map<UriKey, Long> estimates, TreeSet<Candidate> ordered) {
+
+        Window(int length, CountMinSketch sketch) {
+            this(length, sketch, new HashMap<>(), new TreeSet<>(BY_ESTIMATE));
+        }
+
+        /**
+         * Обновляет оценку URI; новый URI вытесняет наименьшего кандидата, если набор заполнен.
+         */
+        void offer(UriKey key, long estimate, int capacity) {
+            Long previous = estimates.get(key);
+            if (previous != null) {
+                ordered.remove(new Candidate(key, previous));
+            } else if (estimates.size() >= capacity) {
+                Candidate smallest = ordered.first();
+                if (smallest.estimate() >= estimate) {
+                    return;
+                }
+                ordered.pollFirst();
+                estimates.remove(smallest.key());
+            }
+            estimates.put(key, estimate);
+            ordered.add(new Candidate(key, estimate));
+        }
+
+        /**
+         * Пересчитывает оценки кандидатов по скетчу окна, удаляя URI без посещений в окне.
+         */
+        void refresh(int depth, int width) {
+            ordered.clear();
+            Iterator<Map.Entry<UriKey, Long>> iterator = estimates.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<UriKey, Long> entry = iterator.next();
+                long estimate = sketch.estimate(entry.getKey().indexes(depth, width));
+                if (estimate <= 0) {
+                    iterator.remove();
+                } else {
+                    entry.setValue(estimate);
+                    ordered.add(new Candidate(entry.getKey(), estimate));
+                }
+            }
+        }
+
+        void clear() {
+            sketch.clear();
+            estimates.clear();
+            ordered.clear();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.model.UriGrouping;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.VisitorBitmapRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Точный подсчет уникальных посетителей по битовым картам Roaring.
+ * IP-адреса кодируются плотными целыми идентификаторами из словаря, а для каждой тройки (приложение, uri, день),
+ * заданной идентификаторами словарей, хранится сжатая битовая карта идентификаторов посетителей.
+ * Уникальные за период получаются объединением дневных карт, поэтому результат точный, а исходные посещения
+ * читаются только для неровных краев периода и еще не агрегированного хвоста.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VisitorBitmapIndex {
+    private final VisitorBitmapRepository visitorBitmapRepository;
+    private final HitDictionary hitDictionary;
+    private final HitArchive hitArchive;
+    private final ChunkedQueryExecutor chunkedQueryExecutor;
+    private final StatsResultCache statsResultCache;
+
+    /**
+     * Добавляет в дневные карты посетителей посещения из (afterId, upToId].
+     * Вызывается агрегатором под блокировкой водяного знака.
+     */
+    public void aggregate(long afterId, long upToId) {
+        visitorBitmapRepository.extendDictionary(afterId, upToId);
+
+        Map<DayKey, RoaringBitmap> changed = new HashMap<>();
+        visitorBitmapRepository.findVisitors(afterId, upToId, (appId, uriId, day, ipId) ->
+                changed.computeIfAbsent(new DayKey(appId, uriId, day), key -> new RoaringBitmap()).add(ipId));
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        List<Integer> appIds = new ArrayList<>(changed.size());
+        List<Integer> uriIds = new ArrayList<>(changed.size());
+        List<LocalDate> days = new ArrayList<>(changed.size());
+        changed.keySet().forEach(key -> {
+            appIds.add(key.appId());
+            uriIds.add(key.uriId());
+            days.add(key.day());
+        });
+        visitorBitmapRepository.findBitmaps(appIds, uriIds, days, (appId, uriId, day, visitors) ->
+                changed.get(new DayKey(appId, uriId, day)).or(deserialize(visitors)));
+
+        List<byte[]> bitmaps = new ArrayList<>(changed.size());
+        for (int i = 0; i < uriIds.size(); i++) {
+            bitmaps.add(serialize(changed.get(new DayKey(appIds.get(i), uriIds.get(i), days.get(i)))));
+        }
+        visitorBitmapRepository.saveBitmaps(appIds, uriIds, days, bitmaps);
+        log.debug("Обновлено {} дневных карт посетителей", bitmaps.size());
+    }
+
+    /**
+     * Считает уникальных посетителей в [start, endExclusive) по приложениям и URI за один проход по всем
+     * приложениям фильтра ({@code null} — все приложения): результат — приложение, URI и количество.
+     * Целые дни берутся из битовых карт, остальное — из исходных и архивных посещений; адреса,
+     * еще не попавшие в словарь, считаются отдельно по строковому значению.
+     * Если задана группировка, посетители URI одной группы объединяются и считаются один раз.
+     * Вызывается в той же транзакции, в которой прочитан водяной знак.
+     */
+    public Map<String, Map<String, Long>> countUnique(LocalDateTime start, LocalDateTime endExclusive,
+                                                      long watermark, List<Integer> appIds, List<Integer> uriIds,
+                                                      UriGrouping grouping) {
+        LocalDateTime coveredFrom = RollupGranularity.DAY.ceil(start);
+        LocalDateTime coveredTo = RollupGranularity.DAY.floor(endExclusive);
+        boolean hasDays = coveredFrom.isBefore(coveredTo);
+
+        Map<AppUri, RoaringBitmap> rawVisitors = new HashMap<>();
+        Map<AppUri, Set<String>> unknownIps = new HashMap<>();
+        VisitorBitmapRepository.RawVisitorHandler collect = (appId, uriId, ip, ipId) -> {
+            if (ipId > 0) {
+                rawVisitors.computeIfAbsent(new AppUri(appId, uriId), key -> new RoaringBitmap()).add(ipId);
+            } else {
+                unknownIps.computeIfAbsent(new AppUri(appId, uriId), key -> new HashSet<>()).add(ip);
+            }
+        };
+        visitorBitmapRepository.findRawVisitors(start, endExclusive,
+                hasDays ? coveredFrom : null, hasDays ? coveredTo : null, watermark, appIds, uriIds, collect);
+        hitArchive.findVisitors(start, endExclusive,
+                hasDays ? coveredFrom : null, hasDays ? coveredTo : null, appIds, uriIds, collect);
+
+        // целые дни объединяются параллельно по отрезкам, затем карты отрезков объединяются между собой;
+        // объединение за целые дни кэшируется и не изменяется, исходные посетители добавляются в копии
+        Map<AppUri, RoaringBitmap> days = !hasDays ? Map.of()
+                : statsResultCache.get(RollupRepository.VISITORS_WATERMARK, "days", appIds,
+                        coveredFrom, coveredTo, uriIds, watermark,
+                        () -> unionDays(appIds, coveredFrom, coveredTo, uriIds));
+        Map<AppUri, RoaringBitmap> visitors = new HashMap<>(days);
+        rawVisitors.forEach((key, raw) -> visitors.merge(key, raw, (cached, added) -> RoaringBitmap.or(cached, added)));
+
+        // карты группы объединяются в новые: кэшированные карты дней не изменяются
+        Map<String, Map<String, RoaringBitmap>> known = hitDictionary.byAppAndUri(visitors);
+        Map<String, Map<String, Set<String>>> unknown = hitDictionary.byAppAndUri(unknownIps);
+        if (grouping != null) {
+            known = grouping.groupByApp(known, (a, b) -> RoaringBitmap.or(a, b));
+            unknown = grouping.groupByApp(unknown, (a, b) -> {
+                Set<String> union = new HashSet<>(a);
+                union.addAll(b);
+                return union;
+            });
+        }
+
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        known.forEach((app, byUri) -> byUri.forEach((uri, bitmap) ->
+                result.computeIfAbsent(app, key -> new HashMap<>()).put(uri, bitmap.getLongCardinality())));
+        unknown.forEach((app, byUri) -> byUri.forEach((uri, ips) ->
+                result.computeIfAbsent(app, key -> new HashMap<>()).merge(uri, (long) ips.size(), Long::sum)));
+        return result;
+    }
+
+    /**
+     * Объединяет дневные карты за целые дни [from, to) по приложениям и URI, параллельно по отрезкам периода.
+     */
+    private Map<AppUri, RoaringBitmap> unionDays(List<Integer> appIds, LocalDateTime from, LocalDateTime to,
+                                                 List<Integer> uriIds) {
+        return chunkedQueryExecutor.execute(from, to, (chunkFrom, chunkTo) -> {
+            Map<AppUri, RoaringBitmap> chunk = new HashMap<>();
+            visitorBitmapRepository.findBitmaps(chunkFrom.toLocalDate(), chunkTo.toLocalDate(), appIds, uriIds,
+                    (appId, uriId, day, bitmap) -> chunk.computeIfAbsent(new AppUri(appId, uriId),
+                            key -> new RoaringBitmap()).or(deserialize(bitmap)));
+            return chunk;
+        }, (left, right) -> {
+            right.forEach((key, bitmap) -> left.merge(key, bitmap, (a, b) -> {
+                a.or(b);
+                return a;
+            }));
+            return left;
+        });
+    }
+
+    private static RoaringBitmap deserialize(byte[] bytes) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+
+    private static byte[] serialize(RoaringBitmap bitmap) {
+        bitmap.runOptimize();
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+        bitmap.serialize(buffer);
+        return buffer.array();
+    }
+
+    private record DayKey(int appId, int uriId, LocalDate day) {
+    }
+}
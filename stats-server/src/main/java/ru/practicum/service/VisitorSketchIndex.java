@@ -0,0 +1,139 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.model.UriGrouping;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.VisitorSketchRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Приближенный подсчет уникальных посетителей по часовым скетчам HyperLogLog.
+ * Для каждой тройки (приложение, uri, час) из идентификаторов словарей хранится скетч фиксированного размера,
+ * так что объем хранения не зависит от трафика, а уникальные за любой период получаются объединением
+ * скетчей его часов.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VisitorSketchIndex {
+    private final VisitorSketchRepository visitorSketchRepository;
+    private final HitDictionary hitDictionary;
+    private final HitArchive hitArchive;
+    private final ChunkedQueryExecutor chunkedQueryExecutor;
+    private final StatsResultCache statsResultCache;
+
+    /**
+     * Добавляет в часовые скетчи посещения из (afterId, upToId].
+     * Вызывается агрегатором под блокировкой водяного знака.
+     */
+    public void aggregate(long afterId, long upToId) {
+        Map<HourKey, HyperLogLog> changed = new HashMap<>();
+        visitorSketchRepository.findVisitors(afterId, upToId, (appId, uriId, hour, ip) ->
+                changed.computeIfAbsent(new HourKey(appId, uriId, hour), key -> new HyperLogLog()).add(ip));
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        List<Integer> appIds = new ArrayList<>(changed.size());
+        List<Integer> uriIds = new ArrayList<>(changed.size());
+        List<LocalDateTime> hours = new ArrayList<>(changed.size());
+        changed.keySet().forEach(key -> {
+            appIds.add(key.appId());
+            uriIds.add(key.uriId());
+            hours.add(key.hour());
+        });
+        visitorSketchRepository.findSketches(appIds, uriIds, hours, (appId, uriId, hour, registers) ->
+                changed.get(new HourKey(appId, uriId, hour)).merge(HyperLogLog.fromBytes(registers)));
+
+        List<byte[]> sketches = new ArrayList<>(changed.size());
+        for (int i = 0; i < uriIds.size(); i++) {
+            sketches.add(changed.get(new HourKey(appIds.get(i), uriIds.get(i), hours.get(i))).toBytes());
+        }
+        visitorSketchRepository.saveSketches(appIds, uriIds, hours, sketches);
+        log.debug("Обновлено {} часовых скетчей посетителей", sketches.size());
+    }
+
+    /**
+     * Оценивает количество уникальных посетителей в [start, endExclusive) по приложениям и URI за один проход
+     * по всем приложениям фильтра ({@code null} — все приложения): результат — приложение, URI и оценка.
+     * Целые часы берутся из скетчей, неровные края и еще не агрегированный хвост добавляются
+     * в скетч из исходных и архивных посещений. Если задана группировка, скетчи URI одной группы объединяются.
+     * Вызывается в той же транзакции, в которой прочитан водяной знак.
+     */
+    public Map<String, Map<String, Long>> estimateUnique(LocalDateTime start, LocalDateTime endExclusive,
+                                                         long watermark, List<Integer> appIds,
+                                                         List<Integer> uriIds, UriGrouping grouping) {
+        LocalDateTime coveredFrom = RollupGranularity.HOUR.ceil(start);
+        LocalDateTime coveredTo = RollupGranularity.HOUR.floor(endExclusive);
+        boolean hasHours = coveredFrom.isBefore(coveredTo);
+
+        Map<AppUri, HyperLogLog> rawVisitors = new HashMap<>();
+        visitorSketchRepository.findRawVisitors(start, endExclusive,
+                hasHours ? coveredFrom : null, hasHours ? coveredTo : null, watermark, appIds, uriIds,
+                (appId, uriId, ip) -> rawVisitors.computeIfAbsent(new AppUri(appId, uriId),
+                        key -> new HyperLogLog()).add(ip));
+        hitArchive.findVisitors(start, endExclusive, hasHours ? coveredFrom : null, hasHours ? coveredTo : null,
+                appIds, uriIds, (appId, uriId, ip, ipId) -> rawVisitors.computeIfAbsent(new AppUri(appId, uriId),
+                        key -> new HyperLogLog()).add(ip));
+
+        // объединение за целые часы кэшируется и не изменяется: исходные посетители сливаются в свои скетчи
+        Map<AppUri, HyperLogLog> hours = !hasHours ? Map.of()
+                : statsResultCache.get(RollupRepository.SKETCHES_WATERMARK, "hours", appIds,
+                        coveredFrom, coveredTo, uriIds, watermark,
+                        () -> unionHours(appIds, coveredFrom, coveredTo, uriIds));
+        Map<AppUri, HyperLogLog> visitors = new HashMap<>(hours);
+        rawVisitors.forEach((key, raw) -> {
+            HyperLogLog cached = hours.get(key);
+            if (cached != null) {
+                raw.merge(cached);
+            }
+            visitors.put(key, raw);
+        });
+
+        Map<String, Map<String, HyperLogLog>> byApp = hitDictionary.byAppAndUri(visitors);
+        if (grouping != null) {
+            byApp = grouping.groupByApp(byApp, (a, b) -> {
+                HyperLogLog union = HyperLogLog.fromBytes(a.toBytes());
+                union.merge(b);
+                return union;
+            });
+        }
+
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        byApp.forEach((app, byUri) -> byUri.forEach((uri, sketch) ->
+                result.computeIfAbsent(app, key -> new HashMap<>()).put(uri, sketch.estimate())));
+        return result;
+    }
+
+    /**
+     * Объединяет часовые скетчи за целые часы [from, to) по приложениям и URI, параллельно по отрезкам периода.
+     */
+    private Map<AppUri, HyperLogLog> unionHours(List<Integer> appIds, LocalDateTime from, LocalDateTime to,
+                                                List<Integer> uriIds) {
+        return chunkedQueryExecutor.execute(from, to, (chunkFrom, chunkTo) -> {
+            Map<AppUri, HyperLogLog> chunk = new HashMap<>();
+            visitorSketchRepository.findSketches(chunkFrom, chunkTo, appIds, uriIds, (appId, uriId, hour, registers) ->
+                    chunk.computeIfAbsent(new AppUri(appId, uriId), key -> new HyperLogLog())
+                            .merge(HyperLogLog.fromBytes(registers)));
+            return chunk;
+        }, (left, right) -> {
+            right.forEach((key, sketch) -> left.merge(key, sketch, (a, b) -> {
+                a.merge(b);
+                return a;
+            }));
+            return left;
+        });
+    }
+
+    private record HourKey(int appId, int uriId, LocalDateTime hour) {
+    }
+}
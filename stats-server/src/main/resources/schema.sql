@@ -1,14 +1,289 @@
--- Таблица для хранения статистики посещений эндпоинтов
-CREATE TABLE IF NOT EXISTS endpoint_hits (
-    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    app VARCHAR(255) NOT NULL,
-    uri VARCHAR(512) NOT NULL,
-    ip VARCHAR(45) NOT NULL,
-    timestamp TIMESTAMP WITHOUT TIME ZONE NOT NULL
+-- Словари приложений и URI: в посещениях хранятся только их целочисленные идентификаторы
+CREATE TABLE IF NOT EXISTS apps (
+    id SMALLSERIAL PRIMARY KEY,
+    app VARCHAR(255) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS uris (
+    id SERIAL PRIMARY KEY,
+    uri VARCHAR(512) NOT NULL UNIQUE
 );
 
--- Индексы для оптимизации запросов статистики
-CREATE INDEX IF NOT EXISTS idx_endpoint_hits_app ON endpoint_hits(app);
-CREATE INDEX IF NOT EXISTS idx_endpoint_hits_uri ON endpoint_hits(uri);
+-- Поиск URI по шаблону с постоянным началом, например /events/: varchar_pattern_ops сравнивает строки побайтно,
+-- поэтому LIKE с префиксом выполняется как диапазон по индексу при любой collation базы
+CREATE INDEX IF NOT EXISTS idx_uris_uri_pattern ON uris (uri varchar_pattern_ops);
+
+-- Разбор IP-адреса; для значений, которые не являются адресом, возвращает NULL
+CREATE OR REPLACE FUNCTION stats_try_inet(value TEXT) RETURNS INET LANGUAGE plpgsql IMMUTABLE AS '
+BEGIN
+    RETURN value::inet;
+EXCEPTION WHEN others THEN
+    RETURN NULL;
+END
+';
+
+-- Перевод таблицы посещений старого формата (строки app, uri, ip) в компактный:
+-- идентификаторы из словарей и IP типа inet. Нераспознанные IP сохраняются как 0.0.0.0
+CREATE OR REPLACE FUNCTION stats_compact_hits(hits REGCLASS) RETURNS VOID LANGUAGE plpgsql AS '
+BEGIN
+    EXECUTE format(''INSERT INTO apps (app) SELECT DISTINCT app FROM %s ON CONFLICT (app) DO NOTHING'', hits);
+    EXECUTE format(''INSERT INTO uris (uri) SELECT DISTINCT uri FROM %s ON CONFLICT (uri) DO NOTHING'', hits);
+    EXECUTE format(''ALTER TABLE %s ADD COLUMN app_id SMALLINT, ADD COLUMN uri_id INTEGER'', hits);
+    EXECUTE format(''UPDATE %s h SET app_id = a.id, uri_id = u.id FROM apps a, uris u ''
+            ''WHERE a.app = h.app AND u.uri = h.uri'', hits);
+    EXECUTE format(''ALTER TABLE %s ALTER COLUMN app_id SET NOT NULL, ALTER COLUMN uri_id SET NOT NULL, ''
+            ''ALTER COLUMN ip TYPE INET USING COALESCE(stats_try_inet(ip), ''''0.0.0.0''''), ''
+            ''DROP COLUMN app, DROP COLUMN uri'', hits);
+END
+';
+
+-- Переход со старой непартиционированной таблицы: она переименовывается и ниже подключается
+-- к партиционированной как раздел со всеми прежними данными (тела блоков в одинарных кавычках,
+-- потому что скрипт делится на выражения по точке с запятой)
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE relname = ''endpoint_hits'' AND relkind = ''r'') THEN
+        ALTER TABLE endpoint_hits RENAME TO endpoint_hits_legacy;
+        ALTER TABLE endpoint_hits_legacy RENAME CONSTRAINT endpoint_hits_pkey TO endpoint_hits_legacy_pkey;
+        DROP INDEX IF EXISTS idx_endpoint_hits_app;
+        DROP INDEX IF EXISTS idx_endpoint_hits_uri;
+        DROP INDEX IF EXISTS idx_endpoint_hits_timestamp;
+        DROP INDEX IF EXISTS idx_endpoint_hits_app_uri;
+        ALTER TABLE endpoint_hits_legacy ALTER COLUMN id DROP IDENTITY IF EXISTS;
+    END IF;
+END
+';
+
+-- Партиционированная таблица старого формата переводится в компактный на месте
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_name = ''endpoint_hits'' AND column_name = ''uri'') THEN
+        PERFORM stats_compact_hits(''endpoint_hits'');
+    END IF;
+END
+';
+
+-- Таблица для хранения статистики посещений эндпоинтов, партиционированная по времени посещения.
+-- Разделы по дням или неделям создает и удаляет по сроку хранения HitPartitionManager;
+-- посещения вне созданных разделов попадают в раздел по умолчанию.
+-- Столбцы фиксированной длины идут первыми, чтобы не терять место на выравнивании
+CREATE SEQUENCE IF NOT EXISTS endpoint_hits_id_seq;
+
+CREATE TABLE IF NOT EXISTS endpoint_hits (
+    id BIGINT NOT NULL DEFAULT nextval('endpoint_hits_id_seq'),
+    timestamp TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    uri_id INTEGER NOT NULL,
+    app_id SMALLINT NOT NULL,
+    ip INET NOT NULL,
+    PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+
+CREATE TABLE IF NOT EXISTS endpoint_hits_default PARTITION OF endpoint_hits DEFAULT;
+
+DO '
+DECLARE
+    max_id BIGINT;
+    upper_bound TIMESTAMP;
+    col RECORD;
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE relname = ''endpoint_hits_legacy'' AND NOT relispartition) THEN
+        IF EXISTS (SELECT 1 FROM information_schema.columns
+                WHERE table_name = ''endpoint_hits_legacy'' AND column_name = ''uri'') THEN
+            PERFORM stats_compact_hits(''endpoint_hits_legacy'');
+        END IF;
+        FOR col IN SELECT attname, format_type(atttypid, atttypmod) AS type FROM pg_attribute
+                WHERE attrelid = ''endpoint_hits''::regclass AND attnum > 0 AND NOT attisdropped LOOP
+            EXECUTE format(''ALTER TABLE endpoint_hits_legacy ALTER COLUMN %I TYPE %s'', col.attname, col.type);
+        END LOOP;
+        SELECT MAX(id) INTO max_id FROM endpoint_hits_legacy;
+        IF max_id IS NOT NULL THEN
+            PERFORM setval(''endpoint_hits_id_seq'', max_id);
+        END IF;
+        upper_bound := date_trunc(''day'', LOCALTIMESTAMP) + INTERVAL ''1 day'';
+        INSERT INTO endpoint_hits_default (id, timestamp, uri_id, app_id, ip)
+            SELECT id, timestamp, uri_id, app_id, ip FROM endpoint_hits_legacy WHERE timestamp >= upper_bound;
+        DELETE FROM endpoint_hits_legacy WHERE timestamp >= upper_bound;
+        ALTER TABLE endpoint_hits_legacy DROP CONSTRAINT IF EXISTS endpoint_hits_legacy_pkey;
+        EXECUTE format(''ALTER TABLE endpoint_hits ATTACH PARTITION endpoint_hits_legacy FOR VALUES FROM (MINVALUE) TO (%L)'',
+                upper_bound);
+    END IF;
+END
+';
+
+-- Индексы для оптимизации запросов статистики; создаются в каждом разделе
 CREATE INDEX IF NOT EXISTS idx_endpoint_hits_timestamp ON endpoint_hits(timestamp);
-CREATE INDEX IF NOT EXISTS idx_endpoint_hits_app_uri ON endpoint_hits(app, uri);
\ No newline at end of file
+CREATE INDEX IF NOT EXISTS idx_endpoint_hits_uri_timestamp ON endpoint_hits(uri_id, timestamp);
+-- Статистика одного приложения читает только его посещения: индекс начинается с приложения
+CREATE INDEX IF NOT EXISTS idx_endpoint_hits_app_uri_timestamp ON endpoint_hits(app_id, uri_id, timestamp);
+
+-- Посещения с раскрытыми значениями словарей для чтения через JPA
+CREATE OR REPLACE VIEW endpoint_hits_view AS
+SELECT h.id, a.app, u.uri, host(h.ip) AS ip, h.timestamp
+FROM endpoint_hits h
+JOIN apps a ON a.id = h.app_id
+JOIN uris u ON u.id = h.uri_id;
+
+-- Превышение веса выборочно отправленных посещений над единицей по приложению, URI и секунде: само посещение
+-- хранится в endpoint_hits один раз, а общее количество посещений дополняется суммой превышений за период
+CREATE TABLE IF NOT EXISTS hit_sample_weights (
+    app_id SMALLINT NOT NULL,
+    uri_id INTEGER NOT NULL,
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    extra BIGINT NOT NULL,
+    PRIMARY KEY (app_id, uri_id, bucket_start)
+);
+
+-- Превышения, записанные без приложения, относятся к первому приложению словаря
+DO '
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+            WHERE table_name = ''hit_sample_weights'' AND column_name = ''app_id'') THEN
+        ALTER TABLE hit_sample_weights ADD COLUMN app_id SMALLINT;
+        UPDATE hit_sample_weights SET app_id = COALESCE((SELECT id FROM apps ORDER BY id LIMIT 1), 0);
+        ALTER TABLE hit_sample_weights ALTER COLUMN app_id SET NOT NULL;
+        ALTER TABLE hit_sample_weights DROP CONSTRAINT hit_sample_weights_pkey;
+        ALTER TABLE hit_sample_weights ADD PRIMARY KEY (app_id, uri_id, bucket_start);
+    END IF;
+END
+';
+
+CREATE INDEX IF NOT EXISTS idx_hit_sample_weights_bucket ON hit_sample_weights(bucket_start);
+
+-- Предагрегированные посещения по приложениям, минутам, часам и дням. Приложение и URI хранятся
+-- идентификаторами словарей, как в endpoint_hits. Ключ начинается с приложения,
+-- поэтому строки одного приложения лежат в индексе рядом и статистика приложения не читает чужие
+CREATE TABLE IF NOT EXISTS hit_rollups_minute (
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits BIGINT NOT NULL,
+    uri_id INTEGER NOT NULL,
+    app_id SMALLINT NOT NULL,
+    PRIMARY KEY (app_id, uri_id, bucket_start)
+);
+
+CREATE TABLE IF NOT EXISTS hit_rollups_hour (
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits BIGINT NOT NULL,
+    uri_id INTEGER NOT NULL,
+    app_id SMALLINT NOT NULL,
+    PRIMARY KEY (app_id, uri_id, bucket_start)
+);
+
+CREATE TABLE IF NOT EXISTS hit_rollups_day (
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits BIGINT NOT NULL,
+    uri_id INTEGER NOT NULL,
+    app_id SMALLINT NOT NULL,
+    PRIMARY KEY (app_id, uri_id, bucket_start)
+);
+
+CREATE INDEX IF NOT EXISTS idx_hit_rollups_minute_bucket ON hit_rollups_minute(bucket_start);
+CREATE INDEX IF NOT EXISTS idx_hit_rollups_hour_bucket ON hit_rollups_hour(bucket_start);
+CREATE INDEX IF NOT EXISTS idx_hit_rollups_day_bucket ON hit_rollups_day(bucket_start);
+
+-- Водяной знак агрегации: идентификатор последнего учтенного посещения
+CREATE TABLE IF NOT EXISTS rollup_watermarks (
+    name VARCHAR(64) PRIMARY KEY,
+    last_hit_id BIGINT NOT NULL
+);
+
+INSERT INTO rollup_watermarks (name, last_hit_id) VALUES ('rollups', 0), ('visitors', 0), ('sketches', 0) ON CONFLICT (name) DO NOTHING;
+
+-- Словарь IP-адресов: плотные целые идентификаторы для битовых карт посетителей
+CREATE TABLE IF NOT EXISTS ip_dictionary (
+    id SERIAL PRIMARY KEY,
+    ip INET NOT NULL UNIQUE
+);
+
+-- Словарь, созданный со строковыми адресами, переводится на inet. Записи с нераспознанными адресами
+-- удаляются из словаря; их идентификаторы остаются в уже построенных картах посетителей
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+            WHERE table_name = ''ip_dictionary'' AND column_name = ''ip'' AND data_type <> ''inet'') THEN
+        DELETE FROM ip_dictionary WHERE stats_try_inet(ip) IS NULL;
+        ALTER TABLE ip_dictionary ALTER COLUMN ip TYPE INET USING ip::inet;
+    END IF;
+END
+';
+
+-- Битовые карты Roaring идентификаторов посетителей по приложению, URI и дню (идентификаторы словарей)
+CREATE TABLE IF NOT EXISTS uri_day_visitors (
+    day DATE NOT NULL,
+    uri_id INTEGER NOT NULL,
+    app_id SMALLINT NOT NULL,
+    visitors BYTEA NOT NULL,
+    PRIMARY KEY (app_id, uri_id, day)
+);
+
+CREATE INDEX IF NOT EXISTS idx_uri_day_visitors_day ON uri_day_visitors(day);
+
+-- Скетчи HyperLogLog уникальных посетителей по приложению, URI и часу (фиксированный размер регистров,
+-- приложение и URI — идентификаторы словарей)
+CREATE TABLE IF NOT EXISTS uri_hour_sketches (
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    uri_id INTEGER NOT NULL,
+    app_id SMALLINT NOT NULL,
+    registers BYTEA NOT NULL,
+    PRIMARY KEY (app_id, uri_id, bucket_start)
+);
+
+CREATE INDEX IF NOT EXISTS idx_uri_hour_sketches_bucket ON uri_hour_sketches(bucket_start);
+
+-- Перевод агрегатов, построенных без приложения, на ключ с приложением: прежние строки относятся
+-- к первому приложению словаря (до появления фильтра статистику писал один сервис)
+CREATE OR REPLACE FUNCTION stats_add_app_key(tbl TEXT, key_columns TEXT) RETURNS VOID LANGUAGE plpgsql AS '
+DECLARE
+    first_app TEXT;
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+            WHERE table_name = tbl AND column_name IN (''app'', ''app_id'')) THEN
+        first_app := COALESCE((SELECT app FROM apps ORDER BY id LIMIT 1), '''');
+        EXECUTE format(''ALTER TABLE %I ADD COLUMN app VARCHAR(255)'', tbl);
+        EXECUTE format(''UPDATE %I SET app = %L'', tbl, first_app);
+        EXECUTE format(''ALTER TABLE %I ALTER COLUMN app SET NOT NULL'', tbl);
+        EXECUTE format(''ALTER TABLE %I DROP CONSTRAINT %I'', tbl, tbl || ''_pkey'');
+        EXECUTE format(''ALTER TABLE %I ADD PRIMARY KEY (app, %s)'', tbl, key_columns);
+    END IF;
+END
+';
+
+-- Перевод агрегатов со строковыми приложением и URI на идентификаторы словарей. Значения, которых
+-- еще нет в словарях, добавляются в них, поэтому ни одна строка агрегатов не теряется
+CREATE OR REPLACE FUNCTION stats_key_by_ids(tbl TEXT, key_column TEXT) RETURNS VOID LANGUAGE plpgsql AS '
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_name = tbl AND column_name = ''uri'') THEN
+        EXECUTE format(''INSERT INTO apps (app) SELECT DISTINCT app FROM %I ON CONFLICT (app) DO NOTHING'', tbl);
+        EXECUTE format(''INSERT INTO uris (uri) SELECT DISTINCT uri FROM %I ON CONFLICT (uri) DO NOTHING'', tbl);
+        EXECUTE format(''ALTER TABLE %I ADD COLUMN app_id SMALLINT, ADD COLUMN uri_id INTEGER'', tbl);
+        EXECUTE format(''UPDATE %I t SET app_id = a.id, uri_id = u.id FROM apps a, uris u ''
+                ''WHERE a.app = t.app AND u.uri = t.uri'', tbl);
+        EXECUTE format(''ALTER TABLE %I DROP CONSTRAINT %I'', tbl, tbl || ''_pkey'');
+        EXECUTE format(''ALTER TABLE %I ALTER COLUMN app_id SET NOT NULL, ALTER COLUMN uri_id SET NOT NULL, ''
+                ''DROP COLUMN app, DROP COLUMN uri'', tbl);
+        EXECUTE format(''ALTER TABLE %I ADD PRIMARY KEY (app_id, uri_id, %I)'', tbl, key_column);
+    END IF;
+END
+';
+
+DO '
+BEGIN
+    PERFORM stats_add_app_key(''hit_rollups_minute'', ''uri, bucket_start'');
+    PERFORM stats_add_app_key(''hit_rollups_hour'', ''uri, bucket_start'');
+    PERFORM stats_add_app_key(''hit_rollups_day'', ''uri, bucket_start'');
+    PERFORM stats_add_app_key(''uri_day_visitors'', ''uri, day'');
+    PERFORM stats_add_app_key(''uri_hour_sketches'', ''uri, bucket_start'');
+    PERFORM stats_key_by_ids(''hit_rollups_minute'', ''bucket_start'');
+    PERFORM stats_key_by_ids(''hit_rollups_hour'', ''bucket_start'');
+    PERFORM stats_key_by_ids(''hit_rollups_day'', ''bucket_start'');
+    PERFORM stats_key_by_ids(''uri_day_visitors'', ''day'');
+    PERFORM stats_key_by_ids(''uri_hour_sketches'', ''bucket_start'');
+END
+';
+
+-- Каталог холодного архива: посещения этих дней перенесены из endpoint_hits в файлы архива.
+-- Запрос статистики читает каталог в своем снимке, поэтому видит день либо в таблице, либо в архиве
+CREATE TABLE IF NOT EXISTS hit_archive_days (
+    day DATE PRIMARY KEY,
+    file VARCHAR(255) NOT NULL,
+    hits BIGINT NOT NULL
+);
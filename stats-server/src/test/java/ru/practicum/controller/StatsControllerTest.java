@@ -0,0 +1,137 @@
+package ru.practicum.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.practicum.EndpointHitRequest;
+import ru.practicum.HitIdGenerator;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.service.HitDeduplicator;
+import ru.practicum.service.HitSamplingAdvisor;
+import ru.practicum.service.HitStreamIngestor;
+import ru.practicum.service.StatsQueryAdmission;
+import ru.practicum.service.StatsService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class StatsControllerTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HitIdGenerator idGenerator = new HitIdGenerator(1);
+    private final StatsService statsService = Mockito.mock(StatsService.class);
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        HitSamplingAdvisor hitSamplingAdvisor = Mockito.mock(HitSamplingAdvisor.class);
+        when(hitSamplingAdvisor.maxWeight()).thenReturn(100);
+        when(hitSamplingAdvisor.sampleRate()).thenReturn("1");
+        HitDeduplicator hitDeduplicator = new HitDeduplicator(new SimpleMeterRegistry(), true, 60, 60, 5,
+                10_000, 0.0001);
+        // пакет сохраняется частями по два посещения
+        HitStreamIngestor hitStreamIngestor = new HitStreamIngestor(statsService, hitDeduplicator, objectMapper,
+                hitSamplingAdvisor, 2);
+        StatsController controller = new StatsController(statsService, hitDeduplicator, hitStreamIngestor,
+                hitSamplingAdvisor, Mockito.mock(StatsQueryAdmission.class), objectMapper);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void batchIsSaved() throws Exception {
+        postHits(List.of(hit(idGenerator.next(), "/events/1", "10.0.0.1"),
+                hit(idGenerator.next(), "/events/2", "10.0.0.2"),
+                hit(idGenerator.next(), "/events/3", "2001:db8::1")))
+                .andExpect(jsonPath("$.accepted").value(3))
+                .andExpect(jsonPath("$.duplicates").value(0))
+                .andExpect(jsonPath("$.rejected").value(0));
+
+        assertThat(savedHits()).extracting(EndpointHit::getUri)
+                .containsExactly("/events/1", "/events/2", "/events/3");
+    }
+
+    @Test
+    void invalidHitIsSkippedAndOthersAreSaved() throws Exception {
+        postHits(List.of(hit(idGenerator.next(), "/events/1", "10.0.0.1"),
+                hit(idGenerator.next(), "/events/2", "not-an-ip"),
+                hit(idGenerator.next(), "/events/3", "10.0.0.3")))
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.rejected").value(1));
+
+        assertThat(savedHits()).extracting(EndpointHit::getUri).containsExactly("/events/1", "/events/3");
+    }
+
+    @Test
+    void duplicateIdsAreDropped() throws Exception {
+        long first = idGenerator.next();
+        long second = idGenerator.next();
+
+        postHits(List.of(hit(first, "/events/1", "10.0.0.1"),
+                hit(second, "/events/2", "10.0.0.2"),
+                hit(first, "/events/1", "10.0.0.1")))
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.duplicates").value(1));
+        // повторная отправка пакета после потерянного ответа
+        postHits(List.of(hit(second, "/events/2", "10.0.0.2")))
+                .andExpect(jsonPath("$.accepted").value(0))
+                .andExpect(jsonPath("$.duplicates").value(1));
+
+        assertThat(savedHits()).extracting(EndpointHit::getId).containsExactly(first, second);
+    }
+
+    @Test
+    void batchOfInvalidHitsSavesNothing() throws Exception {
+        postHits(List.of(hit(idGenerator.next(), "/events/1", "example.com")))
+                .andExpect(jsonPath("$.accepted").value(0))
+                .andExpect(jsonPath("$.rejected").value(1));
+
+        verify(statsService, never()).saveHits(anyList());
+    }
+
+    private ResultActions postHits(List<EndpointHitRequest> hits) throws Exception {
+        return mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hits)))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(EndpointHitRequest.SAMPLE_RATE_HEADER, "1"));
+    }
+
+    /**
+     * Все посещения, переданные на сохранение, по порядку.
+     */
+    @SuppressWarnings("unchecked")
+    private List<EndpointHit> savedHits() {
+        ArgumentCaptor<List<EndpointHit>> captor = ArgumentCaptor.forClass(List.class);
+        verify(statsService, Mockito.atLeastOnce()).saveHits(captor.capture());
+        List<EndpointHit> saved = new ArrayList<>();
+        captor.getAllValues().forEach(saved::addAll);
+        return saved;
+    }
+
+    private static EndpointHitRequest hit(long id, String uri, String ip) {
+        return EndpointHitRequest.builder()
+                .id(id)
+                .app("ewm-main-service")
+                .uri(uri)
+                .ip(ip)
+                .timestamp("2025-03-01 10:00:00")
+                .build();
+    }
+}
@@ -0,0 +1,46 @@
+package ru.practicum.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimeBucketsTest {
+
+    @Test
+    void originIsAlignedToStep() {
+        TimeBuckets buckets = TimeBuckets.of(LocalDateTime.of(2025, 3, 1, 10, 17, 5),
+                LocalDateTime.of(2025, 3, 1, 13, 0), 3600);
+
+        assertThat(buckets.origin()).isEqualTo(LocalDateTime.of(2025, 3, 1, 10, 0));
+        assertThat(buckets.count()).isEqualTo(3);
+    }
+
+    @Test
+    void endIsExclusive() {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+        assertThat(TimeBuckets.of(start, start.plusDays(2), 86_400).count()).isEqualTo(2);
+        assertThat(TimeBuckets.of(start, start.plusDays(2).plusSeconds(1), 86_400).count()).isEqualTo(3);
+    }
+
+    @Test
+    void indexCountsFromOrigin() {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 1, 0, 0);
+        TimeBuckets buckets = TimeBuckets.of(start, start.plusHours(1), 60);
+
+        assertThat(buckets.index(start)).isZero();
+        assertThat(buckets.index(start.plusSeconds(59))).isZero();
+        assertThat(buckets.index(start.plusMinutes(59).plusSeconds(30))).isEqualTo(59);
+        assertThat(buckets.index(start.minusSeconds(1))).isEqualTo(-1);
+    }
+
+    @Test
+    void stepIsMultipleOfRollupGranularity() {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+        assertThat(TimeBuckets.of(start, start.plusDays(1), 7200).isMultipleOf(RollupGranularity.HOUR)).isTrue();
+        assertThat(TimeBuckets.of(start, start.plusDays(1), 90).isMultipleOf(RollupGranularity.MINUTE)).isFalse();
+    }
+}
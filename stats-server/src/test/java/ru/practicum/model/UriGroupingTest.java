@@ -0,0 +1,55 @@
+package ru.practicum.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UriGroupingTest {
+
+    @Test
+    void detectsPatterns() {
+        assertThat(UriGrouping.hasPatterns(List.of("/events/1", "/events/*"))).isTrue();
+        assertThat(UriGrouping.hasPatterns(List.of("/events/1"))).isFalse();
+        assertThat(UriGrouping.hasPatterns(null)).isFalse();
+    }
+
+    @Test
+    void likeEscapesServiceCharacters() {
+        assertThat(UriGrouping.toLike("/a_b%c\\*")).isEqualTo("/a\\_b\\%c\\\\%");
+    }
+
+    @Test
+    void regexMatchesOnlyWildcards() {
+        assertThat(UriGrouping.toRegex("/events/*").matcher("/events/12").matches()).isTrue();
+        assertThat(UriGrouping.toRegex("/events/*").matcher("/compilations/1").matches()).isFalse();
+        assertThat(UriGrouping.toRegex("/a.b*").matcher("/axb").matches()).isFalse();
+        assertThat(UriGrouping.toRegex("/a.b*").matcher("/a.b/1").matches()).isTrue();
+    }
+
+    @Test
+    void sumsCountsUnderExactUriAndPattern() {
+        List<String> uris = List.of("/events/1", "/events/*");
+        UriGrouping grouping = UriGrouping.of(uris, Map.of("/events/*", List.of("/events/1", "/events/2")));
+
+        assertThat(grouping.uris()).containsExactly("/events/1", "/events/2");
+        assertThat(grouping.sum(Map.of("/events/1", 3L, "/events/2", 4L)))
+                .containsOnly(Map.entry("/events/1", 3L), Map.entry("/events/*", 7L));
+    }
+
+    @Test
+    void groupsEachAppSeparately() {
+        UriGrouping grouping = UriGrouping.of(List.of("/events/*"),
+                Map.of("/events/*", List.of("/events/1", "/events/2")));
+
+        Map<String, Map<String, Long>> grouped = grouping.groupByApp(Map.of(
+                "ewm", Map.of("/events/1", 1L, "/events/2", 2L),
+                "other", Map.of("/events/2", 5L)), Long::sum);
+
+        assertThat(grouped).containsOnly(
+                Map.entry("ewm", Map.of("/events/*", 3L)),
+                Map.entry("other", Map.of("/events/*", 5L)));
+    }
+}
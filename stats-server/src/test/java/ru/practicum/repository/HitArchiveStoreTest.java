@@ -0,0 +1,118 @@
+package ru.practicum.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.ArchivedHit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HitArchiveStoreTest {
+    private static final LocalDate DAY = LocalDate.of(2025, 3, 1);
+
+    @TempDir
+    Path directory;
+
+    private HitArchiveStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // маленькие группы: посещения одного URI попадают в несколько групп
+        store = new HitArchiveStore(directory, 3);
+        store.open();
+    }
+
+    @Test
+    void readsBackHitsWrittenInGroups() throws IOException {
+        List<ArchivedHit> hits = hits();
+        String file = write(hits);
+
+        List<ArchivedHit> read = new ArrayList<>();
+        try (HitArchiveStore.ArchiveReader reader = store.read(file)) {
+            reader.forEachRemaining(read::add);
+        }
+
+        assertThat(read).containsExactlyElementsOf(hits);
+    }
+
+    @Test
+    void countsHitsAcrossGroupsWithFilters() throws IOException {
+        String file = write(hits());
+        LocalDateTime dayStart = DAY.atStartOfDay();
+
+        Map<AppUri, Long> all = new HashMap<>();
+        store.countHits(file, dayStart, dayStart.plusDays(1), null, null, all);
+        assertThat(all).containsOnly(Map.entry(new AppUri(1, 1), 4L), Map.entry(new AppUri(2, 1), 1L),
+                Map.entry(new AppUri(1, 2), 2L), Map.entry(new AppUri(1, 5), 1L));
+
+        Map<AppUri, Long> filtered = new HashMap<>();
+        store.countHits(file, dayStart.plusHours(1), dayStart.plusHours(3), List.of(1), List.of(1, 5), filtered);
+        assertThat(filtered).containsOnly(Map.entry(new AppUri(1, 1), 2L));
+
+        Map<AppUri, Long> missing = new HashMap<>();
+        store.countHits(file, dayStart, dayStart.plusDays(1), null, List.of(3), missing);
+        assertThat(missing).isEmpty();
+    }
+
+    @Test
+    void rejectsHitsOutOfOrder() throws IOException {
+        try (HitArchiveStore.ArchiveWriter writer = store.create(DAY)) {
+            writer.add(hit(2, 2, 1, 0));
+
+            assertThatThrownBy(() -> writer.add(hit(1, 1, 1, 1))).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void unfinishedFileIsRemoved() throws IOException {
+        try (HitArchiveStore.ArchiveWriter writer = store.create(DAY)) {
+            writer.add(hit(1, 1, 1, 0));
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private String write(List<ArchivedHit> hits) throws IOException {
+        try (HitArchiveStore.ArchiveWriter writer = store.create(DAY)) {
+            for (ArchivedHit hit : hits) {
+                writer.add(hit);
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Посещения в порядке файла архива: URI, время, идентификатор.
+     */
+    private static List<ArchivedHit> hits() {
+        return List.of(
+                hit(10, 1, 1, 0),
+                hit(3, 1, 1, 1),
+                hit(7, 1, 2, 1),
+                hit(11, 1, 1, 2),
+                hit(4, 1, 1, 5),
+                hit(1, 2, 1, 0),
+                hit(12, 2, 1, 2),
+                hit(5, 5, 1, 23));
+    }
+
+    private static ArchivedHit hit(long id, int uriId, int appId, int hour) {
+        return new ArchivedHit(id, DAY.atStartOfDay().plusHours(hour).plusSeconds(id), uriId, appId,
+                "10.0.0." + id % 3, (int) (id % 3));
+    }
+}
@@ -0,0 +1,122 @@
+package ru.practicum.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.TimeBuckets;
+import ru.practicum.model.UriGrouping;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentHitStoreTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 10, 0);
+
+    @TempDir
+    Path directory;
+
+    private SegmentHitStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // маленькие сегменты: посещения попадают и в запечатанные, и в активный сегмент
+        store = new SegmentHitStore(directory, 4);
+        store.open();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    void countsHitsAndUniqueVisitorsPerApp() {
+        store.append(List.of(
+                hit("ewm", "/events/1", "10.0.0.1", 0),
+                hit("ewm", "/events/1", "10.0.0.1", 1),
+                hit("ewm", "/events/1", "10.0.0.2", 2),
+                hit("ewm", "/events/2", "10.0.0.1", 3),
+                hit("other", "/events/1", "10.0.0.3", 4),
+                hit("ewm", "/events/1", "10.0.0.3", 5)));
+        LocalDateTime end = START.plusHours(1);
+
+        assertThat(store.countHits(START, end, "ewm", List.of()))
+                .containsOnly(Map.entry("/events/1", 4L), Map.entry("/events/2", 1L));
+        assertThat(store.countUnique(START, end, "ewm", List.of(), null))
+                .containsOnly(Map.entry("/events/1", 3L), Map.entry("/events/2", 1L));
+        assertThat(store.countUnique(START, end, "other", List.of("/events/1"), null))
+                .containsOnly(Map.entry("/events/1", 1L));
+        assertThat(store.apps(null)).containsExactlyInAnyOrder("ewm", "other");
+        assertThat(store.apps("missing")).isEmpty();
+    }
+
+    @Test
+    void uniqueVisitorsOfGroupAreCountedOnce() {
+        store.append(List.of(
+                hit("ewm", "/events/1", "10.0.0.1", 0),
+                hit("ewm", "/events/2", "10.0.0.1", 1),
+                hit("ewm", "/events/2", "10.0.0.2", 2)));
+        List<String> uris = List.of("/events/*");
+        UriGrouping grouping = UriGrouping.of(uris, store.matchUris(uris));
+
+        assertThat(store.countUnique(START, START.plusHours(1), "ewm", grouping.uris(), grouping))
+                .containsOnly(Map.entry("/events/*", 2L));
+    }
+
+    @Test
+    void countsUniqueVisitorsByBucket() {
+        List<EndpointHit> hits = new ArrayList<>();
+        for (int minute = 0; minute < 3; minute++) {
+            for (int visitor = 0; visitor <= minute; visitor++) {
+                hits.add(hit("ewm", "/events/1", "10.0.0." + visitor, minute * 60));
+                hits.add(hit("ewm", "/events/1", "10.0.0." + visitor, minute * 60 + 30));
+            }
+        }
+        store.append(hits);
+        LocalDateTime end = START.plusMinutes(3);
+        TimeBuckets buckets = TimeBuckets.of(START, end, 60);
+
+        assertThat(store.countUniqueByBucket(START, end, "ewm", List.of(), buckets).get("/events/1"))
+                .containsExactly(1L, 2L, 3L);
+        assertThat(store.countHitsByBucket(START, end, "ewm", List.of(), buckets).get("/events/1"))
+                .containsExactly(2L, 4L, 6L);
+        assertThat(store.countUniqueByBucket(START, end, "other", List.of(), buckets)).isEmpty();
+    }
+
+    @Test
+    void hitsSurviveReopen() throws IOException {
+        store.append(List.of(
+                hit("ewm", "/events/1", "10.0.0.1", 0),
+                hit("ewm", "/events/1", "10.0.0.2", 1),
+                hit("ewm", "/events/1", "10.0.0.3", 2),
+                hit("ewm", "/events/1", "10.0.0.4", 3),
+                hit("ewm", "/events/1", "10.0.0.1", 4)));
+        store.close();
+
+        store = new SegmentHitStore(directory, 4);
+        store.open();
+
+        assertThat(store.countHits(START, START.plusHours(1), "ewm", List.of()))
+                .containsOnly(Map.entry("/events/1", 5L));
+        assertThat(store.countUnique(START, START.plusHours(1), "ewm", List.of(), null))
+                .containsOnly(Map.entry("/events/1", 4L));
+    }
+
+    private static EndpointHit hit(String app, String uri, String ip, int seconds) {
+        return EndpointHit.builder()
+                .app(app)
+                .uri(uri)
+                .ip(ip)
+                .timestamp(START.plusSeconds(seconds))
+                .weight(1)
+                .build();
+    }
+}
@@ -0,0 +1,51 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BloomFilterTest {
+
+    @Test
+    void putReportsRepeatedKeys() {
+        BloomFilter filter = new BloomFilter(1_000, 0.001);
+
+        assertThat(filter.put(42L)).isTrue();
+        assertThat(filter.put(42L)).isFalse();
+        assertThat(filter.put(43L)).isTrue();
+    }
+
+    @Test
+    void hasNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (long key = 0; key < 10_000; key++) {
+            filter.put(key);
+        }
+        for (long key = 0; key < 10_000; key++) {
+            assertThat(filter.put(key)).isFalse();
+        }
+    }
+
+    @Test
+    void falsePositiveRateStaysNearRequested() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (long key = 0; key < 10_000; key++) {
+            filter.put(key);
+        }
+        int falsePositives = 0;
+        for (long key = 1_000_000; key < 1_001_000; key++) {
+            if (!filter.put(key)) {
+                falsePositives++;
+            }
+        }
+        // проверяемые ключи тоже добавляются в фильтр, поэтому их немного и допускается запас над 1%
+        assertThat(falsePositives).isLessThan(30);
+    }
+
+    @Test
+    void sizeFollowsExpectedKeysAndRate() {
+        // ~9.6 бита на ключ при 1%
+        assertThat(new BloomFilter(100_000, 0.01).sizeInBytes()).isBetween(110_000L, 130_000L);
+        assertThat(new BloomFilter(1, 0.5).sizeInBytes()).isEqualTo(8L);
+    }
+}
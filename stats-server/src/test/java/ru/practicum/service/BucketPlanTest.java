@@ -0,0 +1,52 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.model.RollupGranularity;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BucketPlanTest {
+
+    @Test
+    void intervalShorterThanMinuteHasNoBuckets() {
+        BucketPlan plan = BucketPlan.of(LocalDateTime.of(2025, 3, 1, 10, 0, 10),
+                LocalDateTime.of(2025, 3, 1, 10, 0, 50));
+
+        assertThat(plan.hasBuckets()).isFalse();
+        assertThat(plan.segments()).isEmpty();
+    }
+
+    @Test
+    void middleIsCoveredByCoarsestBuckets() {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 1, 22, 30, 15);
+        LocalDateTime end = LocalDateTime.of(2025, 3, 4, 1, 45, 30);
+
+        BucketPlan plan = BucketPlan.of(start, end);
+
+        assertThat(plan.coveredFrom()).isEqualTo(LocalDateTime.of(2025, 3, 1, 22, 31));
+        assertThat(plan.coveredTo()).isEqualTo(LocalDateTime.of(2025, 3, 4, 1, 45));
+        assertThat(plan.segments()).containsExactly(
+                new BucketPlan.Segment(RollupGranularity.MINUTE,
+                        LocalDateTime.of(2025, 3, 1, 22, 31), LocalDateTime.of(2025, 3, 1, 23, 0)),
+                new BucketPlan.Segment(RollupGranularity.HOUR,
+                        LocalDateTime.of(2025, 3, 1, 23, 0), LocalDateTime.of(2025, 3, 2, 0, 0)),
+                new BucketPlan.Segment(RollupGranularity.DAY,
+                        LocalDateTime.of(2025, 3, 2, 0, 0), LocalDateTime.of(2025, 3, 4, 0, 0)),
+                new BucketPlan.Segment(RollupGranularity.HOUR,
+                        LocalDateTime.of(2025, 3, 4, 0, 0), LocalDateTime.of(2025, 3, 4, 1, 0)),
+                new BucketPlan.Segment(RollupGranularity.MINUTE,
+                        LocalDateTime.of(2025, 3, 4, 1, 0), LocalDateTime.of(2025, 3, 4, 1, 45)));
+    }
+
+    @Test
+    void alignedIntervalUsesSingleSegment() {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+        BucketPlan plan = BucketPlan.of(start, start.plusDays(7));
+
+        assertThat(plan.segments()).containsExactly(
+                new BucketPlan.Segment(RollupGranularity.DAY, start, start.plusDays(7)));
+    }
+}
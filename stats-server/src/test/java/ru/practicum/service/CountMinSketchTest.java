@@ -0,0 +1,77 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CountMinSketchTest {
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1024;
+
+    @Test
+    void indexesFallIntoOwnRows() {
+        int[] indexes = CountMinSketch.indexes("/events/1", DEPTH, WIDTH);
+
+        assertThat(indexes).hasSize(DEPTH);
+        for (int row = 0; row < DEPTH; row++) {
+            assertThat(indexes[row]).isBetween(row * WIDTH, (row + 1) * WIDTH - 1);
+        }
+        assertThat(CountMinSketch.indexes("/events/1", DEPTH, WIDTH)).isEqualTo(indexes);
+    }
+
+    @Test
+    void estimateNeverUnderestimates() {
+        CountMinSketch sketch = new CountMinSketch(DEPTH, WIDTH);
+        Map<String, Long> exact = new HashMap<>();
+        for (int i = 0; i < 5_000; i++) {
+            String uri = "/events/" + (i % 2_000);
+            long count = 1 + i % 3;
+            sketch.add(CountMinSketch.indexes(uri, DEPTH, WIDTH), count);
+            exact.merge(uri, count, Long::sum);
+        }
+
+        exact.forEach((uri, count) ->
+                assertThat(sketch.estimate(CountMinSketch.indexes(uri, DEPTH, WIDTH))).isGreaterThanOrEqualTo(count));
+    }
+
+    @Test
+    void heavyHitterIsEstimatedClosely() {
+        CountMinSketch sketch = new CountMinSketch(DEPTH, WIDTH);
+        int[] hot = CountMinSketch.indexes("/events/hot", DEPTH, WIDTH);
+        sketch.add(hot, 100_000);
+        for (int i = 0; i < 10_000; i++) {
+            sketch.add(CountMinSketch.indexes("/events/" + i, DEPTH, WIDTH), 1);
+        }
+
+        // ошибка ограничена долей общего количества: e / width * 10 000 ≈ 27
+        assertThat(sketch.estimate(hot)).isBetween(100_000L, 100_100L);
+    }
+
+    @Test
+    void subtractRemovesIncludedSketch() {
+        CountMinSketch total = new CountMinSketch(DEPTH, WIDTH);
+        CountMinSketch expired = new CountMinSketch(DEPTH, WIDTH);
+        int[] uri = CountMinSketch.indexes("/events/1", DEPTH, WIDTH);
+        total.add(uri, 10);
+        expired.add(uri, 4);
+        total.add(uri, 4);
+
+        total.subtract(expired);
+
+        assertThat(total.estimate(uri)).isEqualTo(10L);
+    }
+
+    @Test
+    void clearResetsCounters() {
+        CountMinSketch sketch = new CountMinSketch(DEPTH, WIDTH);
+        int[] uri = CountMinSketch.indexes("/events/1", DEPTH, WIDTH);
+        sketch.add(uri, 5);
+
+        sketch.clear();
+
+        assertThat(sketch.estimate(uri)).isZero();
+    }
+}
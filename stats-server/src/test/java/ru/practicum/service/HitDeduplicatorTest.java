@@ -0,0 +1,120 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.practicum.HitIdGenerator;
+import ru.practicum.exception.HitWritePendingException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HitDeduplicatorTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final HitIdGenerator idGenerator = new HitIdGenerator(1);
+
+    @Test
+    void repeatedIdIsRejected() {
+        HitDeduplicator deduplicator = deduplicator(true, 5);
+        long id = idGenerator.next();
+
+        assertThat(deduplicator.firstSeen(id)).isTrue();
+        assertThat(deduplicator.firstSeen(id)).isFalse();
+        assertThat(deduplicator.firstSeen(idGenerator.next())).isTrue();
+        assertThat(count("accepted")).isEqualTo(2.0);
+        assertThat(count("duplicate")).isEqualTo(1.0);
+    }
+
+    @Test
+    void idsWithoutTimeWindowAreAcceptedUnchecked() {
+        HitDeduplicator deduplicator = deduplicator(true, 5);
+        // идентификатор, созданный за сутки до текущего времени, лежит вне хранимых корзин
+        long stale = (System.currentTimeMillis() - 86_400_000L - HitIdGenerator.EPOCH) << 22;
+
+        assertThat(deduplicator.firstSeen(null)).isTrue();
+        assertThat(deduplicator.firstSeen(-1L)).isTrue();
+        assertThat(deduplicator.firstSeen(stale)).isTrue();
+        assertThat(deduplicator.firstSeen(stale)).isTrue();
+        assertThat(count("unchecked")).isEqualTo(4.0);
+    }
+
+    @Test
+    void disabledDeduplicatorAcceptsEverything() {
+        HitDeduplicator deduplicator = deduplicator(false, 5);
+        long id = idGenerator.next();
+
+        assertThat(deduplicator.firstSeen(id)).isTrue();
+        assertThat(deduplicator.firstSeen(id)).isTrue();
+    }
+
+    @Test
+    void forgottenIdIsAcceptedAgainInExactWindow() {
+        HitDeduplicator deduplicator = deduplicator(true, 5);
+        long id = idGenerator.next();
+        deduplicator.firstSeen(id);
+
+        deduplicator.forget(id);
+
+        assertThat(deduplicator.firstSeen(id)).isTrue();
+        assertThat(deduplicator.firstSeen(id)).isFalse();
+    }
+
+    @Test
+    void forgottenIdStaysRejectedWithoutExactWindow() {
+        HitDeduplicator deduplicator = deduplicator(true, 0);
+        long id = idGenerator.next();
+        deduplicator.firstSeen(id);
+
+        deduplicator.forget(id);
+
+        // фильтр Блума не удаляет значения
+        assertThat(deduplicator.firstSeen(id)).isFalse();
+    }
+
+    @Test
+    void unsavedIdsAreForgottenImmediately() {
+        HitDeduplicator deduplicator = deduplicator(true, 5);
+        long id = idGenerator.next();
+        deduplicator.firstSeen(id);
+
+        deduplicator.forgetUnsaved(List.of(id), new IllegalStateException("ошибка записи"));
+
+        assertThat(deduplicator.firstSeen(id)).isTrue();
+    }
+
+    @Test
+    void pendingIdsAreForgottenOnlyAfterFailedWrite() {
+        HitDeduplicator deduplicator = deduplicator(true, 5);
+        long id = idGenerator.next();
+        deduplicator.firstSeen(id);
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+
+        deduplicator.forgetUnsaved(List.of(id), new HitWritePendingException("в очереди", flushed));
+        assertThat(deduplicator.firstSeen(id)).isFalse();
+
+        flushed.completeExceptionally(new IllegalStateException("ошибка записи"));
+        assertThat(deduplicator.firstSeen(id)).isTrue();
+    }
+
+    @Test
+    void pendingIdsStayRejectedAfterSuccessfulWrite() {
+        HitDeduplicator deduplicator = deduplicator(true, 5);
+        long id = idGenerator.next();
+        deduplicator.firstSeen(id);
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+
+        deduplicator.forgetUnsaved(List.of(id), new HitWritePendingException("в очереди", flushed));
+        flushed.complete(null);
+
+        assertThat(deduplicator.firstSeen(id)).isFalse();
+    }
+
+    private HitDeduplicator deduplicator(boolean enabled, int exactBuckets) {
+        return new HitDeduplicator(meterRegistry, enabled, 60, 60, exactBuckets, 10_000, 0.0001);
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("stats.hits.dedup").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,72 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HyperLogLogTest {
+
+    @Test
+    void emptySketchEstimatesZero() {
+        assertThat(new HyperLogLog().estimate()).isZero();
+    }
+
+    @Test
+    void smallCardinalityIsNearlyExact() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            sketch.add("192.168.0." + i);
+            sketch.add("192.168.0." + i);
+        }
+        assertThat(sketch.estimate()).isBetween(98L, 102L);
+    }
+
+    @Test
+    void largeCardinalityStaysWithinError() {
+        HyperLogLog sketch = new HyperLogLog();
+        int distinct = 200_000;
+        for (int i = 0; i < distinct; i++) {
+            sketch.add("10." + (i >> 16) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff));
+        }
+        // три стандартные ошибки
+        double tolerance = 3 * HyperLogLog.RELATIVE_ERROR * distinct;
+        assertThat((double) sketch.estimate()).isBetween(distinct - tolerance, distinct + tolerance);
+    }
+
+    @Test
+    void mergeEstimatesUnion() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 30_000; i++) {
+            first.add("ip-" + i);
+        }
+        for (int i = 20_000; i < 50_000; i++) {
+            second.add("ip-" + i);
+        }
+
+        first.merge(second);
+
+        double tolerance = 3 * HyperLogLog.RELATIVE_ERROR * 50_000;
+        assertThat((double) first.estimate()).isBetween(50_000 - tolerance, 50_000 + tolerance);
+    }
+
+    @Test
+    void bytesRoundTrip() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 1_000; i++) {
+            sketch.add("ip-" + i);
+        }
+
+        HyperLogLog restored = HyperLogLog.fromBytes(sketch.toBytes());
+
+        assertThat(restored.estimate()).isEqualTo(sketch.estimate());
+        assertThat(restored.toBytes()).isEqualTo(sketch.toBytes());
+    }
+
+    @Test
+    void fromBytesRejectsWrongLength() {
+        assertThatThrownBy(() -> HyperLogLog.fromBytes(new byte[HyperLogLog.REGISTERS - 1]))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
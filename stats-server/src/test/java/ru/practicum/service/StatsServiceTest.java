@@ -0,0 +1,56 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import ru.practicum.TimeSeriesStats;
+import ru.practicum.ViewTimeSeries;
+import ru.practicum.model.TimeBuckets;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class StatsServiceTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+    private final StatsService service = Mockito.mock(StatsService.class, Mockito.CALLS_REAL_METHODS);
+
+    @Test
+    void costGrowsWithDaysUrisAndUniqueness() {
+        assertThat(service.estimateCost(START, START.plusHours(1), List.of("/events/1"), false)).isEqualTo(1);
+        assertThat(service.estimateCost(START, START.plusDays(6), List.of("/events/1", "/events/2"), false))
+                .isEqualTo(14);
+        assertThat(service.estimateCost(START, START.plusHours(1), List.of("/events/1"), true))
+                .isEqualTo(StatsService.UNIQUE_FACTOR);
+    }
+
+    @Test
+    void unfilteredOrPatternRequestIsExpensive() {
+        assertThat(service.estimateCost(START, START.plusHours(1), null, false))
+                .isEqualTo(StatsService.UNFILTERED_URIS);
+        assertThat(service.estimateCost(START, START.plusHours(1), List.of("/events/*"), false))
+                .isEqualTo(StatsService.UNFILTERED_URIS);
+    }
+
+    @Test
+    void timeSeriesAreKeptPerApp() {
+        TimeBuckets buckets = TimeBuckets.of(START, START.plusHours(2), 3600);
+        Map<String, Map<String, long[]>> series = Map.of(
+                "other", Map.of("/events/1", new long[]{1, 0}),
+                "ewm", Map.of("/events/1", new long[]{1, 1}, "/events/2", new long[]{5, 0}));
+
+        TimeSeriesStats all = StatsService.toTimeSeriesStats(series, null, List.of(), buckets);
+        TimeSeriesStats filtered = StatsService.toTimeSeriesStats(series, "missing", List.of("/events/1"), buckets);
+
+        assertThat(all.getSeries()).extracting(ViewTimeSeries::getApp, ViewTimeSeries::getUri)
+                .containsExactly(
+                        tuple("ewm", "/events/2"),
+                        tuple("ewm", "/events/1"),
+                        tuple("other", "/events/1"));
+        assertThat(filtered.getSeries()).singleElement()
+                .satisfies(item -> assertThat(item.getHits()).containsExactly(0L, 0L));
+    }
+}